@@ -0,0 +1,257 @@
+package com.insightpulse;
+
+import com.insightpulse.config.AgentConfig;
+import com.insightpulse.export.DiskSpool;
+import com.insightpulse.export.TraceExporter;
+import com.insightpulse.gc.GcMonitor;
+import com.insightpulse.instrument.ConnectionPoolTransformer;
+import com.insightpulse.instrument.ExecutorTransformer;
+import com.insightpulse.instrument.HibernateTransformer;
+import com.insightpulse.instrument.JdbcTransformer;
+import com.insightpulse.instrument.MethodPattern;
+import com.insightpulse.instrument.ModuleSupport;
+import com.insightpulse.instrument.Retransformation;
+import com.insightpulse.instrument.SpringMvcTransformer;
+import com.insightpulse.instrument.TimingTransformer;
+import com.insightpulse.jdbc.NPlusOneDetector;
+import com.insightpulse.jdbc.SqlFingerprints;
+import com.insightpulse.jfr.JfrBridge;
+import com.insightpulse.metrics.ConsoleReporter;
+import com.insightpulse.metrics.HistogramLayout;
+import com.insightpulse.metrics.Metrics;
+import com.insightpulse.profile.StackProfiler;
+import com.insightpulse.trace.ContextPropagation;
+import com.insightpulse.trace.Probe;
+import com.insightpulse.trace.RequestThreads;
+import com.insightpulse.trace.SpanAggregator;
+import com.insightpulse.trace.SpanDrainer;
+import com.insightpulse.trace.SpanRing;
+import com.insightpulse.trace.ThreadResources;
+import com.insightpulse.trace.TraceBuffer;
+import com.insightpulse.trace.TraceCollector;
+import com.insightpulse.trace.TraceSampler;
+import java.io.File;
+import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sets up the agent's subsystems and transformers; see {@link AgentConfig} for the options.
+ * <p>
+ * Loaded through {@link AgentMain} once the agent jar is on the bootstrap class path, so that
+ * every agent class exists exactly once and is visible to woven JDK classes.
+ */
+public final class Agent {
+
+  private static volatile boolean started;
+  private static TimingTransformer timing;
+
+  private Agent() {
+  }
+
+  /**
+   * Public because {@link AgentMain}, loaded by the application class loader, sits in a different
+   * runtime package.
+   */
+  public static synchronized void start(String agentArgs, Instrumentation instrumentation) {
+    if (started) {
+      AgentLog.warn("Agent already started, ignoring %s", agentArgs);
+      return;
+    }
+    try {
+      AgentConfig config = AgentConfig.parse(agentArgs);
+      AgentLog.setDebug(config.getBoolean(AgentConfig.DEBUG, AgentLog.isDebug()));
+
+      Metrics.configure(new HistogramLayout(config.getInt(AgentConfig.HISTOGRAM_DIGITS, 2),
+          TimeUnit.MILLISECONDS.toNanos(config.getLong(AgentConfig.HISTOGRAM_MAX_MILLIS, 60_000))));
+
+      SpanRing ring = new SpanRing(config.getInt(AgentConfig.RING_CAPACITY, 65536));
+      int sampleRate = config.getInt(AgentConfig.TRACE_SAMPLE_RATE, 100);
+      if (sampleRate > 0) {
+        TraceSampler.install(new TraceSampler(sampleRate, System.nanoTime()));
+      }
+      TraceBuffer.DropPolicy dropPolicy = TraceBuffer.DropPolicy.valueOf("DROP_"
+          + config.getString(AgentConfig.EXPORT_DROP_POLICY, "oldest").toUpperCase(Locale.ROOT));
+      TraceCollector traces = new TraceCollector(
+          TimeUnit.MILLISECONDS.toNanos(config.getLong(AgentConfig.TRACE_SLOW_MILLIS, 250)),
+          config.getInt(AgentConfig.TRACE_BUFFER_SIZE, 1024),
+          config.getInt(AgentConfig.TRACE_RETAINED_SIZE, 256), dropPolicy);
+      new SpanDrainer(ring, new SpanAggregator(traces), 1).start();
+      Probe.install(ring);
+      TraceExporter exporter = startExporter(config, traces, ring);
+
+      List<MethodPattern> patterns =
+          parsePatterns(config.getList(AgentConfig.INCLUDE, AgentConfig.DEFAULT_INCLUDE));
+      timing = new TimingTransformer(patterns);
+      instrumentation.addTransformer(timing, true);
+      if (config.getBoolean(AgentConfig.JDBC_ENABLED, true)) {
+        SqlFingerprints.configureCache(config.getInt(AgentConfig.SQL_CACHE_SIZE, 4096));
+        NPlusOneDetector.setThreshold(config.getInt(AgentConfig.N_PLUS_ONE_THRESHOLD, 5));
+        instrumentation.addTransformer(new JdbcTransformer(), true);
+      }
+      if (config.getBoolean(AgentConfig.WEB_ENABLED, true)) {
+        instrumentation.addTransformer(new SpringMvcTransformer(), true);
+      }
+      if (config.getBoolean(AgentConfig.POOL_ENABLED, true)) {
+        instrumentation.addTransformer(new ConnectionPoolTransformer(), true);
+      }
+      if (config.getBoolean(AgentConfig.HIBERNATE_ENABLED, true)) {
+        instrumentation.addTransformer(new HibernateTransformer(), true);
+      }
+      if (config.getBoolean(AgentConfig.EXECUTORS_ENABLED, true)) {
+        instrumentExecutors(instrumentation);
+      }
+
+      if (config.getBoolean(AgentConfig.RESOURCES_ENABLED, false) && !ThreadResources.enable()) {
+        AgentLog.warn("This JVM cannot measure per-thread CPU time and allocations,"
+            + " resource accounting stays off");
+      }
+      if (config.getBoolean(AgentConfig.GC_ENABLED, true)) {
+        // pauses only matter to requests, and the JVM's management beans are slow to set up
+        RequestThreads.whenFirstTraced(Agent::startGcMonitor);
+      }
+      if (config.getBoolean(AgentConfig.JFR_ENABLED, true)) {
+        RequestThreads.whenFirstTraced(() -> JfrBridge.start(ring,
+            TimeUnit.MILLISECONDS.toNanos(config.getLong(AgentConfig.JFR_THRESHOLD_MILLIS, 10)),
+            config.getInt(AgentConfig.JFR_ALLOCATION_SAMPLES, 100)));
+      }
+      if (config.getBoolean(AgentConfig.PROFILER_ENABLED, false)) {
+        // nothing to sample before the first request
+        RequestThreads.whenFirstTraced(() -> startProfiler(config));
+      }
+
+      long interval = config.getLong(AgentConfig.REPORT_INTERVAL_SECONDS, 60);
+      if (interval > 0) {
+        new ConsoleReporter(traces, exporter).start(interval);
+      }
+      started = true;
+      AgentLog.info("InsightPulse agent started, instrumenting %s", patterns);
+    } catch (Throwable t) {
+      // a broken agent must never prevent the application from starting
+      AgentLog.error("InsightPulse agent failed to start", t);
+    }
+  }
+
+  /**
+   * Entry point of the Attach API. The first attach starts the agent and retransforms the
+   * classes the application loaded before; later ones add and remove timed patterns.
+   */
+  public static synchronized void attach(String agentArgs, Instrumentation instrumentation) {
+    if (!started) {
+      start(agentArgs, instrumentation);
+      if (started) {
+        int retransformed = Retransformation.retransform(instrumentation,
+            type -> timing.isTarget(type) || JdbcTransformer.TARGETS.contains(type.getName())
+                || SpringMvcTransformer.TARGETS.contains(type.getName())
+                || ConnectionPoolTransformer.TARGETS.contains(type.getName())
+                || HibernateTransformer.TARGETS.contains(type.getName()));
+        AgentLog.info("Attached, %d loaded classes instrumented", retransformed);
+      }
+      return;
+    }
+    try {
+      AgentConfig config = AgentConfig.parse(agentArgs);
+      List<MethodPattern> added = parsePatterns(config.getList(AgentConfig.INSTRUMENT_ADD, null));
+      List<MethodPattern> removed =
+          parsePatterns(config.getList(AgentConfig.INSTRUMENT_REMOVE, null));
+      int retransformed = timing.update(instrumentation, added, removed);
+      AgentLog.info("Added %s, removed %s: %d classes retransformed, instrumenting %s", added,
+          removed, retransformed, timing.patterns());
+    } catch (Throwable t) {
+      AgentLog.error("Failed to change instrumentation to " + agentArgs, t);
+    }
+  }
+
+  private static List<MethodPattern> parsePatterns(List<String> patterns) {
+    List<MethodPattern> parsed = new ArrayList<>();
+    for (String pattern : patterns) {
+      parsed.add(MethodPattern.parse(pattern));
+    }
+    return parsed;
+  }
+
+  /**
+   * Starts exporting to the configured collector, if any.
+   */
+  private static TraceExporter startExporter(AgentConfig config, TraceCollector traces,
+      SpanRing ring) throws Exception {
+    String address = config.getString(AgentConfig.EXPORT_ADDRESS, null);
+    if (address == null) {
+      return null;
+    }
+    int colon = address.lastIndexOf(':');
+    if (colon <= 0) {
+      throw new IllegalArgumentException("Invalid " + AgentConfig.EXPORT_ADDRESS + ", expected"
+          + " host:port: " + address);
+    }
+    String name = config.getString(AgentConfig.AGENT_NAME,
+        ManagementFactory.getRuntimeMXBean().getName());
+    TraceExporter exporter = new TraceExporter(address.substring(0, colon),
+        Integer.parseInt(address.substring(colon + 1)), name, traces, ring,
+        config.getInt(AgentConfig.EXPORT_BATCH_BYTES, 64 * 1024),
+        config.getLong(AgentConfig.EXPORT_BATCH_MILLIS, 1000),
+        TimeUnit.SECONDS.toMillis(config.getLong(AgentConfig.EXPORT_METRICS_INTERVAL_SECONDS, 10)),
+        openSpool(config, name));
+    exporter.start();
+    return exporter;
+  }
+
+  /**
+   * The exporter's spool, named after the agent so that instances on one host keep apart; opened
+   * by the exporter once the collector is first unreachable.
+   */
+  private static DiskSpool openSpool(AgentConfig config, String agentName) {
+    int megabytes = config.getInt(AgentConfig.EXPORT_SPOOL_MB, 64);
+    if (megabytes <= 0) {
+      return null;
+    }
+    File file = new File(config.getString(AgentConfig.EXPORT_SPOOL_DIRECTORY,
+        "insightpulse-spool"), agentName.replaceAll("[^A-Za-z0-9._-]", "_") + ".spool");
+    try {
+      return DiskSpool.deferred(file, megabytes << 20);
+    } catch (IllegalArgumentException e) {
+      AgentLog.warn("Cannot spool to %s, telemetry is dropped while the collector is down: %s",
+          file, e);
+      return null;
+    }
+  }
+
+  private static void startGcMonitor() {
+    if (!new GcMonitor().start()) {
+      AgentLog.warn("This JVM sends no GC notifications, GC pauses are not monitored");
+    }
+  }
+
+  private static void startProfiler(AgentConfig config) {
+    StackProfiler.Mode mode = StackProfiler.Mode.valueOf(
+        config.getString(AgentConfig.PROFILER_MODE, "wall").toUpperCase(Locale.ROOT));
+    // 49 rather than 50 so that sampling does not run in lockstep with periodic work
+    int hz = config.getInt(AgentConfig.PROFILER_HZ, 49);
+    File directory = new File(config.getString(AgentConfig.PROFILER_DIRECTORY,
+        "insightpulse-profiles"));
+    StackProfiler profiler = new StackProfiler(hz, mode,
+        config.getInt(AgentConfig.PROFILER_MAX_DEPTH, 256), directory,
+        config.getLong(AgentConfig.PROFILER_EXPORT_INTERVAL_SECONDS, 60));
+    profiler.start();
+    AgentLog.info("Profiling %s time of requests at %d Hz into %s",
+        profiler.mode().name().toLowerCase(Locale.ROOT), profiler.hz(),
+        directory.getAbsolutePath());
+  }
+
+  private static void instrumentExecutors(Instrumentation instrumentation) {
+    if (Agent.class.getClassLoader() != null) {
+      AgentLog.warn("Agent is not on the bootstrap class path, executors stay uninstrumented");
+      return;
+    }
+    if (!ModuleSupport.addReads(instrumentation, Object.class, ContextPropagation.class)) {
+      AgentLog.warn("java.base cannot read the agent module, executors stay uninstrumented");
+      return;
+    }
+    instrumentation.addTransformer(new ExecutorTransformer(), true);
+    Retransformation.retransform(instrumentation,
+        type -> ExecutorTransformer.TARGETS.contains(type.getName()));
+  }
+}
@@ -0,0 +1,55 @@
+package com.insightpulse;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Minimal stderr logger for the agent.
+ * <p>
+ * The agent must not depend on the application's logging framework, which may not even be loaded
+ * yet when {@code premain} runs. Never call this from an instrumented hot path.
+ */
+public final class AgentLog {
+
+  private static volatile boolean debug = Boolean.getBoolean("insightpulse.debug");
+
+  private AgentLog() {
+  }
+
+  public static void setDebug(boolean enabled) {
+    debug = enabled;
+  }
+
+  public static boolean isDebug() {
+    return debug;
+  }
+
+  public static void debug(String format, Object... args) {
+    if (debug) {
+      write("DEBUG", format, args, null);
+    }
+  }
+
+  public static void info(String format, Object... args) {
+    write("INFO", format, args, null);
+  }
+
+  public static void warn(String format, Object... args) {
+    write("WARN", format, args, null);
+  }
+
+  public static void error(String message, Throwable t) {
+    write("ERROR", message, new Object[0], t);
+  }
+
+  private static void write(String level, String format, Object[] args, Throwable t) {
+    String time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date());
+    String message = args.length == 0 ? format : String.format(format, args);
+    synchronized (System.err) {
+      System.err.println(time + " [insightpulse] " + level + " " + message);
+      if (t != null) {
+        t.printStackTrace(System.err);
+      }
+    }
+  }
+}
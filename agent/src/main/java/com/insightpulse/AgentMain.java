@@ -1,11 +1,59 @@
 package com.insightpulse;
 
+import java.io.File;
+import java.lang.instrument.Instrumentation;
+import java.util.jar.JarFile;
+
 /**
- * AgentMain
+ * Java agent entry point.
+ * <p>
+ * Attach at startup with {@code -javaagent:agent.jar[=options]} ({@link #premain}) or to a running
+ * JVM through the Attach API ({@link #agentmain}).
+ * <p>
+ * Woven JDK classes such as {@code ThreadPoolExecutor} can only link against classes of the
+ * bootstrap class loader, so before anything else the agent jar is appended to the bootstrap
+ * search path. Every loader delegates to the bootstrap loader first, so all agent classes touched
+ * from here on, starting with {@link Agent}, are then loaded there; this class must not reference
+ * any other agent class directly.
  */
 public class AgentMain {
 
-  public static void main(String[] args) {
-    System.out.println("Hello World!");
+  public static void premain(String agentArgs, Instrumentation instrumentation) {
+    addToBootstrapPath(instrumentation);
+    Agent.start(agentArgs, instrumentation);
+  }
+
+  /**
+   * Attaches to a running JVM, or changes what a running agent times; see {@link AttachMain}.
+   */
+  public static void agentmain(String agentArgs, Instrumentation instrumentation) {
+    addToBootstrapPath(instrumentation);
+    Agent.attach(agentArgs, instrumentation);
+  }
+
+  private static void addToBootstrapPath(Instrumentation instrumentation) {
+    try {
+      File jar = new File(AgentMain.class.getProtectionDomain().getCodeSource().getLocation()
+          .toURI());
+      if (jar.isFile() && AgentMain.class.getClassLoader() != null && !onBootstrapPath()) {
+        instrumentation.appendToBootstrapClassLoaderSearch(new JarFile(jar));
+      }
+    } catch (Throwable t) {
+      // still usable for application classes, just not for JDK ones
+      System.err.println("[insightpulse] Could not add agent jar to the bootstrap class path: "
+          + t);
+    }
+  }
+
+  /**
+   * Whether an earlier attach already put the agent jar there.
+   */
+  private static boolean onBootstrapPath() {
+    try {
+      Class.forName("com.insightpulse.Agent", false, null);
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
   }
 }
@@ -0,0 +1,63 @@
+package com.insightpulse;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+
+/**
+ * Command line client that loads the agent into a running JVM through the Attach API:
+ * {@code java -jar agent.jar <pid> [options]}, or without arguments to list the JVMs on this host.
+ * <p>
+ * The first attach starts the agent with the given options, exactly like {@code -javaagent}.
+ * Attaching again changes what is timed without a restart, e.g.
+ * {@code instrument.add=com.example.petclinic.repository.VisitRepository#findByPetId} while
+ * investigating and {@code instrument.remove=...} afterwards; see {@code AgentConfig}.
+ * <p>
+ * Runs in its own JVM, so like {@link AgentMain} it references no other agent class. The Attach
+ * API is used reflectively: it is the {@code jdk.attach} module from Java 9 on, and
+ * {@code lib/tools.jar} of a JDK before that.
+ */
+public class AttachMain {
+
+  private static final String VIRTUAL_MACHINE = "com.sun.tools.attach.VirtualMachine";
+
+  public static void main(String[] args) throws Exception {
+    Class<?> vmClass = attachApi();
+    if (args.length == 0) {
+      System.out.println("Usage: java -jar agent.jar <pid> [key=value;key=value]");
+      for (Object descriptor : (List<?>) vmClass.getMethod("list").invoke(null)) {
+        System.out.println(invoke(descriptor, "id") + "\t" + invoke(descriptor, "displayName"));
+      }
+      return;
+    }
+    String jar = new File(AttachMain.class.getProtectionDomain().getCodeSource().getLocation()
+        .toURI()).getAbsolutePath();
+    Object vm = vmClass.getMethod("attach", String.class).invoke(null, args[0]);
+    try {
+      vmClass.getMethod("loadAgent", String.class, String.class)
+          .invoke(vm, jar, args.length > 1 ? args[1] : "");
+    } finally {
+      vmClass.getMethod("detach").invoke(vm);
+    }
+    System.out.println("Loaded " + jar + " into " + args[0]);
+  }
+
+  private static Class<?> attachApi() throws Exception {
+    try {
+      return Class.forName(VIRTUAL_MACHINE);
+    } catch (ClassNotFoundException e) {
+      File tools = new File(System.getProperty("java.home"), "../lib/tools.jar");
+      if (!tools.isFile()) {
+        throw new IllegalStateException("The Attach API needs a JDK, not a JRE", e);
+      }
+      ClassLoader loader = new URLClassLoader(new URL[]{tools.toURI().toURL()},
+          AttachMain.class.getClassLoader());
+      return Class.forName(VIRTUAL_MACHINE, true, loader);
+    }
+  }
+
+  private static Object invoke(Object target, String name) throws Exception {
+    return target.getClass().getMethod(name).invoke(target);
+  }
+}
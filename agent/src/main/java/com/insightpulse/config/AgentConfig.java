@@ -0,0 +1,250 @@
+package com.insightpulse.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Agent settings.
+ * <p>
+ * Options come from the {@code -javaagent:agent.jar=key=value;key=value} argument string and fall
+ * back to {@code -Dinsightpulse.<key>} system properties. List values are comma separated.
+ */
+public final class AgentConfig {
+
+  public static final String PROPERTY_PREFIX = "insightpulse.";
+
+  /**
+   * Classes (and optionally methods) to time, e.g. {@code com.example.*RestController#get*}.
+   */
+  public static final String INCLUDE = "include";
+  /**
+   * Patterns to start timing, when attaching to a JVM the agent already runs in.
+   */
+  public static final String INSTRUMENT_ADD = "instrument.add";
+  /**
+   * Patterns to stop timing, when attaching to a JVM the agent already runs in; their classes get
+   * back their original bytecode unless other patterns still match them.
+   */
+  public static final String INSTRUMENT_REMOVE = "instrument.remove";
+  public static final String REPORT_INTERVAL_SECONDS = "report.interval";
+  /**
+   * Slots in the span ring; rounded up to a power of two.
+   */
+  public static final String RING_CAPACITY = "ring.capacity";
+  /**
+   * Significant decimal digits kept by latency histograms (1-5).
+   */
+  public static final String HISTOGRAM_DIGITS = "histogram.digits";
+  /**
+   * Latencies above this are clamped into the histograms' last bucket.
+   */
+  public static final String HISTOGRAM_MAX_MILLIS = "histogram.max.millis";
+  public static final String DEBUG = "debug";
+  /**
+   * Whether to instrument the PostgreSQL JDBC driver.
+   */
+  public static final String JDBC_ENABLED = "jdbc.enabled";
+  /**
+   * Traces per second recorded in full by the head sampler; 0 records every trace.
+   */
+  public static final String TRACE_SAMPLE_RATE = "trace.sample.rate";
+  /**
+   * Unsampled traces slower than this and than their route's p99 are retained anyway.
+   */
+  public static final String TRACE_SLOW_MILLIS = "trace.slow.millis";
+  /**
+   * Sampled traces buffered for export.
+   */
+  public static final String TRACE_BUFFER_SIZE = "trace.buffer.size";
+  /**
+   * Slow or failed unsampled traces buffered for export.
+   */
+  public static final String TRACE_RETAINED_SIZE = "trace.retained.size";
+  /**
+   * Collector to export retained traces and metrics to, as {@code host:port}; nothing is exported
+   * if unset.
+   */
+  public static final String EXPORT_ADDRESS = "export.address";
+  /**
+   * Encoded bytes after which a batch is sent.
+   */
+  public static final String EXPORT_BATCH_BYTES = "export.batch.bytes";
+  /**
+   * Longest time a batch waits for more traces before it is sent.
+   */
+  public static final String EXPORT_BATCH_MILLIS = "export.batch.millis";
+  /**
+   * {@code oldest} or {@code newest}: which traces to drop when the collector cannot keep up.
+   */
+  public static final String EXPORT_DROP_POLICY = "export.drop.policy";
+  public static final String EXPORT_METRICS_INTERVAL_SECONDS = "export.metrics.interval";
+  /**
+   * Directory of the file batches are spooled to while the collector is unreachable.
+   */
+  public static final String EXPORT_SPOOL_DIRECTORY = "export.spool.dir";
+  /**
+   * Size of the spool file in MB; 0 disables spooling.
+   */
+  public static final String EXPORT_SPOOL_MB = "export.spool.mb";
+  /**
+   * Name the agent reports itself under; defaults to {@code pid@host}.
+   */
+  public static final String AGENT_NAME = "agent.name";
+  /**
+   * Whether to trace Spring MVC requests by route template.
+   */
+  public static final String WEB_ENABLED = "web.enabled";
+  /**
+   * Whether trace context follows tasks into JDK executors and {@code CompletableFuture}s.
+   */
+  public static final String EXECUTORS_ENABLED = "executors.enabled";
+  /**
+   * Whether to charge each request with the CPU time and bytes allocated by its thread.
+   */
+  public static final String RESOURCES_ENABLED = "resources.enabled";
+  /**
+   * Whether to sample the stacks of request threads into per-route flame graphs.
+   */
+  public static final String PROFILER_ENABLED = "profiler.enabled";
+  /**
+   * Whether to time GC pauses, measure allocation and promotion rates and charge traces with the
+   * pauses they overlapped.
+   */
+  public static final String GC_ENABLED = "gc.enabled";
+  /**
+   * Whether to stream JFR events into spans on Java 17 and later.
+   */
+  public static final String JFR_ENABLED = "jfr.enabled";
+  /**
+   * Monitor waits, socket reads and safepoints shorter than this many milliseconds are not
+   * streamed.
+   */
+  public static final String JFR_THRESHOLD_MILLIS = "jfr.threshold";
+  /**
+   * Allocation samples JFR takes per second.
+   */
+  public static final String JFR_ALLOCATION_SAMPLES = "jfr.allocation.samples";
+  /**
+   * Whether to time HikariCP connection waits and holds and charge holds to the Spring
+   * transactional methods that acquired the connections.
+   */
+  public static final String POOL_ENABLED = "pool.enabled";
+  /**
+   * Whether to count the Hibernate entities and collections each request loads and time its
+   * flushes.
+   */
+  public static final String HIBERNATE_ENABLED = "hibernate.enabled";
+  /**
+   * Stack samples per second, 10-100.
+   */
+  public static final String PROFILER_HZ = "profiler.hz";
+  /**
+   * {@code wall} to profile elapsed time, {@code cpu} to profile only time spent on a CPU.
+   */
+  public static final String PROFILER_MODE = "profiler.mode";
+  /**
+   * Frames kept per sampled stack, counted from the innermost one.
+   */
+  public static final String PROFILER_MAX_DEPTH = "profiler.max.depth";
+  /**
+   * Directory the folded stacks and flame graphs are written to.
+   */
+  public static final String PROFILER_DIRECTORY = "profiler.dir";
+  public static final String PROFILER_EXPORT_INTERVAL_SECONDS = "profiler.export.interval";
+  /**
+   * Entries per level of the raw SQL to fingerprint cache.
+   */
+  public static final String SQL_CACHE_SIZE = "sql.cache.size";
+  /**
+   * Executions of one SQL fingerprint within a request above which it is reported as N+1.
+   */
+  public static final String N_PLUS_ONE_THRESHOLD = "nplusone.threshold";
+
+  public static final String DEFAULT_INCLUDE =
+      "com.example.petclinic.service.ClinicService,"
+          + "com.example.petclinic.rest.controller.*RestController";
+
+  private final Map<String, String> options;
+
+  private AgentConfig(Map<String, String> options) {
+    this.options = options;
+  }
+
+  public static AgentConfig parse(String agentArgs) {
+    Map<String, String> options = new HashMap<>();
+    if (agentArgs != null) {
+      for (String pair : agentArgs.split(";")) {
+        int eq = pair.indexOf('=');
+        if (eq <= 0) {
+          continue;
+        }
+        options.put(pair.substring(0, eq).trim(), pair.substring(eq + 1).trim());
+      }
+    }
+    return new AgentConfig(options);
+  }
+
+  public static AgentConfig empty() {
+    return new AgentConfig(new HashMap<String, String>());
+  }
+
+  public String getString(String key, String defaultValue) {
+    String value = options.get(key);
+    if (value == null) {
+      value = System.getProperty(PROPERTY_PREFIX + key);
+    }
+    return value == null || value.isEmpty() ? defaultValue : value;
+  }
+
+  public int getInt(String key, int defaultValue) {
+    String value = getString(key, null);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid integer for " + key + ": " + value, e);
+    }
+  }
+
+  public long getLong(String key, long defaultValue) {
+    String value = getString(key, null);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid long for " + key + ": " + value, e);
+    }
+  }
+
+  public boolean getBoolean(String key, boolean defaultValue) {
+    String value = getString(key, null);
+    return value == null ? defaultValue : Boolean.parseBoolean(value);
+  }
+
+  public List<String> getList(String key, String defaultValue) {
+    String value = getString(key, defaultValue);
+    if (value == null) {
+      return Collections.emptyList();
+    }
+    List<String> result = new ArrayList<>();
+    for (String item : value.split(",")) {
+      String trimmed = item.trim();
+      if (!trimmed.isEmpty()) {
+        result.add(trimmed);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "AgentConfig" + options;
+  }
+}
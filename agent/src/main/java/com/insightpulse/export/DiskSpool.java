@@ -0,0 +1,336 @@
+package com.insightpulse.export;
+
+import com.insightpulse.AgentLog;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+/**
+ * Bounded queue of encoded batches in a memory-mapped ring file, holding what the exporter could
+ * not send while the collector was unreachable.
+ * <p>
+ * Batches are appended at the tail and replayed from the head, in order. When a new batch does
+ * not fit, the oldest ones are overwritten and counted, so the file never grows beyond its
+ * capacity. A batch never wraps around the end of the ring; the space it does not fit into is
+ * skipped. The head and tail live in the file's header, so batches spooled before a restart are
+ * replayed after it; a process crash loses nothing the page cache already has. The file is
+ * allocated in full when it is created, so that a full disk fails here rather than as a fault on
+ * a mapped page later; a {@link #deferred} spool does so on its first append, off the
+ * application's startup path.
+ * <p>
+ * Used by the exporter's thread only: appending never waits for the disk beyond a page fault.
+ * Not thread-safe.
+ */
+public final class DiskSpool implements Closeable {
+
+  private static final int MAGIC = 0x49505350; // "IPSP"
+  private static final int VERSION = 1;
+  private static final int HEADER = 32;
+  private static final int HEAD_OFFSET = 16;
+  private static final int TAIL_OFFSET = 24;
+  /** Batch length and number of traces in it. */
+  private static final int RECORD_HEADER = 8;
+  /** Length marking the rest of the ring as skipped. */
+  private static final int PAD = -1;
+
+  private final File file;
+  private final int capacity;
+  private final boolean deferred;
+  private RandomAccessFile raf;
+  private FileLock lock;
+  private MappedByteBuffer map;
+  /** Whether a deferred spool looked for a file left over. */
+  private boolean probed;
+  private boolean failed;
+  private long head;
+  private long tail;
+
+  private volatile long droppedBatches;
+  private volatile long droppedTraces;
+  private volatile long rejected;
+
+  /**
+   * Opens the spool in {@code file}, creating it if necessary; a spool of another capacity is
+   * discarded.
+   *
+   * @throws IOException if the file cannot be allocated or another process uses it
+   */
+  public DiskSpool(File file, int capacity) throws IOException {
+    this(file, capacity, false);
+    open();
+  }
+
+  private DiskSpool(File file, int capacity, boolean deferred) {
+    if (capacity < 4096 || capacity > Integer.MAX_VALUE - HEADER) {
+      throw new IllegalArgumentException("Spool capacity out of range: " + capacity);
+    }
+    this.file = file;
+    this.capacity = capacity;
+    this.deferred = deferred;
+  }
+
+  /**
+   * A spool in {@code file} that is opened only once it is needed: on the first append, or on
+   * the first read if the file is left over from a previous run. A process whose collector never
+   * goes down thus never allocates the file. If opening fails, the failure is logged and the
+   * spool stays empty, rejecting every batch.
+   */
+  public static DiskSpool deferred(File file, int capacity) {
+    return new DiskSpool(file, capacity, true);
+  }
+
+  private void open() throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Cannot create " + parent);
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      FileLock lock = tryLock(raf.getChannel());
+      if (lock == null) {
+        throw new IOException(file + " is in use by another spool");
+      }
+      boolean fresh = raf.length() != HEADER + (long) capacity;
+      if (fresh) {
+        allocate(raf.getChannel(), HEADER + (long) capacity);
+      }
+      map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0L, HEADER + (long) capacity);
+      if (fresh || !recover()) {
+        map.putInt(0, MAGIC);
+        map.putInt(4, VERSION);
+        map.putLong(8, capacity);
+        head = 0L;
+        tail = 0L;
+        store();
+      }
+      this.raf = raf;
+      this.lock = lock;
+    } catch (IOException | RuntimeException e) {
+      map = null;
+      raf.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Opens a deferred spool if it is not yet.
+   *
+   * @param create whether to create the file, rather than only open one left over
+   * @return false if there is no spool to use
+   */
+  private boolean ensureOpen(boolean create) {
+    if (map != null) {
+      return true;
+    }
+    if (!deferred || failed || !create && probed) {
+      return false;
+    }
+    // nobody else creates the file: once it is missing, reads need not look again
+    probed = true;
+    if (!create && !file.isFile()) {
+      return false;
+    }
+    try {
+      open();
+      return true;
+    } catch (IOException | RuntimeException e) {
+      failed = true;
+      AgentLog.warn("Cannot spool to %s, telemetry is dropped while the collector is down: %s",
+          file, e);
+      return false;
+    }
+  }
+
+  /**
+   * Appends a batch, overwriting the oldest ones if it does not fit.
+   *
+   * @param traces traces in the batch, for the counts
+   * @return false if the batch is larger than a quarter of the spool, or the spool could not be
+   *     opened, and it was not kept
+   */
+  public boolean append(ByteBuffer batch, int traces) {
+    int needed = RECORD_HEADER + batch.remaining();
+    if (needed == RECORD_HEADER) {
+      return true;
+    }
+    if (needed > capacity / 4 || !ensureOpen(true)) {
+      rejected++;
+      return false;
+    }
+    int offset = (int) (tail % capacity);
+    long position = capacity - offset < needed ? tail + capacity - offset : tail;
+    while (position + needed - head > capacity) {
+      int length = skipPadding() ? 0 : map.getInt(HEADER + (int) (head % capacity));
+      if (length > 0) {
+        droppedTraces += map.getInt(HEADER + (int) (head % capacity) + 4);
+        droppedBatches++;
+        head += RECORD_HEADER + length;
+      }
+    }
+    if (position != tail && capacity - offset >= RECORD_HEADER) {
+      map.putInt(HEADER + offset, PAD);
+    }
+    int at = HEADER + (int) (position % capacity);
+    map.putInt(at, batch.remaining());
+    map.putInt(at + 4, traces);
+    ByteBuffer target = map.duplicate();
+    target.position(at + RECORD_HEADER);
+    target.put(batch.duplicate());
+    tail = position + needed;
+    store();
+    return true;
+  }
+
+  public boolean isEmpty() {
+    if (!ensureOpen(false)) {
+      return true;
+    }
+    skipPadding();
+    return head == tail;
+  }
+
+  /**
+   * The oldest batch, or {@code null} if the spool is empty; valid until the next append or
+   * remove.
+   */
+  public ByteBuffer peek() {
+    if (isEmpty()) {
+      return null;
+    }
+    int at = HEADER + (int) (head % capacity);
+    ByteBuffer batch = map.duplicate();
+    batch.limit(at + RECORD_HEADER + map.getInt(at)).position(at + RECORD_HEADER);
+    return batch.slice();
+  }
+
+  /**
+   * Traces in the oldest batch, 0 if the spool is empty.
+   */
+  public int peekTraces() {
+    return isEmpty() ? 0 : map.getInt(HEADER + (int) (head % capacity) + 4);
+  }
+
+  /**
+   * Removes the oldest batch, once it was sent.
+   */
+  public void remove() {
+    if (!isEmpty()) {
+      head += RECORD_HEADER + map.getInt(HEADER + (int) (head % capacity));
+      store();
+    }
+  }
+
+  /**
+   * Bytes of spooled batches, including what wasted space they are waiting behind.
+   */
+  public long usedBytes() {
+    return tail - head;
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+
+  /**
+   * Batches overwritten before they could be replayed.
+   */
+  public long droppedBatches() {
+    return droppedBatches;
+  }
+
+  public long droppedTraces() {
+    return droppedTraces;
+  }
+
+  /**
+   * Batches too large to spool, or lost because the spool could not be opened.
+   */
+  public long rejected() {
+    return rejected;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (map == null) {
+      return;
+    }
+    try {
+      lock.release();
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Moves the head past a skipped end of the ring.
+   *
+   * @return true if there was one
+   */
+  private boolean skipPadding() {
+    if (head == tail) {
+      return false;
+    }
+    int offset = (int) (head % capacity);
+    if (capacity - offset >= RECORD_HEADER && map.getInt(HEADER + offset) != PAD) {
+      return false;
+    }
+    head += capacity - offset;
+    store();
+    return true;
+  }
+
+  /**
+   * Restores the head and tail of a spool written before; false if they make no sense.
+   */
+  private boolean recover() {
+    if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION || map.getLong(8) != capacity) {
+      AgentLog.warn("Discarding spool %s of another version or size", file);
+      return false;
+    }
+    head = map.getLong(HEAD_OFFSET);
+    tail = map.getLong(TAIL_OFFSET);
+    if (head < 0L || tail < head || tail - head > capacity) {
+      AgentLog.warn("Discarding corrupt spool %s", file);
+      return false;
+    }
+    if (head != tail) {
+      AgentLog.info("Spool %s holds %d KB to replay", file, (tail - head) / 1024);
+    }
+    return true;
+  }
+
+  private void store() {
+    map.putLong(HEAD_OFFSET, head);
+    map.putLong(TAIL_OFFSET, tail);
+  }
+
+  private static FileLock tryLock(FileChannel channel) throws IOException {
+    try {
+      return channel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      // held by this process
+      return null;
+    }
+  }
+
+  /**
+   * Writes the whole file rather than extending it sparsely.
+   */
+  private static void allocate(FileChannel channel, long length) throws IOException {
+    channel.truncate(0L);
+    ByteBuffer zeros = ByteBuffer.allocate(1 << 16);
+    for (long position = 0L; position < length; position += zeros.capacity()) {
+      zeros.clear();
+      zeros.limit((int) Math.min(zeros.capacity(), length - position));
+      while (zeros.hasRemaining()) {
+        channel.write(zeros, position + zeros.position());
+      }
+    }
+  }
+}
@@ -0,0 +1,509 @@
+package com.insightpulse.export;
+
+import com.insightpulse.AgentLog;
+import com.insightpulse.metrics.Counter;
+import com.insightpulse.metrics.CounterTable;
+import com.insightpulse.metrics.Histogram;
+import com.insightpulse.metrics.Metrics;
+import com.insightpulse.metrics.Timer;
+import com.insightpulse.metrics.TimerTable;
+import com.insightpulse.trace.CompletedTrace;
+import com.insightpulse.trace.SpanRing;
+import com.insightpulse.trace.TraceBuffer;
+import com.insightpulse.trace.TraceCollector;
+import com.insightpulse.wire.WireEncoder;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ships retained traces and metric snapshots to a collector over one non-blocking TCP
+ * connection, in the {@link com.insightpulse.wire.WireFormat}.
+ * <p>
+ * Request threads never get here: they only publish into the {@link SpanRing}, which drops
+ * rather than waits. Traces reach this thread through the {@link TraceCollector}'s bounded
+ * buffers and leave it in batches of up to {@code maxBatchBytes}, sent at the latest
+ * {@code maxBatchDelayMillis} after their first trace. Only one batch is in flight at a time;
+ * while the collector is slow to read it, the exporter stops taking traces and the buffers'
+ * {@link TraceBuffer.DropPolicy} decides what is lost. A batch the connection fails under is lost
+ * too, and counted; reconnects back off exponentially.
+ * <p>
+ * While the collector is unreachable, batches go to the {@link DiskSpool} if there is one, each
+ * starting with its own hello so that it decodes on whatever connection replays it. Once
+ * connected again, the exporter replays the spool, oldest batch first, before it sends anything
+ * new. A spooled batch is removed only after the socket took all of it, so one the connection
+ * fails under may reach the collector twice. Without a spool, an unreachable collector is treated
+ * like a slow one.
+ * <p>
+ * Metrics go out as cumulative snapshots, so the collector derives intervals itself and a lost
+ * snapshot loses no data; only timers and counters that changed since the last snapshot on the
+ * connection are sent.
+ */
+public final class TraceExporter implements Runnable {
+
+  private static final long MIN_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+  private static final long MAX_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(30);
+  /** A batch that makes no progress for this long means the collector hangs. */
+  private static final long STALL_NANOS = TimeUnit.SECONDS.toNanos(30);
+  /** How often the buffers are checked for new traces when nothing else is due. */
+  private static final long POLL_MILLIS = 50;
+
+  private final String host;
+  private final int port;
+  private final String agentName;
+  private final TraceCollector traces;
+  private final SpanRing ring;
+  private final int maxBatchBytes;
+  private final long maxBatchDelayNanos;
+  private final long metricsIntervalNanos;
+  private final WireEncoder encoder;
+  private final Map<Object, Long> sentTotals = new IdentityHashMap<>();
+  /** Key of the ring's failed spans in {@link #sentTotals}; the ring itself keys its drops. */
+  private final Object failedSpans = new Object();
+  private final ByteBuffer readScratch = ByteBuffer.allocate(256);
+  private final DiskSpool spool;
+
+  private Selector selector;
+  private SocketChannel channel;
+  private SelectionKey key;
+  private boolean connected;
+  private ByteBuffer inFlight;
+  private boolean inFlightSpooled;
+  /** Batches were replayed on this connection, so the next live one needs a hello. */
+  private boolean replayed;
+  private int tracesInFlight;
+  private int tracesInBatch;
+  /** Size of the hello a batch for the spool starts with. */
+  private int helloBytes;
+  private long batchStarted;
+  private long lastProgress;
+  private long nextConnect;
+  private long backoffNanos = MIN_BACKOFF_NANOS;
+  private long nextMetrics;
+  private boolean reportedDown;
+
+  private volatile boolean running = true;
+  private volatile long sentTraces;
+  private volatile long sentBytes;
+  private volatile long lostTraces;
+  private volatile long spooledTraces;
+  private Thread thread;
+
+  /**
+   * @param ring the agent's span ring, whose drop count is exported with the metrics
+   */
+  public TraceExporter(String host, int port, String agentName, TraceCollector traces,
+      SpanRing ring, int maxBatchBytes, long maxBatchDelayMillis, long metricsIntervalMillis) {
+    this(host, port, agentName, traces, ring, maxBatchBytes, maxBatchDelayMillis,
+        metricsIntervalMillis, null);
+  }
+
+  /**
+   * @param spool where batches go while the collector is unreachable, or {@code null}; closed
+   *     when the exporter stops
+   */
+  public TraceExporter(String host, int port, String agentName, TraceCollector traces,
+      SpanRing ring, int maxBatchBytes, long maxBatchDelayMillis, long metricsIntervalMillis,
+      DiskSpool spool) {
+    this.host = host;
+    this.port = port;
+    this.agentName = agentName;
+    this.traces = traces;
+    this.ring = ring;
+    this.maxBatchBytes = maxBatchBytes;
+    this.maxBatchDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchDelayMillis);
+    this.metricsIntervalNanos = TimeUnit.MILLISECONDS.toNanos(metricsIntervalMillis);
+    this.encoder = new WireEncoder(maxBatchBytes + maxBatchBytes / 4);
+    this.spool = spool;
+  }
+
+  public synchronized void start() throws IOException {
+    selector = Selector.open();
+    thread = new Thread(this, "insightpulse-exporter");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public synchronized void stop() {
+    running = false;
+    if (selector != null) {
+      selector.wakeup();
+    }
+  }
+
+  public boolean isConnected() {
+    return connected;
+  }
+
+  /**
+   * Traces the collector's socket accepted.
+   */
+  public long sentTraces() {
+    return sentTraces;
+  }
+
+  public long sentBytes() {
+    return sentBytes;
+  }
+
+  /**
+   * Traces taken from the buffers but lost with a failed connection, or in a batch too large to
+   * spool.
+   */
+  public long lostTraces() {
+    return lostTraces;
+  }
+
+  /**
+   * Traces written to the spool while the collector was unreachable.
+   */
+  public long spooledTraces() {
+    return spooledTraces;
+  }
+
+  /**
+   * The spool, or {@code null}.
+   */
+  public DiskSpool spool() {
+    return spool;
+  }
+
+  @Override
+  public void run() {
+    nextConnect = System.nanoTime();
+    while (running) {
+      try {
+        step();
+      } catch (Throwable t) {
+        disconnect(t);
+      }
+    }
+    disconnect(null);
+    try {
+      selector.close();
+    } catch (IOException e) {
+      AgentLog.debug("Closing the exporter's selector failed: %s", e);
+    }
+    if (spool != null) {
+      spill();
+      try {
+        spool.close();
+      } catch (IOException e) {
+        AgentLog.debug("Closing the spool failed: %s", e);
+      }
+    }
+  }
+
+  private void step() throws IOException {
+    long now = System.nanoTime();
+    if (channel == null && now - nextConnect >= 0) {
+      connect(now);
+    }
+    if (connected) {
+      if (inFlight == null) {
+        fill(now);
+      }
+      if (inFlight != null) {
+        flush(now);
+      }
+    } else if (spool != null) {
+      fill(now);
+    }
+    selector.select(timeoutMillis(now));
+    for (SelectionKey selected : selector.selectedKeys()) {
+      if (!selected.isValid()) {
+        continue;
+      }
+      if (selected.isConnectable() && channel.finishConnect()) {
+        onConnected(System.nanoTime());
+      }
+      if (selected.isReadable()) {
+        readScratch.clear();
+        // the collector never talks back; a read only ever tells us it hung up
+        if (channel.read(readScratch) < 0) {
+          throw new IOException("Collector closed the connection");
+        }
+      }
+    }
+    selector.selectedKeys().clear();
+  }
+
+  private void connect(long now) throws IOException {
+    nextConnect = now + backoffNanos;
+    backoffNanos = Math.min(backoffNanos * 2, MAX_BACKOFF_NANOS);
+    channel = SocketChannel.open();
+    channel.configureBlocking(false);
+    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    // resolved here rather than at startup: DNS may block, and this thread may wait
+    InetSocketAddress address = new InetSocketAddress(host, port);
+    if (address.isUnresolved()) {
+      throw new IOException("Cannot resolve collector host " + host);
+    }
+    key = channel.register(selector, SelectionKey.OP_CONNECT);
+    if (channel.connect(address)) {
+      onConnected(now);
+    }
+  }
+
+  private void onConnected(long now) {
+    // the batch being spooled refers to its own hello, not to this connection's
+    spill();
+    connected = true;
+    backoffNanos = MIN_BACKOFF_NANOS;
+    key.interestOps(SelectionKey.OP_READ);
+    encoder.reset();
+    sentTotals.clear();
+    encoder.writeHeader(agentName, System.currentTimeMillis(), now);
+    batchStarted = now;
+    nextMetrics = now;
+    lastProgress = now;
+    if (reportedDown) {
+      AgentLog.info("Exporting to %s:%d again", host, port);
+      reportedDown = false;
+    } else {
+      AgentLog.info("Exporting to %s:%d", host, port);
+    }
+  }
+
+  /**
+   * Encodes due metrics and buffered traces until the batch is full, and seals the batch when
+   * it is full or old enough: for sending if connected, else for the spool. Spooled batches are
+   * replayed first.
+   */
+  private void fill(long now) {
+    if (connected && spool != null && !spool.isEmpty()) {
+      if (encoder.size() > 0) {
+        // the connection's header goes ahead of everything
+        seal(now);
+      } else {
+        inFlight = spool.peek();
+        tracesInFlight = spool.peekTraces();
+        inFlightSpooled = true;
+        replayed = true;
+        lastProgress = now;
+      }
+      return;
+    }
+    if (connected && replayed) {
+      encoder.writeHello(agentName, System.currentTimeMillis(), now);
+      batchStarted = now;
+      replayed = false;
+    }
+    if (now - nextMetrics >= 0) {
+      markBatchStart(now);
+      writeMetrics(System.currentTimeMillis());
+      nextMetrics = now + metricsIntervalNanos;
+    }
+    while (encoder.size() < maxBatchBytes) {
+      // slow and failed traces first: there are fewer of them and they matter more
+      CompletedTrace trace = traces.retained().poll();
+      if (trace == null) {
+        trace = traces.sampled().poll();
+      }
+      if (trace == null) {
+        break;
+      }
+      markBatchStart(now);
+      encoder.writeTrace(trace);
+      tracesInBatch++;
+    }
+    if (encoder.size() >= maxBatchBytes
+        || encoder.size() > 0 && now - batchStarted >= maxBatchDelayNanos) {
+      if (connected) {
+        seal(now);
+      } else {
+        spill();
+      }
+    }
+  }
+
+  private void seal(long now) {
+    inFlight = encoder.buffer();
+    tracesInFlight = tracesInBatch;
+    tracesInBatch = 0;
+    lastProgress = now;
+  }
+
+  private void markBatchStart(long now) {
+    if (encoder.size() == 0) {
+      batchStarted = now;
+      if (!connected) {
+        // every spooled batch is a session of its own
+        encoder.writeHello(agentName, System.currentTimeMillis(), now);
+        helloBytes = encoder.size();
+      }
+    }
+  }
+
+  /**
+   * Moves the batch being encoded while disconnected to the spool.
+   */
+  private void spill() {
+    if (connected || encoder.size() == 0) {
+      return;
+    }
+    if (encoder.size() == helloBytes) {
+      // no metric changed and no trace came
+      encoder.clear();
+      return;
+    }
+    if (spool.append(encoder.buffer(), tracesInBatch)) {
+      spooledTraces += tracesInBatch;
+    } else {
+      lostTraces += tracesInBatch;
+    }
+    tracesInBatch = 0;
+    encoder.clear();
+  }
+
+  private void flush(long now) throws IOException {
+    int written = channel.write(inFlight);
+    if (written > 0) {
+      sentBytes += written;
+      lastProgress = now;
+    }
+    if (inFlight.hasRemaining()) {
+      if (now - lastProgress > STALL_NANOS) {
+        throw new IOException("Collector stopped reading");
+      }
+      key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      return;
+    }
+    sentTraces += tracesInFlight;
+    tracesInFlight = 0;
+    inFlight = null;
+    if (inFlightSpooled) {
+      spool.remove();
+      inFlightSpooled = false;
+    } else {
+      encoder.clear();
+    }
+    key.interestOps(SelectionKey.OP_READ);
+  }
+
+  private long timeoutMillis(long now) {
+    long wait = TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS);
+    if (channel == null) {
+      wait = Math.min(wait, nextConnect - now);
+    }
+    if (encoder.size() > 0 && inFlight == null) {
+      wait = Math.min(wait, batchStarted + maxBatchDelayNanos - now);
+    }
+    return Math.max(1L, Math.min(POLL_MILLIS, TimeUnit.NANOSECONDS.toMillis(wait)));
+  }
+
+  private void disconnect(Throwable cause) {
+    boolean wasConnected = connected;
+    if (wasConnected || spool == null) {
+      // a live batch refers to the connection's dictionary, a replayed one is still spooled
+      lostTraces += (inFlightSpooled ? 0 : tracesInFlight) + tracesInBatch;
+      tracesInFlight = 0;
+      tracesInBatch = 0;
+      inFlight = null;
+      inFlightSpooled = false;
+      replayed = false;
+      encoder.reset();
+      // resend every total on the next connection; the collector keeps this run's baselines
+      sentTotals.clear();
+    }
+    connected = false;
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        AgentLog.debug("Closing the collector connection failed: %s", e);
+      }
+      channel = null;
+      key = null;
+    }
+    if (cause == null) {
+      return;
+    }
+    if (wasConnected || !reportedDown) {
+      AgentLog.warn("Cannot export to %s:%d, retrying in the background: %s", host, port, cause);
+      reportedDown = true;
+    } else {
+      AgentLog.debug("Collector %s:%d still unreachable: %s", host, port, cause);
+    }
+  }
+
+  private void writeMetrics(long epochMillis) {
+    writeTimers("endpoint", Metrics.endpoints(), epochMillis);
+    writeTimers("endpoint.ttfb", Metrics.firstByte(), epochMillis);
+    writeTimers("method", Metrics.methods(), epochMillis);
+    writeTimers("sql", Metrics.statements(), epochMillis);
+    writeTimers("request.cpu", Metrics.requestCpu(), epochMillis);
+    writeTimers("request.alloc", Metrics.requestAllocations(), epochMillis);
+    writeTimers("request.gc", Metrics.requestGc(), epochMillis);
+    writeTimers("gc.pause", Metrics.gcPauses(), epochMillis);
+    writeTimers("gc.heap.after", Metrics.gcHeapAfter(), epochMillis);
+    writeTimers("jfr", Metrics.jfrEvents(), epochMillis);
+    writeTimers("request.connection.wait", Metrics.connectionWait(), epochMillis);
+    writeTimers("request.connection.hold", Metrics.connectionHold(), epochMillis);
+    writeTimers("transaction.connection.hold", Metrics.transactionHolds(), epochMillis);
+    writeTimers("pool.wait", Metrics.poolWait(), epochMillis);
+    writeTimers("pool.active", Metrics.poolActive(), epochMillis);
+    writeTimers("pool.idle", Metrics.poolIdle(), epochMillis);
+    writeTimers("pool.pending", Metrics.poolPending(), epochMillis);
+    writeTimers("hibernate.collection", Metrics.collectionLoads(), epochMillis);
+    writeTimers("request.entities", Metrics.requestEntities(), epochMillis);
+    writeTimers("request.collections", Metrics.requestCollections(), epochMillis);
+    writeTimers("request.flush", Metrics.flushes(), epochMillis);
+    writeTimers("request.dirty.check", Metrics.dirtyChecks(), epochMillis);
+    writeCounters("endpoint.errors", Metrics.endpointErrors(), epochMillis);
+    writeCounters("sql.rows", Metrics.statementRows(), epochMillis);
+    writeCounters("gc.bytes", Metrics.gcBytes(), epochMillis);
+    writeCounters("jfr.bytes", Metrics.jfrBytes(), epochMillis);
+    writeCounters("pool.timeouts", Metrics.poolTimeouts(), epochMillis);
+    writeCounters("hibernate.entities", Metrics.entityLoads(), epochMillis);
+    writeCounter("agent.dropped", "ring", ring, ring.droppedCount(), epochMillis);
+    writeCounter("agent.dropped", "failed", failedSpans, ring.failedCount(), epochMillis);
+    TraceBuffer sampled = traces.sampled();
+    writeCounter("agent.dropped", "sampled", sampled, sampled.dropped(), epochMillis);
+    TraceBuffer retained = traces.retained();
+    writeCounter("agent.dropped", "retained", retained, retained.dropped(), epochMillis);
+    writeCounter("agent.dropped", "export", this, lostTraces, epochMillis);
+    if (spool != null) {
+      writeCounter("agent.dropped", "spool", spool, spool.droppedTraces(), epochMillis);
+    }
+  }
+
+  private void writeTimers(String metric, TimerTable table, long epochMillis) {
+    for (Timer timer : table.all()) {
+      if (timer == null) {
+        continue;
+      }
+      Histogram snapshot = timer.snapshot();
+      Long sent = sentTotals.get(timer);
+      if (snapshot.getTotalCount() == (sent == null ? 0L : sent)) {
+        continue;
+      }
+      encoder.writeHistogram(metric, timer.getName(), epochMillis, snapshot);
+      sentTotals.put(timer, snapshot.getTotalCount());
+    }
+  }
+
+  private void writeCounters(String metric, CounterTable table, long epochMillis) {
+    for (Counter counter : table.all()) {
+      if (counter != null) {
+        writeCounter(metric, counter.getName(), counter, counter.total(), epochMillis);
+      }
+    }
+  }
+
+  private void writeCounter(String metric, String name, Object source, long total,
+      long epochMillis) {
+    Long sent = sentTotals.get(source);
+    if (total != (sent == null ? 0L : sent)) {
+      encoder.writeCounter(metric, name, epochMillis, total);
+      sentTotals.put(source, total);
+    }
+  }
+}
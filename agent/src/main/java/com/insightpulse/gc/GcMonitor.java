@@ -0,0 +1,235 @@
+package com.insightpulse.gc;
+
+import com.insightpulse.AgentLog;
+import com.insightpulse.metrics.Metrics;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Turns the JVM's garbage collection notifications into pause timers, allocation and promotion
+ * counters and the {@link GcPauses} that traces are charged with.
+ * <p>
+ * The JVM pushes a notification when a collection ends, so nothing is polled. Each one carries
+ * the collector, the cause, the start and duration and the usage of every memory pool before and
+ * after. Collections of concurrent collectors, such as {@code G1 Concurrent GC} or
+ * {@code ZGC Cycles}, mostly run alongside the application and are only logged; their pauses
+ * are reported separately. From the stop-the-world ones:
+ * <ul>
+ *   <li>the pause is timed per collector and remembered for overlapping traces;</li>
+ *   <li>what the young generation, or the whole heap for collectors without one, grew by since
+ *   the previous collection counts as allocated;</li>
+ *   <li>what the old generation grew by during a minor collection counts as promoted;</li>
+ *   <li>the occupancy of each heap pool after the collection is recorded, in bytes.</li>
+ * </ul>
+ * Rates follow from the counters' intervals. With a concurrent collector the heap also shrinks
+ * between pauses, so allocation is underestimated. Requires HotSpot's {@code com.sun.management}
+ * notification types.
+ */
+public final class GcMonitor implements NotificationListener {
+
+  static final int ALLOCATED = 0;
+  static final int PROMOTED = 1;
+
+  private final List<NotificationEmitter> emitters = new ArrayList<>();
+  private final Set<String> heapPools;
+  private final boolean generational;
+  private final Map<String, Integer> collectorIds = new HashMap<>();
+  private final Map<String, Integer> poolIds = new HashMap<>();
+  /** {@link System#nanoTime} at JVM uptime 0, to place the uptime-based collection times. */
+  private final long uptimeOriginNanos;
+  /** Allocation space occupancy after the previous collection, -1 before the first. */
+  private long lastAllocationSpaceAfter = -1L;
+
+  private volatile long allocatedBytes;
+  private volatile long promotedBytes;
+
+  public GcMonitor() {
+    this(heapPoolNames(), System.nanoTime()
+        - TimeUnit.MILLISECONDS.toNanos(ManagementFactory.getRuntimeMXBean().getUptime()));
+  }
+
+  GcMonitor(Set<String> heapPools, long uptimeOriginNanos) {
+    this.heapPools = heapPools;
+    this.uptimeOriginNanos = uptimeOriginNanos;
+    boolean young = false;
+    for (String pool : heapPools) {
+      young |= isYoung(pool);
+    }
+    this.generational = young;
+    Metrics.gcBytes().register(ALLOCATED, "allocated");
+    Metrics.gcBytes().register(PROMOTED, "promoted");
+  }
+
+  /**
+   * Subscribes to every collector that emits notifications.
+   *
+   * @return false if none does
+   */
+  public synchronized boolean start() {
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      if (collector instanceof NotificationEmitter) {
+        NotificationEmitter emitter = (NotificationEmitter) collector;
+        emitter.addNotificationListener(this, null, null);
+        emitters.add(emitter);
+      }
+    }
+    return !emitters.isEmpty();
+  }
+
+  public synchronized void stop() {
+    for (NotificationEmitter emitter : emitters) {
+      try {
+        emitter.removeNotificationListener(this);
+      } catch (ListenerNotFoundException e) {
+        // already gone
+      }
+    }
+    emitters.clear();
+  }
+
+  @Override
+  public void handleNotification(Notification notification, Object handback) {
+    if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION
+        .equals(notification.getType())) {
+      return;
+    }
+    try {
+      GarbageCollectionNotificationInfo info =
+          GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+      GcInfo gc = info.getGcInfo();
+      onCollection(info.getGcName(), info.getGcAction(), info.getGcCause(), gc.getStartTime(),
+          gc.getDuration(), gc.getMemoryUsageBeforeGc(), gc.getMemoryUsageAfterGc());
+    } catch (Throwable t) {
+      AgentLog.error("Failed to process a GC notification", t);
+    }
+  }
+
+  /**
+   * Accounts for one collection.
+   *
+   * @param startMillis JVM uptime at its start
+   */
+  void onCollection(String collector, String action, String cause, long startMillis,
+      long durationMillis, Map<String, MemoryUsage> before, Map<String, MemoryUsage> after) {
+    if (isConcurrent(collector)) {
+      AgentLog.debug("GC %s (%s) %s took %d ms", collector, cause, action, durationMillis);
+      return;
+    }
+    long startNanos = uptimeOriginNanos + TimeUnit.MILLISECONDS.toNanos(startMillis);
+    long durationNanos = TimeUnit.MILLISECONDS.toNanos(durationMillis);
+    Metrics.gcPauses().register(id(collectorIds, collector), collector);
+    Metrics.gcPauses().record(collectorIds.get(collector), durationNanos);
+    GcPauses.record(GcPauses.register(collector, cause), startNanos, durationNanos);
+
+    long spaceBefore = 0L;
+    long spaceAfter = 0L;
+    long oldBefore = 0L;
+    long oldAfter = 0L;
+    StringBuilder pools = AgentLog.isDebug() ? new StringBuilder() : null;
+    for (String pool : heapPools) {
+      long used = used(before, pool);
+      long usedAfter = used(after, pool);
+      if (!generational || isYoung(pool)) {
+        spaceBefore += used;
+        spaceAfter += usedAfter;
+      }
+      if (isOld(pool)) {
+        oldBefore += used;
+        oldAfter += usedAfter;
+      }
+      if (after.containsKey(pool)) {
+        Metrics.gcHeapAfter().register(id(poolIds, pool), pool);
+        Metrics.gcHeapAfter().record(poolIds.get(pool), usedAfter);
+      }
+      if (pools != null) {
+        pools.append(' ').append(pool).append(' ').append(used >> 10).append("K->")
+            .append(usedAfter >> 10).append('K');
+      }
+    }
+    if (lastAllocationSpaceAfter >= 0L && spaceBefore > lastAllocationSpaceAfter) {
+      add(ALLOCATED, spaceBefore - lastAllocationSpaceAfter);
+    }
+    lastAllocationSpaceAfter = spaceAfter;
+    if (generational && action.contains("minor") && oldAfter > oldBefore) {
+      add(PROMOTED, oldAfter - oldBefore);
+    }
+    if (pools != null) {
+      AgentLog.debug("GC %s (%s) %s paused %d ms:%s", collector, cause, action, durationMillis,
+          pools);
+    }
+  }
+
+  /**
+   * Bytes allocated since the monitor started, as far as collections have revealed them.
+   */
+  public long allocatedBytes() {
+    return allocatedBytes;
+  }
+
+  public long promotedBytes() {
+    return promotedBytes;
+  }
+
+  private void add(int counter, long bytes) {
+    Metrics.gcBytes().add(counter, bytes);
+    if (counter == ALLOCATED) {
+      allocatedBytes += bytes;
+    } else {
+      promotedBytes += bytes;
+    }
+  }
+
+  static boolean isConcurrent(String collector) {
+    return collector.contains("Concurrent") || collector.contains("Cycles");
+  }
+
+  static boolean isYoung(String pool) {
+    return pool.contains("Eden") || pool.endsWith("Young Generation");
+  }
+
+  static boolean isOld(String pool) {
+    return pool.contains("Old Gen") || pool.contains("Tenured")
+        || pool.endsWith("Old Generation");
+  }
+
+  private static long used(Map<String, MemoryUsage> usage, String pool) {
+    MemoryUsage pooled = usage.get(pool);
+    return pooled == null ? 0L : pooled.getUsed();
+  }
+
+  private static int id(Map<String, Integer> ids, String name) {
+    Integer id = ids.get(name);
+    if (id == null) {
+      id = ids.size();
+      ids.put(name, id);
+    }
+    return id;
+  }
+
+  private static Set<String> heapPoolNames() {
+    Set<String> names = new LinkedHashSet<>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        names.add(pool.getName());
+      }
+    }
+    return names;
+  }
+}
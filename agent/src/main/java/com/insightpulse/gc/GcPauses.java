@@ -0,0 +1,144 @@
+package com.insightpulse.gc;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The most recent stop-the-world pauses, so that traces can be charged with the pauses they sat
+ * through.
+ * <p>
+ * Pauses are kept in a ring in the order they ended; the {@link GcMonitor} writes them as the JVM
+ * reports them, the drainer reads them. Times are on the {@link System#nanoTime} scale but only
+ * as precise as the milliseconds the JVM reports. A pause reported after the drainer already
+ * completed a trace it overlapped is not charged to it: the JVM reports a collection as soon as
+ * it ends, while the thread it stopped usually still has its request to finish. Ids name a
+ * collector and a cause, e.g. {@code G1 Young Generation (G1 Evacuation Pause)}.
+ */
+public final class GcPauses {
+
+  static final int CAPACITY = 256;
+  private static final int MASK = CAPACITY - 1;
+
+  /**
+   * Receives the pauses overlapping a time range.
+   */
+  public interface Visitor {
+
+    /**
+     * @param startNanos    start of the part of the pause within the range
+     * @param durationNanos length of that part
+     * @param pauseNanos    length of the whole pause
+     */
+    void accept(int id, long startNanos, long durationNanos, long pauseNanos);
+  }
+
+  private static final Map<String, Integer> IDS = new HashMap<>();
+  private static volatile String[] names = new String[16];
+  private static int size;
+
+  private static final int[] ids = new int[CAPACITY];
+  private static final long[] starts = new long[CAPACITY];
+  private static final long[] ends = new long[CAPACITY];
+  /** Pauses recorded so far; written by one thread only. */
+  private static volatile long count;
+
+  private GcPauses() {
+  }
+
+  /**
+   * Id of the pauses of {@code collector} for {@code cause}.
+   */
+  public static synchronized int register(String collector, String cause) {
+    String name = collector + " (" + cause + ')';
+    Integer existing = IDS.get(name);
+    if (existing != null) {
+      return existing;
+    }
+    int id = size;
+    if (id == names.length) {
+      names = Arrays.copyOf(names, id * 2);
+    }
+    names[id] = name;
+    IDS.put(name, id);
+    size = id + 1;
+    return id;
+  }
+
+  public static String name(int id) {
+    return names[id];
+  }
+
+  /**
+   * Records a pause; called from one thread only, after every earlier pause ended.
+   */
+  static void record(int id, long startNanos, long durationNanos) {
+    long n = count;
+    int slot = (int) (n & MASK);
+    ids[slot] = id;
+    starts[slot] = startNanos;
+    ends[slot] = startNanos + durationNanos;
+    count = n + 1;
+  }
+
+  /**
+   * Total time of {@code [fromNanos, toNanos)} the application was paused.
+   */
+  public static long overlapNanos(long fromNanos, long toNanos) {
+    if (!mayOverlap(fromNanos)) {
+      return 0L;
+    }
+    // the same walk as forEachOverlapping, without a capturing visitor per request
+    long total = 0L;
+    long n = count;
+    for (long i = n - 1; i >= 0 && i >= n - CAPACITY; i--) {
+      int slot = (int) (i & MASK);
+      long start = starts[slot];
+      long end = ends[slot];
+      if (count - i > CAPACITY || end <= fromNanos) {
+        break;
+      }
+      long from = Math.max(start, fromNanos);
+      long to = Math.min(end, toNanos);
+      if (to > from) {
+        total += to - from;
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Visits every pause overlapping {@code [fromNanos, toNanos)}, newest first, clipped to the
+   * range.
+   */
+  public static void forEachOverlapping(long fromNanos, long toNanos, Visitor visitor) {
+    long n = count;
+    for (long i = n - 1; i >= 0 && i >= n - CAPACITY; i--) {
+      int slot = (int) (i & MASK);
+      int id = ids[slot];
+      long start = starts[slot];
+      long end = ends[slot];
+      if (count - i > CAPACITY) {
+        // overwritten while we read it
+        return;
+      }
+      if (end <= fromNanos) {
+        return;
+      }
+      long from = Math.max(start, fromNanos);
+      long to = Math.min(end, toNanos);
+      if (to > from) {
+        visitor.accept(id, from, to - from, end - start);
+      }
+    }
+  }
+
+  /**
+   * Whether any pause ended after {@code fromNanos}: one volatile read, for the common case of a
+   * request no collection came near.
+   */
+  public static boolean mayOverlap(long fromNanos) {
+    long n = count;
+    return n > 0 && ends[(int) ((n - 1) & MASK)] > fromNanos;
+  }
+}
@@ -0,0 +1,55 @@
+package com.insightpulse.hibernate;
+
+import com.insightpulse.metrics.Metrics;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns dense ids to the entity classes and collection roles Hibernate loads, e.g.
+ * {@code com.example.petclinic.model.Owner} and {@code com.example.petclinic.model.Owner.pets}.
+ * Both are bounded by the application's mappings. Id 0 means "unknown".
+ */
+public final class EntityNames {
+
+  private static final Map<String, Integer> IDS = new HashMap<>();
+  private static final ClassValue<Integer> TYPES = new ClassValue<Integer>() {
+    @Override
+    protected Integer computeValue(Class<?> type) {
+      return register(type.getName());
+    }
+  };
+  private static volatile String[] names = new String[64];
+  private static int size = 1;
+
+  private EntityNames() {
+  }
+
+  /**
+   * Id of an entity class; looked up without locking once known.
+   */
+  public static int idOf(Class<?> type) {
+    return TYPES.get(type);
+  }
+
+  public static synchronized int register(String name) {
+    Integer existing = IDS.get(name);
+    if (existing != null) {
+      return existing;
+    }
+    int id = size;
+    if (id == names.length) {
+      names = Arrays.copyOf(names, id * 2);
+    }
+    names[id] = name;
+    IDS.put(name, id);
+    size = id + 1;
+    Metrics.entityLoads().register(id, name);
+    Metrics.collectionLoads().register(id, name);
+    return id;
+  }
+
+  public static String name(int id) {
+    return names[id];
+  }
+}
@@ -0,0 +1,178 @@
+package com.insightpulse.hibernate;
+
+import com.insightpulse.metrics.Metrics;
+import com.insightpulse.trace.IntCountMap;
+import com.insightpulse.trace.Probe;
+import com.insightpulse.trace.SpanKind;
+import com.insightpulse.trace.SpanRing;
+import com.insightpulse.trace.TraceContext;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Static entry points woven into Hibernate's default event listeners.
+ * <p>
+ * Loading an entity only bumps a per-type count on the trace context, since a single query can
+ * hydrate thousands of them; the counts go out as {@link SpanKind#ENTITY_LOAD} records, followed
+ * by one {@link SpanKind#SESSION} summary, when the trace finishes. Outside of traces, e.g. in
+ * batch jobs, a thread counts its loads on its own and adds them to
+ * {@link Metrics#entityLoads()} every {@value #UNTRACED_BATCH} entities or after a second, so a
+ * thread's last few loads wait for its next one. Collection initializations
+ * and flushes are rarer, and run SQL anyway, so each publishes its own span. The time spent in
+ * the dirty check of a flush is summed on the context until the flush ends. Like {@link Probe},
+ * nothing here may throw.
+ */
+public final class HibernateProbe {
+
+  static final int UNTRACED_BATCH = 1024;
+  private static final long UNTRACED_FLUSH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private static final ThreadLocal<UntracedLoads> UNTRACED =
+      ThreadLocal.withInitial(UntracedLoads::new);
+
+  private HibernateProbe() {
+  }
+
+  public static void onPostLoad(Object entity) {
+    SpanRing ring = Probe.ring();
+    if (entity == null || ring == null) {
+      return;
+    }
+    try {
+      int type = EntityNames.idOf(entity.getClass());
+      TraceContext context = TraceContext.current();
+      if (!context.isActive()) {
+        UNTRACED.get().add(type);
+      } else if (context.entityCounts().increment(type) == 0) {
+        // more entity types than the map holds; count this one on its own
+        ring.publish(SpanKind.ENTITY_LOAD, type, context.endpointId(), context.traceId(),
+            context.startNanos(), 0L, 1L);
+      }
+    } catch (Throwable ignored) {
+      // never let the agent break the application
+    }
+  }
+
+  public static long collectionStart() {
+    return Probe.ring() != null ? System.nanoTime() : 0L;
+  }
+
+  public static void collectionEnd(String role, long start) {
+    SpanRing ring = Probe.ring();
+    if (start == 0L || role == null || ring == null) {
+      return;
+    }
+    try {
+      long duration = System.nanoTime() - start;
+      TraceContext context = TraceContext.current();
+      context.collectionInitialized();
+      ring.publish(SpanKind.COLLECTION_LOAD, EntityNames.register(role), context.endpointId(),
+          context.traceId(), start, duration, 0L);
+    } catch (Throwable ignored) {
+      // never let the agent break the application
+    }
+  }
+
+  public static long flushStart() {
+    return Probe.ring() != null ? System.nanoTime() : 0L;
+  }
+
+  public static void flushEnd(long start) {
+    SpanRing ring = Probe.ring();
+    if (start == 0L || ring == null) {
+      return;
+    }
+    try {
+      long duration = System.nanoTime() - start;
+      TraceContext context = TraceContext.current();
+      long dirtyCheck = context.takeDirtyCheckNanos();
+      if (context.isActive()) {
+        ring.publish(SpanKind.FLUSH, context.endpointId(), -1, context.traceId(), start,
+            duration, dirtyCheck);
+      }
+    } catch (Throwable ignored) {
+      // never let the agent break the application
+    }
+  }
+
+  public static void flushError(Throwable error, long start) {
+    flushEnd(start);
+  }
+
+  public static long dirtyCheckStart() {
+    return Probe.ring() != null ? System.nanoTime() : 0L;
+  }
+
+  public static void dirtyCheckEnd(long start) {
+    if (start == 0L) {
+      return;
+    }
+    try {
+      TraceContext.current().addDirtyCheckNanos(System.nanoTime() - start);
+    } catch (Throwable ignored) {
+      // never let the agent break the application
+    }
+  }
+
+  public static void dirtyCheckError(Throwable error, long start) {
+    dirtyCheckEnd(start);
+  }
+
+  /**
+   * Publishes the entity counts of a finishing trace and, if it loaded anything, its
+   * {@link SpanKind#SESSION} summary; called just before its {@link SpanKind#REQUEST} record.
+   */
+  public static void publishSession(TraceContext context, SpanRing ring) {
+    long entities = publishEntities(context, ring);
+    int collections = context.collectionsInitialized();
+    if (entities > 0L || collections > 0) {
+      ring.publish(SpanKind.SESSION, context.endpointId(), -1, context.traceId(),
+          context.startNanos(), 0L, SpanKind.sessionValue(entities, collections));
+    }
+  }
+
+  /**
+   * Publishes the entity counts of the context's trace as {@link SpanKind#ENTITY_LOAD} records.
+   *
+   * @return how many entities were loaded
+   */
+  public static long publishEntities(TraceContext context, SpanRing ring) {
+    IntCountMap counts = context.entityCounts();
+    long entities = 0L;
+    for (int i = 0; i < counts.size(); i++) {
+      int count = counts.countAt(i);
+      entities += count;
+      ring.publish(SpanKind.ENTITY_LOAD, counts.keyAt(i), context.endpointId(),
+          context.traceId(), context.startNanos(), 0L, count);
+    }
+    return entities;
+  }
+
+  /**
+   * Entities one thread loaded outside of traces and has not yet added to the metrics.
+   */
+  private static final class UntracedLoads {
+
+    private final IntCountMap counts = new IntCountMap(64);
+    private int pending;
+    private long since;
+
+    void add(int type) {
+      long now = System.nanoTime();
+      if (pending == 0) {
+        since = now;
+      }
+      if (counts.increment(type) == 0) {
+        Metrics.entityLoads().add(type, 1L);
+      } else {
+        pending++;
+      }
+      if (pending >= UNTRACED_BATCH || now - since > UNTRACED_FLUSH_NANOS) {
+        for (int i = 0; i < counts.size(); i++) {
+          Metrics.entityLoads().add(counts.keyAt(i), counts.countAt(i));
+        }
+        counts.clear();
+        pending = 0;
+      }
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package com.insightpulse.instrument;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Prefix trie over the {@link MethodPattern#literalPrefix() literal prefixes} of the class globs,
+ * so that the transformer turns away the thousands of classes a framework loads at startup after
+ * comparing a few characters, before any glob, let alone bytecode, is looked at.
+ * <p>
+ * A class name walks down the trie one character at a time; the globs of every node passed are
+ * tried, and the walk ends at the first character no prefix continues with. Globs starting with a
+ * wildcard hang off the root and are tried for every class. Immutable, hence thread-safe.
+ */
+final class ClassNameTrie {
+
+  private static final char[] NO_LABELS = new char[0];
+  private static final Node[] NO_CHILDREN = new Node[0];
+  private static final MethodPattern[] NO_PATTERNS = new MethodPattern[0];
+
+  private final Node root = new Node();
+
+  ClassNameTrie(List<MethodPattern> patterns) {
+    for (MethodPattern pattern : patterns) {
+      Node node = root;
+      String prefix = pattern.literalPrefix();
+      for (int i = 0; i < prefix.length(); i++) {
+        node = node.childOrAdd(prefix.charAt(i));
+      }
+      node.patterns = Arrays.copyOf(node.patterns, node.patterns.length + 1);
+      node.patterns[node.patterns.length - 1] = pattern;
+    }
+  }
+
+  /**
+   * The patterns whose class glob matches {@code internalName}, in no particular order.
+   */
+  List<MethodPattern> match(String internalName) {
+    List<MethodPattern> matching = null;
+    Node node = root;
+    for (int i = 0; node != null; i++) {
+      for (MethodPattern pattern : node.patterns) {
+        if (pattern.matchesClass(internalName)) {
+          if (matching == null) {
+            matching = new ArrayList<>(2);
+          }
+          matching.add(pattern);
+        }
+      }
+      node = i < internalName.length() ? node.child(internalName.charAt(i)) : null;
+    }
+    return matching == null ? Collections.<MethodPattern>emptyList() : matching;
+  }
+
+  private static final class Node {
+
+    // a handful of children at most, a linear scan beats hashing
+    char[] labels = NO_LABELS;
+    Node[] children = NO_CHILDREN;
+    MethodPattern[] patterns = NO_PATTERNS;
+
+    Node child(char label) {
+      for (int i = 0; i < labels.length; i++) {
+        if (labels[i] == label) {
+          return children[i];
+        }
+      }
+      return null;
+    }
+
+    Node childOrAdd(char label) {
+      Node child = child(label);
+      if (child == null) {
+        child = new Node();
+        labels = Arrays.copyOf(labels, labels.length + 1);
+        labels[labels.length - 1] = label;
+        children = Arrays.copyOf(children, children.length + 1);
+        children[children.length - 1] = child;
+      }
+      return child;
+    }
+  }
+}
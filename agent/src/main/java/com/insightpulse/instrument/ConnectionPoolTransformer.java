@@ -0,0 +1,289 @@
+package com.insightpulse.instrument;
+
+import com.insightpulse.AgentLog;
+import com.insightpulse.pool.ConnectionState;
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.AdviceAdapter;
+import org.objectweb.asm.commons.AnalyzerAdapter;
+
+/**
+ * Weaves {@code PoolProbe} calls into HikariCP and Spring's transaction interceptor.
+ * <ul>
+ *   <li>{@code HikariPool.getConnection(long)} is timed as the wait for a connection and reports
+ *   the pool's active, idle and pending counts on the way out, whether it returns or times
+ *   out;</li>
+ *   <li>{@code ProxyConnection} gets the {@link ConnectionState} fields, and its {@code close()}
+ *   ends the hold;</li>
+ *   <li>{@code TransactionAspectSupport.invokeWithinTransaction} brackets every
+ *   {@code @Transactional} call, Spring's and {@code javax.transaction}'s alike, so connections
+ *   acquired within are charged to the method.</li>
+ * </ul>
+ * On retransformation the connection class cannot gain fields, so the mixin is skipped: waits
+ * are still timed, holds are not.
+ */
+public class ConnectionPoolTransformer implements ClassFileTransformer {
+
+  static final String PROBE = "com/insightpulse/pool/PoolProbe";
+
+  static final String HIKARI_POOL = "com/zaxxer/hikari/pool/HikariPool";
+  static final String PROXY_CONNECTION = "com/zaxxer/hikari/pool/ProxyConnection";
+  static final String TRANSACTION_SUPPORT =
+      "org/springframework/transaction/interceptor/TransactionAspectSupport";
+
+  /**
+   * Classes this transformer changes, in binary form for {@code Instrumentation}.
+   */
+  public static final Set<String> TARGETS = Collections.unmodifiableSet(new HashSet<>(
+      Arrays.asList(HIKARI_POOL.replace('/', '.'), PROXY_CONNECTION.replace('/', '.'),
+          TRANSACTION_SUPPORT.replace('/', '.'))));
+
+  private static final String STATE = ConnectionState.class.getName().replace('.', '/');
+
+  @Override
+  public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+      ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+    if (!HIKARI_POOL.equals(className) && !PROXY_CONNECTION.equals(className)
+        && !TRANSACTION_SUPPORT.equals(className)) {
+      return null;
+    }
+    try {
+      ClassReader reader = new ClassReader(classfileBuffer);
+      ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+      reader.accept(new PoolClassVisitor(writer, className, classBeingRedefined),
+          ClassReader.EXPAND_FRAMES);
+      AgentLog.debug("Instrumented connection pool class %s", className);
+      return writer.toByteArray();
+    } catch (Throwable t) {
+      AgentLog.error("Failed to instrument " + className, t);
+      return null;
+    }
+  }
+
+  static boolean isAcquire(String className, String name, String descriptor) {
+    return HIKARI_POOL.equals(className) && name.equals("getConnection")
+        && descriptor.startsWith("(J)");
+  }
+
+  static boolean isTransaction(String className, String name, String descriptor) {
+    return TRANSACTION_SUPPORT.equals(className) && name.equals("invokeWithinTransaction")
+        && descriptor.startsWith("(Ljava/lang/reflect/Method;");
+  }
+
+  private static final class PoolClassVisitor extends ClassVisitor {
+
+    private final String className;
+    private final boolean addMixin;
+    private boolean emitFrames;
+
+    PoolClassVisitor(ClassVisitor cv, String className, Class<?> classBeingRedefined) {
+      super(Opcodes.ASM9, cv);
+      this.className = className;
+      // retransforming starts over from the original bytes; keep the mixin of a class loaded
+      // with it, and leave one loaded before the agent without
+      this.addMixin = PROXY_CONNECTION.equals(className) && (classBeingRedefined == null
+          || ConnectionState.class.isAssignableFrom(classBeingRedefined));
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName,
+        String[] interfaces) {
+      emitFrames = (version & 0xFFFF) >= Opcodes.V1_7;
+      String[] declared = interfaces;
+      if (addMixin) {
+        declared = Arrays.copyOf(interfaces, interfaces.length + 1);
+        declared[interfaces.length] = STATE;
+      }
+      super.visit(version, access, name, signature, superName, declared);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+        String[] exceptions) {
+      MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+      if ((access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE | Opcodes.ACC_STATIC)) != 0) {
+        return mv;
+      }
+      if (isAcquire(className, name, descriptor)) {
+        // the advice branches, so its frames need the locals at each return
+        AnalyzerAdapter analyzer =
+            emitFrames ? new AnalyzerAdapter(className, access, name, descriptor, mv) : null;
+        return new AcquireAdvice(analyzer != null ? analyzer : mv, analyzer, className, access,
+            name, descriptor, emitFrames);
+      }
+      if (PROXY_CONNECTION.equals(className) && name.equals("close")
+          && descriptor.equals("()V")) {
+        return new CloseAdvice(mv, access, name, descriptor);
+      }
+      if (isTransaction(className, name, descriptor)) {
+        return new TransactionAdvice(mv, className, access, name, descriptor, emitFrames);
+      }
+      return mv;
+    }
+
+    @Override
+    public void visitEnd() {
+      if (addMixin) {
+        MixinFields.add(cv, className, ConnectionState.ACQUIRED_FIELD, Type.LONG_TYPE);
+        MixinFields.add(cv, className, ConnectionState.HOLDER_FIELD, Type.INT_TYPE);
+      }
+      super.visitEnd();
+    }
+  }
+
+  /**
+   * Reads the pool's gauges only when the probe is on, i.e. the start timestamp is not 0.
+   */
+  private static final class AcquireAdvice extends TimedAdvice {
+
+    private final AnalyzerAdapter analyzer;
+    private final String owner;
+
+    AcquireAdvice(MethodVisitor mv, AnalyzerAdapter analyzer, String owner, int access,
+        String name, String descriptor, boolean emitFrames) {
+      super(mv, owner, access, name, descriptor, emitFrames);
+      this.analyzer = analyzer;
+      this.owner = owner;
+    }
+
+    @Override
+    protected void emitEnter(MethodVisitor target) {
+      target.visitMethodInsn(INVOKESTATIC, PROBE, "acquireStart", "()J", false);
+    }
+
+    @Override
+    protected void emitExit(MethodVisitor target, int returnOpcode) {
+      Object[] locals = frameTypes(analyzer == null ? null : analyzer.locals);
+      Object[] stack = frameTypes(analyzer == null ? null : analyzer.stack);
+      Label skip = new Label();
+      jumpIfOff(target, skip);
+      target.visitInsn(DUP);
+      emitPoolState(target);
+      target.visitMethodInsn(INVOKESTATIC, PROBE, "onAcquire",
+          "(Ljava/lang/Object;Ljava/lang/Object;IIIJ)V", false);
+      visitTarget(target, skip, locals, stack);
+    }
+
+    @Override
+    protected void emitErrorExit(MethodVisitor target) {
+      Object[] locals = frameTypes(analyzer == null ? null : analyzer.locals);
+      Object[] stack = frameTypes(analyzer == null ? null : analyzer.stack);
+      Label skip = new Label();
+      Label done = new Label();
+      jumpIfOff(target, skip);
+      emitPoolState(target);
+      target.visitMethodInsn(INVOKESTATIC, PROBE, "onAcquireError",
+          "(Ljava/lang/Throwable;Ljava/lang/Object;IIIJ)V", false);
+      target.visitJumpInsn(GOTO, done);
+      visitTarget(target, skip, locals, stack);
+      target.visitInsn(POP);
+      // the throwable reported is gone, the one rethrown is left
+      visitTarget(target, done, locals, Arrays.copyOf(stack, Math.max(0, stack.length - 1)));
+    }
+
+    private void jumpIfOff(MethodVisitor target, Label label) {
+      loadStart(target);
+      target.visitInsn(LCONST_0);
+      target.visitInsn(LCMP);
+      target.visitJumpInsn(IFEQ, label);
+    }
+
+    private void visitTarget(MethodVisitor target, Label label, Object[] locals,
+        Object[] stack) {
+      target.visitLabel(label);
+      if (analyzer != null) {
+        target.visitFrame(F_NEW, locals.length, locals, stack.length, stack);
+      }
+    }
+
+    /**
+     * Pushes the pool, its active, idle and pending counts and the start timestamp.
+     */
+    private void emitPoolState(MethodVisitor target) {
+      target.visitVarInsn(ALOAD, 0);
+      target.visitVarInsn(ALOAD, 0);
+      target.visitMethodInsn(INVOKEVIRTUAL, owner, "getActiveConnections", "()I", false);
+      target.visitVarInsn(ALOAD, 0);
+      target.visitMethodInsn(INVOKEVIRTUAL, owner, "getIdleConnections", "()I", false);
+      target.visitVarInsn(ALOAD, 0);
+      target.visitMethodInsn(INVOKEVIRTUAL, owner, "getThreadsAwaitingConnection", "()I", false);
+      loadStart(target);
+    }
+
+    /**
+     * Frame types as {@code visitFrame} takes them: the analyzer gives {@code long} and
+     * {@code double} a second, {@code TOP} slot.
+     */
+    private static Object[] frameTypes(List<Object> slots) {
+      if (slots == null) {
+        return new Object[0];
+      }
+      List<Object> types = new ArrayList<>(slots.size());
+      for (int i = 0; i < slots.size(); i++) {
+        Object type = slots.get(i);
+        types.add(type);
+        if (Opcodes.LONG.equals(type) || Opcodes.DOUBLE.equals(type)) {
+          i++;
+        }
+      }
+      return types.toArray();
+    }
+  }
+
+  private static final class CloseAdvice extends AdviceAdapter {
+
+    CloseAdvice(MethodVisitor mv, int access, String name, String descriptor) {
+      super(Opcodes.ASM9, mv, access, name, descriptor);
+    }
+
+    @Override
+    protected void onMethodEnter() {
+      mv.visitVarInsn(ALOAD, 0);
+      mv.visitMethodInsn(INVOKESTATIC, PROBE, "onClose", "(Ljava/lang/Object;)V", false);
+    }
+  }
+
+  /**
+   * The "start" local holds what {@code PoolProbe.exitTransaction} restores.
+   */
+  private static final class TransactionAdvice extends TimedAdvice {
+
+    TransactionAdvice(MethodVisitor mv, String owner, int access, String name, String descriptor,
+        boolean emitFrames) {
+      super(mv, owner, access, name, descriptor, emitFrames);
+    }
+
+    @Override
+    protected void emitEnter(MethodVisitor target) {
+      target.visitVarInsn(ALOAD, 1);
+      target.visitMethodInsn(INVOKESTATIC, PROBE, "enterTransaction",
+          "(Ljava/lang/reflect/Method;)J", false);
+    }
+
+    @Override
+    protected void emitExit(MethodVisitor target, int returnOpcode) {
+      loadStart(target);
+      target.visitMethodInsn(INVOKESTATIC, PROBE, "exitTransaction", "(J)V", false);
+    }
+
+    @Override
+    protected void emitErrorExit(MethodVisitor target) {
+      target.visitInsn(POP);
+      loadStart(target);
+      target.visitMethodInsn(INVOKESTATIC, PROBE, "exitTransaction", "(J)V", false);
+    }
+  }
+}
@@ -0,0 +1,287 @@
+package com.insightpulse.instrument;
+
+import com.insightpulse.AgentLog;
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.AdviceAdapter;
+
+/**
+ * Weaves {@code ContextPropagation} into the JDK executors so that tasks submitted from a traced
+ * thread continue its trace.
+ * <ul>
+ *   <li>{@code ThreadPoolExecutor.execute}, which {@code submit} and Spring's {@code @Async}
+ *   executors go through, wraps its task; {@code runWorker} unwraps it again for
+ *   {@code beforeExecute} and {@code afterExecute}, as does {@code reject} for the rejection
+ *   handler. {@code getQueue} returns an unwrapping view of the queue and {@code shutdownNow}
+ *   unwraps the tasks it returns. {@code remove(Runnable)} and {@code purge} use the queue
+ *   field directly, so the former also looks for the task's wrapper and the latter unwraps each
+ *   task before checking whether it is a cancelled {@code Future}. The worker still holds the
+ *   task when calling {@code afterExecute}, so these wrappers are allocated rather than
+ *   pooled;</li>
+ *   <li>{@code ForkJoinPool.execute/submit} wrap {@code Runnable} and {@code Callable} tasks,
+ *   which covers {@code CompletableFuture}'s async stages on the common pool;</li>
+ *   <li>{@code CompletableFuture}'s thread-per-task fallback executor wraps its task.</li>
+ * </ul>
+ * {@code ForkJoinTask}s forked or submitted as such keep running without context, as do
+ * {@code ScheduledThreadPoolExecutor} tasks, which may run more than once. These classes are
+ * usually loaded before the agent, so they are retransformed; only method bodies change.
+ */
+public class ExecutorTransformer implements ClassFileTransformer {
+
+  static final String PROPAGATION = "com/insightpulse/trace/ContextPropagation";
+
+  static final String THREAD_POOL_EXECUTOR = "java/util/concurrent/ThreadPoolExecutor";
+  static final String FORK_JOIN_POOL = "java/util/concurrent/ForkJoinPool";
+  static final String THREAD_PER_TASK_EXECUTOR =
+      "java/util/concurrent/CompletableFuture$ThreadPerTaskExecutor";
+
+  /**
+   * Classes this transformer changes, in binary form for {@code Instrumentation}.
+   */
+  public static final Set<String> TARGETS = Collections.unmodifiableSet(new HashSet<>(
+      Arrays.asList(THREAD_POOL_EXECUTOR.replace('/', '.'), FORK_JOIN_POOL.replace('/', '.'),
+          THREAD_PER_TASK_EXECUTOR.replace('/', '.'))));
+
+  private static final String WRAP_RUNNABLE = "(Ljava/lang/Runnable;)Ljava/lang/Runnable;";
+  private static final String WRAP_CALLABLE =
+      "(Ljava/util/concurrent/Callable;)Ljava/util/concurrent/Callable;";
+  private static final String BLOCKING_QUEUE = "Ljava/util/concurrent/BlockingQueue;";
+  private static final String LIST = "Ljava/util/List;";
+  private static final String FUTURE = "java/util/concurrent/Future";
+
+  @Override
+  public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+      ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+    // the JDK executors are bootstrap classes; ignore copies from other loaders
+    if (loader != null || !THREAD_POOL_EXECUTOR.equals(className)
+        && !FORK_JOIN_POOL.equals(className) && !THREAD_PER_TASK_EXECUTOR.equals(className)) {
+      return null;
+    }
+    try {
+      ClassReader reader = new ClassReader(classfileBuffer);
+      ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+      reader.accept(new ExecutorClassVisitor(writer, className), ClassReader.EXPAND_FRAMES);
+      AgentLog.debug("Instrumented executor class %s", className);
+      return writer.toByteArray();
+    } catch (Throwable t) {
+      AgentLog.error("Failed to instrument " + className, t);
+      return null;
+    }
+  }
+
+  /**
+   * Name of the {@code ContextPropagation} method that wraps the task in argument 1, or
+   * {@code null} if the method is not a submission method.
+   */
+  static String wrapperFor(String className, String name, String descriptor) {
+    boolean execute = name.equals("execute") && descriptor.equals("(Ljava/lang/Runnable;)V");
+    if (THREAD_POOL_EXECUTOR.equals(className)) {
+      return execute ? "wrapForThreadPool" : null;
+    }
+    if (THREAD_PER_TASK_EXECUTOR.equals(className)) {
+      return execute ? "wrap" : null;
+    }
+    if (FORK_JOIN_POOL.equals(className)
+        && (name.equals("execute") || name.equals("submit"))) {
+      if (descriptor.startsWith("(Ljava/lang/Runnable;")
+          || descriptor.startsWith("(Ljava/util/concurrent/Callable;)")) {
+        return "wrap";
+      }
+    }
+    return null;
+  }
+
+  private static final class ExecutorClassVisitor extends ClassVisitor {
+
+    private final String className;
+
+    ExecutorClassVisitor(ClassVisitor cv, String className) {
+      super(Opcodes.ASM9, cv);
+      this.className = className;
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+        String[] exceptions) {
+      MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+      // covariant bridges just call the real overload, which wraps the task
+      int skipped = Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE | Opcodes.ACC_STATIC
+          | Opcodes.ACC_BRIDGE;
+      if ((access & skipped) != 0) {
+        return mv;
+      }
+      String wrapper = wrapperFor(className, name, descriptor);
+      if (wrapper != null) {
+        return new WrapTaskAdvice(mv, access, name, descriptor, wrapper);
+      }
+      if (THREAD_POOL_EXECUTOR.equals(className)) {
+        if (name.equals("runWorker")) {
+          return new UnwrapForHooks(mv);
+        }
+        if (name.equals("reject") && descriptor.equals("(Ljava/lang/Runnable;)V")) {
+          return new UnwrapTaskAdvice(mv, access, name, descriptor);
+        }
+        if (name.equals("getQueue") && descriptor.equals("()" + BLOCKING_QUEUE)
+            || name.equals("shutdownNow") && descriptor.equals("()" + LIST)) {
+          return new UnwrapResultAdvice(mv, access, name, descriptor);
+        }
+        if (name.equals("remove") && descriptor.equals("(Ljava/lang/Runnable;)Z")) {
+          return new RemoveWrapper(mv);
+        }
+        if (name.equals("purge") && descriptor.equals("()V")) {
+          return new UnwrapForPurge(mv);
+        }
+      }
+      return mv;
+    }
+  }
+
+  /**
+   * Replaces argument 1 with its wrapped form on entry.
+   */
+  private static final class WrapTaskAdvice extends AdviceAdapter {
+
+    private final String wrapper;
+    private final String wrapperDescriptor;
+
+    WrapTaskAdvice(MethodVisitor mv, int access, String name, String descriptor, String wrapper) {
+      super(Opcodes.ASM9, mv, access, name, descriptor);
+      this.wrapper = wrapper;
+      this.wrapperDescriptor = descriptor.startsWith("(Ljava/lang/Runnable;")
+          ? WRAP_RUNNABLE : WRAP_CALLABLE;
+    }
+
+    @Override
+    protected void onMethodEnter() {
+      mv.visitVarInsn(ALOAD, 1);
+      mv.visitMethodInsn(INVOKESTATIC, PROPAGATION, wrapper, wrapperDescriptor, false);
+      mv.visitVarInsn(ASTORE, 1);
+    }
+  }
+
+  /**
+   * Replaces argument 1 with the task it wraps on entry.
+   */
+  private static final class UnwrapTaskAdvice extends AdviceAdapter {
+
+    UnwrapTaskAdvice(MethodVisitor mv, int access, String name, String descriptor) {
+      super(Opcodes.ASM9, mv, access, name, descriptor);
+    }
+
+    @Override
+    protected void onMethodEnter() {
+      mv.visitVarInsn(ALOAD, 1);
+      mv.visitMethodInsn(INVOKESTATIC, PROPAGATION, "unwrap", WRAP_RUNNABLE, false);
+      mv.visitVarInsn(ASTORE, 1);
+    }
+  }
+
+  /**
+   * Unwraps what {@code getQueue} and {@code shutdownNow} return.
+   */
+  private static final class UnwrapResultAdvice extends AdviceAdapter {
+
+    private final boolean queue;
+
+    UnwrapResultAdvice(MethodVisitor mv, int access, String name, String descriptor) {
+      super(Opcodes.ASM9, mv, access, name, descriptor);
+      this.queue = name.equals("getQueue");
+    }
+
+    @Override
+    protected void onMethodExit(int opcode) {
+      if (opcode != ARETURN) {
+        return;
+      }
+      if (queue) {
+        mv.visitMethodInsn(INVOKESTATIC, PROPAGATION, "unwrapping",
+            "(" + BLOCKING_QUEUE + ")" + BLOCKING_QUEUE, false);
+      } else {
+        mv.visitInsn(DUP);
+        mv.visitMethodInsn(INVOKESTATIC, PROPAGATION, "unwrapAll", "(" + LIST + ")V", false);
+      }
+    }
+  }
+
+  /**
+   * Lets {@code remove(Runnable)} find a task that was queued wrapped.
+   */
+  private static final class RemoveWrapper extends MethodVisitor {
+
+    RemoveWrapper(MethodVisitor mv) {
+      super(Opcodes.ASM9, mv);
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String descriptor,
+        boolean isInterface) {
+      if (opcode == Opcodes.INVOKEINTERFACE && name.equals("remove")
+          && owner.equals("java/util/concurrent/BlockingQueue")
+          && descriptor.equals("(Ljava/lang/Object;)Z")) {
+        super.visitMethodInsn(Opcodes.INVOKESTATIC, PROPAGATION, "remove",
+            "(" + BLOCKING_QUEUE + "Ljava/lang/Object;)Z", false);
+        return;
+      }
+      super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+    }
+  }
+
+  /**
+   * Unwraps the queued task ahead of {@code purge}'s {@code instanceof Future} and its cast, so
+   * that cancelled tasks submitted from a trace are purged too; the wrapper itself is removed.
+   */
+  private static final class UnwrapForPurge extends MethodVisitor {
+
+    UnwrapForPurge(MethodVisitor mv) {
+      super(Opcodes.ASM9, mv);
+    }
+
+    @Override
+    public void visitTypeInsn(int opcode, String type) {
+      if ((opcode == Opcodes.INSTANCEOF || opcode == Opcodes.CHECKCAST) && type.equals(FUTURE)) {
+        super.visitMethodInsn(Opcodes.INVOKESTATIC, PROPAGATION, "unwrapQueued",
+            "(Ljava/lang/Object;)Ljava/lang/Object;", false);
+      }
+      super.visitTypeInsn(opcode, type);
+    }
+  }
+
+  /**
+   * Hands the original task to {@code beforeExecute(Thread, Runnable)} and
+   * {@code afterExecute(Runnable, Throwable)}, which subclasses commonly inspect.
+   */
+  private static final class UnwrapForHooks extends MethodVisitor {
+
+    UnwrapForHooks(MethodVisitor mv) {
+      super(Opcodes.ASM9, mv);
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String descriptor,
+        boolean isInterface) {
+      if (name.equals("beforeExecute")
+          && descriptor.equals("(Ljava/lang/Thread;Ljava/lang/Runnable;)V")) {
+        unwrapTop();
+      } else if (name.equals("afterExecute")
+          && descriptor.equals("(Ljava/lang/Runnable;Ljava/lang/Throwable;)V")) {
+        super.visitInsn(Opcodes.SWAP);
+        unwrapTop();
+        super.visitInsn(Opcodes.SWAP);
+      }
+      super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+    }
+
+    private void unwrapTop() {
+      super.visitMethodInsn(Opcodes.INVOKESTATIC, PROPAGATION, "unwrap", WRAP_RUNNABLE, false);
+    }
+  }
+}
@@ -0,0 +1,209 @@
+package com.insightpulse.instrument;
+
+import com.insightpulse.AgentLog;
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.AdviceAdapter;
+
+/**
+ * Weaves {@code HibernateProbe} calls into Hibernate's default event listeners.
+ * <ul>
+ *   <li>{@code DefaultPostLoadEventListener.onPostLoad} hands over every loaded entity, right
+ *   where JPA {@code @PostLoad} callbacks run;</li>
+ *   <li>{@code DefaultInitializeCollectionEventListener.onInitializeCollection} is timed and
+ *   reports the collection role; collections batch-fetched along with it are not counted;</li>
+ *   <li>{@code DefaultFlushEventListener.onFlush} and
+ *   {@code DefaultAutoFlushEventListener.onAutoFlush} are timed as flushes;</li>
+ *   <li>{@code AbstractFlushingEventListener.flushEverythingToExecutions}, which cascades and
+ *   compares every managed entity with its loaded state, is timed as the flush's dirty
+ *   check.</li>
+ * </ul>
+ * Event types are only named in the woven code, so the probe works with plain objects.
+ */
+public class HibernateTransformer implements ClassFileTransformer {
+
+  static final String PROBE = "com/insightpulse/hibernate/HibernateProbe";
+
+  static final String POST_LOAD_LISTENER =
+      "org/hibernate/event/internal/DefaultPostLoadEventListener";
+  static final String COLLECTION_LISTENER =
+      "org/hibernate/event/internal/DefaultInitializeCollectionEventListener";
+  static final String FLUSH_LISTENER = "org/hibernate/event/internal/DefaultFlushEventListener";
+  static final String AUTO_FLUSH_LISTENER =
+      "org/hibernate/event/internal/DefaultAutoFlushEventListener";
+  static final String FLUSHING_LISTENER =
+      "org/hibernate/event/internal/AbstractFlushingEventListener";
+
+  static final String POST_LOAD_EVENT = "org/hibernate/event/spi/PostLoadEvent";
+  static final String COLLECTION_EVENT = "org/hibernate/event/spi/InitializeCollectionEvent";
+  static final String PERSISTENT_COLLECTION = "org/hibernate/collection/spi/PersistentCollection";
+
+  /**
+   * Classes this transformer changes, in binary form for {@code Instrumentation}.
+   */
+  public static final Set<String> TARGETS = Collections.unmodifiableSet(new HashSet<>(
+      Arrays.asList(POST_LOAD_LISTENER.replace('/', '.'), COLLECTION_LISTENER.replace('/', '.'),
+          FLUSH_LISTENER.replace('/', '.'), AUTO_FLUSH_LISTENER.replace('/', '.'),
+          FLUSHING_LISTENER.replace('/', '.'))));
+
+  @Override
+  public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+      ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+    if (className == null || !className.startsWith("org/hibernate/event/internal/")
+        || !TARGETS.contains(className.replace('/', '.'))) {
+      return null;
+    }
+    try {
+      ClassReader reader = new ClassReader(classfileBuffer);
+      ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+      reader.accept(new ListenerClassVisitor(writer, className), ClassReader.EXPAND_FRAMES);
+      AgentLog.debug("Instrumented Hibernate class %s", className);
+      return writer.toByteArray();
+    } catch (Throwable t) {
+      AgentLog.error("Failed to instrument " + className, t);
+      return null;
+    }
+  }
+
+  static boolean isFlush(String className, String name, String descriptor) {
+    return FLUSH_LISTENER.equals(className) && name.equals("onFlush")
+        && descriptor.equals("(Lorg/hibernate/event/spi/FlushEvent;)V")
+        || AUTO_FLUSH_LISTENER.equals(className) && name.equals("onAutoFlush")
+        && descriptor.equals("(Lorg/hibernate/event/spi/AutoFlushEvent;)V");
+  }
+
+  static boolean isDirtyCheck(String className, String name, String descriptor) {
+    return FLUSHING_LISTENER.equals(className) && name.equals("flushEverythingToExecutions")
+        && descriptor.startsWith("(Lorg/hibernate/event/spi/FlushEvent;");
+  }
+
+  private static final class ListenerClassVisitor extends ClassVisitor {
+
+    private final String className;
+    private boolean emitFrames;
+
+    ListenerClassVisitor(ClassVisitor cv, String className) {
+      super(Opcodes.ASM9, cv);
+      this.className = className;
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName,
+        String[] interfaces) {
+      emitFrames = (version & 0xFFFF) >= Opcodes.V1_7;
+      super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+        String[] exceptions) {
+      MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+      if ((access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE | Opcodes.ACC_STATIC)) != 0) {
+        return mv;
+      }
+      if (POST_LOAD_LISTENER.equals(className) && name.equals("onPostLoad")
+          && descriptor.equals("(L" + POST_LOAD_EVENT + ";)V")) {
+        return new PostLoadAdvice(mv, access, name, descriptor);
+      }
+      if (COLLECTION_LISTENER.equals(className) && name.equals("onInitializeCollection")
+          && descriptor.equals("(L" + COLLECTION_EVENT + ";)V")) {
+        return new CollectionAdvice(mv, className, access, name, descriptor, emitFrames);
+      }
+      if (isFlush(className, name, descriptor)) {
+        return new ProbeAdvice(mv, className, access, name, descriptor, emitFrames, "flush");
+      }
+      if (isDirtyCheck(className, name, descriptor)) {
+        return new ProbeAdvice(mv, className, access, name, descriptor, emitFrames,
+            "dirtyCheck");
+      }
+      return mv;
+    }
+  }
+
+  private static final class PostLoadAdvice extends AdviceAdapter {
+
+    PostLoadAdvice(MethodVisitor mv, int access, String name, String descriptor) {
+      super(Opcodes.ASM9, mv, access, name, descriptor);
+    }
+
+    @Override
+    protected void onMethodEnter() {
+      mv.visitVarInsn(ALOAD, 1);
+      mv.visitMethodInsn(INVOKEVIRTUAL, POST_LOAD_EVENT, "getEntity", "()Ljava/lang/Object;",
+          false);
+      mv.visitMethodInsn(INVOKESTATIC, PROBE, "onPostLoad", "(Ljava/lang/Object;)V", false);
+    }
+  }
+
+  private static final class CollectionAdvice extends TimedAdvice {
+
+    CollectionAdvice(MethodVisitor mv, String owner, int access, String name, String descriptor,
+        boolean emitFrames) {
+      super(mv, owner, access, name, descriptor, emitFrames);
+    }
+
+    @Override
+    protected void emitEnter(MethodVisitor target) {
+      target.visitMethodInsn(INVOKESTATIC, PROBE, "collectionStart", "()J", false);
+    }
+
+    @Override
+    protected void emitExit(MethodVisitor target, int returnOpcode) {
+      target.visitVarInsn(ALOAD, 1);
+      target.visitMethodInsn(INVOKEVIRTUAL, COLLECTION_EVENT, "getCollection",
+          "()L" + PERSISTENT_COLLECTION + ";", false);
+      target.visitMethodInsn(INVOKEINTERFACE, PERSISTENT_COLLECTION, "getRole",
+          "()Ljava/lang/String;", true);
+      loadStart(target);
+      target.visitMethodInsn(INVOKESTATIC, PROBE, "collectionEnd", "(Ljava/lang/String;J)V",
+          false);
+    }
+
+    @Override
+    protected void emitErrorExit(MethodVisitor target) {
+      // the event is out of reach here, and the collection stays uninitialized anyway
+      target.visitInsn(POP);
+    }
+  }
+
+  /**
+   * Calls the probe's {@code <prefix>Start}, {@code <prefix>End} and {@code <prefix>Error}.
+   */
+  private static final class ProbeAdvice extends TimedAdvice {
+
+    private final String prefix;
+
+    ProbeAdvice(MethodVisitor mv, String owner, int access, String name, String descriptor,
+        boolean emitFrames, String prefix) {
+      super(mv, owner, access, name, descriptor, emitFrames);
+      this.prefix = prefix;
+    }
+
+    @Override
+    protected void emitEnter(MethodVisitor target) {
+      target.visitMethodInsn(INVOKESTATIC, PROBE, prefix + "Start", "()J", false);
+    }
+
+    @Override
+    protected void emitExit(MethodVisitor target, int returnOpcode) {
+      loadStart(target);
+      target.visitMethodInsn(INVOKESTATIC, PROBE, prefix + "End", "(J)V", false);
+    }
+
+    @Override
+    protected void emitErrorExit(MethodVisitor target) {
+      loadStart(target);
+      target.visitMethodInsn(INVOKESTATIC, PROBE, prefix + "Error", "(Ljava/lang/Throwable;J)V",
+          false);
+    }
+  }
+}
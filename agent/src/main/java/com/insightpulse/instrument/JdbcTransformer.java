@@ -0,0 +1,217 @@
+package com.insightpulse.instrument;
+
+import com.insightpulse.AgentLog;
+import com.insightpulse.jdbc.StatementState;
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.AdviceAdapter;
+
+/**
+ * Weaves {@code JdbcProbe} calls into the PostgreSQL JDBC driver.
+ * <ul>
+ *   <li>{@code PgConnection.prepareStatement/prepareCall(String, ...)} hand the new statement and
+ *   its SQL to the probe;</li>
+ *   <li>{@code PgStatement} gets the {@link StatementState} fields;</li>
+ *   <li>the no-argument {@code execute*} methods of prepared statements are timed;</li>
+ *   <li>{@code PgResultSet.next()} and {@code close()} count rows.</li>
+ * </ul>
+ * On retransformation the statement class cannot gain fields, so the mixin is skipped and
+ * statements loaded before the agent simply stay unmeasured.
+ */
+public class JdbcTransformer implements ClassFileTransformer {
+
+  static final String PROBE = "com/insightpulse/jdbc/JdbcProbe";
+
+  static final String CONNECTION = "org/postgresql/jdbc/PgConnection";
+  static final String STATEMENT = "org/postgresql/jdbc/PgStatement";
+  static final String PREPARED_STATEMENT = "org/postgresql/jdbc/PgPreparedStatement";
+  static final String RESULT_SET = "org/postgresql/jdbc/PgResultSet";
+
+  /**
+   * Classes this transformer changes, in binary form for {@code Instrumentation}.
+   */
+  public static final Set<String> TARGETS = Collections.unmodifiableSet(new HashSet<>(
+      Arrays.asList(CONNECTION.replace('/', '.'), STATEMENT.replace('/', '.'),
+          PREPARED_STATEMENT.replace('/', '.'), RESULT_SET.replace('/', '.'))));
+
+  private static final String STATE = StatementState.class.getName().replace('.', '/');
+
+  @Override
+  public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+      ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+    if (className == null || !className.startsWith("org/postgresql/jdbc/Pg")) {
+      return null;
+    }
+    if (!CONNECTION.equals(className) && !STATEMENT.equals(className)
+        && !PREPARED_STATEMENT.equals(className) && !RESULT_SET.equals(className)) {
+      return null;
+    }
+    try {
+      ClassReader reader = new ClassReader(classfileBuffer);
+      ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+      reader.accept(new DriverClassVisitor(writer, className, classBeingRedefined),
+          ClassReader.EXPAND_FRAMES);
+      AgentLog.debug("Instrumented JDBC class %s", className);
+      return writer.toByteArray();
+    } catch (Throwable t) {
+      AgentLog.error("Failed to instrument " + className, t);
+      return null;
+    }
+  }
+
+  static boolean isTimedExecute(String className, String name, String descriptor) {
+    if (PREPARED_STATEMENT.equals(className)) {
+      return descriptor.startsWith("()") && (name.equals("execute") || name.equals("executeQuery")
+          || name.equals("executeUpdate") || name.equals("executeLargeUpdate"));
+    }
+    return STATEMENT.equals(className)
+        && (name.equals("executeBatch") || name.equals("executeLargeBatch"))
+        && descriptor.startsWith("()");
+  }
+
+  private static final class DriverClassVisitor extends ClassVisitor {
+
+    private final String className;
+    private final boolean addMixin;
+    private boolean emitFrames;
+
+    DriverClassVisitor(ClassVisitor cv, String className, Class<?> classBeingRedefined) {
+      super(Opcodes.ASM9, cv);
+      this.className = className;
+      // retransforming starts over from the original bytes, so a class loaded with the mixin
+      // must get it again, while one loaded before the agent must stay without
+      this.addMixin = STATEMENT.equals(className) && (classBeingRedefined == null
+          || StatementState.class.isAssignableFrom(classBeingRedefined));
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName,
+        String[] interfaces) {
+      emitFrames = (version & 0xFFFF) >= Opcodes.V1_7;
+      String[] declared = interfaces;
+      if (addMixin) {
+        declared = Arrays.copyOf(interfaces, interfaces.length + 1);
+        declared[interfaces.length] = STATE;
+      }
+      super.visit(version, access, name, signature, superName, declared);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+        String[] exceptions) {
+      MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+      if ((access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE | Opcodes.ACC_STATIC)) != 0) {
+        return mv;
+      }
+      if (CONNECTION.equals(className)
+          && (name.equals("prepareStatement") || name.equals("prepareCall"))
+          && descriptor.startsWith("(Ljava/lang/String;")) {
+        return new PrepareAdvice(mv, access, name, descriptor);
+      }
+      if (isTimedExecute(className, name, descriptor)) {
+        return new ExecuteAdvice(mv, className, access, name, descriptor, emitFrames);
+      }
+      if (RESULT_SET.equals(className) && name.equals("next") && descriptor.equals("()Z")) {
+        return new NextAdvice(mv, access, name, descriptor);
+      }
+      if (RESULT_SET.equals(className) && name.equals("close") && descriptor.equals("()V")) {
+        return new CloseAdvice(mv, access, name, descriptor);
+      }
+      return mv;
+    }
+
+    @Override
+    public void visitEnd() {
+      if (addMixin) {
+        MixinFields.add(cv, className, StatementState.FINGERPRINT_FIELD, Type.INT_TYPE);
+        MixinFields.add(cv, className, StatementState.ROWS_FIELD, Type.LONG_TYPE);
+      }
+      super.visitEnd();
+    }
+  }
+
+  private static final class PrepareAdvice extends AdviceAdapter {
+
+    PrepareAdvice(MethodVisitor mv, int access, String name, String descriptor) {
+      super(Opcodes.ASM9, mv, access, name, descriptor);
+    }
+
+    @Override
+    protected void onMethodExit(int opcode) {
+      if (opcode == ARETURN) {
+        mv.visitInsn(DUP);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitMethodInsn(INVOKESTATIC, PROBE, "onPrepare",
+            "(Ljava/lang/Object;Ljava/lang/String;)V", false);
+      }
+    }
+  }
+
+  private static final class ExecuteAdvice extends TimedAdvice {
+
+    ExecuteAdvice(MethodVisitor mv, String owner, int access, String name, String descriptor,
+        boolean emitFrames) {
+      super(mv, owner, access, name, descriptor, emitFrames);
+    }
+
+    @Override
+    protected void emitEnter(MethodVisitor target) {
+      target.visitMethodInsn(INVOKESTATIC, PROBE, "executeStart", "()J", false);
+    }
+
+    @Override
+    protected void emitExit(MethodVisitor target, int returnOpcode) {
+      target.visitVarInsn(ALOAD, 0);
+      loadStart(target);
+      target.visitMethodInsn(INVOKESTATIC, PROBE, "executeEnd", "(Ljava/lang/Object;J)V", false);
+    }
+
+    @Override
+    protected void emitErrorExit(MethodVisitor target) {
+      target.visitVarInsn(ALOAD, 0);
+      loadStart(target);
+      target.visitMethodInsn(INVOKESTATIC, PROBE, "executeError",
+          "(Ljava/lang/Throwable;Ljava/lang/Object;J)V", false);
+    }
+  }
+
+  private static final class NextAdvice extends AdviceAdapter {
+
+    NextAdvice(MethodVisitor mv, int access, String name, String descriptor) {
+      super(Opcodes.ASM9, mv, access, name, descriptor);
+    }
+
+    @Override
+    protected void onMethodExit(int opcode) {
+      if (opcode == IRETURN) {
+        mv.visitInsn(DUP);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitInsn(SWAP);
+        mv.visitMethodInsn(INVOKESTATIC, PROBE, "onNext", "(Ljava/lang/Object;Z)V", false);
+      }
+    }
+  }
+
+  private static final class CloseAdvice extends AdviceAdapter {
+
+    CloseAdvice(MethodVisitor mv, int access, String name, String descriptor) {
+      super(Opcodes.ASM9, mv, access, name, descriptor);
+    }
+
+    @Override
+    protected void onMethodEnter() {
+      mv.visitVarInsn(ALOAD, 0);
+      mv.visitMethodInsn(INVOKESTATIC, PROBE, "onResultSetClose", "(Ljava/lang/Object;)V", false);
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package com.insightpulse.instrument;
+
+/**
+ * A {@code class-glob[#method-glob]} instrumentation rule.
+ * <p>
+ * In the class part {@code *} matches within one package segment and {@code **} matches across
+ * segments. Class names are kept in JVM internal form ({@code com/example/Foo}) so the transformer
+ * never has to convert the names it is handed.
+ */
+public final class MethodPattern {
+
+  private final String source;
+  private final String classGlob;
+  private final String methodGlob;
+
+  private MethodPattern(String source, String classGlob, String methodGlob) {
+    this.source = source;
+    this.classGlob = classGlob;
+    this.methodGlob = methodGlob;
+  }
+
+  public static MethodPattern parse(String pattern) {
+    String trimmed = pattern.trim();
+    int hash = trimmed.indexOf('#');
+    String classPart = hash < 0 ? trimmed : trimmed.substring(0, hash);
+    String methodPart = hash < 0 ? "*" : trimmed.substring(hash + 1);
+    if (classPart.isEmpty() || methodPart.isEmpty()) {
+      throw new IllegalArgumentException("Invalid instrumentation pattern: " + pattern);
+    }
+    return new MethodPattern(trimmed, classPart.replace('.', '/'), methodPart);
+  }
+
+  public boolean matchesClass(String internalName) {
+    return glob(classGlob, 0, internalName, 0, '/');
+  }
+
+  public boolean matchesMethod(String methodName) {
+    return glob(methodGlob, 0, methodName, 0, '\0');
+  }
+
+  /**
+   * The part of the class glob before the first wildcard, used for fast rejection.
+   */
+  public String literalPrefix() {
+    int star = classGlob.indexOf('*');
+    return star < 0 ? classGlob : classGlob.substring(0, star);
+  }
+
+  public String getClassGlob() {
+    return classGlob;
+  }
+
+  public String getMethodGlob() {
+    return methodGlob;
+  }
+
+  static boolean glob(String pattern, int p, String text, int t, char separator) {
+    while (p < pattern.length()) {
+      char c = pattern.charAt(p);
+      if (c == '*') {
+        boolean deep = p + 1 < pattern.length() && pattern.charAt(p + 1) == '*';
+        int next = deep ? p + 2 : p + 1;
+        if (next == pattern.length()) {
+          return deep || text.indexOf(separator, t) < 0;
+        }
+        for (int i = t; i <= text.length(); i++) {
+          if (glob(pattern, next, text, i, separator)) {
+            return true;
+          }
+          if (i < text.length() && !deep && text.charAt(i) == separator) {
+            return false;
+          }
+        }
+        return false;
+      }
+      if (t >= text.length() || text.charAt(t) != c) {
+        return false;
+      }
+      p++;
+      t++;
+    }
+    return t == text.length();
+  }
+
+  /**
+   * Patterns are equal if their globs are, however they were written.
+   */
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof MethodPattern)) {
+      return false;
+    }
+    MethodPattern that = (MethodPattern) other;
+    return classGlob.equals(that.classGlob) && methodGlob.equals(that.methodGlob);
+  }
+
+  @Override
+  public int hashCode() {
+    return classGlob.hashCode() * 31 + methodGlob.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return source;
+  }
+}
@@ -0,0 +1,48 @@
+package com.insightpulse.instrument;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Adds the fields behind a mixin interface such as {@code StatementState}: a private transient
+ * field plus a getter and a setter named after it.
+ * <p>
+ * Only for classes being defined; a retransformed class cannot gain fields or methods.
+ */
+final class MixinFields {
+
+  private MixinFields() {
+  }
+
+  /**
+   * @param cv    the visitor the class is written to, past any adapter that would rewrite the
+   *              new members
+   * @param owner internal name of the class
+   */
+  static void add(ClassVisitor cv, String owner, String field, Type type) {
+    String descriptor = type.getDescriptor();
+    cv.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_TRANSIENT, field, descriptor, null, null)
+        .visitEnd();
+
+    MethodVisitor getter = cv.visitMethod(Opcodes.ACC_PUBLIC, field, "()" + descriptor, null,
+        null);
+    getter.visitCode();
+    getter.visitVarInsn(Opcodes.ALOAD, 0);
+    getter.visitFieldInsn(Opcodes.GETFIELD, owner, field, descriptor);
+    getter.visitInsn(type.getOpcode(Opcodes.IRETURN));
+    getter.visitMaxs(0, 0);
+    getter.visitEnd();
+
+    MethodVisitor setter = cv.visitMethod(Opcodes.ACC_PUBLIC, field, "(" + descriptor + ")V",
+        null, null);
+    setter.visitCode();
+    setter.visitVarInsn(Opcodes.ALOAD, 0);
+    setter.visitVarInsn(type.getOpcode(Opcodes.ILOAD), 1);
+    setter.visitFieldInsn(Opcodes.PUTFIELD, owner, field, descriptor);
+    setter.visitInsn(Opcodes.RETURN);
+    setter.visitMaxs(0, 0);
+    setter.visitEnd();
+  }
+}
@@ -0,0 +1,45 @@
+package com.insightpulse.instrument;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Java 9+ module plumbing, done reflectively since the agent is compiled for Java 8.
+ */
+public final class ModuleSupport {
+
+  private ModuleSupport() {
+  }
+
+  /**
+   * Lets the module of {@code woven} read the module of {@code probe}, so that woven JDK code can
+   * call into agent classes on the bootstrap class path. Does nothing on Java 8.
+   *
+   * @return {@code false} if the modules could not be linked
+   */
+  public static boolean addReads(Instrumentation instrumentation, Class<?> woven,
+      Class<?> probe) {
+    Method getModule;
+    try {
+      getModule = Class.class.getMethod("getModule");
+    } catch (NoSuchMethodException e) {
+      return true;
+    }
+    try {
+      Object from = getModule.invoke(woven);
+      Object to = getModule.invoke(probe);
+      Class<?> moduleClass = getModule.getReturnType();
+      Method redefineModule = Instrumentation.class.getMethod("redefineModule", moduleClass,
+          Set.class, Map.class, Map.class, Set.class, Map.class);
+      redefineModule.invoke(instrumentation, from, Collections.singleton(to),
+          Collections.emptyMap(), Collections.emptyMap(), Collections.emptySet(),
+          Collections.emptyMap());
+      return true;
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,36 @@
+package com.insightpulse.instrument;
+
+import com.insightpulse.AgentLog;
+import java.lang.instrument.Instrumentation;
+import java.util.function.Predicate;
+
+/**
+ * Retransforms loaded classes, so that transformers added or changed late apply to them too.
+ */
+public final class Retransformation {
+
+  private Retransformation() {
+  }
+
+  /**
+   * Retransforms the modifiable loaded classes {@code filter} accepts, one at a time so that a
+   * class failing verification does not hold back the others.
+   *
+   * @return the number of classes retransformed
+   */
+  public static int retransform(Instrumentation instrumentation, Predicate<Class<?>> filter) {
+    int retransformed = 0;
+    for (Class<?> type : instrumentation.getAllLoadedClasses()) {
+      if (!instrumentation.isModifiableClass(type) || !filter.test(type)) {
+        continue;
+      }
+      try {
+        instrumentation.retransformClasses(type);
+        retransformed++;
+      } catch (Throwable t) {
+        AgentLog.error("Failed to retransform " + type.getName(), t);
+      }
+    }
+    return retransformed;
+  }
+}
@@ -0,0 +1,228 @@
+package com.insightpulse.instrument;
+
+import com.insightpulse.AgentLog;
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.AdviceAdapter;
+
+/**
+ * Weaves {@code SpringMvcProbe} calls into Spring MVC and Tomcat.
+ * <ul>
+ *   <li>{@code DispatcherServlet.doDispatch} is timed as the request span and reports the
+ *   response status and the best matching pattern;</li>
+ *   <li>{@code DispatcherServlet.processHandlerException} marks the request as failed, since
+ *   exception handlers such as a {@code @ControllerAdvice} may answer with any status;</li>
+ *   <li>{@code RequestMappingHandlerAdapter.handleInternal} reports the route template and the
+ *   handler method before the handler runs, so spans recorded inside it carry the route;</li>
+ *   <li>{@code org.apache.coyote.Response.sendHeaders} marks the time to first byte.</li>
+ * </ul>
+ * Servlet types are taken from the hooked method descriptors, so the same code serves
+ * {@code javax.servlet} and {@code jakarta.servlet} applications.
+ */
+public class SpringMvcTransformer implements ClassFileTransformer {
+
+  static final String PROBE = "com/insightpulse/web/SpringMvcProbe";
+
+  static final String DISPATCHER_SERVLET = "org/springframework/web/servlet/DispatcherServlet";
+  static final String HANDLER_ADAPTER =
+      "org/springframework/web/servlet/mvc/method/annotation/RequestMappingHandlerAdapter";
+  static final String HANDLER_METHOD = "org/springframework/web/method/HandlerMethod";
+  static final String COYOTE_RESPONSE = "org/apache/coyote/Response";
+
+  /**
+   * Classes this transformer changes, in binary form for {@code Instrumentation}.
+   */
+  public static final Set<String> TARGETS = Collections.unmodifiableSet(new HashSet<>(
+      Arrays.asList(DISPATCHER_SERVLET.replace('/', '.'), HANDLER_ADAPTER.replace('/', '.'),
+          COYOTE_RESPONSE.replace('/', '.'))));
+
+  /**
+   * {@code HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE}.
+   */
+  static final String BEST_MATCHING_PATTERN =
+      "org.springframework.web.servlet.HandlerMapping.bestMatchingPattern";
+
+  @Override
+  public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+      ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+    if (!DISPATCHER_SERVLET.equals(className) && !HANDLER_ADAPTER.equals(className)
+        && !COYOTE_RESPONSE.equals(className)) {
+      return null;
+    }
+    try {
+      ClassReader reader = new ClassReader(classfileBuffer);
+      ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+      reader.accept(new WebClassVisitor(writer, className), ClassReader.EXPAND_FRAMES);
+      AgentLog.debug("Instrumented web class %s", className);
+      return writer.toByteArray();
+    } catch (Throwable t) {
+      AgentLog.error("Failed to instrument " + className, t);
+      return null;
+    }
+  }
+
+  static boolean isDispatch(String className, String name, String descriptor) {
+    return DISPATCHER_SERVLET.equals(className) && name.equals("doDispatch")
+        && Type.getArgumentTypes(descriptor).length == 2
+        && Type.getReturnType(descriptor) == Type.VOID_TYPE;
+  }
+
+  static boolean isHandlerInvocation(String className, String name, String descriptor) {
+    if (!HANDLER_ADAPTER.equals(className) || !name.equals("handleInternal")) {
+      return false;
+    }
+    Type[] arguments = Type.getArgumentTypes(descriptor);
+    return arguments.length == 3 && arguments[2].getInternalName().equals(HANDLER_METHOD);
+  }
+
+  private static final class WebClassVisitor extends ClassVisitor {
+
+    private final String className;
+    private boolean emitFrames;
+
+    WebClassVisitor(ClassVisitor cv, String className) {
+      super(Opcodes.ASM9, cv);
+      this.className = className;
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName,
+        String[] interfaces) {
+      emitFrames = (version & 0xFFFF) >= Opcodes.V1_7;
+      super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+        String[] exceptions) {
+      MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+      if ((access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE | Opcodes.ACC_STATIC)) != 0) {
+        return mv;
+      }
+      if (isDispatch(className, name, descriptor)) {
+        return new DispatchAdvice(mv, className, access, name, descriptor, emitFrames);
+      }
+      if (DISPATCHER_SERVLET.equals(className) && name.equals("processHandlerException")) {
+        return new HandlerExceptionAdvice(mv, access, name, descriptor);
+      }
+      if (isHandlerInvocation(className, name, descriptor)) {
+        return new HandlerAdvice(mv, access, name, descriptor);
+      }
+      if (COYOTE_RESPONSE.equals(className) && name.equals("sendHeaders")
+          && descriptor.equals("()V")) {
+        return new CommitAdvice(mv, access, name, descriptor);
+      }
+      return mv;
+    }
+  }
+
+  /**
+   * Pushes the HTTP method and the best matching pattern attribute of the request in slot 1.
+   */
+  private static void pushRequestInfo(MethodVisitor target, String requestType) {
+    target.visitVarInsn(Opcodes.ALOAD, 1);
+    target.visitMethodInsn(Opcodes.INVOKEINTERFACE, requestType, "getMethod",
+        "()Ljava/lang/String;", true);
+    pushPattern(target, requestType);
+  }
+
+  private static void pushPattern(MethodVisitor target, String requestType) {
+    target.visitVarInsn(Opcodes.ALOAD, 1);
+    target.visitLdcInsn(BEST_MATCHING_PATTERN);
+    target.visitMethodInsn(Opcodes.INVOKEINTERFACE, requestType, "getAttribute",
+        "(Ljava/lang/String;)Ljava/lang/Object;", true);
+  }
+
+  private static final class DispatchAdvice extends TimedAdvice {
+
+    private final String requestType;
+    private final String responseType;
+
+    DispatchAdvice(MethodVisitor mv, String owner, int access, String name, String descriptor,
+        boolean emitFrames) {
+      super(mv, owner, access, name, descriptor, emitFrames);
+      Type[] arguments = Type.getArgumentTypes(descriptor);
+      this.requestType = arguments[0].getInternalName();
+      this.responseType = arguments[1].getInternalName();
+    }
+
+    @Override
+    protected void emitEnter(MethodVisitor target) {
+      target.visitVarInsn(ALOAD, 1);
+      target.visitMethodInsn(INVOKEINTERFACE, requestType, "getMethod", "()Ljava/lang/String;",
+          true);
+      target.visitMethodInsn(INVOKESTATIC, PROBE, "dispatchStart", "(Ljava/lang/String;)J", false);
+    }
+
+    @Override
+    protected void emitExit(MethodVisitor target, int returnOpcode) {
+      pushPattern(target, requestType);
+      target.visitVarInsn(ALOAD, 2);
+      target.visitMethodInsn(INVOKEINTERFACE, responseType, "getStatus", "()I", true);
+      loadStart(target);
+      target.visitMethodInsn(INVOKESTATIC, PROBE, "dispatchEnd", "(Ljava/lang/Object;IJ)V",
+          false);
+    }
+
+    @Override
+    protected void emitErrorExit(MethodVisitor target) {
+      loadStart(target);
+      target.visitMethodInsn(INVOKESTATIC, PROBE, "dispatchError", "(Ljava/lang/Throwable;J)V",
+          false);
+    }
+  }
+
+  private static final class HandlerAdvice extends AdviceAdapter {
+
+    private final String requestType;
+
+    HandlerAdvice(MethodVisitor mv, int access, String name, String descriptor) {
+      super(Opcodes.ASM9, mv, access, name, descriptor);
+      this.requestType = Type.getArgumentTypes(descriptor)[0].getInternalName();
+    }
+
+    @Override
+    protected void onMethodEnter() {
+      pushRequestInfo(mv, requestType);
+      mv.visitVarInsn(ALOAD, 3);
+      mv.visitMethodInsn(INVOKEVIRTUAL, HANDLER_METHOD, "getMethod",
+          "()Ljava/lang/reflect/Method;", false);
+      mv.visitMethodInsn(INVOKESTATIC, PROBE, "onHandler",
+          "(Ljava/lang/String;Ljava/lang/Object;Ljava/lang/reflect/Method;)V", false);
+    }
+  }
+
+  private static final class HandlerExceptionAdvice extends AdviceAdapter {
+
+    HandlerExceptionAdvice(MethodVisitor mv, int access, String name, String descriptor) {
+      super(Opcodes.ASM9, mv, access, name, descriptor);
+    }
+
+    @Override
+    protected void onMethodEnter() {
+      mv.visitMethodInsn(INVOKESTATIC, PROBE, "onHandlerException", "()V", false);
+    }
+  }
+
+  private static final class CommitAdvice extends AdviceAdapter {
+
+    CommitAdvice(MethodVisitor mv, int access, String name, String descriptor) {
+      super(Opcodes.ASM9, mv, access, name, descriptor);
+    }
+
+    @Override
+    protected void onMethodEnter() {
+      mv.visitMethodInsn(INVOKESTATIC, PROBE, "onCommit", "()V", false);
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package com.insightpulse.instrument;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.AdviceAdapter;
+
+/**
+ * Wraps a method body in enter/exit probe calls that share a start timestamp.
+ * <p>
+ * The enter call's {@code long} result is kept in a new local. Normal returns run the exit code
+ * inline. Exceptions are caught by a catch-all handler appended after every existing handler, so
+ * the method's own try/catch blocks keep precedence; the handler reports the error and rethrows
+ * the original throwable.
+ * <p>
+ * The exception handler may use {@code this} and the start timestamp, but no arguments: their
+ * slots are declared {@code TOP} there.
+ * <p>
+ * Subclasses emit straight onto the {@code target} visitor they are handed: going through this
+ * adapter would renumber our local and re-trigger the {@code ATHROW} exit hook.
+ */
+abstract class TimedAdvice extends AdviceAdapter {
+
+  private final String owner;
+  private final boolean emitFrames;
+  private final Label bodyStart = new Label();
+  private int startLocal;
+
+  protected TimedAdvice(MethodVisitor mv, String owner, int access, String name,
+      String descriptor, boolean emitFrames) {
+    super(Opcodes.ASM9, mv, access, name, descriptor);
+    this.owner = owner;
+    this.emitFrames = emitFrames;
+  }
+
+  /**
+   * Emits code that leaves the start timestamp, a {@code long}, on the stack.
+   */
+  protected abstract void emitEnter(MethodVisitor target);
+
+  /**
+   * Emits the normal-exit call. The return value, if any, is on the stack and must stay there.
+   */
+  protected abstract void emitExit(MethodVisitor target, int returnOpcode);
+
+  /**
+   * Emits the error-exit call. The thrown {@link Throwable} is on top of the stack and must be
+   * consumed; the original is rethrown afterwards.
+   */
+  protected abstract void emitErrorExit(MethodVisitor target);
+
+  protected void loadStart(MethodVisitor target) {
+    target.visitVarInsn(LLOAD, startLocal);
+  }
+
+  @Override
+  protected void onMethodEnter() {
+    emitEnter(mv);
+    startLocal = newLocal(Type.LONG_TYPE);
+    mv.visitVarInsn(LSTORE, startLocal);
+    visitLabel(bodyStart);
+  }
+
+  @Override
+  protected void onMethodExit(int opcode) {
+    if (opcode != ATHROW) {
+      // thrown exceptions are reported by the catch-all handler
+      emitExit(mv, opcode);
+    }
+  }
+
+  @Override
+  public void visitMaxs(int maxStack, int maxLocals) {
+    Label handler = new Label();
+    mv.visitLabel(handler);
+    mv.visitTryCatchBlock(bodyStart, handler, handler, "java/lang/Throwable");
+    if (emitFrames) {
+      Object[] locals = handlerFrameLocals();
+      mv.visitFrame(Opcodes.F_NEW, locals.length, locals, 1, new Object[]{"java/lang/Throwable"});
+    }
+    mv.visitInsn(DUP);
+    emitErrorExit(mv);
+    mv.visitInsn(ATHROW);
+    super.visitMaxs(maxStack, maxLocals);
+  }
+
+  /**
+   * Argument slots are declared {@code TOP}, which is assignable from whatever the body leaves
+   * there; {@code this} keeps its type since javac never reassigns slot 0.
+   */
+  private Object[] handlerFrameLocals() {
+    Object[] locals = new Object[startLocal + 1];
+    for (int i = 0; i < startLocal; i++) {
+      locals[i] = Opcodes.TOP;
+    }
+    if ((methodAccess & ACC_STATIC) == 0) {
+      locals[0] = owner;
+    }
+    locals[startLocal] = Opcodes.LONG;
+    return locals;
+  }
+}
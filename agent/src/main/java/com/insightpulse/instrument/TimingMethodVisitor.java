@@ -0,0 +1,40 @@
+package com.insightpulse.instrument;
+
+import org.objectweb.asm.MethodVisitor;
+
+/**
+ * Wraps a method body in {@code Probe.enter}/{@code Probe.exit} calls.
+ */
+class TimingMethodVisitor extends TimedAdvice {
+
+  static final String PROBE = "com/insightpulse/trace/Probe";
+
+  private final int methodId;
+
+  TimingMethodVisitor(MethodVisitor mv, String owner, int access, String name, String descriptor,
+      int methodId, boolean emitFrames) {
+    super(mv, owner, access, name, descriptor, emitFrames);
+    this.methodId = methodId;
+  }
+
+  @Override
+  protected void emitEnter(MethodVisitor target) {
+    target.visitLdcInsn(methodId);
+    target.visitMethodInsn(INVOKESTATIC, PROBE, "enter", "(I)J", false);
+  }
+
+  @Override
+  protected void emitExit(MethodVisitor target, int returnOpcode) {
+    target.visitLdcInsn(methodId);
+    loadStart(target);
+    target.visitMethodInsn(INVOKESTATIC, PROBE, "exit", "(IJ)V", false);
+  }
+
+  @Override
+  protected void emitErrorExit(MethodVisitor target) {
+    target.visitLdcInsn(methodId);
+    loadStart(target);
+    target.visitMethodInsn(INVOKESTATIC, PROBE, "exitWithError", "(Ljava/lang/Throwable;IJ)V",
+        false);
+  }
+}
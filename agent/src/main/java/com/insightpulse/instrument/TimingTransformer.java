@@ -0,0 +1,233 @@
+package com.insightpulse.instrument;
+
+import com.insightpulse.AgentLog;
+import com.insightpulse.metrics.Metrics;
+import com.insightpulse.trace.Endpoints;
+import com.insightpulse.trace.MethodRegistry;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Method;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Weaves timing probes into the methods selected by the configured {@link MethodPattern}s.
+ * <p>
+ * Only concrete, non-synthetic, non-bridge methods are instrumented. Constructors and static
+ * initializers are left alone: timing them is rarely useful and wrapping {@code <init>} in a
+ * handler is not verifiable before the super constructor call.
+ * <p>
+ * The patterns can change while the application runs: {@link #update} retransforms the loaded
+ * classes concerned, and a class no pattern matches any more is restored to its original
+ * bytecode, so instrumentation that was removed costs nothing. A pattern naming an interface,
+ * such as a Spring Data repository, times the methods the interface declares in the loaded
+ * classes implementing it directly, its proxies included; since a class's interfaces are only
+ * known once it exists, this takes effect on retransformation, not when a class is first loaded.
+ */
+public class TimingTransformer implements ClassFileTransformer {
+
+  private static final int SKIPPED_ACCESS =
+      Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE | Opcodes.ACC_SYNTHETIC | Opcodes.ACC_BRIDGE;
+
+  private volatile List<MethodPattern> patterns;
+  private volatile ClassNameTrie classes;
+
+  public TimingTransformer(List<MethodPattern> patterns) {
+    setPatterns(patterns);
+  }
+
+  @Override
+  public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+      ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+    if (className == null) {
+      return null;
+    }
+    ClassNameTrie trie = classes;
+    List<MethodPattern> matching = trie.match(className);
+    Class<?> viaInterface = null;
+    if (matching.isEmpty() && classBeingRedefined != null) {
+      viaInterface = instrumentedInterface(trie, classBeingRedefined);
+      if (viaInterface != null) {
+        matching = trie.match(internalName(viaInterface));
+      }
+    }
+    if (matching.isEmpty()) {
+      return null;
+    }
+    try {
+      return weave(className, classfileBuffer, matching, viaInterface);
+    } catch (Throwable t) {
+      AgentLog.error("Failed to instrument " + className, t);
+      return null;
+    }
+  }
+
+  public List<MethodPattern> patterns() {
+    return patterns;
+  }
+
+  /**
+   * Replaces the patterns for classes loaded from now on; use {@link #update} to change those
+   * loaded before.
+   */
+  public synchronized void setPatterns(List<MethodPattern> patterns) {
+    this.patterns = Collections.unmodifiableList(new ArrayList<>(patterns));
+    this.classes = new ClassNameTrie(this.patterns);
+  }
+
+  /**
+   * Starts timing the {@code added} patterns and stops timing the {@code removed} ones, then
+   * retransforms the loaded classes either concerns. Patterns already present, or absent, are
+   * ignored.
+   *
+   * @return the number of classes retransformed
+   */
+  public synchronized int update(Instrumentation instrumentation, List<MethodPattern> added,
+      List<MethodPattern> removed) {
+    List<MethodPattern> next = new ArrayList<>(patterns);
+    List<MethodPattern> changed = new ArrayList<>();
+    for (MethodPattern pattern : removed) {
+      if (next.remove(pattern)) {
+        changed.add(pattern);
+      }
+    }
+    for (MethodPattern pattern : added) {
+      if (!next.contains(pattern)) {
+        next.add(pattern);
+        changed.add(pattern);
+      }
+    }
+    if (changed.isEmpty()) {
+      return 0;
+    }
+    setPatterns(next);
+    ClassNameTrie concerned = new ClassNameTrie(changed);
+    return Retransformation.retransform(instrumentation, type -> matches(concerned, type));
+  }
+
+  /**
+   * Whether {@code type}, loaded before this transformer was added, would be woven once
+   * retransformed.
+   */
+  public boolean isTarget(Class<?> type) {
+    return matches(classes, type);
+  }
+
+  List<MethodPattern> matchingPatterns(String className) {
+    return classes.match(className);
+  }
+
+  byte[] weave(String className, byte[] classfileBuffer, List<MethodPattern> matching,
+      Class<?> viaInterface) {
+    ClassReader reader = new ClassReader(classfileBuffer);
+    if ((reader.getAccess() & Opcodes.ACC_INTERFACE) != 0) {
+      return null;
+    }
+    ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+    TimingClassVisitor visitor = viaInterface == null
+        ? new TimingClassVisitor(writer, className, className, matching, null)
+        : new TimingClassVisitor(writer, className, internalName(viaInterface), matching,
+            declaredMethods(viaInterface));
+    reader.accept(visitor, ClassReader.EXPAND_FRAMES);
+    if (visitor.instrumented == 0) {
+      return null;
+    }
+    AgentLog.debug("Instrumented %d method(s) of %s", visitor.instrumented, className);
+    return writer.toByteArray();
+  }
+
+  private static boolean matches(ClassNameTrie trie, Class<?> type) {
+    return !type.isInterface() && (!trie.match(internalName(type)).isEmpty()
+        || instrumentedInterface(trie, type) != null);
+  }
+
+  private static Class<?> instrumentedInterface(ClassNameTrie trie, Class<?> type) {
+    for (Class<?> candidate : type.getInterfaces()) {
+      if (!trie.match(internalName(candidate)).isEmpty()) {
+        return candidate;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Names and descriptors of the methods {@code type} declares, e.g.
+   * {@code findByPetId(I)Ljava/util/List;}.
+   */
+  private static Set<String> declaredMethods(Class<?> type) {
+    Set<String> methods = new HashSet<>();
+    for (Method method : type.getDeclaredMethods()) {
+      methods.add(method.getName() + Type.getMethodDescriptor(method));
+    }
+    return methods;
+  }
+
+  private static String internalName(Class<?> type) {
+    return type.getName().replace('.', '/');
+  }
+
+  private static final class TimingClassVisitor extends ClassVisitor {
+
+    private final String className;
+    /** What the methods are registered under: the class, or the interface it was matched by. */
+    private final String registeredName;
+    private final List<MethodPattern> patterns;
+    /** Methods of the matched interface, or {@code null} if the class was matched by name. */
+    private final Set<String> declared;
+    private boolean emitFrames;
+    private int instrumented;
+
+    TimingClassVisitor(ClassVisitor cv, String className, String registeredName,
+        List<MethodPattern> patterns, Set<String> declared) {
+      super(Opcodes.ASM9, cv);
+      this.className = className;
+      this.registeredName = registeredName;
+      this.patterns = patterns;
+      this.declared = declared;
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName,
+        String[] interfaces) {
+      // class files before Java 7 carry no stack map frames (major version is the low 16 bits)
+      emitFrames = (version & 0xFFFF) >= Opcodes.V1_7;
+      super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+        String[] exceptions) {
+      MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+      if ((access & SKIPPED_ACCESS) != 0 || name.charAt(0) == '<' || !matchesMethod(name)
+          || declared != null && !declared.contains(name + descriptor)) {
+        return mv;
+      }
+      int methodId = MethodRegistry.register(registeredName, name, descriptor);
+      String displayName = MethodRegistry.displayName(methodId);
+      Metrics.methods().register(methodId, displayName);
+      Endpoints.bindMethod(methodId, displayName);
+      instrumented++;
+      return new TimingMethodVisitor(mv, className, access, name, descriptor, methodId,
+          emitFrames);
+    }
+
+    private boolean matchesMethod(String name) {
+      for (MethodPattern pattern : patterns) {
+        if (pattern.matchesMethod(name)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package com.insightpulse.jdbc;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+/**
+ * Bounded cache from raw SQL text to fingerprint id.
+ * <p>
+ * Hibernate prepares repository queries from the same {@code String} instances over and over, so
+ * the first level is keyed by identity: one {@link System#identityHashCode} and one reference
+ * comparison. SQL built per call lands in the second level, keyed by the string's (cached)
+ * {@code hashCode} and compared with {@code equals}; a hit there is copied into the first level.
+ * Only a miss in both pays for normalization.
+ * <p>
+ * Both levels are fixed-size, two-way set-associative tables of immutable entries. Inserting into
+ * a full set evicts its second way. Readers and writers race freely: an entry's final fields make
+ * it safe to publish through a plain array store, and losing a race only costs a recomputation.
+ */
+public final class FingerprintCache {
+
+  private final Entry[] byIdentity;
+  private final Entry[] byContent;
+  private final int mask;
+  private final ToIntFunction<String> loader;
+  private final LongAdder equalsHits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * @param capacity entries per level; rounded up to a power of two
+   * @param loader   computes the fingerprint id on a miss
+   */
+  public FingerprintCache(int capacity, ToIntFunction<String> loader) {
+    int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+    this.byIdentity = new Entry[size];
+    this.byContent = new Entry[size];
+    this.mask = size - 1;
+    this.loader = loader;
+  }
+
+  public int idOf(String sql) {
+    int identitySlot = System.identityHashCode(sql) & mask;
+    Entry entry = byIdentity[identitySlot];
+    if (entry != null && entry.sql == sql) {
+      return entry.id;
+    }
+    entry = byIdentity[identitySlot ^ 1];
+    if (entry != null && entry.sql == sql) {
+      return entry.id;
+    }
+    int contentSlot = spread(sql.hashCode()) & mask;
+    entry = findEqual(contentSlot, sql);
+    if (entry != null) {
+      equalsHits.increment();
+    } else {
+      misses.increment();
+      entry = new Entry(sql, loader.applyAsInt(sql));
+      insert(byContent, contentSlot, entry);
+    }
+    insert(byIdentity, identitySlot, entry.sql == sql ? entry : new Entry(sql, entry.id));
+    return entry.id;
+  }
+
+  public long equalsHits() {
+    return equalsHits.sum();
+  }
+
+  public long misses() {
+    return misses.sum();
+  }
+
+  private Entry findEqual(int slot, String sql) {
+    Entry entry = byContent[slot];
+    if (entry != null && entry.sql.equals(sql)) {
+      return entry;
+    }
+    entry = byContent[slot ^ 1];
+    return entry != null && entry.sql.equals(sql) ? entry : null;
+  }
+
+  private static void insert(Entry[] table, int slot, Entry entry) {
+    if (table[slot] == null) {
+      table[slot] = entry;
+    } else {
+      table[slot ^ 1] = entry;
+    }
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  private static final class Entry {
+
+    final String sql;
+    final int id;
+
+    Entry(String sql, int id) {
+      this.sql = sql;
+      this.id = id;
+    }
+  }
+}
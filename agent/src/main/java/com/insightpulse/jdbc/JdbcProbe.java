@@ -0,0 +1,96 @@
+package com.insightpulse.jdbc;
+
+import com.insightpulse.trace.Probe;
+import com.insightpulse.trace.SpanKind;
+import com.insightpulse.trace.SpanRing;
+import com.insightpulse.trace.TraceContext;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Static entry points woven into the PostgreSQL driver.
+ * <p>
+ * The fingerprint is resolved once when the statement is prepared and kept on the statement
+ * through {@link StatementState}. Executions publish a {@link SpanKind#SQL} span; rows are counted
+ * on the statement while the result set is read and published as one {@link SpanKind#SQL_ROWS}
+ * record when it is exhausted or closed. Executions inside a trace also feed the
+ * {@link NPlusOneDetector}. Like {@link Probe}, nothing here may throw.
+ */
+public final class JdbcProbe {
+
+  private JdbcProbe() {
+  }
+
+  public static void onPrepare(Object statement, String sql) {
+    if (sql == null || !(statement instanceof StatementState)) {
+      return;
+    }
+    try {
+      StatementState state = (StatementState) statement;
+      state.insightpulse$fingerprint(SqlFingerprints.idOf(sql));
+      state.insightpulse$rows(0);
+    } catch (Throwable ignored) {
+      // never let the agent break the application
+    }
+  }
+
+  public static long executeStart() {
+    return Probe.ring() != null ? System.nanoTime() : 0L;
+  }
+
+  public static void executeEnd(Object statement, long start) {
+    if (start == 0L || !(statement instanceof StatementState)) {
+      return;
+    }
+    long duration = System.nanoTime() - start;
+    int fingerprint = ((StatementState) statement).insightpulse$fingerprint();
+    SpanRing ring = Probe.ring();
+    if (fingerprint == SqlFingerprints.UNKNOWN || ring == null) {
+      return;
+    }
+    TraceContext context = TraceContext.current();
+    ring.publish(SpanKind.SQL, fingerprint, context.endpointId(), context.traceId(), start,
+        duration, 0L);
+    NPlusOneDetector.onStatement(context, fingerprint);
+  }
+
+  public static void executeError(Throwable error, Object statement, long start) {
+    executeEnd(statement, start);
+  }
+
+  public static void onNext(Object resultSet, boolean hasRow) {
+    try {
+      Statement statement = ((ResultSet) resultSet).getStatement();
+      if (!(statement instanceof StatementState)) {
+        return;
+      }
+      StatementState state = (StatementState) statement;
+      if (hasRow) {
+        state.insightpulse$rows(state.insightpulse$rows() + 1);
+      } else {
+        flushRows(state);
+      }
+    } catch (Throwable ignored) {
+      // a closed result set throws from getStatement(); nothing to count then
+    }
+  }
+
+  public static void onResultSetClose(Object resultSet) {
+    onNext(resultSet, false);
+  }
+
+  private static void flushRows(StatementState state) {
+    long rows = state.insightpulse$rows();
+    if (rows == 0) {
+      return;
+    }
+    state.insightpulse$rows(0);
+    int fingerprint = state.insightpulse$fingerprint();
+    SpanRing ring = Probe.ring();
+    if (fingerprint != SqlFingerprints.UNKNOWN && ring != null) {
+      TraceContext context = TraceContext.current();
+      ring.publish(SpanKind.SQL_ROWS, fingerprint, context.endpointId(), context.traceId(), 0L, 0L,
+          rows);
+    }
+  }
+}
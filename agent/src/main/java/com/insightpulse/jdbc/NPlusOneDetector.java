@@ -0,0 +1,189 @@
+package com.insightpulse.jdbc;
+
+import com.insightpulse.trace.Endpoints;
+import com.insightpulse.trace.IntCountMap;
+import com.insightpulse.trace.SpanKind;
+import com.insightpulse.trace.SpanRing;
+import com.insightpulse.trace.TraceContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Flags SQL fingerprints executed more than N times within one trace.
+ * <p>
+ * Counting happens in the request's {@link TraceContext} without allocation. The first time an
+ * endpoint crosses the threshold for a fingerprint, the request thread walks its stack once to
+ * find the application frame that triggered the statement (typically a mapper or getter walking a
+ * lazy collection). Each offending trace publishes one {@link SpanKind#N_PLUS_ONE} record per
+ * fingerprint when it finishes; the drainer folds those into {@link Finding}s.
+ */
+public final class NPlusOneDetector {
+
+  /**
+   * Frames from these packages are skipped when looking for the call site.
+   */
+  private static final String[] FRAMEWORK_PREFIXES = {
+      "java.", "javax.", "jakarta.", "sun.", "jdk.", "com.sun.", "com.insightpulse.",
+      "org.postgresql.", "org.hibernate.", "org.springframework.", "com.zaxxer.",
+      "com.fasterxml.", "org.apache.", "net.bytebuddy.", "org.aspectj."};
+
+  private static volatile int threshold = 5;
+
+  private static final ConcurrentMap<Long, String> CALL_SITES = new ConcurrentHashMap<>();
+  private static final ConcurrentMap<Long, Finding> FINDINGS = new ConcurrentHashMap<>();
+
+  private NPlusOneDetector() {
+  }
+
+  /**
+   * Executions of one fingerprint per trace above which it is reported.
+   */
+  public static void setThreshold(int value) {
+    threshold = value;
+  }
+
+  /**
+   * Counts one execution within the current trace.
+   */
+  public static void onStatement(TraceContext context, int fingerprint) {
+    if (!context.isActive()) {
+      return;
+    }
+    if (context.statementCounts().increment(fingerprint) == threshold + 1) {
+      Long key = key(context.endpointId(), fingerprint);
+      if (!CALL_SITES.containsKey(key)) {
+        CALL_SITES.putIfAbsent(key, callSite(new Throwable().getStackTrace()));
+      }
+    }
+  }
+
+  /**
+   * Publishes the fingerprints of the finishing trace that crossed the threshold.
+   */
+  public static void publishFindings(TraceContext context, SpanRing ring) {
+    IntCountMap counts = context.statementCounts();
+    int limit = threshold;
+    for (int i = 0; i < counts.size(); i++) {
+      int count = counts.countAt(i);
+      if (count > limit) {
+        ring.publish(SpanKind.N_PLUS_ONE, counts.keyAt(i), context.endpointId(),
+            context.traceId(), context.startNanos(), 0L, count);
+      }
+    }
+  }
+
+  /**
+   * Folds one {@link SpanKind#N_PLUS_ONE} record into its finding; drainer thread only.
+   */
+  public static void record(int endpointId, int fingerprint, long executions) {
+    Long key = key(endpointId, fingerprint);
+    Finding finding = FINDINGS.get(key);
+    if (finding == null) {
+      String callSite = CALL_SITES.get(key);
+      finding = new Finding(endpointId, fingerprint, callSite == null ? "unknown" : callSite);
+      FINDINGS.put(key, finding);
+    }
+    finding.record(executions);
+  }
+
+  /**
+   * Findings so far, worst (most affected requests) first.
+   */
+  public static List<Finding> findings() {
+    List<Finding> result = new ArrayList<>(FINDINGS.values());
+    Collections.sort(result, (a, b) -> Long.compare(b.requests(), a.requests()));
+    return result;
+  }
+
+  static String callSite(StackTraceElement[] stack) {
+    for (StackTraceElement frame : stack) {
+      if (!isFramework(frame.getClassName())) {
+        // formatted by hand: on JDK 9+ toString() prefixes class loader and module names
+        return frame.getClassName() + '.' + frame.getMethodName() + '('
+            + (frame.getFileName() == null ? "Unknown Source" : frame.getFileName())
+            + (frame.getLineNumber() >= 0 ? ":" + frame.getLineNumber() : "") + ')';
+      }
+    }
+    return "unknown";
+  }
+
+  private static boolean isFramework(String className) {
+    if (className.contains("$$")) {
+      // CGLIB / Hibernate / ByteBuddy generated proxies
+      return true;
+    }
+    for (String prefix : FRAMEWORK_PREFIXES) {
+      if (className.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Long key(int endpointId, int fingerprint) {
+    return ((long) endpointId << 32) | (fingerprint & 0xFFFFFFFFL);
+  }
+
+  /**
+   * One endpoint repeatedly executing one fingerprint.
+   */
+  public static final class Finding {
+
+    private final int endpointId;
+    private final int fingerprint;
+    private final String callSite;
+    private final LongAdder requests = new LongAdder();
+    private final AtomicLong maxExecutions = new AtomicLong();
+
+    Finding(int endpointId, int fingerprint, String callSite) {
+      this.endpointId = endpointId;
+      this.fingerprint = fingerprint;
+      this.callSite = callSite;
+    }
+
+    void record(long executions) {
+      requests.increment();
+      if (executions > maxExecutions.get()) {
+        maxExecutions.set(executions);
+      }
+    }
+
+    public String endpoint() {
+      return endpointId == Endpoints.NONE ? "-" : Endpoints.name(endpointId);
+    }
+
+    public int fingerprintId() {
+      return fingerprint;
+    }
+
+    public String fingerprint() {
+      return SqlFingerprints.fingerprint(fingerprint);
+    }
+
+    public String callSite() {
+      return callSite;
+    }
+
+    /**
+     * Number of traces in which the fingerprint crossed the threshold.
+     */
+    public long requests() {
+      return requests.sum();
+    }
+
+    public long maxExecutions() {
+      return maxExecutions.get();
+    }
+
+    @Override
+    public String toString() {
+      return "N+1 " + endpoint() + ": '" + fingerprint() + "' executed up to " + maxExecutions()
+          + "x per request in " + requests() + " request(s), at " + callSite;
+    }
+  }
+}
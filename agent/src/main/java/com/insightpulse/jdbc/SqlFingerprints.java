@@ -0,0 +1,83 @@
+package com.insightpulse.jdbc;
+
+import com.insightpulse.metrics.Metrics;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns dense ids to normalized SQL fingerprints and registers their metrics.
+ * <p>
+ * Id 0 is reserved for statements whose SQL is unknown. Raw SQL is looked up through a
+ * {@link FingerprintCache}, so the normalizer only runs the first time a statement text is seen.
+ */
+public final class SqlFingerprints {
+
+  public static final int UNKNOWN = 0;
+
+  private static final Map<String, Integer> IDS = new HashMap<>();
+  private static volatile String[] fingerprints = new String[256];
+  private static volatile int size = 1;
+  private static volatile int cacheCapacity = 4096;
+  /** Built by the first statement, so applications that never reach the database pay nothing. */
+  private static volatile FingerprintCache cache;
+
+  private SqlFingerprints() {
+  }
+
+  /**
+   * Resizes the raw SQL cache; entries cached so far are dropped.
+   */
+  public static synchronized void configureCache(int capacity) {
+    cacheCapacity = capacity;
+    cache = null;
+  }
+
+  /**
+   * Returns the fingerprint id of raw SQL text.
+   */
+  public static int idOf(String sql) {
+    return cache().idOf(sql);
+  }
+
+  public static FingerprintCache cache() {
+    FingerprintCache current = cache;
+    return current != null ? current : createCache();
+  }
+
+  private static synchronized FingerprintCache createCache() {
+    if (cache == null) {
+      cache = new FingerprintCache(cacheCapacity, SqlFingerprints::normalizeAndRegister);
+    }
+    return cache;
+  }
+
+  static int normalizeAndRegister(String sql) {
+    return register(SqlNormalizer.normalize(sql));
+  }
+
+  public static synchronized int register(String fingerprint) {
+    Integer existing = IDS.get(fingerprint);
+    if (existing != null) {
+      return existing;
+    }
+    int id = size;
+    if (id == fingerprints.length) {
+      fingerprints = Arrays.copyOf(fingerprints, id * 2);
+    }
+    fingerprints[id] = fingerprint;
+    IDS.put(fingerprint, id);
+    Metrics.statements().register(id, fingerprint);
+    Metrics.statementRows().register(id, fingerprint);
+    size = id + 1;
+    return id;
+  }
+
+  public static String fingerprint(int id) {
+    return fingerprints[id];
+  }
+
+  public static int size() {
+    return size;
+  }
+}
@@ -0,0 +1,281 @@
+package com.insightpulse.jdbc;
+
+/**
+ * Reduces SQL text to a fingerprint shared by every execution of the same statement shape.
+ * <p>
+ * Comments (including the ones Hibernate adds with {@code use_sql_comments}) are removed,
+ * whitespace is collapsed, unquoted text is lower-cased, and string, numeric and dollar-quoted
+ * literals as well as {@code $n} parameters become {@code ?}. Lists of placeholders after
+ * {@code IN} collapse to a single {@code ?}, and repeated {@code VALUES} rows to one row, so
+ * batch-fetch queries of varying width map to one fingerprint.
+ */
+public final class SqlNormalizer {
+
+  private SqlNormalizer() {
+  }
+
+  public static String normalize(String sql) {
+    return collapseLists(stripLiterals(sql));
+  }
+
+  static String stripLiterals(String sql) {
+    int length = sql.length();
+    StringBuilder out = new StringBuilder(Math.min(length, 1024));
+    int i = 0;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+        i = skipLineComment(sql, i);
+        space(out);
+      } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+        i = skipBlockComment(sql, i);
+        space(out);
+      } else if (c == '\'') {
+        i = skipQuoted(sql, i, false);
+        out.append('?');
+      } else if ((c == 'e' || c == 'E') && i + 1 < length && sql.charAt(i + 1) == '\''
+          && !endsWithIdentifier(out)) {
+        i = skipQuoted(sql, i + 1, true);
+        out.append('?');
+      } else if (c == '"') {
+        int end = skipQuotedIdentifier(sql, i);
+        out.append(sql, i, end);
+        i = end;
+      } else if (c == '$' && i + 1 < length && Character.isDigit(sql.charAt(i + 1))) {
+        i = skipDigits(sql, i + 1);
+        out.append('?');
+      } else if (c == '$' && !endsWithIdentifier(out)) {
+        int end = skipDollarQuoted(sql, i);
+        if (end < 0) {
+          out.append(c);
+          i++;
+        } else {
+          out.append('?');
+          i = end;
+        }
+      } else if (Character.isDigit(c) && !endsWithIdentifier(out)) {
+        i = skipNumber(sql, i);
+        out.append('?');
+      } else if (Character.isWhitespace(c)) {
+        space(out);
+        i++;
+      } else {
+        out.append(Character.toLowerCase(c));
+        i++;
+      }
+    }
+    int end = out.length();
+    if (end > 0 && out.charAt(end - 1) == ' ') {
+      out.setLength(end - 1);
+    }
+    return out.toString();
+  }
+
+  static String collapseLists(String text) {
+    if (text.indexOf("in (") < 0 && text.indexOf("in(") < 0 && text.indexOf("values") < 0) {
+      return text;
+    }
+    StringBuilder out = new StringBuilder(text.length());
+    int i = 0;
+    while (i < text.length()) {
+      if (isKeywordAt(text, i, "in")) {
+        int open = skipSpaces(text, i + 2);
+        int close = placeholderListEnd(text, open);
+        if (close > 0) {
+          out.append("in (?)");
+          i = close;
+          continue;
+        }
+      } else if (isKeywordAt(text, i, "values")) {
+        int open = skipSpaces(text, i + 6);
+        int close = groupEnd(text, open);
+        if (close > 0) {
+          String row = text.substring(open, close);
+          out.append("values ").append(row);
+          i = close;
+          while (true) {
+            int comma = skipSpaces(text, i);
+            if (comma >= text.length() || text.charAt(comma) != ',') {
+              break;
+            }
+            int next = skipSpaces(text, comma + 1);
+            if (!text.startsWith(row, next)) {
+              break;
+            }
+            i = next + row.length();
+          }
+          continue;
+        }
+      }
+      out.append(text.charAt(i));
+      i++;
+    }
+    return out.toString();
+  }
+
+  /**
+   * Returns the index after {@code ( ?, ?, ... )} starting at {@code open}, or -1.
+   */
+  private static int placeholderListEnd(String text, int open) {
+    if (open >= text.length() || text.charAt(open) != '(') {
+      return -1;
+    }
+    boolean expectPlaceholder = true;
+    for (int i = open + 1; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == ' ') {
+        continue;
+      }
+      if (expectPlaceholder && c == '?') {
+        expectPlaceholder = false;
+      } else if (!expectPlaceholder && c == ',') {
+        expectPlaceholder = true;
+      } else if (!expectPlaceholder && c == ')') {
+        return i + 1;
+      } else {
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  private static int groupEnd(String text, int open) {
+    if (open >= text.length() || text.charAt(open) != '(') {
+      return -1;
+    }
+    int depth = 0;
+    for (int i = open; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '(') {
+        depth++;
+      } else if (c == ')' && --depth == 0) {
+        return i + 1;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean isKeywordAt(String text, int i, String keyword) {
+    if (!text.startsWith(keyword, i)) {
+      return false;
+    }
+    if (i > 0 && isIdentifierChar(text.charAt(i - 1))) {
+      return false;
+    }
+    int end = i + keyword.length();
+    return end == text.length() || !isIdentifierChar(text.charAt(end));
+  }
+
+  private static int skipSpaces(String text, int i) {
+    while (i < text.length() && text.charAt(i) == ' ') {
+      i++;
+    }
+    return i;
+  }
+
+  private static void space(StringBuilder out) {
+    int length = out.length();
+    if (length > 0 && out.charAt(length - 1) != ' ') {
+      out.append(' ');
+    }
+  }
+
+  private static boolean endsWithIdentifier(StringBuilder out) {
+    int length = out.length();
+    return length > 0 && isIdentifierChar(out.charAt(length - 1));
+  }
+
+  private static boolean isIdentifierChar(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+  }
+
+  private static int skipLineComment(String sql, int i) {
+    int newline = sql.indexOf('\n', i);
+    return newline < 0 ? sql.length() : newline + 1;
+  }
+
+  private static int skipBlockComment(String sql, int i) {
+    int depth = 0;
+    int length = sql.length();
+    while (i < length) {
+      if (sql.startsWith("/*", i)) {
+        depth++;
+        i += 2;
+      } else if (sql.startsWith("*/", i)) {
+        i += 2;
+        if (--depth == 0) {
+          return i;
+        }
+      } else {
+        i++;
+      }
+    }
+    return length;
+  }
+
+  private static int skipQuoted(String sql, int i, boolean backslashEscapes) {
+    int length = sql.length();
+    i++;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (backslashEscapes && c == '\\') {
+        i += 2;
+      } else if (c == '\'') {
+        if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+          i += 2;
+        } else {
+          return i + 1;
+        }
+      } else {
+        i++;
+      }
+    }
+    return length;
+  }
+
+  private static int skipQuotedIdentifier(String sql, int i) {
+    int close = sql.indexOf('"', i + 1);
+    return close < 0 ? sql.length() : close + 1;
+  }
+
+  /**
+   * Skips {@code $tag$ ... $tag$}; returns -1 if {@code i} does not start a dollar quote.
+   */
+  private static int skipDollarQuoted(String sql, int i) {
+    int tagEnd = i + 1;
+    while (tagEnd < sql.length() && isIdentifierChar(sql.charAt(tagEnd))
+        && sql.charAt(tagEnd) != '$') {
+      tagEnd++;
+    }
+    if (tagEnd >= sql.length() || sql.charAt(tagEnd) != '$') {
+      return -1;
+    }
+    String tag = sql.substring(i, tagEnd + 1);
+    int close = sql.indexOf(tag, tagEnd + 1);
+    return close < 0 ? sql.length() : close + tag.length();
+  }
+
+  private static int skipDigits(String sql, int i) {
+    while (i < sql.length() && Character.isDigit(sql.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  private static int skipNumber(String sql, int i) {
+    i = skipDigits(sql, i);
+    if (i < sql.length() && sql.charAt(i) == '.') {
+      i = skipDigits(sql, i + 1);
+    }
+    if (i < sql.length() && (sql.charAt(i) == 'e' || sql.charAt(i) == 'E')) {
+      int exponent = i + 1;
+      if (exponent < sql.length() && (sql.charAt(exponent) == '+' || sql.charAt(exponent) == '-')) {
+        exponent++;
+      }
+      if (exponent < sql.length() && Character.isDigit(sql.charAt(exponent))) {
+        i = skipDigits(sql, exponent);
+      }
+    }
+    return i;
+  }
+}
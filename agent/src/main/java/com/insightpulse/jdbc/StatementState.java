@@ -0,0 +1,21 @@
+package com.insightpulse.jdbc;
+
+/**
+ * Mixed into the driver's statement class by {@code JdbcTransformer}, so the SQL fingerprint and
+ * the running row count travel with the statement object instead of living in a side map.
+ * <p>
+ * Statement objects are used by one thread at a time, so the backing fields are plain.
+ */
+public interface StatementState {
+
+  String FINGERPRINT_FIELD = "insightpulse$fingerprint";
+  String ROWS_FIELD = "insightpulse$rows";
+
+  int insightpulse$fingerprint();
+
+  void insightpulse$fingerprint(int fingerprintId);
+
+  long insightpulse$rows();
+
+  void insightpulse$rows(long rows);
+}
@@ -0,0 +1,76 @@
+package com.insightpulse.jfr;
+
+import com.insightpulse.AgentLog;
+import com.insightpulse.trace.SpanRing;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * Starts the JFR event stream on Java 17 and later.
+ * <p>
+ * The stream lives in the Java 17 layer of the multi-release agent jar,
+ * {@code META-INF/versions/17}, which has no counterpart in the base layer. The bootstrap class
+ * loader ignores versioned entries, so on the bootstrap class path it is loaded by a class loader
+ * of its own over the agent jar that delegates everything else to the bootstrap loader; agent
+ * classes thus still exist only once.
+ */
+public final class JfrBridge {
+
+  static final String STREAM_CLASS = "com.insightpulse.jfr.JfrEventStream";
+  private static final int MIN_JAVA = 17;
+
+  private JfrBridge() {
+  }
+
+  /**
+   * Starts streaming on a daemon thread, as JFR takes a while to set up.
+   *
+   * @param thresholdNanos        monitor waits, socket reads and safepoints shorter than this
+   *                              are not recorded
+   * @param allocationSamplesRate allocation samples per second
+   * @return the stream, to close on shutdown, or {@code null} if this JVM cannot stream
+   */
+  public static Closeable start(SpanRing ring, long thresholdNanos, int allocationSamplesRate) {
+    int version = javaVersion();
+    if (version < MIN_JAVA) {
+      AgentLog.info("JFR event streaming needs Java %d, this is Java %d", MIN_JAVA, version);
+      return null;
+    }
+    try {
+      Class<?> type = Class.forName(STREAM_CLASS, true, loader());
+      Object stream = type.getConstructor(SpanRing.class, long.class, int.class)
+          .newInstance(ring, thresholdNanos, allocationSamplesRate);
+      Thread thread = new Thread((Runnable) stream, "insightpulse-jfr");
+      thread.setDaemon(true);
+      thread.start();
+      return (Closeable) stream;
+    } catch (ReflectiveOperationException | IOException | LinkageError e) {
+      AgentLog.warn("Cannot stream JFR events: %s", e);
+      return null;
+    }
+  }
+
+  private static ClassLoader loader() throws IOException {
+    ClassLoader loader = JfrBridge.class.getClassLoader();
+    if (loader != null) {
+      return loader;
+    }
+    URL self = JfrBridge.class.getResource("JfrBridge.class");
+    if (self == null || !"jar".equals(self.getProtocol())) {
+      throw new IOException("Agent classes are not in a jar: " + self);
+    }
+    URL jar = ((JarURLConnection) self.openConnection()).getJarFileURL();
+    return new URLClassLoader(new URL[]{jar}, null);
+  }
+
+  static int javaVersion() {
+    String version = System.getProperty("java.specification.version");
+    if (version.startsWith("1.")) {
+      version = version.substring(2);
+    }
+    return Integer.parseInt(version);
+  }
+}
@@ -0,0 +1,62 @@
+package com.insightpulse.jfr;
+
+import com.insightpulse.metrics.Metrics;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Names of the JFR events the bridge maps onto {@link com.insightpulse.trace.SpanKind#JFR} spans,
+ * such as {@code monitor enter java.util.HashMap} or {@code socket read db:5432}, registered as
+ * the events arrive.
+ * <p>
+ * What follows the category comes from the application and every name carries its own timer, so
+ * after {@code MAX_SUBJECTS} subjects of a category new ones are folded into one, e.g.
+ * {@code socket read (other)}.
+ */
+public final class JfrEvents {
+
+  static final int MAX_SUBJECTS = 64;
+  private static final String OTHER = "(other)";
+
+  private static final Map<String, Integer> IDS = new HashMap<>();
+  private static final Map<String, Integer> SUBJECTS = new HashMap<>();
+  private static volatile String[] names = new String[64];
+  private static int size;
+
+  private JfrEvents() {
+  }
+
+  /**
+   * Id of the events of {@code category} about {@code subject}, or of the whole category if
+   * {@code subject} is {@code null}.
+   */
+  public static synchronized int register(String category, String subject) {
+    String name = subject == null ? category : category + ' ' + subject;
+    Integer existing = IDS.get(name);
+    if (existing != null) {
+      return existing;
+    }
+    if (subject != null && !subject.equals(OTHER)) {
+      int subjects = SUBJECTS.getOrDefault(category, 0);
+      if (subjects >= MAX_SUBJECTS) {
+        return register(category, OTHER);
+      }
+      SUBJECTS.put(category, subjects + 1);
+    }
+    int id = size;
+    if (id == names.length) {
+      names = Arrays.copyOf(names, id * 2);
+    }
+    names[id] = name;
+    IDS.put(name, id);
+    size = id + 1;
+    Metrics.jfrEvents().register(id, name);
+    Metrics.jfrBytes().register(id, name);
+    return id;
+  }
+
+  public static String name(int id) {
+    return names[id];
+  }
+}
@@ -0,0 +1,217 @@
+package com.insightpulse.metrics;
+
+import com.insightpulse.AgentLog;
+import com.insightpulse.export.DiskSpool;
+import com.insightpulse.export.TraceExporter;
+import com.insightpulse.jdbc.NPlusOneDetector;
+import com.insightpulse.trace.Endpoints;
+import com.insightpulse.trace.MethodRegistry;
+import com.insightpulse.trace.TraceCollector;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * Periodically logs the latency distribution of every endpoint, method and SQL fingerprint
+ * recorded since the previous report, followed by the N+1 findings so far. Endpoint lines also
+ * show the handler method, the time to first byte, the CPU time and bytes allocated per request
+ * when resource accounting is on, the GC pauses requests sat through and the number of failed
+ * requests, how long requests waited for and held pooled connections, and the Hibernate entities,
+ * collections and flushes per request. GC pauses per collector and the allocation and promotion
+ * rates follow when GC monitoring is on, then the durations of the JFR events streamed in, the
+ * connection waits and gauges of each pool, the connection holds of each transactional method,
+ * and the Hibernate entities loaded per type and collection initializations per role. The last
+ * lines sum up what the trace collector kept and what the exporter sent and dropped.
+ */
+public final class ConsoleReporter implements Runnable {
+
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+      r -> {
+        Thread thread = new Thread(r, "insightpulse-reporter");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  private final TraceCollector traces;
+  private final TraceExporter exporter;
+  private long lastRunNanos = System.nanoTime();
+
+  public ConsoleReporter(TraceCollector traces) {
+    this(traces, null);
+  }
+
+  public ConsoleReporter(TraceCollector traces, TraceExporter exporter) {
+    this.traces = traces;
+    this.exporter = exporter;
+  }
+
+  public void start(long intervalSeconds) {
+    scheduler.scheduleAtFixedRate(this, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  public void stop() {
+    scheduler.shutdownNow();
+  }
+
+  @Override
+  public void run() {
+    try {
+      report(Metrics.endpoints(), ConsoleReporter::endpointDetails);
+      report(Metrics.methods(), id -> "");
+      CounterTable rows = Metrics.statementRows();
+      report(Metrics.statements(), id -> " rows=" + rows.get(id).intervalTotal());
+      report(Metrics.gcPauses(), id -> "");
+      reportGcRates();
+      report(Metrics.jfrEvents(), id -> "");
+      report(Metrics.poolWait(), ConsoleReporter::poolDetails);
+      report(Metrics.transactionHolds(), id -> "");
+      reportEntityLoads();
+      report(Metrics.collectionLoads(), id -> "");
+      for (NPlusOneDetector.Finding finding : NPlusOneDetector.findings()) {
+        AgentLog.warn("%s", finding);
+      }
+      if (traces != null) {
+        AgentLog.info("traces sampled=%d retained slow=%d error=%d discarded=%d overflow=%d"
+            + " late=%d", traces.sampledCount(), traces.slowCount(), traces.errorCount(),
+            traces.discardedCount(), traces.overflowCount(), traces.lateCount());
+      }
+      if (exporter != null) {
+        AgentLog.info("export connected=%b traces=%d bytes=%d lost=%d dropped sampled=%d"
+            + " retained=%d", exporter.isConnected(), exporter.sentTraces(),
+            exporter.sentBytes(), exporter.lostTraces(), traces.sampled().dropped(),
+            traces.retained().dropped());
+        DiskSpool spool = exporter.spool();
+        if (spool != null && (exporter.spooledTraces() > 0 || spool.usedBytes() > 0)) {
+          AgentLog.info("spool traces=%d used=%dKB dropped=%d", exporter.spooledTraces(),
+              spool.usedBytes() / 1024, spool.droppedTraces());
+        }
+      }
+    } catch (Throwable t) {
+      AgentLog.error("Report failed", t);
+    }
+  }
+
+  void report(TimerTable table, IntFunction<String> details) {
+    for (Timer timer : table.all()) {
+      if (timer == null) {
+        continue;
+      }
+      Histogram interval = timer.intervalSnapshot();
+      if (interval.getTotalCount() == 0) {
+        continue;
+      }
+      AgentLog.info("%s count=%d mean=%.1fus p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus%s",
+          timer.getName(), interval.getTotalCount(), interval.getMean() / 1000.0,
+          micros(interval.valueAtPercentile(50)), micros(interval.valueAtPercentile(99)),
+          micros(interval.valueAtPercentile(99.9)), micros(interval.getMax()),
+          details.apply(timer.getId()));
+    }
+  }
+
+  private void reportGcRates() {
+    long now = System.nanoTime();
+    double seconds = (now - lastRunNanos) / 1e9;
+    lastRunNanos = now;
+    StringBuilder rates = new StringBuilder();
+    for (Counter counter : Metrics.gcBytes().all()) {
+      if (counter != null) {
+        rates.append(String.format(" %s=%.1fMB/s", counter.getName(),
+            counter.intervalTotal() / (1024.0 * 1024.0) / seconds));
+      }
+    }
+    if (rates.length() > 0) {
+      AgentLog.info("gc%s", rates);
+    }
+  }
+
+  private void reportEntityLoads() {
+    StringBuilder loads = new StringBuilder();
+    for (Counter counter : Metrics.entityLoads().all()) {
+      if (counter != null) {
+        long loaded = counter.intervalTotal();
+        if (loaded > 0) {
+          loads.append(' ').append(counter.getName()).append('=').append(loaded);
+        }
+      }
+    }
+    if (loads.length() > 0) {
+      AgentLog.info("entities loaded%s", loads);
+    }
+  }
+
+  /**
+   * Handler, time to first byte, CPU time and allocations per request, GC pauses, connection
+   * waits and holds, Hibernate activity and errors of an endpoint that had requests in this
+   * interval.
+   */
+  private static String endpointDetails(int id) {
+    StringBuilder details = new StringBuilder();
+    int handler = Endpoints.handler(id);
+    if (handler >= 0) {
+      details.append(" handler=").append(MethodRegistry.displayName(handler));
+    }
+    Histogram firstByte = Metrics.firstByte().get(id).intervalSnapshot();
+    if (firstByte.getTotalCount() > 0) {
+      details.append(String.format(" ttfb.p50=%.1fus ttfb.p99=%.1fus",
+          micros(firstByte.valueAtPercentile(50)), micros(firstByte.valueAtPercentile(99))));
+    }
+    Histogram cpu = Metrics.requestCpu().get(id).intervalSnapshot();
+    Histogram allocated = Metrics.requestAllocations().get(id).intervalSnapshot();
+    if (cpu.getTotalCount() > 0) {
+      details.append(String.format(" cpu.mean=%.1fus cpu.p99=%.1fus alloc.mean=%.1fKB"
+          + " alloc.p99=%.1fKB", cpu.getMean() / 1000.0, micros(cpu.valueAtPercentile(99)),
+          allocated.getMean() / 1024.0, allocated.valueAtPercentile(99) / 1024.0));
+    }
+    Histogram gc = Metrics.requestGc().get(id).intervalSnapshot();
+    if (gc.getTotalCount() > 0) {
+      details.append(String.format(" gc.requests=%d gc.max=%.1fus", gc.getTotalCount(),
+          micros(gc.getMax())));
+    }
+    Histogram wait = Metrics.connectionWait().get(id).intervalSnapshot();
+    Histogram hold = Metrics.connectionHold().get(id).intervalSnapshot();
+    if (wait.getTotalCount() > 0) {
+      details.append(String.format(" conn.wait.p99=%.1fus conn.hold.p99=%.1fus",
+          micros(wait.valueAtPercentile(99)), micros(hold.valueAtPercentile(99))));
+    }
+    Histogram entities = Metrics.requestEntities().get(id).intervalSnapshot();
+    Histogram collections = Metrics.requestCollections().get(id).intervalSnapshot();
+    if (entities.getTotalCount() > 0) {
+      details.append(String.format(" entities.mean=%.1f entities.max=%d collections.mean=%.1f",
+          entities.getMean(), entities.getMax(), collections.getMean()));
+    }
+    Histogram flush = Metrics.flushes().get(id).intervalSnapshot();
+    Histogram dirtyCheck = Metrics.dirtyChecks().get(id).intervalSnapshot();
+    if (flush.getTotalCount() > 0) {
+      details.append(String.format(" flush.p99=%.1fus dirtycheck.p99=%.1fus",
+          micros(flush.valueAtPercentile(99)), micros(dirtyCheck.valueAtPercentile(99))));
+    }
+    long errors = Metrics.endpointErrors().get(id).intervalTotal();
+    if (errors > 0) {
+      details.append(" errors=").append(errors);
+    }
+    return details.toString();
+  }
+
+  /**
+   * Active, idle and pending connections of a pool at its acquisitions in this interval.
+   */
+  private static String poolDetails(int id) {
+    Histogram active = Metrics.poolActive().get(id).intervalSnapshot();
+    Histogram idle = Metrics.poolIdle().get(id).intervalSnapshot();
+    Histogram pending = Metrics.poolPending().get(id).intervalSnapshot();
+    StringBuilder details = new StringBuilder(String.format(
+        " active.p50=%d active.max=%d idle.min=%d pending.p99=%d pending.max=%d",
+        active.valueAtPercentile(50), active.getMax(), idle.getMin(),
+        pending.valueAtPercentile(99), pending.getMax()));
+    long timeouts = Metrics.poolTimeouts().get(id).intervalTotal();
+    if (timeouts > 0) {
+      details.append(" timeouts=").append(timeouts);
+    }
+    return details.toString();
+  }
+
+  private static double micros(long nanos) {
+    return nanos / 1000.0;
+  }
+}
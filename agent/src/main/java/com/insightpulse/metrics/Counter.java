@@ -0,0 +1,45 @@
+package com.insightpulse.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic sum, e.g. rows fetched by one SQL fingerprint.
+ */
+public final class Counter {
+
+  private final int id;
+  private final String name;
+  private final LongAdder total = new LongAdder();
+  private long previous;
+
+  public Counter(int id, String name) {
+    this.id = id;
+    this.name = name;
+  }
+
+  public void add(long amount) {
+    total.add(amount);
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long total() {
+    return total.sum();
+  }
+
+  /**
+   * Amount added since the previous call of this method.
+   */
+  public synchronized long intervalTotal() {
+    long current = total.sum();
+    long interval = current - previous;
+    previous = current;
+    return interval;
+  }
+}
@@ -0,0 +1,39 @@
+package com.insightpulse.metrics;
+
+import java.util.Arrays;
+
+/**
+ * {@link Counter}s indexed by a dense id, the counterpart of {@link TimerTable}.
+ */
+public final class CounterTable {
+
+  private volatile Counter[] counters = new Counter[64];
+
+  public synchronized Counter register(int id, String name) {
+    Counter[] current = counters;
+    if (id >= current.length) {
+      current = Arrays.copyOf(current, Math.max(id + 1, current.length * 2));
+    }
+    if (current[id] == null) {
+      current[id] = new Counter(id, name);
+    }
+    counters = current;
+    return current[id];
+  }
+
+  public void add(int id, long amount) {
+    counters[id].add(amount);
+  }
+
+  public Counter get(int id) {
+    Counter[] current = counters;
+    return id < current.length ? current[id] : null;
+  }
+
+  /**
+   * Registered counters; the returned array may contain {@code null} gaps.
+   */
+  public Counter[] all() {
+    return counters;
+  }
+}
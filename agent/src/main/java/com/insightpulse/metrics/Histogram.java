@@ -0,0 +1,151 @@
+package com.insightpulse.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Single-writer log-linear histogram over {@code long[]} buckets.
+ * <p>
+ * Not thread-safe; record from many threads through a {@link StripedHistogram} and read its
+ * snapshots. Histograms with compatible layouts merge by bucket-wise addition, which is what makes
+ * percentiles over several stripes, intervals or nodes exact (within the layout's precision).
+ */
+public final class Histogram {
+
+  private final HistogramLayout layout;
+  private final long[] counts;
+  private long totalCount;
+  private long sum;
+
+  public Histogram(HistogramLayout layout) {
+    this(layout, new long[layout.bucketCount()], 0, 0);
+  }
+
+  Histogram(HistogramLayout layout, long[] counts, long totalCount, long sum) {
+    this.layout = layout;
+    this.counts = counts;
+    this.totalCount = totalCount;
+    this.sum = sum;
+  }
+
+  public void record(long value) {
+    recordCount(value, 1);
+  }
+
+  public void recordCount(long value, long count) {
+    counts[layout.indexOf(value)] += count;
+    totalCount += count;
+    sum += value * count;
+  }
+
+  /**
+   * Adds every bucket of {@code other} to this histogram.
+   */
+  public void add(Histogram other) {
+    checkCompatible(other);
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] += other.counts[i];
+    }
+    totalCount += other.totalCount;
+    sum += other.sum;
+  }
+
+  /**
+   * Subtracts an earlier snapshot of the same recorder, leaving what was recorded in between.
+   */
+  public void subtract(Histogram earlier) {
+    checkCompatible(earlier);
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] -= earlier.counts[i];
+    }
+    totalCount -= earlier.totalCount;
+    sum -= earlier.sum;
+  }
+
+  public Histogram copy() {
+    return new Histogram(layout, counts.clone(), totalCount, sum);
+  }
+
+  public void reset() {
+    Arrays.fill(counts, 0);
+    totalCount = 0;
+    sum = 0;
+  }
+
+  /**
+   * Returns the highest value equivalent to the recorded value at the given percentile, e.g.
+   * {@code 99.9}. Returns 0 for an empty histogram.
+   */
+  public long valueAtPercentile(double percentile) {
+    if (totalCount == 0) {
+      return 0;
+    }
+    double clamped = Math.min(Math.max(percentile, 0.0), 100.0);
+    long countAtPercentile = Math.max(1, (long) Math.ceil(clamped / 100.0 * totalCount));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= countAtPercentile) {
+        return layout.highestEquivalentValue(i);
+      }
+    }
+    return layout.highestEquivalentValue(counts.length - 1);
+  }
+
+  public long getMin() {
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] != 0) {
+        return layout.lowestEquivalentValue(i);
+      }
+    }
+    return 0;
+  }
+
+  public long getMax() {
+    for (int i = counts.length - 1; i >= 0; i--) {
+      if (counts[i] != 0) {
+        return layout.highestEquivalentValue(i);
+      }
+    }
+    return 0;
+  }
+
+  public double getMean() {
+    return totalCount == 0 ? 0.0 : (double) sum / totalCount;
+  }
+
+  public long getTotalCount() {
+    return totalCount;
+  }
+
+  public long getSum() {
+    return sum;
+  }
+
+  public HistogramLayout getLayout() {
+    return layout;
+  }
+
+  public int bucketCount() {
+    return counts.length;
+  }
+
+  public long countAt(int index) {
+    return counts[index];
+  }
+
+  /**
+   * Adds {@code count} observations directly to a bucket; used when rebuilding a histogram from
+   * an encoded form.
+   */
+  public void addToBucket(int index, long count, long bucketSum) {
+    counts[index] += count;
+    totalCount += count;
+    sum += bucketSum;
+  }
+
+  private void checkCompatible(Histogram other) {
+    if (!layout.isCompatibleWith(other.layout)) {
+      throw new IllegalArgumentException("Histogram layouts are not compatible");
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package com.insightpulse.metrics;
+
+/**
+ * Bucket layout shared by {@link Histogram}s that can be merged with each other.
+ * <p>
+ * Log-linear in the HdrHistogram sense: values below {@code 2^subBucketBits} get one bucket each;
+ * above that every power-of-two range is split into {@code 2^(subBucketBits-1)} equal buckets, so
+ * the relative error of any recorded value stays below {@code 1 / 2^(subBucketBits-1)}. Finding a
+ * bucket is a leading-zero count and two shifts.
+ */
+public final class HistogramLayout {
+
+  private final int significantDigits;
+  private final int subBucketBits;
+  private final long highestTrackableValue;
+  private final int bucketCount;
+
+  /**
+   * @param significantDigits     decimal digits of precision to keep, 1 to 5
+   * @param highestTrackableValue larger values are clamped to this one
+   */
+  public HistogramLayout(int significantDigits, long highestTrackableValue) {
+    if (significantDigits < 1 || significantDigits > 5) {
+      throw new IllegalArgumentException("significantDigits must be 1..5: " + significantDigits);
+    }
+    if (highestTrackableValue < 2) {
+      throw new IllegalArgumentException("highestTrackableValue must be at least 2");
+    }
+    this.significantDigits = significantDigits;
+    long largestSingleUnitResolution = 2 * (long) Math.pow(10, significantDigits);
+    this.subBucketBits = 64 - Long.numberOfLeadingZeros(largestSingleUnitResolution - 1);
+    this.highestTrackableValue = highestTrackableValue;
+    this.bucketCount = indexOf(highestTrackableValue) + 1;
+  }
+
+  public int indexOf(long value) {
+    long clamped = value < 0 ? 0 : Math.min(value, highestTrackableValue);
+    int shift = Math.max(0, (63 - Long.numberOfLeadingZeros(clamped)) - (subBucketBits - 1));
+    return (shift << (subBucketBits - 1)) + (int) (clamped >>> shift);
+  }
+
+  public long lowestEquivalentValue(int index) {
+    if (index < (1 << subBucketBits)) {
+      return index;
+    }
+    int shift = (index >>> (subBucketBits - 1)) - 1;
+    long subBucket = index - ((long) shift << (subBucketBits - 1));
+    return subBucket << shift;
+  }
+
+  public long highestEquivalentValue(int index) {
+    if (index < (1 << subBucketBits)) {
+      return index;
+    }
+    int shift = (index >>> (subBucketBits - 1)) - 1;
+    return lowestEquivalentValue(index) + (1L << shift) - 1;
+  }
+
+  public int bucketCount() {
+    return bucketCount;
+  }
+
+  public int significantDigits() {
+    return significantDigits;
+  }
+
+  public long highestTrackableValue() {
+    return highestTrackableValue;
+  }
+
+  public boolean isCompatibleWith(HistogramLayout other) {
+    return other.subBucketBits == subBucketBits && other.bucketCount == bucketCount;
+  }
+}
@@ -0,0 +1,259 @@
+package com.insightpulse.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holder of the agent's metric tables.
+ */
+public final class Metrics {
+
+  private static volatile HistogramLayout layout =
+      new HistogramLayout(2, TimeUnit.SECONDS.toNanos(60));
+
+  private static final TimerTable METHODS = new TimerTable();
+  private static final TimerTable ENDPOINTS = new TimerTable();
+  private static final TimerTable FIRST_BYTE = new TimerTable();
+  private static final CounterTable ENDPOINT_ERRORS = new CounterTable();
+  private static final TimerTable REQUEST_CPU = new TimerTable();
+  private static final TimerTable REQUEST_ALLOCATIONS = new TimerTable();
+  private static final TimerTable STATEMENTS = new TimerTable();
+  private static final CounterTable STATEMENT_ROWS = new CounterTable();
+  private static final TimerTable REQUEST_GC = new TimerTable();
+  private static final TimerTable GC_PAUSES = new TimerTable();
+  private static final CounterTable GC_BYTES = new CounterTable();
+  private static final TimerTable GC_HEAP_AFTER = new TimerTable();
+  private static final TimerTable JFR_EVENTS = new TimerTable();
+  private static final CounterTable JFR_BYTES = new CounterTable();
+  private static final TimerTable CONNECTION_WAIT = new TimerTable();
+  private static final TimerTable CONNECTION_HOLD = new TimerTable();
+  private static final TimerTable TRANSACTION_HOLDS = new TimerTable();
+  private static final TimerTable POOL_WAIT = new TimerTable();
+  private static final TimerTable POOL_ACTIVE = new TimerTable();
+  private static final TimerTable POOL_IDLE = new TimerTable();
+  private static final TimerTable POOL_PENDING = new TimerTable();
+  private static final CounterTable POOL_TIMEOUTS = new CounterTable();
+  private static final CounterTable ENTITY_LOADS = new CounterTable();
+  private static final TimerTable COLLECTION_LOADS = new TimerTable();
+  private static final TimerTable REQUEST_ENTITIES = new TimerTable();
+  private static final TimerTable REQUEST_COLLECTIONS = new TimerTable();
+  private static final TimerTable FLUSHES = new TimerTable();
+  private static final TimerTable DIRTY_CHECKS = new TimerTable();
+
+  private Metrics() {
+  }
+
+  /**
+   * Sets the histogram layout for timers registered from now on. Call before instrumenting.
+   */
+  public static void configure(HistogramLayout histogramLayout) {
+    layout = histogramLayout;
+  }
+
+  public static HistogramLayout layout() {
+    return layout;
+  }
+
+  public static TimerTable methods() {
+    return METHODS;
+  }
+
+  /**
+   * Request latency per endpoint id.
+   */
+  public static TimerTable endpoints() {
+    return ENDPOINTS;
+  }
+
+  /**
+   * Time to first byte per endpoint id; HTTP requests only.
+   */
+  public static TimerTable firstByte() {
+    return FIRST_BYTE;
+  }
+
+  /**
+   * Requests per endpoint id that ended with a 5xx status or an exception, including exceptions
+   * an exception handler answered.
+   */
+  public static CounterTable endpointErrors() {
+    return ENDPOINT_ERRORS;
+  }
+
+  /**
+   * CPU time of the request thread per request, by endpoint id; only with resource accounting.
+   */
+  public static TimerTable requestCpu() {
+    return REQUEST_CPU;
+  }
+
+  /**
+   * Bytes allocated by the request thread per request, by endpoint id; only with resource
+   * accounting. The timers hold bytes rather than nanoseconds.
+   */
+  public static TimerTable requestAllocations() {
+    return REQUEST_ALLOCATIONS;
+  }
+
+  /**
+   * Execution time per SQL fingerprint id.
+   */
+  public static TimerTable statements() {
+    return STATEMENTS;
+  }
+
+  /**
+   * Rows fetched per SQL fingerprint id.
+   */
+  public static CounterTable statementRows() {
+    return STATEMENT_ROWS;
+  }
+
+  /**
+   * Collection pauses overlapping a request, by endpoint id; requests no pause overlapped are
+   * not recorded.
+   */
+  public static TimerTable requestGc() {
+    return REQUEST_GC;
+  }
+
+  /**
+   * Stop-the-world pauses per garbage collector.
+   */
+  public static TimerTable gcPauses() {
+    return GC_PAUSES;
+  }
+
+  /**
+   * Bytes allocated in and promoted out of the young generation, see {@code GcMonitor}.
+   */
+  public static CounterTable gcBytes() {
+    return GC_BYTES;
+  }
+
+  /**
+   * Occupancy of each heap pool after a collection. The timers hold bytes rather than
+   * nanoseconds.
+   */
+  public static TimerTable gcHeapAfter() {
+    return GC_HEAP_AFTER;
+  }
+
+  /**
+   * Durations of the JFR events streamed in, by {@code JfrEvents} id.
+   */
+  public static TimerTable jfrEvents() {
+    return JFR_EVENTS;
+  }
+
+  /**
+   * Bytes sampled JFR allocation events stand for, by {@code JfrEvents} id.
+   */
+  public static CounterTable jfrBytes() {
+    return JFR_BYTES;
+  }
+
+  /**
+   * Time spent waiting for a pooled connection, per acquisition, by endpoint id.
+   */
+  public static TimerTable connectionWait() {
+    return CONNECTION_WAIT;
+  }
+
+  /**
+   * Time a pooled connection was held, from acquisition to close, by endpoint id.
+   */
+  public static TimerTable connectionHold() {
+    return CONNECTION_HOLD;
+  }
+
+  /**
+   * Time a pooled connection was held, by {@code MethodRegistry} id of the transactional method
+   * it was acquired for.
+   */
+  public static TimerTable transactionHolds() {
+    return TRANSACTION_HOLDS;
+  }
+
+  /**
+   * Time spent waiting for a connection, per acquisition, by {@code ConnectionPools} id.
+   */
+  public static TimerTable poolWait() {
+    return POOL_WAIT;
+  }
+
+  /**
+   * Connections in use, sampled at every acquisition, by {@code ConnectionPools} id. The timers
+   * hold counts rather than nanoseconds, as do those of {@link #poolIdle} and
+   * {@link #poolPending}.
+   */
+  public static TimerTable poolActive() {
+    return POOL_ACTIVE;
+  }
+
+  /**
+   * Connections idle in the pool, sampled at every acquisition.
+   */
+  public static TimerTable poolIdle() {
+    return POOL_IDLE;
+  }
+
+  /**
+   * Threads waiting for a connection, sampled at every acquisition.
+   */
+  public static TimerTable poolPending() {
+    return POOL_PENDING;
+  }
+
+  /**
+   * Acquisitions that failed, mostly because the pool stayed exhausted for the whole connection
+   * timeout, by {@code ConnectionPools} id.
+   */
+  public static CounterTable poolTimeouts() {
+    return POOL_TIMEOUTS;
+  }
+
+  /**
+   * Hibernate entities loaded, by {@code EntityNames} id of their class.
+   */
+  public static CounterTable entityLoads() {
+    return ENTITY_LOADS;
+  }
+
+  /**
+   * Time to initialize a Hibernate collection, by {@code EntityNames} id of its role.
+   */
+  public static TimerTable collectionLoads() {
+    return COLLECTION_LOADS;
+  }
+
+  /**
+   * Hibernate entities loaded per request, by endpoint id; requests that loaded none are not
+   * recorded. The timers hold counts rather than nanoseconds, as do those of
+   * {@link #requestCollections}.
+   */
+  public static TimerTable requestEntities() {
+    return REQUEST_ENTITIES;
+  }
+
+  /**
+   * Hibernate collections initialized per request, by endpoint id.
+   */
+  public static TimerTable requestCollections() {
+    return REQUEST_COLLECTIONS;
+  }
+
+  /**
+   * Duration of each Hibernate flush within a request, by endpoint id.
+   */
+  public static TimerTable flushes() {
+    return FLUSHES;
+  }
+
+  /**
+   * Time each Hibernate flush within a request spent checking entities for changes, by endpoint
+   * id.
+   */
+  public static TimerTable dirtyChecks() {
+    return DIRTY_CHECKS;
+  }
+}
@@ -0,0 +1,81 @@
+package com.insightpulse.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Concurrent histogram recorder striped by thread.
+ * <p>
+ * Each thread is pinned to one stripe, and a stripe is allocated only when a thread first records
+ * into it, so a recorder written by a single drainer costs one bucket array. Recording is a plain
+ * atomic add on the thread's own stripe; with at least as many stripes as busy threads there is
+ * no CAS retry and no cache-line ping-pong. {@link #snapshot()} sums the stripes into a fresh
+ * {@link Histogram} while writers keep going, so a snapshot may include part of a concurrent
+ * {@code record} but never blocks one.
+ */
+public final class StripedHistogram {
+
+  private static final AtomicInteger NEXT_THREAD_PROBE = new AtomicInteger();
+  private static final ThreadLocal<int[]> THREAD_PROBE = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[]{NEXT_THREAD_PROBE.getAndIncrement()};
+    }
+  };
+
+  private final HistogramLayout layout;
+  private final int stripeMask;
+  // per stripe: bucket counts followed by one slot holding the sum of recorded values
+  private final AtomicReferenceArray<AtomicLongArray> stripes;
+
+  public StripedHistogram(HistogramLayout layout) {
+    this(layout, Runtime.getRuntime().availableProcessors() * 2);
+  }
+
+  public StripedHistogram(HistogramLayout layout, int stripeCount) {
+    int stripes = Integer.highestOneBit(Math.max(1, stripeCount) * 2 - 1);
+    this.layout = layout;
+    this.stripeMask = stripes - 1;
+    this.stripes = new AtomicReferenceArray<>(stripes);
+  }
+
+  public void record(long value) {
+    AtomicLongArray stripe = stripe(THREAD_PROBE.get()[0] & stripeMask);
+    stripe.getAndIncrement(layout.indexOf(value));
+    stripe.getAndAdd(layout.bucketCount(), value);
+  }
+
+  public Histogram snapshot() {
+    int buckets = layout.bucketCount();
+    long[] counts = new long[buckets];
+    long totalCount = 0;
+    long sum = 0;
+    for (int s = 0; s < stripes.length(); s++) {
+      AtomicLongArray stripe = stripes.get(s);
+      if (stripe == null) {
+        continue;
+      }
+      for (int i = 0; i < buckets; i++) {
+        long count = stripe.get(i);
+        counts[i] += count;
+        totalCount += count;
+      }
+      sum += stripe.get(buckets);
+    }
+    return new Histogram(layout, counts, totalCount, sum);
+  }
+
+  public HistogramLayout getLayout() {
+    return layout;
+  }
+
+  private AtomicLongArray stripe(int index) {
+    AtomicLongArray stripe = stripes.get(index);
+    if (stripe == null) {
+      AtomicLongArray created = new AtomicLongArray(layout.bucketCount() + 1);
+      stripe = stripes.compareAndSet(index, null, created) ? created : stripes.get(index);
+    }
+    return stripe;
+  }
+}
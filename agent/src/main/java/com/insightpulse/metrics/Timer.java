@@ -0,0 +1,52 @@
+package com.insightpulse.metrics;
+
+/**
+ * Latency distribution of one method, route or statement.
+ * <p>
+ * Recording goes to a {@link StripedHistogram}. Readers take cumulative snapshots; interval
+ * figures are the difference between two snapshots, so nothing is ever reset underneath a writer.
+ */
+public final class Timer {
+
+  private final int id;
+  private final String name;
+  private final StripedHistogram histogram;
+  private Histogram previous;
+
+  public Timer(int id, String name, HistogramLayout layout) {
+    this.id = id;
+    this.name = name;
+    this.histogram = new StripedHistogram(layout);
+    this.previous = new Histogram(layout);
+  }
+
+  public void record(long nanos) {
+    histogram.record(nanos);
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Everything recorded since the timer was created.
+   */
+  public Histogram snapshot() {
+    return histogram.snapshot();
+  }
+
+  /**
+   * Everything recorded since the previous call of this method.
+   */
+  public synchronized Histogram intervalSnapshot() {
+    Histogram current = histogram.snapshot();
+    Histogram interval = current.copy();
+    interval.subtract(previous);
+    previous = current;
+    return interval;
+  }
+}
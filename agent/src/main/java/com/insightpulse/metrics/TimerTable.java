@@ -0,0 +1,42 @@
+package com.insightpulse.metrics;
+
+import java.util.Arrays;
+
+/**
+ * {@link Timer}s indexed by a dense id (method id, route id, ...).
+ * <p>
+ * A timer is registered before any measurement for its id can be produced, so the record path is
+ * a plain array load without null checks or locking.
+ */
+public final class TimerTable {
+
+  private volatile Timer[] timers = new Timer[64];
+
+  public synchronized Timer register(int id, String name) {
+    Timer[] current = timers;
+    if (id >= current.length) {
+      current = Arrays.copyOf(current, Math.max(id + 1, current.length * 2));
+    }
+    if (current[id] == null) {
+      current[id] = new Timer(id, name, Metrics.layout());
+    }
+    timers = current;
+    return current[id];
+  }
+
+  public void record(int id, long nanos) {
+    timers[id].record(nanos);
+  }
+
+  public Timer get(int id) {
+    Timer[] current = timers;
+    return id < current.length ? current[id] : null;
+  }
+
+  /**
+   * Registered timers; the returned array may contain {@code null} gaps.
+   */
+  public Timer[] all() {
+    return timers;
+  }
+}
@@ -0,0 +1,57 @@
+package com.insightpulse.pool;
+
+import com.insightpulse.metrics.Metrics;
+import java.util.Arrays;
+
+/**
+ * Assigns dense ids to the connection pools seen acquiring connections, named after the pool,
+ * e.g. {@code HikariPool-1}.
+ * <p>
+ * Applications have a handful of pools that live as long as they do, so the lookup is a scan of
+ * a copy-on-write array by identity; it neither locks nor calls the pool's {@code hashCode}.
+ */
+public final class ConnectionPools {
+
+  private static volatile Object[] pools = new Object[0];
+  private static volatile String[] names = new String[0];
+
+  private ConnectionPools() {
+  }
+
+  public static int idOf(Object pool) {
+    Object[] current = pools;
+    for (int i = 0; i < current.length; i++) {
+      if (current[i] == pool) {
+        return i;
+      }
+    }
+    return register(pool);
+  }
+
+  private static synchronized int register(Object pool) {
+    Object[] current = pools;
+    for (int i = 0; i < current.length; i++) {
+      if (current[i] == pool) {
+        return i;
+      }
+    }
+    int id = current.length;
+    String name = String.valueOf(pool);
+    String[] grown = Arrays.copyOf(names, id + 1);
+    grown[id] = name;
+    names = grown;
+    Metrics.poolWait().register(id, name);
+    Metrics.poolActive().register(id, name);
+    Metrics.poolIdle().register(id, name);
+    Metrics.poolPending().register(id, name);
+    Metrics.poolTimeouts().register(id, name);
+    current = Arrays.copyOf(current, id + 1);
+    current[id] = pool;
+    pools = current;
+    return id;
+  }
+
+  public static String name(int id) {
+    return names[id];
+  }
+}
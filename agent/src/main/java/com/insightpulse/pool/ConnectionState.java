@@ -0,0 +1,28 @@
+package com.insightpulse.pool;
+
+/**
+ * Mixed into HikariCP's {@code ProxyConnection} by {@code ConnectionPoolTransformer}, so the
+ * time a connection was handed out and the transactional method it was handed to travel with it
+ * until it goes back to the pool.
+ * <p>
+ * A borrowed connection is used by one thread at a time, so the backing fields are plain.
+ */
+public interface ConnectionState {
+
+  String ACQUIRED_FIELD = "insightpulse$acquired";
+  String HOLDER_FIELD = "insightpulse$holder";
+
+  /**
+   * {@link System#nanoTime} when the connection was handed out, or 0 if it is not on loan.
+   */
+  long insightpulse$acquired();
+
+  void insightpulse$acquired(long nanos);
+
+  /**
+   * {@code MethodRegistry} id of the transactional method the connection was handed to, or -1.
+   */
+  int insightpulse$holder();
+
+  void insightpulse$holder(int methodId);
+}
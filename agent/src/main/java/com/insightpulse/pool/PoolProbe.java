@@ -0,0 +1,149 @@
+package com.insightpulse.pool;
+
+import com.insightpulse.metrics.Metrics;
+import com.insightpulse.trace.MethodRegistry;
+import com.insightpulse.trace.Probe;
+import com.insightpulse.trace.SpanKind;
+import com.insightpulse.trace.SpanRing;
+import com.insightpulse.trace.TraceContext;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.objectweb.asm.Type;
+
+/**
+ * Static entry points woven into HikariCP and Spring's transaction interceptor.
+ * <p>
+ * Every acquisition publishes a {@link SpanKind#CONNECTION_WAIT} span with the pool's active,
+ * idle and pending counts as they were right after it, so the gauges are sampled exactly when
+ * requests compete for connections rather than on a timer. The connection remembers when it was
+ * handed out and to which transactional method through {@link ConnectionState}; closing it
+ * publishes a {@link SpanKind#CONNECTION_HOLD} span. Like {@link Probe}, nothing here may throw.
+ */
+public final class PoolProbe {
+
+  /**
+   * {@link #enterTransaction} result when there is nothing to restore.
+   */
+  private static final long UNTRACKED = Long.MIN_VALUE;
+
+  private static final ConcurrentMap<Method, Integer> TRANSACTIONS = new ConcurrentHashMap<>();
+
+  private PoolProbe() {
+  }
+
+  public static long acquireStart() {
+    return Probe.ring() != null ? System.nanoTime() : 0L;
+  }
+
+  public static void onAcquire(Object connection, Object pool, int active, int idle, int pending,
+      long start) {
+    if (start == 0L) {
+      return;
+    }
+    try {
+      long now = System.nanoTime();
+      TraceContext context = TraceContext.current();
+      if (publishWait(pool, context, active, idle, pending, false, start, now)
+          && connection instanceof ConnectionState) {
+        ConnectionState state = (ConnectionState) connection;
+        state.insightpulse$acquired(now);
+        state.insightpulse$holder(context.transactionMethodId());
+      }
+    } catch (Throwable ignored) {
+      // never let the agent break the application
+    }
+  }
+
+  /**
+   * Called when acquiring failed, usually because the pool stayed exhausted for its whole
+   * connection timeout.
+   */
+  public static void onAcquireError(Throwable error, Object pool, int active, int idle,
+      int pending, long start) {
+    if (start == 0L) {
+      return;
+    }
+    try {
+      publishWait(pool, TraceContext.current(), active, idle, pending, true, start,
+          System.nanoTime());
+    } catch (Throwable ignored) {
+      // never let the agent break the application
+    }
+  }
+
+  /**
+   * Called when the application closes a borrowed connection, which returns it to the pool.
+   */
+  public static void onClose(Object connection) {
+    if (!(connection instanceof ConnectionState)) {
+      return;
+    }
+    try {
+      ConnectionState state = (ConnectionState) connection;
+      long acquired = state.insightpulse$acquired();
+      SpanRing ring = Probe.ring();
+      if (acquired == 0L || ring == null) {
+        return;
+      }
+      // closing twice is legal and must not count twice
+      state.insightpulse$acquired(0L);
+      TraceContext context = TraceContext.current();
+      ring.publish(SpanKind.CONNECTION_HOLD, state.insightpulse$holder(), context.endpointId(),
+          context.traceId(), acquired, System.nanoTime() - acquired, 0L);
+    } catch (Throwable ignored) {
+      // never let the agent break the application
+    }
+  }
+
+  /**
+   * Called when a {@code @Transactional} method is invoked; connections acquired until it
+   * returns are charged to it, unless a nested one starts a transaction of its own.
+   *
+   * @return what {@link #exitTransaction} restores
+   */
+  public static long enterTransaction(Method method) {
+    if (Probe.ring() == null || method == null) {
+      return UNTRACKED;
+    }
+    try {
+      return TraceContext.current().enterTransaction(transactionId(method));
+    } catch (Throwable ignored) {
+      return UNTRACKED;
+    }
+  }
+
+  public static void exitTransaction(long previous) {
+    if (previous == UNTRACKED) {
+      return;
+    }
+    try {
+      TraceContext.current().exitTransaction((int) previous);
+    } catch (Throwable ignored) {
+      // never let the agent break the application
+    }
+  }
+
+  private static boolean publishWait(Object pool, TraceContext context, int active, int idle,
+      int pending, boolean failed, long start, long now) {
+    SpanRing ring = Probe.ring();
+    if (ring == null) {
+      return false;
+    }
+    ring.publish(SpanKind.CONNECTION_WAIT, ConnectionPools.idOf(pool), context.endpointId(),
+        context.traceId(), start, now - start,
+        SpanKind.connectionValue(active, idle, pending, failed));
+    return true;
+  }
+
+  private static int transactionId(Method method) {
+    Integer id = TRANSACTIONS.get(method);
+    if (id == null) {
+      id = MethodRegistry.register(Type.getInternalName(method.getDeclaringClass()),
+          method.getName(), Type.getMethodDescriptor(method));
+      Metrics.transactionHolds().register(id, MethodRegistry.displayName(id));
+      TRANSACTIONS.putIfAbsent(method, id);
+    }
+    return id;
+  }
+}
@@ -0,0 +1,156 @@
+package com.insightpulse.profile;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Sampled stacks of one route folded into a trie.
+ * <p>
+ * Node {@code n} is the call path from the root to frame {@code frame[n]} of the
+ * {@link FrameTable}; {@code self[n]} counts the samples whose stack ended there. Nodes live in
+ * parallel primitive arrays and children are found through an open-addressing index keyed by
+ * (parent, frame), so adding a stack seen before allocates nothing. A child always has a higher
+ * index than its parent. Not thread-safe: owned by the sampling thread.
+ */
+final class CallTree {
+
+  static final int ROOT = 0;
+
+  private final int maxNodes;
+  private int[] parent = new int[256];
+  private int[] frame = new int[256];
+  private long[] self = new long[256];
+  private int size = 1;
+  /** Open-addressing index of child node + 1, keyed by parent and frame; 0 marks a free slot. */
+  private int[] slots = new int[512];
+  private long samples;
+  private long truncated;
+
+  CallTree(int maxNodes) {
+    this.maxNodes = maxNodes;
+    parent[ROOT] = -1;
+    frame[ROOT] = -1;
+  }
+
+  /**
+   * Adds one sample.
+   *
+   * @param frames frame ids from the outermost call to the innermost one
+   */
+  void add(int[] frames, int depth) {
+    int node = ROOT;
+    for (int i = 0; i < depth; i++) {
+      int child = child(node, frames[i]);
+      if (child < 0) {
+        // out of nodes: charge the rest of the stack to the deepest known caller
+        truncated++;
+        break;
+      }
+      node = child;
+    }
+    self[node]++;
+    samples++;
+  }
+
+  long samples() {
+    return samples;
+  }
+
+  /**
+   * Samples whose stack did not fit in the node budget and was cut short.
+   */
+  long truncated() {
+    return truncated;
+  }
+
+  int size() {
+    return size;
+  }
+
+  int parent(int node) {
+    return parent[node];
+  }
+
+  int frame(int node) {
+    return frame[node];
+  }
+
+  long self(int node) {
+    return self[node];
+  }
+
+  /**
+   * Writes one {@code outer;...;inner count} line per distinct stack, the input format of
+   * flamegraph.pl, speedscope and most other flame graph tools.
+   */
+  void writeFolded(Appendable out, FrameTable frames) throws IOException {
+    int[] path = new int[16];
+    for (int node = 1; node < size; node++) {
+      if (self[node] == 0) {
+        continue;
+      }
+      int depth = 0;
+      for (int n = node; n != ROOT; n = parent[n]) {
+        if (depth == path.length) {
+          path = Arrays.copyOf(path, depth * 2);
+        }
+        path[depth++] = frame[n];
+      }
+      for (int i = depth - 1; i >= 0; i--) {
+        out.append(frames.name(path[i]));
+        out.append(i == 0 ? ' ' : ';');
+      }
+      out.append(Long.toString(self[node])).append('\n');
+    }
+  }
+
+  private int child(int node, int frameId) {
+    int mask = slots.length - 1;
+    int slot = hash(node, frameId) & mask;
+    while (true) {
+      int entry = slots[slot];
+      if (entry == 0) {
+        break;
+      }
+      int child = entry - 1;
+      if (parent[child] == node && frame[child] == frameId) {
+        return child;
+      }
+      slot = (slot + 1) & mask;
+    }
+    if (size == maxNodes) {
+      return -1;
+    }
+    int child = size++;
+    if (child == parent.length) {
+      parent = Arrays.copyOf(parent, child * 2);
+      frame = Arrays.copyOf(frame, child * 2);
+      self = Arrays.copyOf(self, child * 2);
+    }
+    parent[child] = node;
+    frame[child] = frameId;
+    slots[slot] = child + 1;
+    if (size * 2 > slots.length) {
+      rehash(slots.length * 2);
+    }
+    return child;
+  }
+
+  private void rehash(int capacity) {
+    int[] rehashed = new int[capacity];
+    int mask = capacity - 1;
+    for (int node = 1; node < size; node++) {
+      int slot = hash(parent[node], frame[node]) & mask;
+      while (rehashed[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      rehashed[slot] = node + 1;
+    }
+    slots = rehashed;
+  }
+
+  private static int hash(int node, int frameId) {
+    int h = node * 0x9E3779B1 + frameId;
+    return h ^ (h >>> 15);
+  }
+}
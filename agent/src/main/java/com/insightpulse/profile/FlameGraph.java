@@ -0,0 +1,132 @@
+package com.insightpulse.profile;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Renders a {@link CallTree} as a static SVG flame graph: the root at the bottom, callees stacked
+ * above their callers, each frame as wide as its share of the samples. Siblings are ordered by
+ * name as in flamegraph.pl, and hovering a frame shows its sample count.
+ */
+final class FlameGraph {
+
+  private static final int WIDTH = 1200;
+  private static final int ROW = 16;
+  private static final int MARGIN = 10;
+  private static final int TITLE = 24;
+  /** Frames narrower than this many pixels are left out. */
+  private static final double MIN_WIDTH = 0.1;
+  /** Rough width of one character of the 12px font, to decide how much of a label fits. */
+  private static final double CHAR_WIDTH = 7.0;
+
+  private FlameGraph() {
+  }
+
+  static void write(Appendable out, String title, CallTree tree, FrameTable frames)
+      throws IOException {
+    int size = tree.size();
+    long[] total = new long[size];
+    int[] depth = new int[size];
+    int maxDepth = 0;
+    for (int node = 1; node < size; node++) {
+      depth[node] = depth[tree.parent(node)] + 1;
+      maxDepth = Math.max(maxDepth, depth[node]);
+    }
+    // children come after their parents, so one backwards pass sums every subtree
+    for (int node = size - 1; node >= 0; node--) {
+      total[node] += tree.self(node);
+      if (node != CallTree.ROOT) {
+        total[tree.parent(node)] += total[node];
+      }
+    }
+    Integer[] order = new Integer[size - 1];
+    for (int node = 1; node < size; node++) {
+      order[node - 1] = node;
+    }
+    Arrays.sort(order, Comparator.comparingInt(tree::parent)
+        .thenComparing(node -> frames.name(tree.frame(node))));
+    // x offset of each node: its parent's plus the widths of the siblings sorted before it
+    long[] x = new long[size];
+    long[] next = new long[size];
+    for (int node : order) {
+      int parent = tree.parent(node);
+      x[node] = x[parent] + next[parent];
+      next[parent] += total[node];
+    }
+
+    int height = TITLE + (maxDepth + 1) * ROW + 2 * MARGIN;
+    double scale = total[CallTree.ROOT] == 0 ? 0 : (WIDTH - 2.0 * MARGIN) / total[CallTree.ROOT];
+    out.append("<?xml version=\"1.0\" standalone=\"no\"?>\n")
+        .append("<svg version=\"1.1\" xmlns=\"http://www.w3.org/2000/svg\" width=\"")
+        .append(Integer.toString(WIDTH)).append("\" height=\"").append(Integer.toString(height))
+        .append("\" font-family=\"Verdana\" font-size=\"12\">\n")
+        .append("<rect width=\"100%\" height=\"100%\" fill=\"#f8f8f8\"/>\n")
+        .append("<text x=\"").append(Integer.toString(WIDTH / 2))
+        .append("\" y=\"").append(Integer.toString(TITLE - 6))
+        .append("\" text-anchor=\"middle\" font-size=\"16\">");
+    escape(out, title + " (" + total[CallTree.ROOT] + " samples)");
+    out.append("</text>\n");
+    for (int node = 0; node < size; node++) {
+      double w = total[node] * scale;
+      if (w < MIN_WIDTH) {
+        continue;
+      }
+      String name = node == CallTree.ROOT ? "all" : frames.name(tree.frame(node));
+      double left = MARGIN + x[node] * scale;
+      int top = height - MARGIN - (depth[node] + 1) * ROW;
+      out.append("<g><title>");
+      escape(out, name);
+      out.append(" (").append(Long.toString(total[node])).append(" samples, ")
+          .append(String.format("%.2f", 100.0 * total[node] / total[CallTree.ROOT]))
+          .append("%)</title><rect x=\"").append(String.format("%.1f", left))
+          .append("\" y=\"").append(Integer.toString(top))
+          .append("\" width=\"").append(String.format("%.1f", w))
+          .append("\" height=\"").append(Integer.toString(ROW - 1))
+          .append("\" fill=\"").append(color(name)).append("\" rx=\"2\"/>");
+      int fits = (int) ((w - 6) / CHAR_WIDTH);
+      if (fits >= 3) {
+        out.append("<text x=\"").append(String.format("%.1f", left + 3))
+            .append("\" y=\"").append(Integer.toString(top + ROW - 4)).append("\">");
+        escape(out, fits >= name.length() ? name : name.substring(0, fits - 2) + "..");
+        out.append("</text>");
+      }
+      out.append("</g>\n");
+    }
+    out.append("</svg>\n");
+  }
+
+  /**
+   * Warm flame colours, stable per frame name so that the same frame looks the same across
+   * routes and exports.
+   */
+  private static String color(String name) {
+    int h = name.hashCode();
+    int red = 205 + (h & 0x3f) % 50;
+    int green = ((h >>> 8) & 0xff) % 180;
+    int blue = ((h >>> 16) & 0xff) % 55;
+    return String.format("#%02x%02x%02x", red, green, blue);
+  }
+
+  private static void escape(Appendable out, String text) throws IOException {
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      switch (c) {
+        case '<':
+          out.append("&lt;");
+          break;
+        case '>':
+          out.append("&gt;");
+          break;
+        case '&':
+          out.append("&amp;");
+          break;
+        case '"':
+          out.append("&quot;");
+          break;
+        default:
+          out.append(c);
+      }
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package com.insightpulse.profile;
+
+import java.util.Arrays;
+
+/**
+ * Interns stack frames, identified by declaring class and method, into dense int ids.
+ * <p>
+ * Line numbers are left out on purpose so that samples anywhere in a method fold into one frame.
+ * Lookups hash the two names in place rather than building a key string, so interning a frame
+ * seen before allocates nothing. Not thread-safe: owned by the sampling thread.
+ */
+final class FrameTable {
+
+  private String[] classNames = new String[1024];
+  private String[] methodNames = new String[1024];
+  private int size;
+  /** Open-addressing index of frame id + 1; 0 marks a free slot. */
+  private int[] slots = new int[2048];
+
+  int intern(String className, String methodName) {
+    int mask = slots.length - 1;
+    int slot = hash(className, methodName) & mask;
+    while (true) {
+      int entry = slots[slot];
+      if (entry == 0) {
+        break;
+      }
+      int id = entry - 1;
+      if (methodNames[id].equals(methodName) && classNames[id].equals(className)) {
+        return id;
+      }
+      slot = (slot + 1) & mask;
+    }
+    int id = size++;
+    if (id == classNames.length) {
+      classNames = Arrays.copyOf(classNames, id * 2);
+      methodNames = Arrays.copyOf(methodNames, id * 2);
+    }
+    classNames[id] = className;
+    methodNames[id] = methodName;
+    slots[slot] = id + 1;
+    if (size * 2 > slots.length) {
+      rehash(slots.length * 2);
+    }
+    return id;
+  }
+
+  /**
+   * Display name of a frame, e.g. {@code org.hibernate.loader.Loader.doQuery}.
+   */
+  String name(int id) {
+    return classNames[id] + '.' + methodNames[id];
+  }
+
+  int size() {
+    return size;
+  }
+
+  private void rehash(int capacity) {
+    int[] rehashed = new int[capacity];
+    int mask = capacity - 1;
+    for (int id = 0; id < size; id++) {
+      int slot = hash(classNames[id], methodNames[id]) & mask;
+      while (rehashed[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      rehashed[slot] = id + 1;
+    }
+    slots = rehashed;
+  }
+
+  private static int hash(String className, String methodName) {
+    int h = className.hashCode() * 31 + methodName.hashCode();
+    return h ^ (h >>> 16);
+  }
+}
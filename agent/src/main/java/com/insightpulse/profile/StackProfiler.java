@@ -0,0 +1,296 @@
+package com.insightpulse.profile;
+
+import com.insightpulse.AgentLog;
+import com.insightpulse.trace.Endpoints;
+import com.insightpulse.trace.RequestThreads;
+import com.insightpulse.trace.TraceContext;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Periodically samples the stacks of threads serving a traced request and folds them into one
+ * {@link CallTree} per route.
+ * <p>
+ * Only threads with an active trace are sampled, including executor threads continuing one, so
+ * idle pool threads cost nothing. All of them are captured in a single
+ * {@link ThreadMXBean#getThreadInfo(long[], int)} call, i.e. one safepoint per tick. Every
+ * {@code exportSeconds}, and once more on {@link #stop}, the trees accumulated since start are
+ * written to the output directory as {@code <route>.folded} (folded stacks) and
+ * {@code <route>.svg} (flame graph).
+ */
+public final class StackProfiler implements Runnable {
+
+  public static final int MIN_HZ = 10;
+  public static final int MAX_HZ = 100;
+  /** Nodes kept per route; deeper or rarer stacks beyond this are cut short. */
+  static final int MAX_NODES = 1 << 16;
+
+  /**
+   * What a sample stands for.
+   */
+  public enum Mode {
+    /** Elapsed time: every request thread counts, whether running, blocked or waiting on I/O. */
+    WALL,
+    /**
+     * CPU time: a thread counts only if it is runnable and used CPU since the previous tick, so
+     * time spent sleeping, on locks or waiting for the database drops out.
+     */
+    CPU
+  }
+
+  private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+  private final int hz;
+  private final long periodNanos;
+  private final Mode mode;
+  private final int maxDepth;
+  private final File directory;
+  private final long exportNanos;
+  private final FrameTable frames = new FrameTable();
+  private CallTree[] trees = new CallTree[64];
+  private TraceContext[] active = new TraceContext[64];
+  private long[] threadIds = new long[64];
+  private int[] endpoints = new int[64];
+  private int[] stack = new int[64];
+  /** CPU time per thread id at the previous tick, in {@link Mode#CPU}. */
+  private Map<Long, Long> lastCpu = new HashMap<>();
+  private Map<Long, Long> nextCpu = new HashMap<>();
+  private volatile boolean running = true;
+  private Thread thread;
+
+  /**
+   * @param hz samples per second, clamped to {@value #MIN_HZ}-{@value #MAX_HZ}
+   */
+  public StackProfiler(int hz, Mode mode, int maxDepth, File directory, long exportSeconds) {
+    this.hz = Math.max(MIN_HZ, Math.min(MAX_HZ, hz));
+    this.periodNanos = TimeUnit.SECONDS.toNanos(1) / this.hz;
+    this.mode = mode == Mode.CPU && threads.isThreadCpuTimeSupported() ? Mode.CPU : Mode.WALL;
+    this.maxDepth = maxDepth;
+    this.directory = directory;
+    this.exportNanos = TimeUnit.SECONDS.toNanos(exportSeconds);
+    if (this.mode != mode) {
+      AgentLog.warn("Thread CPU time is not supported, profiling wall-clock time instead");
+    }
+  }
+
+  public synchronized void start() {
+    if (mode == Mode.CPU && !threads.isThreadCpuTimeEnabled()) {
+      threads.setThreadCpuTimeEnabled(true);
+    }
+    thread = new Thread(this, "insightpulse-profiler");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public synchronized void stop() {
+    running = false;
+    if (thread != null) {
+      LockSupport.unpark(thread);
+    }
+  }
+
+  @Override
+  public void run() {
+    long nextTick = System.nanoTime();
+    long nextExport = nextTick + exportNanos;
+    while (running) {
+      try {
+        sample();
+        long now = System.nanoTime();
+        if (exportNanos > 0 && now - nextExport >= 0) {
+          export();
+          nextExport = now + exportNanos;
+        }
+      } catch (Throwable t) {
+        AgentLog.error("Stack sampling failed", t);
+      }
+      nextTick += periodNanos;
+      long delay = nextTick - System.nanoTime();
+      if (delay > 0) {
+        LockSupport.parkNanos(delay);
+      } else {
+        // fell behind, e.g. after a long safepoint: skip the missed ticks rather than burst
+        nextTick = System.nanoTime();
+      }
+    }
+    try {
+      export();
+    } catch (Throwable t) {
+      AgentLog.error("Profile export failed", t);
+    }
+  }
+
+  /**
+   * Takes one sample of every thread currently serving a request.
+   */
+  void sample() {
+    int capacity = RequestThreads.size();
+    if (capacity > active.length) {
+      int grown = Math.max(capacity, active.length * 2);
+      active = new TraceContext[grown];
+      threadIds = new long[grown];
+      endpoints = new int[grown];
+    }
+    int count = RequestThreads.snapshot(active);
+    for (int i = 0; i < count; i++) {
+      threadIds[i] = active[i].thread().getId();
+      endpoints[i] = active[i].activeEndpoint();
+    }
+    if (count == 0) {
+      return;
+    }
+    ThreadInfo[] infos = threads.getThreadInfo(Arrays.copyOf(threadIds, count), maxDepth);
+    for (int i = 0; i < count; i++) {
+      ThreadInfo info = infos[i];
+      // the request may have ended, or moved on to another one, while the stack was taken
+      if (info == null || active[i].activeEndpoint() != endpoints[i]
+          || mode == Mode.CPU && !usedCpu(threadIds[i], info)) {
+        active[i] = null;
+        continue;
+      }
+      add(endpoints[i], info.getStackTrace());
+      active[i] = null;
+    }
+    if (mode == Mode.CPU) {
+      Map<Long, Long> previous = lastCpu;
+      lastCpu = nextCpu;
+      previous.clear();
+      nextCpu = previous;
+    }
+  }
+
+  /**
+   * Writes the folded stacks and flame graph of every route sampled so far.
+   */
+  void export() throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create " + directory);
+    }
+    for (int endpoint = 0; endpoint < trees.length; endpoint++) {
+      CallTree tree = trees[endpoint];
+      if (tree == null || tree.samples() == 0) {
+        continue;
+      }
+      String name = Endpoints.name(endpoint);
+      String base = fileName(name);
+      try (Writer out = writer(base + ".folded")) {
+        tree.writeFolded(out, frames);
+      }
+      try (Writer out = writer(base + ".svg")) {
+        FlameGraph.write(out, name + " " + mode.name().toLowerCase(Locale.ROOT), tree, frames);
+      }
+      publish(base + ".folded");
+      publish(base + ".svg");
+      if (tree.truncated() > 0) {
+        AgentLog.debug("%s: %d of %d samples truncated", name, tree.truncated(), tree.samples());
+      }
+    }
+  }
+
+  public int hz() {
+    return hz;
+  }
+
+  public Mode mode() {
+    return mode;
+  }
+
+  CallTree tree(int endpoint) {
+    return endpoint < trees.length ? trees[endpoint] : null;
+  }
+
+  FrameTable frames() {
+    return frames;
+  }
+
+  /**
+   * Turns a route such as {@code GET /api/owners/{ownerId}} into a file name such as
+   * {@code GET_api_owners_ownerId}.
+   */
+  static String fileName(String endpointName) {
+    StringBuilder name = new StringBuilder(endpointName.length());
+    boolean separator = false;
+    for (int i = 0; i < endpointName.length(); i++) {
+      char c = endpointName.charAt(i);
+      if (Character.isLetterOrDigit(c) || c == '.' || c == '-') {
+        if (separator && name.length() > 0) {
+          name.append('_');
+        }
+        name.append(c);
+        separator = false;
+      } else {
+        separator = true;
+      }
+    }
+    return name.length() == 0 ? "_" : name.toString();
+  }
+
+  private void add(int endpoint, StackTraceElement[] elements) {
+    int depth = elements.length;
+    if (depth == 0) {
+      return;
+    }
+    if (depth > stack.length) {
+      stack = new int[Math.max(depth, stack.length * 2)];
+    }
+    // stack traces list the innermost frame first, the tree wants the outermost
+    for (int i = 0; i < depth; i++) {
+      StackTraceElement element = elements[depth - 1 - i];
+      stack[i] = frames.intern(element.getClassName(), element.getMethodName());
+    }
+    if (endpoint >= trees.length) {
+      trees = Arrays.copyOf(trees, Math.max(endpoint + 1, trees.length * 2));
+    }
+    CallTree tree = trees[endpoint];
+    if (tree == null) {
+      tree = new CallTree(MAX_NODES);
+      trees[endpoint] = tree;
+    }
+    tree.add(stack, depth);
+  }
+
+  private boolean usedCpu(long threadId, ThreadInfo info) {
+    long cpu = threads.getThreadCpuTime(threadId);
+    if (cpu < 0) {
+      return false;
+    }
+    Long previous = lastCpu.get(threadId);
+    nextCpu.put(threadId, cpu);
+    // a thread blocked in a socket read is RUNNABLE too, but its CPU time stands still; on its
+    // first tick there is nothing to compare with yet, so the state has to do
+    return info.getThreadState() == Thread.State.RUNNABLE
+        && (previous == null || cpu > previous);
+  }
+
+  private Writer writer(String file) throws IOException {
+    return Files.newBufferedWriter(new File(directory, file + ".tmp").toPath(),
+        StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Replaces the previous export in one step, so readers never see a half-written file.
+   */
+  private void publish(String file) throws IOException {
+    Path target = new File(directory, file).toPath();
+    Path temp = new File(directory, file + ".tmp").toPath();
+    try {
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+}
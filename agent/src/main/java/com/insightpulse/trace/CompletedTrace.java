@@ -0,0 +1,121 @@
+package com.insightpulse.trace;
+
+import java.util.Arrays;
+
+/**
+ * A finished trace kept for export: the request record plus every span recorded under its trace
+ * id, in drain order.
+ */
+public final class CompletedTrace {
+
+  /**
+   * Why a trace was kept.
+   */
+  public enum Reason {
+    SAMPLED, SLOW, ERROR
+  }
+
+  private final long traceId;
+  private final int endpointId;
+  private final int handlerMethodId;
+  private final long startNanos;
+  private final long durationNanos;
+  private final long requestValue;
+  private final Reason reason;
+  private final int[] kinds;
+  private final int[] ids;
+  private final long[] starts;
+  private final long[] durations;
+  private final long[] values;
+
+  CompletedTrace(SpanRecord request, Reason reason, int spanCount, int[] kinds, int[] ids,
+      long[] starts, long[] durations, long[] values) {
+    this.traceId = request.traceId();
+    this.endpointId = request.id();
+    this.handlerMethodId = request.ref();
+    this.startNanos = request.startNanos();
+    this.durationNanos = request.durationNanos();
+    this.requestValue = request.value();
+    this.reason = reason;
+    this.kinds = Arrays.copyOf(kinds, spanCount);
+    this.ids = Arrays.copyOf(ids, spanCount);
+    this.starts = Arrays.copyOf(starts, spanCount);
+    this.durations = Arrays.copyOf(durations, spanCount);
+    this.values = Arrays.copyOf(values, spanCount);
+  }
+
+  public long traceId() {
+    return traceId;
+  }
+
+  public int endpointId() {
+    return endpointId;
+  }
+
+  /**
+   * {@link MethodRegistry} id of the handler method, or -1.
+   */
+  public int handlerMethodId() {
+    return handlerMethodId;
+  }
+
+  public long startNanos() {
+    return startNanos;
+  }
+
+  public long durationNanos() {
+    return durationNanos;
+  }
+
+  /**
+   * HTTP status, or 0 for traces that are not HTTP requests.
+   */
+  public int status() {
+    return SpanKind.requestStatus(requestValue);
+  }
+
+  /**
+   * Value of the {@link SpanKind#REQUEST} record: status, flags and time to first byte.
+   */
+  public long requestValue() {
+    return requestValue;
+  }
+
+  public Reason reason() {
+    return reason;
+  }
+
+  /**
+   * Number of spans recorded inside the trace, excluding the request itself.
+   */
+  public int spanCount() {
+    return kinds.length;
+  }
+
+  public int kindAt(int i) {
+    return kinds[i];
+  }
+
+  public int idAt(int i) {
+    return ids[i];
+  }
+
+  public long startAt(int i) {
+    return starts[i];
+  }
+
+  public long durationAt(int i) {
+    return durations[i];
+  }
+
+  public long valueAt(int i) {
+    return values[i];
+  }
+
+  @Override
+  public String toString() {
+    return "CompletedTrace{" + Long.toHexString(traceId) + ' ' + Endpoints.name(endpointId)
+        + ' ' + reason + " status=" + status() + " duration=" + durationNanos + "ns spans="
+        + kinds.length + '}';
+  }
+}
@@ -0,0 +1,96 @@
+package com.insightpulse.trace;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+
+/**
+ * Static entry points woven into executor submission methods.
+ * <p>
+ * A task submitted while a trace is active is replaced by a pooled {@link ContextTask} that
+ * continues the trace on the thread that runs it. Outside of traces, and for tasks that already
+ * carry a context, the task is returned unchanged, so untraced work pays one thread-local read.
+ * Tasks from {@link #wrap} are recycled after their first run, so only executors that run each
+ * task once and then drop it may use it.
+ */
+public final class ContextPropagation {
+
+  private ContextPropagation() {
+  }
+
+  public static Runnable wrap(Runnable task) {
+    if (task == null || task instanceof ContextTask) {
+      return task;
+    }
+    TraceContext context = TraceContext.current();
+    return context.isActive() ? ContextTask.obtain(context, task, null, true) : task;
+  }
+
+  /**
+   * Like {@link #wrap(Runnable)}, for {@code ThreadPoolExecutor}: its worker passes the task to
+   * {@code afterExecute} after running it, so the wrapper cannot be pooled.
+   */
+  public static Runnable wrapForThreadPool(Runnable task) {
+    if (task == null || task instanceof ContextTask) {
+      return task;
+    }
+    TraceContext context = TraceContext.current();
+    return context.isActive() ? ContextTask.obtain(context, task, null, false) : task;
+  }
+
+  /**
+   * The task a thread pool was originally given, for hooks such as
+   * {@code ThreadPoolExecutor.afterExecute} that expect to see it.
+   */
+  public static Runnable unwrap(Runnable task) {
+    return task instanceof ContextTask ? ((ContextTask) task).runnable() : task;
+  }
+
+  /**
+   * Unwraps, in place, the tasks {@code ThreadPoolExecutor.shutdownNow} hands back.
+   */
+  public static void unwrapAll(List<Runnable> tasks) {
+    for (int i = 0; i < tasks.size(); i++) {
+      Runnable task = tasks.get(i);
+      if (task instanceof ContextTask) {
+        tasks.set(i, ((ContextTask) task).runnable());
+      }
+    }
+  }
+
+  /**
+   * A view of a thread pool's work queue for {@code ThreadPoolExecutor.getQueue}.
+   */
+  public static BlockingQueue<Runnable> unwrapping(BlockingQueue<Runnable> queue) {
+    return queue == null ? null : new UnwrappingQueue(queue);
+  }
+
+  /**
+   * Removes a task or else its wrapper from a thread pool's work queue, for
+   * {@code ThreadPoolExecutor.remove(Runnable)}.
+   */
+  public static boolean remove(BlockingQueue<Runnable> queue, Object task) {
+    return new UnwrappingQueue(queue).remove(task);
+  }
+
+  /**
+   * The task behind a work queue entry, for the {@code Future} checks of
+   * {@code ThreadPoolExecutor.purge}.
+   */
+  public static Object unwrapQueued(Object task) {
+    return task instanceof ContextTask ? ((ContextTask) task).runnable() : task;
+  }
+
+  public static <V> Callable<V> wrap(Callable<V> task) {
+    if (task == null || task instanceof ContextTask) {
+      return task;
+    }
+    TraceContext context = TraceContext.current();
+    if (!context.isActive()) {
+      return task;
+    }
+    @SuppressWarnings("unchecked")
+    Callable<V> wrapped = (Callable<V>) ContextTask.obtain(context, null, task, true);
+    return wrapped;
+  }
+}
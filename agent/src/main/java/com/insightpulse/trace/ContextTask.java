@@ -0,0 +1,159 @@
+package com.insightpulse.trace;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An executor task that carries the identity of the trace that submitted it.
+ * <p>
+ * Tasks for executors that forget a task once it ran are pooled: taken from the pool when
+ * submitted and returned after running, so propagating context allocates nothing in steady state.
+ * When the pool is empty a new task is allocated; when it is full a finished task is left to the
+ * garbage collector. Tasks the executor still refers to after running them are never pooled.
+ */
+public final class ContextTask implements Runnable, Callable<Object> {
+
+  private static final Pool POOL = new Pool(1024);
+
+  private Runnable runnable;
+  private Callable<?> callable;
+  private long traceId;
+  private int endpointId;
+  private boolean sampled;
+  private boolean pooled;
+
+  private ContextTask() {
+  }
+
+  static ContextTask obtain(TraceContext context, Runnable runnable, Callable<?> callable,
+      boolean pooled) {
+    ContextTask task = pooled ? take() : new ContextTask();
+    task.pooled = pooled;
+    task.runnable = runnable;
+    task.callable = callable;
+    task.traceId = context.traceId();
+    task.endpointId = context.endpointId();
+    task.sampled = context.isSampled();
+    return task;
+  }
+
+  Runnable runnable() {
+    return runnable;
+  }
+
+  @Override
+  public void run() {
+    Runnable delegate = runnable;
+    TraceContext context = TraceContext.current();
+    boolean attached = context.attach(traceId, endpointId, sampled);
+    try {
+      delegate.run();
+    } finally {
+      if (attached) {
+        context.detach();
+      }
+      recycle();
+    }
+  }
+
+  @Override
+  public Object call() throws Exception {
+    Callable<?> delegate = callable;
+    TraceContext context = TraceContext.current();
+    boolean attached = context.attach(traceId, endpointId, sampled);
+    try {
+      return delegate.call();
+    } finally {
+      if (attached) {
+        context.detach();
+      }
+      recycle();
+    }
+  }
+
+  @Override
+  public String toString() {
+    Object delegate = runnable != null ? runnable : callable;
+    return String.valueOf(delegate);
+  }
+
+  private void recycle() {
+    if (!pooled) {
+      return;
+    }
+    runnable = null;
+    callable = null;
+    POOL.offer(this);
+  }
+
+  private static ContextTask take() {
+    ContextTask pooled = POOL.poll();
+    return pooled != null ? pooled : new ContextTask();
+  }
+
+  /**
+   * Bounded lock-free MPMC queue (after Vyukov): each slot's sequence number says whether it is
+   * ready to be filled or drained for a given lap, so producers and consumers only contend on
+   * their own position counter and nothing is allocated.
+   */
+  static final class Pool {
+
+    private final AtomicReferenceArray<ContextTask> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong offerPosition = new AtomicLong();
+    private final AtomicLong pollPosition = new AtomicLong();
+    private final int mask;
+
+    Pool(int capacity) {
+      slots = new AtomicReferenceArray<>(capacity);
+      sequences = new AtomicLongArray(capacity);
+      mask = capacity - 1;
+      for (int i = 0; i < capacity; i++) {
+        sequences.set(i, i);
+      }
+    }
+
+    boolean offer(ContextTask task) {
+      long position = offerPosition.get();
+      while (true) {
+        int index = (int) position & mask;
+        long lag = sequences.get(index) - position;
+        if (lag == 0) {
+          if (offerPosition.compareAndSet(position, position + 1)) {
+            slots.set(index, task);
+            sequences.set(index, position + 1);
+            return true;
+          }
+          position = offerPosition.get();
+        } else if (lag < 0) {
+          return false;
+        } else {
+          position = offerPosition.get();
+        }
+      }
+    }
+
+    ContextTask poll() {
+      long position = pollPosition.get();
+      while (true) {
+        int index = (int) position & mask;
+        long lag = sequences.get(index) - (position + 1);
+        if (lag == 0) {
+          if (pollPosition.compareAndSet(position, position + 1)) {
+            ContextTask task = slots.get(index);
+            slots.set(index, null);
+            sequences.set(index, position + mask + 1);
+            return task;
+          }
+          position = pollPosition.get();
+        } else if (lag < 0) {
+          return null;
+        } else {
+          position = pollPosition.get();
+        }
+      }
+    }
+  }
+}
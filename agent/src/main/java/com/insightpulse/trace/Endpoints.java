@@ -0,0 +1,102 @@
+package com.insightpulse.trace;
+
+import com.insightpulse.metrics.Metrics;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns dense ids to request endpoints, the names traces and their metrics are keyed by.
+ * <p>
+ * HTTP requests are named after their route template, e.g. {@code GET /api/owners/{ownerId}},
+ * which keeps the number of endpoints bounded by the application's mappings. Other traces are
+ * named after their outermost instrumented method, e.g. {@code ClinicService.findOwnerById}. Id 0
+ * means "no endpoint".
+ */
+public final class Endpoints {
+
+  public static final int NONE = 0;
+
+  private static final Map<String, Integer> IDS = new HashMap<>();
+  private static volatile String[] names = new String[256];
+  private static volatile int size = 1;
+  private static volatile int[] methodEndpoints = new int[256];
+  private static volatile int[] handlers = new int[256];
+
+  private Endpoints() {
+  }
+
+  public static synchronized int register(String name) {
+    Integer existing = IDS.get(name);
+    if (existing != null) {
+      return existing;
+    }
+    int id = size;
+    if (id == names.length) {
+      names = Arrays.copyOf(names, id * 2);
+    }
+    names[id] = name;
+    IDS.put(name, id);
+    Metrics.endpoints().register(id, name);
+    Metrics.firstByte().register(id, name);
+    Metrics.endpointErrors().register(id, name);
+    Metrics.requestCpu().register(id, name);
+    Metrics.requestAllocations().register(id, name);
+    Metrics.requestGc().register(id, name);
+    Metrics.connectionWait().register(id, name);
+    Metrics.connectionHold().register(id, name);
+    Metrics.requestEntities().register(id, name);
+    Metrics.requestCollections().register(id, name);
+    Metrics.flushes().register(id, name);
+    Metrics.dirtyChecks().register(id, name);
+    size = id + 1;
+    return id;
+  }
+
+  /**
+   * Records the endpoint a trace gets when it starts in the given instrumented method.
+   */
+  public static synchronized void bindMethod(int methodId, String name) {
+    int endpointId = register(name);
+    int[] current = methodEndpoints;
+    if (methodId >= current.length) {
+      current = Arrays.copyOf(current, Math.max(methodId + 1, current.length * 2));
+    }
+    current[methodId] = endpointId;
+    methodEndpoints = current;
+  }
+
+  public static int forMethod(int methodId) {
+    int[] current = methodEndpoints;
+    return methodId < current.length ? current[methodId] : NONE;
+  }
+
+  /**
+   * Remembers the handler method last seen serving an endpoint.
+   */
+  public static synchronized void bindHandler(int id, int methodId) {
+    int[] current = handlers;
+    if (id >= current.length) {
+      current = Arrays.copyOf(current, Math.max(id + 1, current.length * 2));
+    }
+    // stored off by one so that 0 keeps meaning "unknown"
+    current[id] = methodId + 1;
+    handlers = current;
+  }
+
+  /**
+   * {@link MethodRegistry} id of the handler serving the endpoint, or -1 if unknown.
+   */
+  public static int handler(int id) {
+    int[] current = handlers;
+    return id < current.length ? current[id] - 1 : -1;
+  }
+
+  public static String name(int id) {
+    return names[id];
+  }
+
+  public static int size() {
+    return size;
+  }
+}
@@ -0,0 +1,85 @@
+package com.insightpulse.trace;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-capacity open-addressing map from non-zero int keys to counts; 0 marks an empty slot.
+ * <p>
+ * Owned by one thread and reused across requests: {@link #clear()} only wipes the slots that were
+ * touched, so a request that ran five distinct statements costs five stores to reset. Keys beyond
+ * the capacity are not counted.
+ */
+public final class IntCountMap {
+
+  private final int[] keys;
+  private final int[] counts;
+  private final int[] touched;
+  private final int mask;
+  private int size;
+
+  public IntCountMap(int capacity) {
+    int slots = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) * 2;
+    this.keys = new int[slots];
+    this.counts = new int[slots];
+    this.touched = new int[slots / 2];
+    this.mask = slots - 1;
+  }
+
+  /**
+   * Increments the count of {@code key}, which may be any int but 0.
+   *
+   * @return the new count, or 0 if the map is full and the key was not counted
+   */
+  public int increment(int key) {
+    int slot = (key * 0x9E3779B9) & mask;
+    while (true) {
+      int existing = keys[slot];
+      if (existing == key) {
+        return ++counts[slot];
+      }
+      if (existing == 0) {
+        if (size == touched.length) {
+          return 0;
+        }
+        keys[slot] = key;
+        counts[slot] = 1;
+        touched[size++] = slot;
+        return 1;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Key of the {@code i}-th distinct key counted since the last clear.
+   */
+  public int keyAt(int i) {
+    return keys[touched[i]];
+  }
+
+  public int countAt(int i) {
+    return counts[touched[i]];
+  }
+
+  public void clear() {
+    for (int i = 0; i < size; i++) {
+      keys[touched[i]] = 0;
+      counts[touched[i]] = 0;
+    }
+    size = 0;
+  }
+
+  @Override
+  public String toString() {
+    int[] pairs = new int[size * 2];
+    for (int i = 0; i < size; i++) {
+      pairs[i * 2] = keyAt(i);
+      pairs[i * 2 + 1] = countAt(i);
+    }
+    return "IntCountMap" + Arrays.toString(pairs);
+  }
+}
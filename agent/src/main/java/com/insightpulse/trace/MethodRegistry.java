@@ -0,0 +1,67 @@
+package com.insightpulse.trace;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns dense int ids to instrumented methods.
+ * <p>
+ * Ids are baked into the woven bytecode as constants, so probes pass an int around instead of a
+ * name. Registration happens at class-load time under a lock; lookups by id are lock-free.
+ */
+public final class MethodRegistry {
+
+  private static final Map<String, Integer> IDS = new HashMap<>();
+  private static volatile String[] classNames = new String[256];
+  private static volatile String[] methodNames = new String[256];
+  private static volatile int size;
+
+  private MethodRegistry() {
+  }
+
+  /**
+   * Returns the id for the given method, registering it on first sight.
+   *
+   * @param className  internal class name, e.g. {@code com/example/petclinic/service/ClinicService}
+   * @param methodName method name
+   * @param descriptor method descriptor, used to tell overloads apart
+   */
+  public static synchronized int register(String className, String methodName, String descriptor) {
+    String key = className + '.' + methodName + descriptor;
+    Integer existing = IDS.get(key);
+    if (existing != null) {
+      return existing;
+    }
+    int id = size;
+    if (id == classNames.length) {
+      classNames = Arrays.copyOf(classNames, id * 2);
+      methodNames = Arrays.copyOf(methodNames, id * 2);
+    }
+    classNames[id] = className.replace('/', '.');
+    methodNames[id] = methodName;
+    IDS.put(key, id);
+    size = id + 1;
+    return id;
+  }
+
+  public static int size() {
+    return size;
+  }
+
+  public static String className(int id) {
+    return classNames[id];
+  }
+
+  public static String methodName(int id) {
+    return methodNames[id];
+  }
+
+  /**
+   * Short display name such as {@code ClinicService.findOwnerById}.
+   */
+  public static String displayName(int id) {
+    String className = classNames[id];
+    return className.substring(className.lastIndexOf('.') + 1) + '.' + methodNames[id];
+  }
+}
@@ -0,0 +1,69 @@
+package com.insightpulse.trace;
+
+/**
+ * Static entry points called from woven bytecode.
+ * <p>
+ * Every instrumented method is rewritten to
+ * <pre>
+ *   long start = Probe.enter(id);
+ *   try { ...original body... } finally { Probe.exit(id, start); }
+ * </pre>
+ * Anything done here is paid on every call of an instrumented method, so keep it allocation- and
+ * lock-free. The exit probe only publishes the finished span into the {@link SpanRing}; timers
+ * are updated later by the {@link SpanDrainer}. The outermost instrumented call on a thread
+ * starts and finishes its {@link TraceContext}. Probes must never throw into application code.
+ */
+public final class Probe {
+
+  private static volatile SpanRing ring;
+
+  private Probe() {
+  }
+
+  public static void install(SpanRing spanRing) {
+    ring = spanRing;
+  }
+
+  public static SpanRing ring() {
+    return ring;
+  }
+
+  public static long enter(int methodId) {
+    if (ring == null) {
+      return 0L;
+    }
+    long now = System.nanoTime();
+    TraceContext.current().enter(Endpoints.forMethod(methodId), now);
+    return now;
+  }
+
+  public static void exit(int methodId, long start) {
+    if (start == 0L) {
+      return;
+    }
+    long now = System.nanoTime();
+    SpanRing spans = ring;
+    TraceContext context = TraceContext.current();
+    publish(spans, context, methodId, start, now);
+    context.exit(spans, now);
+  }
+
+  public static void exitWithError(Throwable error, int methodId, long start) {
+    if (start == 0L) {
+      return;
+    }
+    long now = System.nanoTime();
+    SpanRing spans = ring;
+    TraceContext context = TraceContext.current();
+    publish(spans, context, methodId, start, now);
+    context.exitWithError(spans, now);
+  }
+
+  private static void publish(SpanRing spans, TraceContext context, int methodId, long start,
+      long now) {
+    if (spans != null) {
+      spans.publish(SpanKind.METHOD, methodId, context.endpointId(), context.traceId(), start,
+          now - start, 0L);
+    }
+  }
+}
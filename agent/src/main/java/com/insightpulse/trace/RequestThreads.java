@@ -0,0 +1,115 @@
+package com.insightpulse.trace;
+
+import com.insightpulse.AgentLog;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Every thread that has ever been traced, so that samplers can find the threads currently serving
+ * a request without scanning the whole JVM.
+ * <p>
+ * A thread registers once, when its {@link TraceContext} is created; terminated threads are
+ * dropped on the next {@link #snapshot}, or when registering finds the array full, so threads
+ * that come and go without ever being sampled do not pile up either.
+ */
+public final class RequestThreads {
+
+  private static TraceContext[] contexts = new TraceContext[64];
+  private static int size;
+  private static List<Runnable> onFirst = new ArrayList<>();
+  private static volatile boolean traced;
+
+  private RequestThreads() {
+  }
+
+  static void register(TraceContext context) {
+    synchronized (RequestThreads.class) {
+      if (size == contexts.length && pruneTerminated() == contexts.length) {
+        contexts = Arrays.copyOf(contexts, size * 2);
+      }
+      contexts[size++] = context;
+    }
+  }
+
+  /**
+   * Called whenever a thread starts a trace; runs the deferred actions the first time.
+   */
+  static void traceStarted() {
+    if (traced) {
+      return;
+    }
+    List<Runnable> actions;
+    synchronized (RequestThreads.class) {
+      actions = traced ? null : onFirst;
+      traced = true;
+      onFirst = null;
+    }
+    if (actions != null) {
+      for (Runnable action : actions) {
+        run(action);
+      }
+    }
+  }
+
+  /**
+   * Runs {@code action} once the first trace starts, or right away if one already did; lets
+   * samplers and monitors start with the first request rather than with the JVM, or with the
+   * first thread that merely touched its context. Actions run in the order they were given.
+   */
+  public static void whenFirstTraced(Runnable action) {
+    synchronized (RequestThreads.class) {
+      if (!traced) {
+        onFirst.add(action);
+        return;
+      }
+    }
+    run(action);
+  }
+
+  private static void run(Runnable action) {
+    try {
+      action.run();
+    } catch (Throwable t) {
+      // runs on an application thread, which must never see the agent fail
+      AgentLog.error("Deferred agent startup failed", t);
+    }
+  }
+
+  /**
+   * Copies the contexts of live threads with an active trace into {@code out}.
+   *
+   * @return how many were copied, at most {@code out.length}
+   */
+  public static synchronized int snapshot(TraceContext[] out) {
+    pruneTerminated();
+    int count = 0;
+    for (int i = 0; i < size && count < out.length; i++) {
+      TraceContext context = contexts[i];
+      if (context.activeEndpoint() != Endpoints.NONE) {
+        out[count++] = context;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return the size left
+   */
+  private static int pruneTerminated() {
+    for (int i = 0; i < size; i++) {
+      if (contexts[i].thread().getState() == Thread.State.TERMINATED) {
+        contexts[i--] = contexts[--size];
+        contexts[size] = null;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Registered threads, an upper bound for {@link #snapshot}.
+   */
+  public static synchronized int size() {
+    return size;
+  }
+}
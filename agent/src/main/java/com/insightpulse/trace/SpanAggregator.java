@@ -0,0 +1,122 @@
+package com.insightpulse.trace;
+
+import com.insightpulse.gc.GcPauses;
+import com.insightpulse.jdbc.NPlusOneDetector;
+import com.insightpulse.metrics.Metrics;
+
+/**
+ * Routes drained spans to their metrics and, if given, to a {@link TraceCollector}. Runs on the
+ * drainer thread only.
+ */
+public final class SpanAggregator implements SpanHandler {
+
+  private final TraceCollector traces;
+
+  public SpanAggregator() {
+    this(null);
+  }
+
+  public SpanAggregator(TraceCollector traces) {
+    this.traces = traces;
+  }
+
+  @Override
+  public void onSpan(SpanRecord span) {
+    switch (span.kind()) {
+      case SpanKind.METHOD:
+        Metrics.methods().record(span.id(), span.durationNanos());
+        break;
+      case SpanKind.SQL:
+        Metrics.statements().record(span.id(), span.durationNanos());
+        break;
+      case SpanKind.SQL_ROWS:
+        Metrics.statementRows().add(span.id(), span.value());
+        break;
+      case SpanKind.REQUEST:
+        onRequest(span);
+        break;
+      case SpanKind.RESOURCES:
+        Metrics.requestCpu().record(span.id(), span.durationNanos());
+        Metrics.requestAllocations().record(span.id(), span.value());
+        break;
+      case SpanKind.JFR:
+        if (span.durationNanos() > 0L) {
+          Metrics.jfrEvents().record(span.id(), span.durationNanos());
+        }
+        if (span.value() > 0L) {
+          Metrics.jfrBytes().add(span.id(), span.value());
+        }
+        break;
+      case SpanKind.CONNECTION_WAIT:
+        onConnectionWait(span);
+        break;
+      case SpanKind.CONNECTION_HOLD:
+        if (span.id() >= 0) {
+          Metrics.transactionHolds().record(span.id(), span.durationNanos());
+        }
+        if (span.ref() != Endpoints.NONE) {
+          Metrics.connectionHold().record(span.ref(), span.durationNanos());
+        }
+        break;
+      case SpanKind.ENTITY_LOAD:
+        Metrics.entityLoads().add(span.id(), span.value());
+        break;
+      case SpanKind.COLLECTION_LOAD:
+        Metrics.collectionLoads().record(span.id(), span.durationNanos());
+        break;
+      case SpanKind.FLUSH:
+        // a flush may come before the request has been routed
+        if (span.id() != Endpoints.NONE) {
+          Metrics.flushes().record(span.id(), span.durationNanos());
+          Metrics.dirtyChecks().record(span.id(), span.value());
+        }
+        break;
+      case SpanKind.SESSION:
+        Metrics.requestEntities().record(span.id(), SpanKind.sessionEntities(span.value()));
+        Metrics.requestCollections().record(span.id(), SpanKind.sessionCollections(span.value()));
+        break;
+      case SpanKind.N_PLUS_ONE:
+        NPlusOneDetector.record(span.ref(), span.id(), span.value());
+        break;
+      default:
+        break;
+    }
+    if (traces != null) {
+      traces.onSpan(span);
+    }
+  }
+
+  private static void onRequest(SpanRecord span) {
+    int endpoint = span.id();
+    Metrics.endpoints().record(endpoint, span.durationNanos());
+    int status = SpanKind.requestStatus(span.value());
+    if (status != 0) {
+      Metrics.firstByte().record(endpoint, SpanKind.requestFirstByteNanos(span.value()));
+    }
+    if (status >= 500 || (SpanKind.requestFlags(span.value()) & SpanKind.REQUEST_ERROR) != 0) {
+      Metrics.endpointErrors().add(endpoint, 1);
+    }
+    long gc = GcPauses.overlapNanos(span.startNanos(), span.startNanos() + span.durationNanos());
+    if (gc > 0L) {
+      Metrics.requestGc().record(endpoint, gc);
+    }
+    if (span.ref() >= 0 && Endpoints.handler(endpoint) != span.ref()) {
+      Endpoints.bindHandler(endpoint, span.ref());
+    }
+  }
+
+  private static void onConnectionWait(SpanRecord span) {
+    int pool = span.id();
+    long value = span.value();
+    Metrics.poolWait().record(pool, span.durationNanos());
+    Metrics.poolActive().record(pool, SpanKind.connectionActive(value));
+    Metrics.poolIdle().record(pool, SpanKind.connectionIdle(value));
+    Metrics.poolPending().record(pool, SpanKind.connectionPending(value));
+    if (SpanKind.connectionFailed(value)) {
+      Metrics.poolTimeouts().add(pool, 1);
+    }
+    if (span.ref() != Endpoints.NONE) {
+      Metrics.connectionWait().record(span.ref(), span.durationNanos());
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package com.insightpulse.trace;
+
+import com.insightpulse.AgentLog;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background consumer of the {@link SpanRing}.
+ * <p>
+ * All aggregation happens on this thread, off the request path. When the ring is empty the
+ * drainer parks briefly instead of spinning.
+ */
+public final class SpanDrainer implements Runnable {
+
+  private static final int BATCH = 1024;
+
+  private final SpanRing ring;
+  private final SpanHandler handler;
+  private final long idleParkNanos;
+  private volatile boolean running = true;
+  private Thread thread;
+
+  public SpanDrainer(SpanRing ring, SpanHandler handler, long idleParkMillis) {
+    this.ring = ring;
+    this.handler = handler;
+    this.idleParkNanos = TimeUnit.MILLISECONDS.toNanos(idleParkMillis);
+  }
+
+  public synchronized void start() {
+    thread = new Thread(this, "insightpulse-drainer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public synchronized void stop() {
+    running = false;
+    if (thread != null) {
+      LockSupport.unpark(thread);
+    }
+  }
+
+  @Override
+  public void run() {
+    while (running) {
+      try {
+        if (ring.drain(handler, BATCH) == 0) {
+          LockSupport.parkNanos(idleParkNanos);
+        }
+      } catch (Throwable t) {
+        AgentLog.error("Span aggregation failed", t);
+      }
+    }
+    ring.drain(handler, Integer.MAX_VALUE);
+  }
+}
@@ -0,0 +1,13 @@
+package com.insightpulse.trace;
+
+/**
+ * Consumer callback for {@link SpanRing#drain}.
+ */
+public interface SpanHandler {
+
+  /**
+   * Called once per drained span. The record is a reused view of the ring slot and is only valid
+   * for the duration of the call.
+   */
+  void onSpan(SpanRecord span);
+}
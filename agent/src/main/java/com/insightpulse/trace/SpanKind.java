@@ -0,0 +1,187 @@
+package com.insightpulse.trace;
+
+/**
+ * Kinds of records carried by the {@link SpanRing}.
+ */
+public final class SpanKind {
+
+  /**
+   * A completed call of an instrumented method; the id is a {@link MethodRegistry} id, the ref the
+   * endpoint of the enclosing trace.
+   */
+  public static final int METHOD = 1;
+
+  /**
+   * One execution of a prepared statement; the id is a SQL fingerprint id, the ref the endpoint.
+   */
+  public static final int SQL = 2;
+
+  /**
+   * Rows read from one result set; the id is a SQL fingerprint id and the value the row count.
+   */
+  public static final int SQL_ROWS = 3;
+
+  /**
+   * A finished trace; the id is an {@link Endpoints} id, the ref the {@link MethodRegistry} id of
+   * the handler method (-1 if unknown) and the value packs the HTTP status, the
+   * {@code REQUEST_*} flags and the time to first byte, see {@link #requestValue}.
+   */
+  public static final int REQUEST = 4;
+
+  /**
+   * A statement repeated beyond the N+1 threshold within one trace; the id is the SQL fingerprint
+   * id, the ref the endpoint and the value the number of executions.
+   */
+  public static final int N_PLUS_ONE = 5;
+
+  /**
+   * What the request thread consumed during a trace, published just before its {@link #REQUEST}
+   * record when {@link ThreadResources} accounting is on; the id is the endpoint, the duration
+   * the CPU time and the value the bytes allocated.
+   */
+  public static final int RESOURCES = 6;
+
+  /**
+   * A stop-the-world collection the trace sat through, added by the {@link TraceCollector} when
+   * it keeps the trace rather than published; the id is a {@code GcPauses} id, start and
+   * duration the part of the pause within the trace and the value the whole pause.
+   */
+  public static final int GC = 7;
+
+  /**
+   * A JFR event streamed in on Java 17 and later; the id is a {@code JfrEvents} id, the ref the
+   * endpoint, the trace id that of the trace still active on the event's thread or 0, and the
+   * value the bytes an allocation sample stands for.
+   */
+  public static final int JFR = 8;
+
+  /**
+   * One connection acquisition from a pool; the id is a {@code ConnectionPools} id, the ref the
+   * endpoint, the duration the time spent waiting and the value packs the pool's active, idle and
+   * pending counts right after it and whether it failed, see {@link #connectionValue}.
+   */
+  public static final int CONNECTION_WAIT = 9;
+
+  /**
+   * A pooled connection from acquisition to close; the id is the {@link MethodRegistry} id of
+   * the transactional method it was acquired for (-1 if none) and the ref the endpoint.
+   */
+  public static final int CONNECTION_HOLD = 10;
+
+  /**
+   * Hibernate entities of one type loaded within a trace, published when it finishes, or one
+   * loaded outside any; the id is an {@code EntityNames} id, the ref the endpoint and the value
+   * the number of entities.
+   */
+  public static final int ENTITY_LOAD = 11;
+
+  /**
+   * One Hibernate collection initialization; the id is the {@code EntityNames} id of the
+   * collection role and the ref the endpoint.
+   */
+  public static final int COLLECTION_LOAD = 12;
+
+  /**
+   * One Hibernate session flush within a trace, automatic or not; the id is the endpoint and the
+   * value the part of the duration spent checking entities for changes.
+   */
+  public static final int FLUSH = 13;
+
+  /**
+   * What Hibernate loaded during a trace, published just before its {@link #REQUEST} record if
+   * anything; the id is the endpoint and the value packs the entities loaded and the collections
+   * initialized, see {@link #sessionValue}.
+   */
+  public static final int SESSION = 14;
+
+  /**
+   * The trace was picked by the head sampler.
+   */
+  public static final int REQUEST_SAMPLED = 1;
+
+  /**
+   * The trace ended with an exception, whether or not an exception handler turned it into a
+   * regular response.
+   */
+  public static final int REQUEST_ERROR = 2;
+
+  private static final int STATUS_BITS = 10;
+  private static final long STATUS_MASK = (1L << STATUS_BITS) - 1;
+  private static final int FLAG_BITS = 2;
+  private static final long FLAG_MASK = (1L << FLAG_BITS) - 1;
+
+  private static final int GAUGE_BITS = 20;
+  private static final long GAUGE_MASK = (1L << GAUGE_BITS) - 1;
+  private static final long CONNECTION_FAILED = 1L << (3 * GAUGE_BITS);
+  private static final int COLLECTION_BITS = 24;
+  private static final long COLLECTION_MASK = (1L << COLLECTION_BITS) - 1;
+
+  private SpanKind() {
+  }
+
+  /**
+   * Packs an HTTP status (0 if none), {@code REQUEST_*} flags and a time to first byte into a
+   * {@link #REQUEST} value.
+   */
+  public static long requestValue(int status, int flags, long firstByteNanos) {
+    return firstByteNanos << (STATUS_BITS + FLAG_BITS) | (flags & FLAG_MASK) << STATUS_BITS
+        | (status & STATUS_MASK);
+  }
+
+  public static int requestStatus(long value) {
+    return (int) (value & STATUS_MASK);
+  }
+
+  public static int requestFlags(long value) {
+    return (int) (value >>> STATUS_BITS & FLAG_MASK);
+  }
+
+  public static long requestFirstByteNanos(long value) {
+    return value >>> (STATUS_BITS + FLAG_BITS);
+  }
+
+  /**
+   * Packs a pool's active, idle and pending connection counts and whether the acquisition failed
+   * into a {@link #CONNECTION_WAIT} value.
+   */
+  public static long connectionValue(int active, int idle, int pending, boolean failed) {
+    return (failed ? CONNECTION_FAILED : 0L) | gauge(pending) << (2 * GAUGE_BITS)
+        | gauge(idle) << GAUGE_BITS | gauge(active);
+  }
+
+  public static int connectionActive(long value) {
+    return (int) (value & GAUGE_MASK);
+  }
+
+  public static int connectionIdle(long value) {
+    return (int) (value >>> GAUGE_BITS & GAUGE_MASK);
+  }
+
+  public static int connectionPending(long value) {
+    return (int) (value >>> (2 * GAUGE_BITS) & GAUGE_MASK);
+  }
+
+  public static boolean connectionFailed(long value) {
+    return (value & CONNECTION_FAILED) != 0L;
+  }
+
+  /**
+   * Packs the number of entities loaded and collections initialized into a {@link #SESSION}
+   * value.
+   */
+  public static long sessionValue(long entities, int collections) {
+    return entities << COLLECTION_BITS | Math.min(Math.max(collections, 0), COLLECTION_MASK);
+  }
+
+  public static long sessionEntities(long value) {
+    return value >>> COLLECTION_BITS;
+  }
+
+  public static int sessionCollections(long value) {
+    return (int) (value & COLLECTION_MASK);
+  }
+
+  private static long gauge(int count) {
+    return Math.min(Math.max(count, 0), GAUGE_MASK);
+  }
+}
@@ -0,0 +1,33 @@
+package com.insightpulse.trace;
+
+/**
+ * Read-only view of one span in the {@link SpanRing}.
+ * <p>
+ * Every span has the same primitive fields; what {@code id}, {@code ref} and {@code value} mean
+ * depends on the {@link SpanKind}.
+ */
+public interface SpanRecord {
+
+  int kind();
+
+  /**
+   * Primary id: method, endpoint or SQL fingerprint id.
+   */
+  int id();
+
+  /**
+   * Secondary id, usually the endpoint the span belongs to; 0 if none.
+   */
+  int ref();
+
+  /**
+   * Trace the span belongs to; 0 outside of a traced request.
+   */
+  long traceId();
+
+  long startNanos();
+
+  long durationNanos();
+
+  long value();
+}
@@ -0,0 +1,193 @@
+package com.insightpulse.trace;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded multi-producer single-consumer ring of completed spans.
+ * <p>
+ * Slots are pre-allocated as parallel primitive arrays, so publishing from a request thread
+ * allocates nothing: a producer claims a sequence with one CAS on {@code tail}, writes the slot
+ * fields and releases the slot with an ordered store of {@code sequence + 1} into
+ * {@code published}. The consumer only reads a slot once it sees that value, which also makes the
+ * plain field writes visible to it.
+ * <p>
+ * When the ring is full the span is dropped and counted; producers never wait for the consumer.
+ * A span the consumer's handler fails on is skipped and counted too, so one bad record cannot
+ * stall the ring.
+ */
+public final class SpanRing {
+
+  private final int capacity;
+  private final int mask;
+
+  private final AtomicLongArray published;
+  private final int[] kinds;
+  private final int[] ids;
+  private final int[] refs;
+  private final long[] traceIds;
+  private final long[] startNanos;
+  private final long[] durationNanos;
+  private final long[] values;
+
+  private final PaddedSequence tail = new PaddedSequence();
+  private final PaddedSequence head = new PaddedSequence();
+  private final LongAdder dropped = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final SlotView view = new SlotView();
+
+  public SpanRing(int requestedCapacity) {
+    if (requestedCapacity < 2) {
+      throw new IllegalArgumentException("Ring capacity must be at least 2: " + requestedCapacity);
+    }
+    this.capacity = Integer.highestOneBit(requestedCapacity - 1) << 1;
+    this.mask = capacity - 1;
+    this.published = new AtomicLongArray(capacity);
+    this.kinds = new int[capacity];
+    this.ids = new int[capacity];
+    this.refs = new int[capacity];
+    this.traceIds = new long[capacity];
+    this.startNanos = new long[capacity];
+    this.durationNanos = new long[capacity];
+    this.values = new long[capacity];
+  }
+
+  /**
+   * Publishes a span, or drops it if the ring is full. See {@link SpanRecord} for the fields.
+   *
+   * @return {@code false} if the span was dropped
+   */
+  public boolean publish(int kind, int id, int ref, long traceId, long start, long duration,
+      long value) {
+    long sequence;
+    do {
+      sequence = tail.get();
+      if (sequence - head.get() >= capacity) {
+        dropped.increment();
+        return false;
+      }
+    } while (!tail.compareAndSet(sequence, sequence + 1));
+
+    int slot = (int) sequence & mask;
+    kinds[slot] = kind;
+    ids[slot] = id;
+    refs[slot] = ref;
+    traceIds[slot] = traceId;
+    startNanos[slot] = start;
+    durationNanos[slot] = duration;
+    values[slot] = value;
+    published.lazySet(slot, sequence + 1);
+    return true;
+  }
+
+  /**
+   * Hands up to {@code limit} published spans to the handler, in claim order. Must only be called
+   * from the single consumer thread. If the handler throws, the span it failed on counts as
+   * consumed and the throwable propagates.
+   *
+   * @return the number of spans consumed
+   */
+  public int drain(SpanHandler handler, int limit) {
+    long sequence = head.get();
+    int count = 0;
+    while (count < limit) {
+      int slot = (int) sequence & mask;
+      if (published.get(slot) != sequence + 1) {
+        // empty, or the producer that claimed this slot has not finished writing it yet
+        break;
+      }
+      view.slot = slot;
+      try {
+        handler.onSpan(view);
+      } catch (Throwable t) {
+        // skip the span, or every later drain would hand it over again
+        failed.increment();
+        head.lazySet(sequence + 1);
+        throw t;
+      }
+      sequence++;
+      count++;
+    }
+    if (count > 0) {
+      head.lazySet(sequence);
+    }
+    return count;
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+
+  /**
+   * Number of spans published but not yet drained (approximate while producers are active).
+   */
+  public long size() {
+    return Math.max(0, tail.get() - head.get());
+  }
+
+  public long droppedCount() {
+    return dropped.sum();
+  }
+
+  /**
+   * Spans skipped because the handler threw on them.
+   */
+  public long failedCount() {
+    return failed.sum();
+  }
+
+  /**
+   * The consumer's window onto the slot being drained; one instance is reused for every span.
+   */
+  private final class SlotView implements SpanRecord {
+
+    int slot;
+
+    @Override
+    public int kind() {
+      return kinds[slot];
+    }
+
+    @Override
+    public int id() {
+      return ids[slot];
+    }
+
+    @Override
+    public int ref() {
+      return refs[slot];
+    }
+
+    @Override
+    public long traceId() {
+      return traceIds[slot];
+    }
+
+    @Override
+    public long startNanos() {
+      return startNanos[slot];
+    }
+
+    @Override
+    public long durationNanos() {
+      return durationNanos[slot];
+    }
+
+    @Override
+    public long value() {
+      return values[slot];
+    }
+  }
+
+  /**
+   * Keeps the producer and consumer sequences on separate cache lines.
+   */
+  @SuppressWarnings("unused")
+  static final class PaddedSequence extends AtomicLong {
+
+    private static final long serialVersionUID = 1L;
+
+    long p1, p2, p3, p4, p5, p6, p7;
+  }
+}
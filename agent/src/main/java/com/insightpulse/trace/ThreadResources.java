@@ -0,0 +1,90 @@
+package com.insightpulse.trace;
+
+import com.insightpulse.AgentLog;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Reads the current thread's CPU time and allocated bytes so that each trace can be charged with
+ * what its request thread consumed.
+ * <p>
+ * Off unless {@linkplain #enable enabled}: both counters cost a native call each, paid twice per
+ * trace, and allocation accounting needs HotSpot's {@code com.sun.management.ThreadMXBean}.
+ * Since Java 14 the bean reads the current thread's allocation counter directly; before that the
+ * thread has to be looked up by id, which is noticeably slower.
+ */
+public final class ThreadResources {
+
+  private static volatile boolean enabled;
+  private static com.sun.management.ThreadMXBean threads;
+  /** {@code getCurrentThreadAllocatedBytes()} bound to the bean, or null before Java 14. */
+  private static MethodHandle currentAllocatedBytes;
+
+  private ThreadResources() {
+  }
+
+  /**
+   * Turns accounting on.
+   *
+   * @return {@code false}, leaving it off, if the JVM cannot measure per-thread CPU time and
+   *     allocations
+   */
+  public static synchronized boolean enable() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+      return false;
+    }
+    com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) bean;
+    if (!hotspot.isThreadCpuTimeSupported() || !hotspot.isThreadAllocatedMemorySupported()) {
+      return false;
+    }
+    if (!hotspot.isThreadCpuTimeEnabled()) {
+      hotspot.setThreadCpuTimeEnabled(true);
+    }
+    if (!hotspot.isThreadAllocatedMemoryEnabled()) {
+      hotspot.setThreadAllocatedMemoryEnabled(true);
+    }
+    try {
+      currentAllocatedBytes = MethodHandles.publicLookup().findVirtual(
+          com.sun.management.ThreadMXBean.class, "getCurrentThreadAllocatedBytes",
+          MethodType.methodType(long.class)).bindTo(hotspot);
+    } catch (ReflectiveOperationException e) {
+      AgentLog.debug("Allocation accounting looks threads up by id: %s", e);
+    }
+    threads = hotspot;
+    enabled = true;
+    return true;
+  }
+
+  public static synchronized void disable() {
+    enabled = false;
+  }
+
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * CPU time used by the current thread so far, in nanoseconds.
+   */
+  static long cpuNanos() {
+    return threads.getCurrentThreadCpuTime();
+  }
+
+  /**
+   * Bytes allocated by the current thread so far.
+   */
+  static long allocatedBytes() {
+    MethodHandle current = currentAllocatedBytes;
+    if (current != null) {
+      try {
+        return (long) current.invokeExact();
+      } catch (Throwable t) {
+        return -1L;
+      }
+    }
+    return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+}
@@ -0,0 +1,89 @@
+package com.insightpulse.trace;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Bounded buffer of completed traces waiting for export; when full, the {@link DropPolicy}
+ * decides which trace is lost. Written by the drainer, read by whoever exports, at trace rate
+ * rather than span rate.
+ */
+public final class TraceBuffer {
+
+  /**
+   * What gives way when a trace arrives at a full buffer.
+   */
+  public enum DropPolicy {
+    /** Evict the oldest buffered trace: an outage loses its beginning, recent traces survive. */
+    DROP_OLDEST,
+    /** Reject the new trace: an outage loses its end, the traces leading up to it survive. */
+    DROP_NEWEST
+  }
+
+  private final int capacity;
+  private final DropPolicy policy;
+  private final ArrayDeque<CompletedTrace> traces;
+  private long dropped;
+
+  public TraceBuffer(int capacity) {
+    this(capacity, DropPolicy.DROP_OLDEST);
+  }
+
+  public TraceBuffer(int capacity, DropPolicy policy) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+    this.capacity = capacity;
+    this.policy = policy;
+    this.traces = new ArrayDeque<>(capacity);
+  }
+
+  /**
+   * @return {@code false} if the buffer was full and the policy rejected the trace
+   */
+  public synchronized boolean add(CompletedTrace trace) {
+    if (traces.size() == capacity) {
+      dropped++;
+      if (policy == DropPolicy.DROP_NEWEST) {
+        return false;
+      }
+      traces.pollFirst();
+    }
+    traces.addLast(trace);
+    return true;
+  }
+
+  /**
+   * Removes and returns the oldest buffered trace, or {@code null} if there is none.
+   */
+  public synchronized CompletedTrace poll() {
+    return traces.pollFirst();
+  }
+
+  /**
+   * Moves every buffered trace, oldest first, into {@code target}.
+   *
+   * @return the number of traces moved
+   */
+  public synchronized int drainTo(List<? super CompletedTrace> target) {
+    int n = traces.size();
+    target.addAll(traces);
+    traces.clear();
+    return n;
+  }
+
+  public synchronized int size() {
+    return traces.size();
+  }
+
+  public DropPolicy policy() {
+    return policy;
+  }
+
+  /**
+   * Traces lost unexported because the buffer was full, whether evicted or rejected.
+   */
+  public synchronized long dropped() {
+    return dropped;
+  }
+}
@@ -0,0 +1,365 @@
+package com.insightpulse.trace;
+
+import com.insightpulse.gc.GcPauses;
+import com.insightpulse.metrics.Histogram;
+import com.insightpulse.metrics.Metrics;
+import com.insightpulse.metrics.Timer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Assembles drained spans into traces and decides which ones to keep.
+ * <p>
+ * Spans are grouped by trace id until the trace's {@link SpanKind#REQUEST} record arrives. Traces
+ * picked by the {@link TraceSampler} go to the {@link #sampled()} buffer. Unsampled traces are
+ * kept in the separate, smaller {@link #retained()} buffer when they failed or ran longer than
+ * their route's slow threshold, so a burst of sampled traffic can never evict them. The
+ * threshold of a route is its p99 latency, but never below the configured floor. Everything
+ * else is discarded. Kept traces get a {@link SpanKind#GC} span for every pause they overlapped.
+ * Spans arriving after their request record, e.g. from an attached {@code @Async} worker that
+ * outlived it, are counted as late and dropped rather than opening a trace that never completes.
+ * Runs on the drainer thread only; pending traces reuse pooled arrays.
+ */
+public final class TraceCollector {
+
+  static final int MAX_PENDING = 4096;
+  static final int MAX_SPANS_PER_TRACE = 512;
+
+  /**
+   * Pending traces older than this lost their request record, e.g. to a full ring.
+   */
+  private static final long ABANDON_NANOS = TimeUnit.MINUTES.toNanos(5);
+  private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+  private static final long THRESHOLD_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(10);
+  /**
+   * Requests an endpoint needs before its p99 is trusted over the floor.
+   */
+  private static final long MIN_THRESHOLD_SAMPLES = 100;
+
+  private final long slowFloorNanos;
+  private final TraceBuffer sampled;
+  private final TraceBuffer retained;
+  private final PendingTable pending = new PendingTable(MAX_PENDING * 2);
+  private final ArrayDeque<PendingTrace> pool = new ArrayDeque<>();
+  /**
+   * Ids of recently completed traces, direct-mapped: a newer id evicts whichever shares its slot.
+   */
+  private final long[] completed = new long[MAX_PENDING];
+  private long[] slowThresholds = new long[64];
+  private long[] thresholdsRefreshed = new long[64];
+  private long lastSweep;
+
+  private volatile long sampledCount;
+  private volatile long slowCount;
+  private volatile long errorCount;
+  private volatile long discardedCount;
+  private volatile long overflowCount;
+  private volatile long lateCount;
+
+  /**
+   * @param slowFloorNanos    unsampled traces faster than this are never retained as slow
+   * @param sampledCapacity   traces buffered from the head sampler
+   * @param retainedCapacity  slow and failed unsampled traces buffered
+   */
+  public TraceCollector(long slowFloorNanos, int sampledCapacity, int retainedCapacity) {
+    this(slowFloorNanos, sampledCapacity, retainedCapacity, TraceBuffer.DropPolicy.DROP_OLDEST);
+  }
+
+  /**
+   * @param policy what the export buffers give up when the exporter falls behind
+   */
+  public TraceCollector(long slowFloorNanos, int sampledCapacity, int retainedCapacity,
+      TraceBuffer.DropPolicy policy) {
+    this.slowFloorNanos = slowFloorNanos;
+    this.sampled = new TraceBuffer(sampledCapacity, policy);
+    this.retained = new TraceBuffer(retainedCapacity, policy);
+    this.lastSweep = System.nanoTime();
+  }
+
+  public void onSpan(SpanRecord span) {
+    long traceId = span.traceId();
+    if (traceId == 0L) {
+      return;
+    }
+    if (span.kind() == SpanKind.REQUEST) {
+      complete(span);
+      return;
+    }
+    PendingTrace trace = pending.get(traceId);
+    if (trace == null) {
+      if (completed[completedSlot(traceId)] == traceId) {
+        lateCount++;
+        return;
+      }
+      if (pending.size() >= MAX_PENDING) {
+        overflowCount++;
+        return;
+      }
+      trace = acquire();
+      pending.put(traceId, trace);
+    }
+    trace.add(span);
+  }
+
+  /**
+   * Traces picked by the head sampler.
+   */
+  public TraceBuffer sampled() {
+    return sampled;
+  }
+
+  /**
+   * Unsampled traces kept because they were slow or failed.
+   */
+  public TraceBuffer retained() {
+    return retained;
+  }
+
+  public long sampledCount() {
+    return sampledCount;
+  }
+
+  public long slowCount() {
+    return slowCount;
+  }
+
+  public long errorCount() {
+    return errorCount;
+  }
+
+  /**
+   * Unsampled traces that were neither slow nor failed.
+   */
+  public long discardedCount() {
+    return discardedCount;
+  }
+
+  /**
+   * Spans not grouped because too many traces were pending.
+   */
+  public long overflowCount() {
+    return overflowCount;
+  }
+
+  /**
+   * Spans dropped because their trace had already completed.
+   */
+  public long lateCount() {
+    return lateCount;
+  }
+
+  private void complete(SpanRecord request) {
+    long now = System.nanoTime();
+    PendingTrace trace = pending.remove(request.traceId());
+    completed[completedSlot(request.traceId())] = request.traceId();
+    int flags = SpanKind.requestFlags(request.value());
+    CompletedTrace.Reason reason = null;
+    if ((flags & SpanKind.REQUEST_SAMPLED) != 0) {
+      reason = CompletedTrace.Reason.SAMPLED;
+      sampledCount++;
+    } else if ((flags & SpanKind.REQUEST_ERROR) != 0
+        || SpanKind.requestStatus(request.value()) >= 500) {
+      reason = CompletedTrace.Reason.ERROR;
+      errorCount++;
+    } else if (request.durationNanos() > slowThreshold(request.id(), now)) {
+      reason = CompletedTrace.Reason.SLOW;
+      slowCount++;
+    } else {
+      discardedCount++;
+    }
+    if (reason != null) {
+      long start = request.startNanos();
+      if (GcPauses.mayOverlap(start)) {
+        if (trace == null) {
+          trace = acquire();
+        }
+        PendingTrace spans = trace;
+        GcPauses.forEachOverlapping(start, start + request.durationNanos(),
+            (id, from, duration, pause) -> spans.add(SpanKind.GC, id, from, duration, pause));
+      }
+      PendingTrace spans = trace == null ? PendingTrace.EMPTY : trace;
+      CompletedTrace completed = new CompletedTrace(request, reason, spans.size, spans.kinds,
+          spans.ids, spans.starts, spans.durations, spans.values);
+      (reason == CompletedTrace.Reason.SAMPLED ? sampled : retained).add(completed);
+    }
+    if (trace != null) {
+      release(trace);
+    }
+    if (now - lastSweep > SWEEP_INTERVAL_NANOS) {
+      lastSweep = now;
+      sweep(now);
+    }
+  }
+
+  long slowThreshold(int endpointId, long now) {
+    if (endpointId >= slowThresholds.length) {
+      int length = Math.max(endpointId + 1, slowThresholds.length * 2);
+      slowThresholds = Arrays.copyOf(slowThresholds, length);
+      thresholdsRefreshed = Arrays.copyOf(thresholdsRefreshed, length);
+    }
+    if (slowThresholds[endpointId] == 0L
+        || now - thresholdsRefreshed[endpointId] > THRESHOLD_REFRESH_NANOS) {
+      long threshold = slowFloorNanos;
+      Timer timer = Metrics.endpoints().get(endpointId);
+      if (timer != null) {
+        Histogram latency = timer.snapshot();
+        if (latency.getTotalCount() >= MIN_THRESHOLD_SAMPLES) {
+          threshold = Math.max(threshold, latency.valueAtPercentile(99));
+        }
+      }
+      slowThresholds[endpointId] = Math.max(1L, threshold);
+      thresholdsRefreshed[endpointId] = now;
+    }
+    return slowThresholds[endpointId];
+  }
+
+  private int completedSlot(long traceId) {
+    return (int) ((traceId * 0x9E3779B97F4A7C15L) >>> 40) & (completed.length - 1);
+  }
+
+  private void sweep(long now) {
+    long[] abandoned = pending.olderThan(now - ABANDON_NANOS);
+    for (long traceId : abandoned) {
+      release(pending.remove(traceId));
+    }
+  }
+
+  private PendingTrace acquire() {
+    PendingTrace trace = pool.pollFirst();
+    if (trace == null) {
+      trace = new PendingTrace();
+    }
+    trace.createdNanos = System.nanoTime();
+    return trace;
+  }
+
+  private void release(PendingTrace trace) {
+    trace.size = 0;
+    if (pool.size() < MAX_PENDING / 4) {
+      pool.addFirst(trace);
+    }
+  }
+
+  /**
+   * Spans of one unfinished trace, struct-of-arrays like the ring.
+   */
+  private static final class PendingTrace {
+
+    static final PendingTrace EMPTY = new PendingTrace();
+
+    int size;
+    long createdNanos;
+    int[] kinds = new int[16];
+    int[] ids = new int[16];
+    long[] starts = new long[16];
+    long[] durations = new long[16];
+    long[] values = new long[16];
+
+    void add(SpanRecord span) {
+      add(span.kind(), span.id(), span.startNanos(), span.durationNanos(), span.value());
+    }
+
+    void add(int kind, int id, long start, long duration, long value) {
+      if (size == kinds.length) {
+        if (size == MAX_SPANS_PER_TRACE) {
+          return;
+        }
+        int length = size * 2;
+        kinds = Arrays.copyOf(kinds, length);
+        ids = Arrays.copyOf(ids, length);
+        starts = Arrays.copyOf(starts, length);
+        durations = Arrays.copyOf(durations, length);
+        values = Arrays.copyOf(values, length);
+      }
+      kinds[size] = kind;
+      ids[size] = id;
+      starts[size] = start;
+      durations[size] = duration;
+      values[size] = value;
+      size++;
+    }
+  }
+
+  /**
+   * Open-addressing map from non-zero trace ids to pending traces, with linear probing and
+   * backward-shift deletion so that no tombstones build up.
+   */
+  private static final class PendingTable {
+
+    private final long[] keys;
+    private final PendingTrace[] values;
+    private final int mask;
+    private int size;
+
+    PendingTable(int capacity) {
+      int slots = Integer.highestOneBit(capacity - 1) << 1;
+      keys = new long[slots];
+      values = new PendingTrace[slots];
+      mask = slots - 1;
+    }
+
+    int size() {
+      return size;
+    }
+
+    PendingTrace get(long key) {
+      for (int slot = slot(key); keys[slot] != 0L; slot = (slot + 1) & mask) {
+        if (keys[slot] == key) {
+          return values[slot];
+        }
+      }
+      return null;
+    }
+
+    void put(long key, PendingTrace value) {
+      int slot = slot(key);
+      while (keys[slot] != 0L) {
+        slot = (slot + 1) & mask;
+      }
+      keys[slot] = key;
+      values[slot] = value;
+      size++;
+    }
+
+    PendingTrace remove(long key) {
+      int slot = slot(key);
+      while (keys[slot] != key) {
+        if (keys[slot] == 0L) {
+          return null;
+        }
+        slot = (slot + 1) & mask;
+      }
+      PendingTrace removed = values[slot];
+      size--;
+      // shift later members of the probe run back into the hole
+      int hole = slot;
+      for (int next = (hole + 1) & mask; keys[next] != 0L; next = (next + 1) & mask) {
+        int home = slot(keys[next]);
+        if (((next - home) & mask) >= ((next - hole) & mask)) {
+          keys[hole] = keys[next];
+          values[hole] = values[next];
+          hole = next;
+        }
+      }
+      keys[hole] = 0L;
+      values[hole] = null;
+      return removed;
+    }
+
+    long[] olderThan(long createdBefore) {
+      long[] found = new long[size];
+      int n = 0;
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] != 0L && values[i].createdNanos - createdBefore < 0) {
+          found[n++] = keys[i];
+        }
+      }
+      return Arrays.copyOf(found, n);
+    }
+
+    private int slot(long key) {
+      return (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+    }
+  }
+}
@@ -0,0 +1,371 @@
+package com.insightpulse.trace;
+
+import com.insightpulse.hibernate.HibernateProbe;
+import com.insightpulse.jdbc.NPlusOneDetector;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Per-thread state of the request currently being traced.
+ * <p>
+ * One instance per thread, reused for every request, so starting and finishing a trace allocates
+ * nothing. A trace starts when the outermost instrumented call on the thread enters and finishes
+ * when it exits; nested calls only adjust the depth. Entry hooks that know better, such as the
+ * Spring MVC handler mapping, {@linkplain #route rename} the active trace.
+ * <p>
+ * A task handed to an executor carries the submitting trace's identity and
+ * {@linkplain #attach attaches} it to the worker thread's context while it runs: spans recorded
+ * there join the request's trace, but the worker never finishes it.
+ */
+public final class TraceContext {
+
+  private static final ThreadLocal<TraceContext> CURRENT = new ThreadLocal<TraceContext>() {
+    @Override
+    protected TraceContext initialValue() {
+      TraceContext context = new TraceContext(Thread.currentThread());
+      RequestThreads.register(context);
+      return context;
+    }
+  };
+
+  private final Thread thread;
+
+  private final IntCountMap statementCounts = new IntCountMap(64);
+  private final IntCountMap entityCounts = new IntCountMap(64);
+  private int collectionsInitialized;
+  /** Dirty-check time of the Hibernate flush in progress. */
+  private long dirtyCheckNanos;
+  private long traceId;
+  private int endpointId;
+  private long startNanos;
+  private int depth;
+  private boolean routed;
+  private int handlerMethodId = -1;
+  private String requestMethod;
+  private long firstByteNanos;
+  private boolean sampled;
+  private boolean failed;
+  private boolean continuation;
+  /** CPU time and allocated bytes of the thread when the trace started, or -1 if not measured. */
+  private long startCpuNanos = -1L;
+  private long startAllocatedBytes = -1L;
+  /**
+   * Endpoint of the active trace, or {@link Endpoints#NONE}; read by the stack profiler.
+   */
+  private volatile int activeEndpoint;
+  /**
+   * Id and start of the active trace, or 0; read by the JFR bridge, see {@link #activeTraceId}.
+   */
+  private volatile long activeTraceId;
+  private volatile long activeSinceNanos;
+  /**
+   * {@link MethodRegistry} id of the innermost transactional method running on this thread, or
+   * -1; independent of traces.
+   */
+  private int transactionMethodId = -1;
+
+  private TraceContext(Thread thread) {
+    this.thread = thread;
+  }
+
+  public static TraceContext current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Enters an instrumented call, starting a trace for {@code endpoint} if none is active.
+   */
+  public void enter(int endpoint, long now) {
+    if (depth++ == 0) {
+      RequestThreads.traceStarted();
+      traceId = newTraceId();
+      endpointId = endpoint;
+      startNanos = now;
+      sampled = TraceSampler.sampleTrace(now);
+      activeEndpoint = endpoint;
+      activeSinceNanos = now;
+      activeTraceId = traceId;
+      if (ThreadResources.isEnabled()) {
+        startCpuNanos = ThreadResources.cpuNanos();
+        startAllocatedBytes = ThreadResources.allocatedBytes();
+      }
+    }
+  }
+
+  /**
+   * Names the active trace after a route; only the first route of a trace counts, so forwards and
+   * error dispatches keep the original name.
+   *
+   * @param handlerMethodId {@link MethodRegistry} id of the handler, or -1 if there is none
+   */
+  public void route(int endpoint, int handlerMethodId) {
+    if (depth > 0 && !routed) {
+      routed = true;
+      endpointId = endpoint;
+      this.handlerMethodId = handlerMethodId;
+      activeEndpoint = endpoint;
+    }
+  }
+
+  /**
+   * Notes the time the response was committed, i.e. its first byte went out.
+   */
+  public void markFirstByte(long now) {
+    if (depth > 0 && firstByteNanos == 0L) {
+      firstByteNanos = now;
+    }
+  }
+
+  /**
+   * Marks the trace as failed, e.g. when an exception handler turns an exception into a response.
+   */
+  public void markError() {
+    if (depth > 0) {
+      failed = true;
+    }
+  }
+
+  public void exit(SpanRing ring, long now) {
+    exit(ring, now, 0);
+  }
+
+  /**
+   * Leaves an instrumented call that threw; the trace fails if this was the outermost call.
+   */
+  public void exitWithError(SpanRing ring, long now) {
+    if (depth == 1) {
+      failed = true;
+    }
+    exit(ring, now, 0);
+  }
+
+  /**
+   * Leaves an instrumented call; finishes the trace when the outermost call exits.
+   *
+   * @param status HTTP status of the request, or 0 for traces that are not HTTP requests
+   */
+  public void exit(SpanRing ring, long now, int status) {
+    // an attached trace is only ever ended by detach
+    int floor = continuation ? 1 : 0;
+    if (depth <= floor || --depth > 0) {
+      return;
+    }
+    if (ring != null) {
+      long firstByte = 0L;
+      if (firstByteNanos != 0L) {
+        firstByte = firstByteNanos - startNanos;
+      } else if (status != 0) {
+        // small bodies stay buffered until the container completes the response
+        firstByte = now - startNanos;
+      }
+      int flags = (sampled ? SpanKind.REQUEST_SAMPLED : 0)
+          | (failed ? SpanKind.REQUEST_ERROR : 0);
+      // the request record goes last: it tells the drainer that the trace is complete
+      NPlusOneDetector.publishFindings(this, ring);
+      HibernateProbe.publishSession(this, ring);
+      if (startCpuNanos >= 0L && startAllocatedBytes >= 0L) {
+        publishResources(ring);
+      }
+      ring.publish(SpanKind.REQUEST, endpointId, handlerMethodId, traceId, startNanos,
+          now - startNanos, SpanKind.requestValue(status, flags, firstByte));
+    }
+    activeEndpoint = Endpoints.NONE;
+    activeTraceId = 0L;
+    statementCounts.clear();
+    entityCounts.clear();
+    collectionsInitialized = 0;
+    traceId = 0;
+    endpointId = Endpoints.NONE;
+    routed = false;
+    handlerMethodId = -1;
+    requestMethod = null;
+    firstByteNanos = 0L;
+    failed = false;
+    startCpuNanos = -1L;
+    startAllocatedBytes = -1L;
+  }
+
+  private void publishResources(SpanRing ring) {
+    long cpuNanos = ThreadResources.cpuNanos();
+    long allocatedBytes = ThreadResources.allocatedBytes();
+    if (cpuNanos >= 0L && allocatedBytes >= 0L) {
+      ring.publish(SpanKind.RESOURCES, endpointId, handlerMethodId, traceId, startNanos,
+          cpuNanos - startCpuNanos, allocatedBytes - startAllocatedBytes);
+    }
+  }
+
+  /**
+   * Continues another thread's trace on this one.
+   *
+   * @return {@code false}, leaving this context untouched, if a trace is already active here, as
+   *     when a caller-runs policy executes the task on the submitting thread
+   */
+  public boolean attach(long traceId, int endpointId, boolean sampled) {
+    if (depth > 0) {
+      return false;
+    }
+    this.traceId = traceId;
+    this.endpointId = endpointId;
+    this.sampled = sampled;
+    this.routed = true;
+    this.continuation = true;
+    this.depth = 1;
+    startNanos = System.nanoTime();
+    activeEndpoint = endpointId;
+    activeSinceNanos = startNanos;
+    activeTraceId = traceId;
+    return true;
+  }
+
+  /**
+   * Ends an {@linkplain #attach attached} trace without finishing it. What the worker counted,
+   * N+1 findings and loaded entities, is published under the trace; the session summary is left
+   * to the request.
+   */
+  public void detach() {
+    if (!continuation) {
+      return;
+    }
+    SpanRing ring = Probe.ring();
+    if (ring != null) {
+      NPlusOneDetector.publishFindings(this, ring);
+      HibernateProbe.publishEntities(this, ring);
+    }
+    continuation = false;
+    depth = 0;
+    activeEndpoint = Endpoints.NONE;
+    activeTraceId = 0L;
+    statementCounts.clear();
+    entityCounts.clear();
+    collectionsInitialized = 0;
+    traceId = 0;
+    endpointId = Endpoints.NONE;
+    routed = false;
+    failed = false;
+  }
+
+  public boolean isActive() {
+    return depth > 0;
+  }
+
+  public long traceId() {
+    return traceId;
+  }
+
+  public int endpointId() {
+    return endpointId;
+  }
+
+  /**
+   * Endpoint of the trace active on this context's thread, or {@link Endpoints#NONE}; unlike the
+   * other accessors this one may be called from any thread.
+   */
+  public int activeEndpoint() {
+    return activeEndpoint;
+  }
+
+  /**
+   * Id of the trace active on this context's thread if it was already active at {@code nanos},
+   * else 0; may be called from any thread.
+   */
+  public long activeTraceId(long nanos) {
+    long id = activeTraceId;
+    long since = activeSinceNanos;
+    return id != 0L && since - nanos <= 0L && activeTraceId == id ? id : 0L;
+  }
+
+  /**
+   * Notes that a transactional method starts running on this thread.
+   *
+   * @return the id to hand back to {@link #exitTransaction} when it returns
+   */
+  public int enterTransaction(int methodId) {
+    int previous = transactionMethodId;
+    transactionMethodId = methodId;
+    return previous;
+  }
+
+  public void exitTransaction(int previousMethodId) {
+    transactionMethodId = previousMethodId;
+  }
+
+  /**
+   * {@link MethodRegistry} id of the transactional method running on this thread, or -1.
+   */
+  public int transactionMethodId() {
+    return transactionMethodId;
+  }
+
+  public Thread thread() {
+    return thread;
+  }
+
+  public long startNanos() {
+    return startNanos;
+  }
+
+  /**
+   * Whether the head sampler picked the current trace.
+   */
+  public boolean isSampled() {
+    return sampled;
+  }
+
+  /**
+   * HTTP method of the request being traced, or {@code null}.
+   */
+  public String requestMethod() {
+    return requestMethod;
+  }
+
+  public void requestMethod(String method) {
+    requestMethod = method;
+  }
+
+  /**
+   * Executions per SQL fingerprint within the current trace.
+   */
+  public IntCountMap statementCounts() {
+    return statementCounts;
+  }
+
+  /**
+   * Hibernate entities loaded within the current trace, by {@code EntityNames} id.
+   */
+  public IntCountMap entityCounts() {
+    return entityCounts;
+  }
+
+  /**
+   * Counts a Hibernate collection initialized within the current trace, if any.
+   */
+  public void collectionInitialized() {
+    if (depth > 0) {
+      collectionsInitialized++;
+    }
+  }
+
+  public int collectionsInitialized() {
+    return collectionsInitialized;
+  }
+
+  public void addDirtyCheckNanos(long nanos) {
+    dirtyCheckNanos += nanos;
+  }
+
+  /**
+   * Dirty-check time summed since the last call, i.e. that of the flush ending now.
+   */
+  public long takeDirtyCheckNanos() {
+    long nanos = dirtyCheckNanos;
+    dirtyCheckNanos = 0L;
+    return nanos;
+  }
+
+  private static long newTraceId() {
+    long id;
+    do {
+      id = ThreadLocalRandom.current().nextLong();
+    } while (id == 0);
+    return id;
+  }
+}
@@ -0,0 +1,128 @@
+package com.insightpulse.trace;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Head sampler that caps the number of traces started per second.
+ * <p>
+ * A token bucket holding at most one second of budget enforces the cap. On its own it would hand
+ * the whole budget to the first requests of every burst, so the sampler also measures the arrival
+ * rate once a second and pre-filters with probability {@code budget / rate}; sampled traces are
+ * then spread evenly over the traffic, and the bucket only absorbs the error of the estimate.
+ * Everything is lock-free; the decision is taken once per trace, not per span.
+ */
+public final class TraceSampler {
+
+  private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+  /**
+   * Tokens are counted in thousandths so that slow refills do not round down to nothing.
+   */
+  private static final long SCALE = 1000;
+
+  private static volatile TraceSampler installed;
+
+  private final double perSecond;
+  private final long capacity;
+  private final long nanosPerMilliToken;
+  private final AtomicLong tokens;
+  private final AtomicLong lastRefill;
+  private final AtomicLong windowStart;
+  private final AtomicLong arrivals = new AtomicLong();
+  private volatile double rate;
+  private volatile double probability = 1.0;
+
+  /**
+   * @param perSecond trace budget per second, at least 1
+   * @param now       current {@link System#nanoTime()}
+   */
+  public TraceSampler(double perSecond, long now) {
+    if (perSecond < 1) {
+      throw new IllegalArgumentException("perSecond must be at least 1: " + perSecond);
+    }
+    this.perSecond = perSecond;
+    this.capacity = (long) (perSecond * SCALE);
+    this.nanosPerMilliToken = Math.max(1L, (long) (WINDOW_NANOS / (perSecond * SCALE)));
+    this.tokens = new AtomicLong(capacity);
+    this.lastRefill = new AtomicLong(now);
+    this.windowStart = new AtomicLong(now);
+  }
+
+  /**
+   * Installs the sampler consulted when traces start; {@code null} samples every trace.
+   */
+  public static void install(TraceSampler sampler) {
+    installed = sampler;
+  }
+
+  static boolean sampleTrace(long now) {
+    TraceSampler sampler = installed;
+    return sampler == null || sampler.sample(now);
+  }
+
+  /**
+   * Decides whether a trace starting at {@code now} is recorded in full.
+   */
+  public boolean sample(long now) {
+    arrivals.incrementAndGet();
+    long start = windowStart.get();
+    if (now - start >= WINDOW_NANOS && windowStart.compareAndSet(start, now)) {
+      adapt(arrivals.getAndSet(0), now - start);
+    }
+    double p = probability;
+    if (p < 1.0 && ThreadLocalRandom.current().nextDouble() >= p) {
+      return false;
+    }
+    return tryAcquire(now);
+  }
+
+  /**
+   * Current pre-filter probability.
+   */
+  public double probability() {
+    return probability;
+  }
+
+  private void adapt(long count, long elapsedNanos) {
+    double observed = count * (double) WINDOW_NANOS / elapsedNanos;
+    // smooth so that one quiet second does not open the gates for the next burst
+    double smoothed = rate == 0 ? observed : 0.5 * rate + 0.5 * observed;
+    rate = smoothed;
+    probability = smoothed <= perSecond ? 1.0 : perSecond / smoothed;
+  }
+
+  private boolean tryAcquire(long now) {
+    refill(now);
+    while (true) {
+      long available = tokens.get();
+      if (available < SCALE) {
+        return false;
+      }
+      if (tokens.compareAndSet(available, available - SCALE)) {
+        return true;
+      }
+    }
+  }
+
+  private void refill(long now) {
+    long last = lastRefill.get();
+    long added = (now - last) / nanosPerMilliToken;
+    if (added <= 0) {
+      return;
+    }
+    // advance by whole tokens only, so fractions carry over to the next refill
+    long refilled = added >= capacity ? now : last + added * nanosPerMilliToken;
+    if (!lastRefill.compareAndSet(last, refilled)) {
+      return;
+    }
+    added = Math.min(capacity, added);
+    while (true) {
+      long available = tokens.get();
+      long next = Math.min(capacity, available + added);
+      if (next == available || tokens.compareAndSet(available, next)) {
+        return;
+      }
+    }
+  }
+}
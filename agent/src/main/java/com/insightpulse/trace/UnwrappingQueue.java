@@ -0,0 +1,113 @@
+package com.insightpulse.trace;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A thread pool's work queue as its owner sees it: tasks come out as they were submitted, not as
+ * the {@link ContextTask}s actually queued, and removing a submitted task removes its wrapper.
+ * Everything else goes straight to the queue.
+ */
+final class UnwrappingQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+  private final BlockingQueue<Runnable> queue;
+
+  UnwrappingQueue(BlockingQueue<Runnable> queue) {
+    this.queue = queue;
+  }
+
+  @Override
+  public Iterator<Runnable> iterator() {
+    Iterator<Runnable> tasks = queue.iterator();
+    return new Iterator<Runnable>() {
+      @Override
+      public boolean hasNext() {
+        return tasks.hasNext();
+      }
+
+      @Override
+      public Runnable next() {
+        return ContextPropagation.unwrap(tasks.next());
+      }
+
+      @Override
+      public void remove() {
+        tasks.remove();
+      }
+    };
+  }
+
+  @Override
+  public int size() {
+    return queue.size();
+  }
+
+  @Override
+  public boolean offer(Runnable task) {
+    return queue.offer(task);
+  }
+
+  @Override
+  public boolean offer(Runnable task, long timeout, TimeUnit unit) throws InterruptedException {
+    return queue.offer(task, timeout, unit);
+  }
+
+  @Override
+  public void put(Runnable task) throws InterruptedException {
+    queue.put(task);
+  }
+
+  @Override
+  public Runnable poll() {
+    return ContextPropagation.unwrap(queue.poll());
+  }
+
+  @Override
+  public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+    return ContextPropagation.unwrap(queue.poll(timeout, unit));
+  }
+
+  @Override
+  public Runnable take() throws InterruptedException {
+    return ContextPropagation.unwrap(queue.take());
+  }
+
+  @Override
+  public Runnable peek() {
+    return ContextPropagation.unwrap(queue.peek());
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return queue.remainingCapacity();
+  }
+
+  @Override
+  public boolean contains(Object task) {
+    return queue.contains(task) || super.contains(task);
+  }
+
+  @Override
+  public boolean remove(Object task) {
+    return queue.remove(task) || super.remove(task);
+  }
+
+  @Override
+  public int drainTo(Collection<? super Runnable> target) {
+    return drainTo(target, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super Runnable> target, int maxElements) {
+    int drained = 0;
+    Runnable task;
+    while (drained < maxElements && (task = queue.poll()) != null) {
+      target.add(ContextPropagation.unwrap(task));
+      drained++;
+    }
+    return drained;
+  }
+}
@@ -0,0 +1,97 @@
+package com.insightpulse.web;
+
+import com.insightpulse.trace.Endpoints;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps an HTTP method and a route template to an {@link Endpoints} id.
+ * <p>
+ * Spring hands out the same pattern string instance for every request of a mapping, so the lookup
+ * is a hash probe plus a short scan over the methods seen for that pattern, and allocates nothing
+ * once a route is known. Requests that matched no mapping share one endpoint per method rather
+ * than being keyed by their raw URI. Methods other than the standard ones count as
+ * {@value #OTHER}, since every endpoint carries its own metrics and clients may send any token.
+ */
+final class Routes {
+
+  static final String UNMATCHED = "<unmatched>";
+  static final String OTHER = "OTHER";
+
+  private static final ConcurrentMap<String, MethodTable> PATTERNS = new ConcurrentHashMap<>();
+
+  private Routes() {
+  }
+
+  /**
+   * @param method  HTTP method, or {@code null} if unknown
+   * @param pattern the best matching pattern request attribute; anything but a string counts as
+   *                unmatched
+   */
+  static int idOf(String method, Object pattern) {
+    String route = pattern instanceof String ? (String) pattern : UNMATCHED;
+    MethodTable table = PATTERNS.get(route);
+    if (table == null) {
+      MethodTable created = new MethodTable();
+      table = PATTERNS.putIfAbsent(route, created);
+      if (table == null) {
+        table = created;
+      }
+    }
+    return table.idOf(method == null ? "*" : standard(method), route);
+  }
+
+  private static String standard(String method) {
+    switch (method) {
+      case "GET":
+      case "HEAD":
+      case "POST":
+      case "PUT":
+      case "PATCH":
+      case "DELETE":
+      case "OPTIONS":
+      case "TRACE":
+        return method;
+      default:
+        return OTHER;
+    }
+  }
+
+  /**
+   * Endpoint ids per HTTP method of one pattern, replaced copy-on-write.
+   */
+  private static final class MethodTable {
+
+    private volatile String[] methods = new String[0];
+    private volatile int[] ids = new int[0];
+
+    int idOf(String method, String route) {
+      int[] knownIds = ids;
+      String[] known = methods;
+      // ids is written last, so it is never longer than the methods read after it
+      for (int i = 0; i < knownIds.length; i++) {
+        if (known[i].equals(method)) {
+          return knownIds[i];
+        }
+      }
+      return register(method, route);
+    }
+
+    private synchronized int register(String method, String route) {
+      for (int i = 0; i < ids.length; i++) {
+        if (methods[i].equals(method)) {
+          return ids[i];
+        }
+      }
+      int n = ids.length;
+      String[] grownMethods = Arrays.copyOf(methods, n + 1);
+      int[] grownIds = Arrays.copyOf(ids, n + 1);
+      grownMethods[n] = method;
+      grownIds[n] = Endpoints.register(method + ' ' + route);
+      methods = grownMethods;
+      ids = grownIds;
+      return grownIds[n];
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package com.insightpulse.web;
+
+import com.insightpulse.trace.Endpoints;
+import com.insightpulse.trace.MethodRegistry;
+import com.insightpulse.trace.Probe;
+import com.insightpulse.trace.TraceContext;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.objectweb.asm.Type;
+
+/**
+ * Static entry points woven into Spring MVC and the servlet container.
+ * <p>
+ * {@code DispatcherServlet.doDispatch} brackets the request trace. Once the handler mapping has
+ * picked a handler, the adapter hook names the trace after the matched route template and
+ * records the handler method; committing the response marks the time to first byte. The woven
+ * code reads the servlet API itself and passes only JDK types, so this class works for both the
+ * {@code javax} and {@code jakarta} namespaces. Like {@link Probe}, nothing here may throw.
+ */
+public final class SpringMvcProbe {
+
+  private static final ConcurrentMap<Method, Integer> HANDLERS = new ConcurrentHashMap<>();
+
+  private SpringMvcProbe() {
+  }
+
+  public static long dispatchStart(String method) {
+    if (Probe.ring() == null) {
+      return 0L;
+    }
+    long now = System.nanoTime();
+    TraceContext context = TraceContext.current();
+    boolean root = !context.isActive();
+    context.enter(Endpoints.NONE, now);
+    if (root) {
+      context.requestMethod(method);
+    }
+    return now;
+  }
+
+  /**
+   * @param pattern the best matching pattern attribute, which is set for unannotated handlers
+   *                such as static resources too
+   */
+  public static void dispatchEnd(Object pattern, int status, long start) {
+    finish(pattern, status, start);
+  }
+
+  public static void dispatchError(Throwable error, long start) {
+    if (start != 0L) {
+      TraceContext.current().markError();
+    }
+    finish(null, 500, start);
+  }
+
+  /**
+   * Called when the handler threw and the exception resolvers take over; the request counts as
+   * failed even if an exception handler answers it with a 4xx.
+   */
+  public static void onHandlerException() {
+    TraceContext.current().markError();
+  }
+
+  /**
+   * Called when the handler adapter is about to invoke {@code handler}.
+   */
+  public static void onHandler(String method, Object pattern, Method handler) {
+    TraceContext context = TraceContext.current();
+    if (context.isActive()) {
+      context.route(Routes.idOf(method, pattern), handlerId(handler));
+    }
+  }
+
+  /**
+   * Called when the container commits the response.
+   */
+  public static void onCommit() {
+    TraceContext context = TraceContext.current();
+    if (context.isActive()) {
+      context.markFirstByte(System.nanoTime());
+    }
+  }
+
+  private static void finish(Object pattern, int status, long start) {
+    if (start == 0L) {
+      return;
+    }
+    TraceContext context = TraceContext.current();
+    // no-op if a handler already named the trace
+    context.route(Routes.idOf(context.requestMethod(), pattern), -1);
+    context.exit(Probe.ring(), System.nanoTime(), status);
+  }
+
+  private static int handlerId(Method handler) {
+    Integer id = HANDLERS.get(handler);
+    if (id == null) {
+      id = MethodRegistry.register(Type.getInternalName(handler.getDeclaringClass()),
+          handler.getName(), Type.getMethodDescriptor(handler));
+      HANDLERS.putIfAbsent(handler, id);
+    }
+    return id;
+  }
+}
@@ -0,0 +1,242 @@
+package com.insightpulse.wire;
+
+import com.insightpulse.metrics.Histogram;
+import com.insightpulse.metrics.HistogramLayout;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decodes one connection's {@link WireFormat} stream and hands what it finds to a
+ * {@link WireHandler}.
+ * <p>
+ * Input may arrive in arbitrary pieces: {@link #decode} consumes every complete frame and leaves
+ * a trailing partial one in the buffer for the next call. Frames of unknown types are skipped, so
+ * newer agents can add frame types without breaking older collectors. Not thread-safe.
+ */
+public final class WireDecoder {
+
+  private final WireHandler handler;
+  private final Map<Long, HistogramLayout> layouts = new HashMap<>();
+  private int version;
+  private String[] strings = new String[256];
+  private int stringCount;
+  private long lastStart;
+  private long lastTraceId;
+  private long lastMetricMillis;
+  /** Input limited to the payload of the frame being parsed. */
+  private ByteBuffer frame;
+
+  public WireDecoder(WireHandler handler) {
+    this.handler = handler;
+  }
+
+  /**
+   * Version announced by the connection, or 0 before its header was read.
+   */
+  public int version() {
+    return version;
+  }
+
+  /**
+   * Decodes the complete frames in {@code in}, leaving its position at the first byte not
+   * consumed.
+   *
+   * @throws WireFormatException if the input is not a valid stream, after which this decoder must
+   *     not be used again
+   */
+  public void decode(ByteBuffer in) throws WireFormatException {
+    if (version == 0) {
+      if (in.remaining() < WireFormat.MAGIC.length + 1) {
+        return;
+      }
+      for (byte magic : WireFormat.MAGIC) {
+        if (in.get() != magic) {
+          throw new WireFormatException("Not an InsightPulse stream");
+        }
+      }
+      version = in.get() & 0xFF;
+      if (version < 1 || version > WireFormat.VERSION) {
+        throw new WireFormatException("Unsupported wire format version " + version);
+      }
+    }
+    while (in.hasRemaining()) {
+      int start = in.position();
+      int type = in.get() & 0xFF;
+      int length = readFrameLength(in);
+      if (length < 0 || in.remaining() < length) {
+        in.position(start);
+        return;
+      }
+      int end = in.position() + length;
+      int limit = in.limit();
+      // parse in place rather than through a slice: collectors decode millions of frames a second
+      in.limit(end);
+      frame = in;
+      try {
+        decodeFrame(type);
+      } catch (RuntimeException e) {
+        throw new WireFormatException("Malformed frame of type " + type + ": " + e);
+      } finally {
+        frame = null;
+        in.limit(limit);
+      }
+      in.position(end);
+    }
+  }
+
+  private void decodeFrame(int type) throws WireFormatException {
+    switch (type) {
+      case WireFormat.HELLO:
+        stringCount = 0;
+        lastStart = 0L;
+        lastTraceId = 0L;
+        lastMetricMillis = 0L;
+        handler.onHello(readUtf8(), varint(), unzigzag(varint()));
+        break;
+      case WireFormat.STRING:
+        defineString();
+        break;
+      case WireFormat.SPAN:
+        decodeSpan();
+        break;
+      case WireFormat.HISTOGRAM:
+        decodeHistogram();
+        break;
+      case WireFormat.COUNTER:
+        String metric = string(varint());
+        String name = string(varint());
+        lastMetricMillis += unzigzag(varint());
+        handler.onCounter(metric, name, lastMetricMillis, unzigzag(varint()));
+        break;
+      default:
+        // a frame type from a newer agent
+        break;
+    }
+  }
+
+  private void defineString() throws WireFormatException {
+    long id = varint();
+    if (id != stringCount + 1 || stringCount == WireFormat.MAX_STRINGS) {
+      throw new WireFormatException("String " + id + " out of sequence");
+    }
+    if (stringCount == strings.length) {
+      strings = Arrays.copyOf(strings, stringCount * 2);
+    }
+    strings[stringCount++] = readUtf8();
+  }
+
+  private void decodeSpan() throws WireFormatException {
+    int header = frame.get() & 0xFF;
+    String name = string(varint());
+    String ref = (header & WireFormat.SPAN_HAS_REF) != 0 ? string(varint()) : null;
+    long traceId = 0L;
+    if ((header & WireFormat.SPAN_HAS_TRACE) != 0) {
+      lastTraceId = frame.getLong();
+      traceId = lastTraceId;
+    } else if ((header & WireFormat.SPAN_SAME_TRACE) != 0) {
+      traceId = lastTraceId;
+    }
+    long start = 0L;
+    long duration = 0L;
+    if ((header & WireFormat.SPAN_NO_TIME) == 0) {
+      lastStart += unzigzag(varint());
+      start = lastStart;
+      duration = varint();
+    }
+    handler.onSpan(header & WireFormat.SPAN_KIND_MASK, name, ref, traceId, start, duration,
+        unzigzag(varint()));
+  }
+
+  private void decodeHistogram() throws WireFormatException {
+    String metric = string(varint());
+    String name = string(varint());
+    lastMetricMillis += unzigzag(varint());
+    int digits = (int) varint();
+    long highest = varint();
+    Long key = highest << 3 | digits;
+    HistogramLayout layout = layouts.get(key);
+    if (layout == null) {
+      layout = new HistogramLayout(digits, highest);
+      layouts.put(key, layout);
+    }
+    Histogram histogram = new Histogram(layout);
+    long sum = unzigzag(varint());
+    long buckets = varint();
+    int index = 0;
+    for (long i = 0; i < buckets; i++) {
+      index += (int) varint();
+      if (index >= histogram.bucketCount()) {
+        throw new WireFormatException("Bucket " + index + " out of range");
+      }
+      // per-bucket sums are not sent; the total goes with the first bucket
+      histogram.addToBucket(index, varint(), i == 0 ? sum : 0L);
+    }
+    handler.onHistogram(metric, name, lastMetricMillis, histogram);
+  }
+
+  private String string(long id) throws WireFormatException {
+    if (id == 0) {
+      return null;
+    }
+    if (id > stringCount) {
+      throw new WireFormatException("Undefined string " + id);
+    }
+    return strings[(int) id - 1];
+  }
+
+  private String readUtf8() throws WireFormatException {
+    long length = varint();
+    if (length > frame.remaining()) {
+      throw new WireFormatException("String of " + length + " bytes overruns its frame");
+    }
+    byte[] bytes = new byte[(int) length];
+    frame.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private long varint() throws WireFormatException {
+    long value = 0L;
+    for (int shift = 0; shift < 64; shift += 7) {
+      if (!frame.hasRemaining()) {
+        throw new WireFormatException("Truncated varint");
+      }
+      byte b = frame.get();
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new WireFormatException("Varint longer than 10 bytes");
+  }
+
+  /**
+   * Reads the varint length of a frame, rejecting it as soon as it exceeds
+   * {@link WireFormat#MAX_FRAME} rather than once the whole frame was buffered.
+   *
+   * @return the length, or -1 if the input ends inside it
+   */
+  private static int readFrameLength(ByteBuffer in) throws WireFormatException {
+    int value = 0;
+    for (int shift = 0; ; shift += 7) {
+      if (!in.hasRemaining()) {
+        return -1;
+      }
+      byte b = in.get();
+      value |= (b & 0x7F) << shift;
+      // four bytes hold 28 bits, more than any frame may have
+      if (value > WireFormat.MAX_FRAME || b < 0 && shift == 21) {
+        throw new WireFormatException("Frame longer than " + WireFormat.MAX_FRAME + " bytes");
+      }
+      if (b >= 0) {
+        return value;
+      }
+    }
+  }
+
+  static long unzigzag(long value) {
+    return value >>> 1 ^ -(value & 1);
+  }
+}
@@ -0,0 +1,409 @@
+package com.insightpulse.wire;
+
+import com.insightpulse.gc.GcPauses;
+import com.insightpulse.hibernate.EntityNames;
+import com.insightpulse.jdbc.SqlFingerprints;
+import com.insightpulse.jfr.JfrEvents;
+import com.insightpulse.metrics.Histogram;
+import com.insightpulse.metrics.HistogramLayout;
+import com.insightpulse.pool.ConnectionPools;
+import com.insightpulse.trace.CompletedTrace;
+import com.insightpulse.trace.Endpoints;
+import com.insightpulse.trace.MethodRegistry;
+import com.insightpulse.trace.SpanKind;
+import com.insightpulse.trace.SpanRecord;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes spans and metrics into the {@link WireFormat} for one connection.
+ * <p>
+ * Frames accumulate in an internal buffer until the caller sends them and {@link #clear clears}
+ * it; the dictionary and the timestamp bases carry over from batch to batch, so the decoder must
+ * see every batch in order. Start a new connection with {@link #reset}. Span names are looked up
+ * through per-registry arrays of dictionary ids, so encoding a span whose names were sent before
+ * neither hashes nor allocates. Not thread-safe.
+ */
+public final class WireEncoder {
+
+  private static final int NONE = 0;
+  private static final int METHODS = 1;
+  private static final int ENDPOINTS = 2;
+  private static final int STATEMENTS = 3;
+  private static final int PAUSES = 4;
+  private static final int EVENTS = 5;
+  private static final int POOLS = 6;
+  private static final int ENTITIES = 7;
+
+  private byte[] buffer;
+  private int size;
+  private final Map<String, Integer> strings = new HashMap<>();
+  /** Dictionary id per registry id, per registry; 0 if not sent yet. */
+  private final int[][] cached = new int[8][];
+  private long lastStart;
+  private long lastTraceId;
+  private long lastMetricMillis;
+
+  public WireEncoder() {
+    this(4096);
+  }
+
+  public WireEncoder(int initialCapacity) {
+    buffer = new byte[Math.max(16, initialCapacity)];
+    reset();
+  }
+
+  /**
+   * Forgets everything sent so far, for a new connection; {@link #writeHeader} comes next.
+   */
+  public void reset() {
+    size = 0;
+    forget();
+  }
+
+  private void forget() {
+    strings.clear();
+    for (int i = 0; i < cached.length; i++) {
+      cached[i] = new int[64];
+    }
+    lastStart = 0L;
+    lastTraceId = 0L;
+    lastMetricMillis = 0L;
+  }
+
+  /**
+   * Drops the encoded bytes, e.g. once they were sent, but keeps the connection state.
+   */
+  public void clear() {
+    size = 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The encoded bytes; valid until the next write.
+   */
+  public ByteBuffer buffer() {
+    return ByteBuffer.wrap(buffer, 0, size);
+  }
+
+  public void writeHeader(String agent, long epochMillis, long nanoTime) {
+    ensure(WireFormat.MAGIC.length + 1);
+    System.arraycopy(WireFormat.MAGIC, 0, buffer, size, WireFormat.MAGIC.length);
+    size += WireFormat.MAGIC.length;
+    buffer[size++] = (byte) WireFormat.VERSION;
+    writeHello(agent, epochMillis, nanoTime);
+  }
+
+  /**
+   * Starts a new session within the stream: forgets the dictionary and the timestamp bases, as
+   * the decoder does when it reads the hello. Batches that begin with one decode after any other
+   * batch, e.g. when replayed from a spool.
+   */
+  public void writeHello(String agent, long epochMillis, long nanoTime) {
+    forget();
+    int frame = beginFrame(WireFormat.HELLO);
+    writeUtf8(agent);
+    writeVarint(epochMillis);
+    writeVarint(zigzag(nanoTime));
+    endFrame(frame);
+  }
+
+  /**
+   * Encodes a span from the agent's ring, naming its ids after the registries they come from.
+   */
+  public void writeSpan(SpanRecord span) {
+    int kind = span.kind();
+    int name = registryString(nameRegistry(kind), span.id());
+    int ref = registryString(refRegistry(kind), span.ref());
+    writeSpanFrame(kind, name, ref, span.traceId(), span.startNanos(), span.durationNanos(),
+        span.value());
+  }
+
+  /**
+   * Encodes a retained trace as its spans followed by its {@link SpanKind#REQUEST} record, the
+   * order the agent's ring had them in.
+   */
+  public void writeTrace(CompletedTrace trace) {
+    long traceId = trace.traceId();
+    int endpoint = trace.endpointId();
+    int handler = trace.handlerMethodId();
+    for (int i = 0; i < trace.spanCount(); i++) {
+      int kind = trace.kindAt(i);
+      int name = registryString(nameRegistry(kind), trace.idAt(i));
+      int refRegistry = refRegistry(kind);
+      int ref = registryString(refRegistry, refRegistry == METHODS ? handler : endpoint);
+      writeSpanFrame(kind, name, ref, traceId, trace.startAt(i), trace.durationAt(i),
+          trace.valueAt(i));
+    }
+    int name = registryString(ENDPOINTS, endpoint);
+    int ref = registryString(METHODS, handler);
+    writeSpanFrame(SpanKind.REQUEST, name, ref, traceId, trace.startNanos(),
+        trace.durationNanos(), trace.requestValue());
+  }
+
+  public void writeSpan(int kind, String name, String ref, long traceId, long startNanos,
+      long durationNanos, long value) {
+    int nameId = string(name);
+    int refId = string(ref);
+    writeSpanFrame(kind, nameId, refId, traceId, startNanos, durationNanos, value);
+  }
+
+  public void writeHistogram(String metric, String name, long epochMillis, Histogram histogram) {
+    int metricId = string(metric);
+    int nameId = string(name);
+    int frame = beginFrame(WireFormat.HISTOGRAM);
+    writeVarint(metricId);
+    writeVarint(nameId);
+    writeVarint(zigzag(epochMillis - lastMetricMillis));
+    lastMetricMillis = epochMillis;
+    HistogramLayout layout = histogram.getLayout();
+    writeVarint(layout.significantDigits());
+    writeVarint(layout.highestTrackableValue());
+    writeVarint(zigzag(histogram.getSum()));
+    int buckets = 0;
+    for (int i = 0; i < histogram.bucketCount(); i++) {
+      buckets += histogram.countAt(i) != 0 ? 1 : 0;
+    }
+    writeVarint(buckets);
+    int previous = 0;
+    for (int i = 0; i < histogram.bucketCount(); i++) {
+      long count = histogram.countAt(i);
+      if (count != 0) {
+        writeVarint(i - previous);
+        writeVarint(count);
+        previous = i;
+      }
+    }
+    endFrame(frame);
+  }
+
+  public void writeCounter(String metric, String name, long epochMillis, long value) {
+    int metricId = string(metric);
+    int nameId = string(name);
+    int frame = beginFrame(WireFormat.COUNTER);
+    writeVarint(metricId);
+    writeVarint(nameId);
+    writeVarint(zigzag(epochMillis - lastMetricMillis));
+    lastMetricMillis = epochMillis;
+    writeVarint(zigzag(value));
+    endFrame(frame);
+  }
+
+  private void writeSpanFrame(int kind, int name, int ref, long traceId, long startNanos,
+      long durationNanos, long value) {
+    int header = kind & WireFormat.SPAN_KIND_MASK;
+    if (ref != 0) {
+      header |= WireFormat.SPAN_HAS_REF;
+    }
+    if (traceId != 0L) {
+      header |= traceId == lastTraceId ? WireFormat.SPAN_SAME_TRACE : WireFormat.SPAN_HAS_TRACE;
+    }
+    boolean timed = startNanos != 0L || durationNanos != 0L;
+    if (!timed) {
+      header |= WireFormat.SPAN_NO_TIME;
+    }
+    int frame = beginFrame(WireFormat.SPAN);
+    ensure(1);
+    buffer[size++] = (byte) header;
+    writeVarint(name);
+    if (ref != 0) {
+      writeVarint(ref);
+    }
+    if ((header & WireFormat.SPAN_HAS_TRACE) != 0) {
+      writeLong(traceId);
+      lastTraceId = traceId;
+    }
+    if (timed) {
+      writeVarint(zigzag(startNanos - lastStart));
+      lastStart = startNanos;
+      writeVarint(Math.max(0L, durationNanos));
+    }
+    writeVarint(zigzag(value));
+    endFrame(frame);
+  }
+
+  private static int nameRegistry(int kind) {
+    switch (kind) {
+      case SpanKind.METHOD:
+        return METHODS;
+      case SpanKind.SQL:
+      case SpanKind.SQL_ROWS:
+      case SpanKind.N_PLUS_ONE:
+        return STATEMENTS;
+      case SpanKind.REQUEST:
+      case SpanKind.RESOURCES:
+      case SpanKind.FLUSH:
+      case SpanKind.SESSION:
+        return ENDPOINTS;
+      case SpanKind.GC:
+        return PAUSES;
+      case SpanKind.JFR:
+        return EVENTS;
+      case SpanKind.CONNECTION_WAIT:
+        return POOLS;
+      case SpanKind.CONNECTION_HOLD:
+        return METHODS;
+      case SpanKind.ENTITY_LOAD:
+      case SpanKind.COLLECTION_LOAD:
+        return ENTITIES;
+      default:
+        return NONE;
+    }
+  }
+
+  private static int refRegistry(int kind) {
+    switch (kind) {
+      case SpanKind.REQUEST:
+      case SpanKind.RESOURCES:
+        return METHODS;
+      case SpanKind.METHOD:
+      case SpanKind.SQL:
+      case SpanKind.SQL_ROWS:
+      case SpanKind.N_PLUS_ONE:
+      case SpanKind.GC:
+      case SpanKind.JFR:
+      case SpanKind.CONNECTION_WAIT:
+      case SpanKind.CONNECTION_HOLD:
+      case SpanKind.ENTITY_LOAD:
+      case SpanKind.COLLECTION_LOAD:
+        return ENDPOINTS;
+      default:
+        return NONE;
+    }
+  }
+
+  /**
+   * Dictionary id of the name behind a registry id, sending the name first if necessary.
+   */
+  private int registryString(int registry, int id) {
+    if (registry == NONE || id < 0 || id == 0
+        && (registry == ENDPOINTS || registry == STATEMENTS || registry == ENTITIES)) {
+      return 0;
+    }
+    int[] ids = cached[registry];
+    if (id < ids.length && ids[id] != 0) {
+      return ids[id];
+    }
+    String name;
+    if (registry == METHODS) {
+      name = MethodRegistry.className(id) + '.' + MethodRegistry.methodName(id);
+    } else if (registry == ENDPOINTS) {
+      name = Endpoints.name(id);
+    } else if (registry == PAUSES) {
+      name = GcPauses.name(id);
+    } else if (registry == EVENTS) {
+      name = JfrEvents.name(id);
+    } else if (registry == POOLS) {
+      name = ConnectionPools.name(id);
+    } else if (registry == ENTITIES) {
+      name = EntityNames.name(id);
+    } else {
+      name = SqlFingerprints.fingerprint(id);
+    }
+    int stringId = string(name);
+    if (id >= ids.length) {
+      ids = Arrays.copyOf(ids, Math.max(id + 1, ids.length * 2));
+      cached[registry] = ids;
+    }
+    ids[id] = stringId;
+    return stringId;
+  }
+
+  /**
+   * Dictionary id of a string, sending it first if necessary; 0 for {@code null}.
+   */
+  private int string(String value) {
+    if (value == null) {
+      return 0;
+    }
+    Integer existing = strings.get(value);
+    if (existing != null) {
+      return existing;
+    }
+    int id = strings.size() + 1;
+    strings.put(value, id);
+    int frame = beginFrame(WireFormat.STRING);
+    writeVarint(id);
+    writeUtf8(value);
+    endFrame(frame);
+    return id;
+  }
+
+  /**
+   * Writes the frame type and reserves one byte for the length, enough for most frames.
+   */
+  private int beginFrame(int type) {
+    ensure(2);
+    int frame = size;
+    buffer[size++] = (byte) type;
+    size++;
+    return frame;
+  }
+
+  private void endFrame(int frame) {
+    int payload = frame + 2;
+    int length = size - payload;
+    int lengthBytes = varintSize(length);
+    if (lengthBytes > 1) {
+      ensure(lengthBytes - 1);
+      System.arraycopy(buffer, payload, buffer, payload + lengthBytes - 1, length);
+      size += lengthBytes - 1;
+    }
+    int position = frame + 1;
+    long remaining = length;
+    while ((remaining & ~0x7FL) != 0) {
+      buffer[position++] = (byte) (remaining & 0x7F | 0x80);
+      remaining >>>= 7;
+    }
+    buffer[position] = (byte) remaining;
+  }
+
+  private void writeUtf8(String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarint(bytes.length);
+    ensure(bytes.length);
+    System.arraycopy(bytes, 0, buffer, size, bytes.length);
+    size += bytes.length;
+  }
+
+  private void writeVarint(long value) {
+    ensure(10);
+    while ((value & ~0x7FL) != 0) {
+      buffer[size++] = (byte) (value & 0x7F | 0x80);
+      value >>>= 7;
+    }
+    buffer[size++] = (byte) value;
+  }
+
+  private void writeLong(long value) {
+    ensure(8);
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      buffer[size++] = (byte) (value >>> shift);
+    }
+  }
+
+  private void ensure(int bytes) {
+    if (size + bytes > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(size + bytes, buffer.length * 2));
+    }
+  }
+
+  static long zigzag(long value) {
+    return value << 1 ^ value >> 63;
+  }
+
+  static int varintSize(long value) {
+    int bytes = 1;
+    while ((value & ~0x7FL) != 0) {
+      value >>>= 7;
+      bytes++;
+    }
+    return bytes;
+  }
+}
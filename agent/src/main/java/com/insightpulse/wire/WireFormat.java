@@ -0,0 +1,65 @@
+package com.insightpulse.wire;
+
+/**
+ * Binary encoding of the agent's output, shared by {@link WireEncoder} and {@link WireDecoder}.
+ * <p>
+ * A connection starts with the 4 magic bytes {@code IPLS} and a version byte, followed by frames.
+ * Every frame is a type byte, the payload length as a varint and the payload, so a decoder can
+ * wait for a whole frame before parsing it and can skip frame types it does not know.
+ * <p>
+ * Integers are LEB128 varints, 7 bits per byte, least significant group first; signed values are
+ * zigzag encoded first so that small negative numbers stay short. Strings are never repeated:
+ * the first time a connection needs one, a {@link #STRING} frame assigns it the next id of the
+ * connection's dictionary, starting at 1, and other frames refer to it by id, 0 meaning none.
+ * Timestamps are deltas against the previous frame of the same type on the connection.
+ * <p>
+ * The first frame is a {@link #HELLO}. Later ones start a new session on the same connection:
+ * the dictionary and the timestamp bases start over, so batches that begin with a hello can be
+ * stored and sent again on any connection, as the agent does with batches it spooled while the
+ * collector was unreachable.
+ * <p>
+ * Payloads, in order:
+ * <ul>
+ *   <li>{@link #HELLO}: agent name (varint length and UTF-8 bytes), wall clock in epoch millis,
+ *       the agent's {@code System.nanoTime()} at that instant (zigzag), which relates span
+ *       timestamps to the wall clock.
+ *   <li>{@link #STRING}: id, UTF-8 byte count, UTF-8 bytes.
+ *   <li>{@link #SPAN}: a header byte holding the span kind in its low 4 bits and the
+ *       {@code SPAN_*} flags, name id, ref id if {@link #SPAN_HAS_REF}, trace id as 8 big-endian
+ *       bytes if {@link #SPAN_HAS_TRACE}, start delta (zigzag) and duration unless
+ *       {@link #SPAN_NO_TIME}, value (zigzag).
+ *   <li>{@link #HISTOGRAM}: metric id, name id, time delta in millis (zigzag), significant digits,
+ *       highest trackable value, sum (zigzag), number of non-empty buckets, then for each the
+ *       bucket index as a delta to the previous one and its count.
+ *   <li>{@link #COUNTER}: metric id, name id, time delta in millis (zigzag), value (zigzag).
+ * </ul>
+ */
+public final class WireFormat {
+
+  static final byte[] MAGIC = {'I', 'P', 'L', 'S'};
+  public static final int VERSION = 1;
+
+  static final int HELLO = 1;
+  static final int STRING = 2;
+  static final int SPAN = 3;
+  static final int HISTOGRAM = 4;
+  static final int COUNTER = 5;
+
+  static final int SPAN_KIND_MASK = 0x0f;
+  /** The span has a ref. */
+  static final int SPAN_HAS_REF = 0x10;
+  /** The span belongs to a trace other than the previous span's; its id follows. */
+  static final int SPAN_HAS_TRACE = 0x20;
+  /** The span belongs to the same trace as the previous span. */
+  static final int SPAN_SAME_TRACE = 0x40;
+  /** Start and duration are both 0, as for row counts, and are left out. */
+  static final int SPAN_NO_TIME = 0x80;
+
+  /** Frames larger than this are rejected as corrupt. */
+  public static final int MAX_FRAME = 16 << 20;
+  /** Dictionaries larger than this are rejected as corrupt. */
+  static final int MAX_STRINGS = 1 << 20;
+
+  private WireFormat() {
+  }
+}
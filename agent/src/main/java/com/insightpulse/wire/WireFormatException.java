@@ -0,0 +1,16 @@
+package com.insightpulse.wire;
+
+import java.io.IOException;
+
+/**
+ * Input that does not follow the {@link WireFormat}; the connection it came from cannot be read
+ * any further.
+ */
+public final class WireFormatException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  public WireFormatException(String message) {
+    super(message);
+  }
+}
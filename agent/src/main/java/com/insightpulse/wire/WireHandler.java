@@ -0,0 +1,23 @@
+package com.insightpulse.wire;
+
+import com.insightpulse.metrics.Histogram;
+
+/**
+ * Receives what a {@link WireDecoder} decodes, in connection order. Names are resolved from the
+ * connection's dictionary; {@code null} stands for "none".
+ */
+public interface WireHandler {
+
+  void onHello(String agent, long epochMillis, long nanoTime);
+
+  /**
+   * One span; the fields mean what they mean in the agent's {@code SpanRecord} for the same
+   * {@code SpanKind}, with ids replaced by names.
+   */
+  void onSpan(int kind, String name, String ref, long traceId, long startNanos,
+      long durationNanos, long value);
+
+  void onHistogram(String metric, String name, long epochMillis, Histogram histogram);
+
+  void onCounter(String metric, String name, long epochMillis, long value);
+}
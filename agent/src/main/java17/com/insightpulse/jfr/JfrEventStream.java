@@ -0,0 +1,186 @@
+package com.insightpulse.jfr;
+
+import com.insightpulse.AgentLog;
+import com.insightpulse.trace.Endpoints;
+import com.insightpulse.trace.RequestThreads;
+import com.insightpulse.trace.SpanKind;
+import com.insightpulse.trace.SpanRing;
+import com.insightpulse.trace.TraceContext;
+import java.io.Closeable;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingStream;
+
+/**
+ * Streams JFR's safepoint, monitor contention, socket read and allocation sample events into the
+ * span ring as {@link SpanKind#JFR} spans; Java 17 layer of the agent jar, started through
+ * {@link JfrBridge}.
+ * <p>
+ * JFR records these in the JVM far more cheaply than bytecode hooks could, but hands them over
+ * in batches about once a second. An event therefore joins a trace only if that trace is still
+ * running on the event's thread when the batch arrives, which is mostly true of the slow ones;
+ * the others, and safepoints, which stop every thread, only feed the per-event metrics. Events
+ * are taken without stack traces.
+ */
+public final class JfrEventStream implements Runnable, Closeable {
+
+  private static final String MONITOR_ENTER = "jdk.JavaMonitorEnter";
+  private static final String SOCKET_READ = "jdk.SocketRead";
+  private static final String ALLOCATION_SAMPLE = "jdk.ObjectAllocationSample";
+  private static final String SAFEPOINT = "jdk.SafepointBegin";
+
+  private final SpanRing ring;
+  private final Duration threshold;
+  private final int allocationSamplesRate;
+  private final Map<Long, TraceContext> contexts = new HashMap<>();
+  private final int safepointId = JfrEvents.register("safepoint", null);
+  private TraceContext[] active = new TraceContext[64];
+  private boolean contextsStale = true;
+  /** {@link System#nanoTime} at the epoch, to place the events' wall clock times. */
+  private long originNanos;
+  private RecordingStream stream;
+  private boolean closed;
+
+  public JfrEventStream(SpanRing ring, long thresholdNanos, int allocationSamplesRate) {
+    this.ring = ring;
+    this.threshold = Duration.ofNanos(thresholdNanos);
+    this.allocationSamplesRate = allocationSamplesRate;
+  }
+
+  /**
+   * Sets up the recording and streams until {@link #close closed}.
+   */
+  @Override
+  public void run() {
+    RecordingStream stream;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      stream = new RecordingStream();
+      this.stream = stream;
+    }
+    try {
+      configure(stream);
+      AgentLog.info("Streaming JFR events");
+      stream.start();
+    } catch (Throwable t) {
+      AgentLog.error("JFR event stream failed", t);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    closed = true;
+    if (stream != null) {
+      stream.close();
+    }
+  }
+
+  private void configure(RecordingStream stream) {
+    stream.enable(MONITOR_ENTER).withThreshold(threshold).withoutStackTrace();
+    stream.enable(SOCKET_READ).withThreshold(threshold).withoutStackTrace();
+    stream.enable(SAFEPOINT).withThreshold(threshold);
+    stream.enable(ALLOCATION_SAMPLE).with("throttle", allocationSamplesRate + "/s")
+        .withoutStackTrace();
+    stream.onEvent(MONITOR_ENTER, event -> onThreadEvent(event, JfrEvents.register(
+        "monitor enter", className(event.getClass("monitorClass"))), 0L));
+    stream.onEvent(SOCKET_READ, event -> onThreadEvent(event, JfrEvents.register("socket read",
+        address(event)), 0L));
+    stream.onEvent(ALLOCATION_SAMPLE, event -> onThreadEvent(event, JfrEvents.register(
+        "allocation", className(event.getClass("objectClass"))), event.getLong("weight")));
+    stream.onEvent(SAFEPOINT, event -> ring.publish(SpanKind.JFR, safepointId, Endpoints.NONE,
+        0L, nanoTime(event.getStartTime()), event.getDuration().toNanos(), 0L));
+    stream.onFlush(() -> contextsStale = true);
+    calibrate();
+  }
+
+  private void onThreadEvent(RecordedEvent event, int id, long value) {
+    long start = nanoTime(event.getStartTime());
+    long traceId = 0L;
+    int endpoint = Endpoints.NONE;
+    RecordedThread thread = event.getThread();
+    TraceContext context = thread == null ? null : context(thread.getJavaThreadId());
+    if (context != null) {
+      endpoint = context.activeEndpoint();
+      traceId = context.activeTraceId(start);
+    }
+    ring.publish(SpanKind.JFR, id, traceId == 0L ? Endpoints.NONE : endpoint, traceId, start,
+        event.getDuration().toNanos(), value);
+  }
+
+  /**
+   * Context of a thread with an active trace, as of the first event since the last flush.
+   */
+  private TraceContext context(long threadId) {
+    if (contextsStale) {
+      contextsStale = false;
+      calibrate();
+      int capacity = RequestThreads.size();
+      if (capacity > active.length) {
+        active = new TraceContext[Math.max(capacity, active.length * 2)];
+      }
+      int count = RequestThreads.snapshot(active);
+      contexts.clear();
+      for (int i = 0; i < count; i++) {
+        contexts.put(active[i].thread().getId(), active[i]);
+        active[i] = null;
+      }
+    }
+    return contexts.get(threadId);
+  }
+
+  private void calibrate() {
+    originNanos = System.nanoTime() - epochNanos(Instant.now());
+  }
+
+  private long nanoTime(Instant instant) {
+    return originNanos + epochNanos(instant);
+  }
+
+  private static long epochNanos(Instant instant) {
+    return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+  }
+
+  /**
+   * Source name of a class, e.g. {@code byte[]} rather than the {@code [B} JFR reports.
+   */
+  private static String className(RecordedClass type) {
+    if (type == null) {
+      return null;
+    }
+    String name = type.getName();
+    int dimensions = 0;
+    while (name.charAt(dimensions) == '[') {
+      dimensions++;
+    }
+    if (dimensions == 0) {
+      return name;
+    }
+    String element = switch (name.charAt(dimensions)) {
+      case 'Z' -> "boolean";
+      case 'B' -> "byte";
+      case 'C' -> "char";
+      case 'S' -> "short";
+      case 'I' -> "int";
+      case 'J' -> "long";
+      case 'F' -> "float";
+      case 'D' -> "double";
+      default -> name.substring(dimensions + 1, name.length() - 1);
+    };
+    return element + "[]".repeat(dimensions);
+  }
+
+  private static String address(RecordedEvent event) {
+    String host = event.getString("host");
+    if (host == null || host.isEmpty()) {
+      host = event.getString("address");
+    }
+    return host + ':' + event.getInt("port");
+  }
+}
@@ -0,0 +1,46 @@
+package com.insightpulse.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class AgentConfigTest {
+
+  @Test
+  void shouldParseAgentArguments() {
+    AgentConfig config = AgentConfig.parse("include=a.B, c.*D ;report.interval=5;debug=true");
+
+    assertEquals(Arrays.asList("a.B", "c.*D"), config.getList(AgentConfig.INCLUDE, null));
+    assertEquals(5L, config.getLong(AgentConfig.REPORT_INTERVAL_SECONDS, 60));
+    assertTrue(config.getBoolean(AgentConfig.DEBUG, false));
+  }
+
+  @Test
+  void shouldFallBackToDefaults() {
+    AgentConfig config = AgentConfig.parse(null);
+
+    assertEquals(60, config.getInt(AgentConfig.REPORT_INTERVAL_SECONDS, 60));
+    assertEquals(2, config.getList(AgentConfig.INCLUDE, AgentConfig.DEFAULT_INCLUDE).size());
+  }
+
+  @Test
+  void shouldFallBackToSystemProperties() {
+    System.setProperty("insightpulse.test.value", "42");
+    try {
+      assertEquals(42, AgentConfig.empty().getInt("test.value", 0));
+    } finally {
+      System.clearProperty("insightpulse.test.value");
+    }
+  }
+
+  @Test
+  void shouldRejectMalformedNumbers() {
+    AgentConfig config = AgentConfig.parse("report.interval=soon");
+
+    assertThrows(IllegalArgumentException.class,
+        () -> config.getLong(AgentConfig.REPORT_INTERVAL_SECONDS, 60));
+  }
+}
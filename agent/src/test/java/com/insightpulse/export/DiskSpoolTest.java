@@ -0,0 +1,118 @@
+package com.insightpulse.export;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class DiskSpoolTest {
+
+  @Test
+  void shouldReplayBatchesInOrder() throws Exception {
+    try (DiskSpool spool = new DiskSpool(file(), 4096)) {
+      assertTrue(spool.isEmpty());
+      assertNull(spool.peek());
+      spool.append(batch(1, 100), 3);
+      spool.append(batch(2, 200), 4);
+
+      assertEquals(batch(1, 100), spool.peek());
+      assertEquals(3, spool.peekTraces());
+      spool.remove();
+      assertEquals(batch(2, 200), spool.peek());
+      spool.remove();
+      assertTrue(spool.isEmpty());
+      assertEquals(0L, spool.usedBytes());
+    }
+  }
+
+  @Test
+  void shouldOverwriteOldestBatchesWhenFull() throws Exception {
+    try (DiskSpool spool = new DiskSpool(file(), 4096)) {
+      for (int i = 0; i < 100; i++) {
+        assertTrue(spool.append(batch(i, 300), 1));
+        assertTrue(spool.usedBytes() <= 4096);
+      }
+
+      // 13 batches of 308 bytes fit; the skipped end of the ring costs at most one more
+      long kept = 100 - spool.droppedBatches();
+      assertTrue(kept == 12 || kept == 13, kept + " kept");
+      assertEquals(spool.droppedBatches(), spool.droppedTraces());
+      for (long i = spool.droppedBatches(); i < 100; i++) {
+        assertEquals(batch((int) i, 300), spool.peek());
+        spool.remove();
+      }
+      assertTrue(spool.isEmpty());
+      assertFalse(spool.append(batch(0, 1500), 1));
+      assertEquals(1L, spool.rejected());
+    }
+  }
+
+  @Test
+  void shouldKeepBatchesAcrossRestarts() throws Exception {
+    File file = file();
+    try (DiskSpool spool = new DiskSpool(file, 4096)) {
+      for (int i = 0; i < 20; i++) {
+        spool.append(batch(i, 250), 1);
+      }
+      spool.remove();
+      assertThrows(IOException.class, () -> new DiskSpool(file, 4096));
+    }
+    try (DiskSpool spool = new DiskSpool(file, 4096)) {
+      // 15 batches fit, the one removed was the sixth
+      assertEquals(batch(6, 250), spool.peek());
+    }
+    // another size discards what was spooled
+    try (DiskSpool spool = new DiskSpool(file, 8192)) {
+      assertTrue(spool.isEmpty());
+    }
+  }
+
+  @Test
+  void shouldOpenDeferredSpoolOnFirstAppendOrLeftoverFile() throws Exception {
+    File file = file();
+    try (DiskSpool spool = DiskSpool.deferred(file, 4096)) {
+      assertTrue(spool.isEmpty());
+      assertNull(spool.peek());
+      assertFalse(file.exists());
+
+      assertTrue(spool.append(batch(1, 100), 2));
+      assertTrue(file.isFile());
+      assertEquals(batch(1, 100), spool.peek());
+    }
+    try (DiskSpool spool = DiskSpool.deferred(file, 4096)) {
+      assertEquals(batch(1, 100), spool.peek());
+      assertEquals(2, spool.peekTraces());
+    }
+  }
+
+  @Test
+  void shouldRejectBatchesIfDeferredSpoolCannotOpen() throws Exception {
+    File file = file();
+    try (DiskSpool holder = new DiskSpool(file, 4096);
+        DiskSpool spool = DiskSpool.deferred(file, 4096)) {
+      assertFalse(spool.append(batch(1, 100), 1));
+      assertFalse(spool.append(batch(2, 100), 1));
+      assertEquals(2L, spool.rejected());
+      assertTrue(spool.isEmpty());
+    }
+  }
+
+  private static File file() throws IOException {
+    return new File(Files.createTempDirectory("spool").toFile(), "test.spool");
+  }
+
+  private static ByteBuffer batch(int seed, int length) {
+    byte[] bytes = new byte[length];
+    Arrays.fill(bytes, (byte) seed);
+    bytes[0] = (byte) (seed >> 8);
+    return ByteBuffer.wrap(bytes);
+  }
+}
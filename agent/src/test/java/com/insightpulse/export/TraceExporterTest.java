@@ -0,0 +1,223 @@
+package com.insightpulse.export;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.insightpulse.jdbc.SqlFingerprints;
+import com.insightpulse.metrics.Histogram;
+import com.insightpulse.trace.Endpoints;
+import com.insightpulse.trace.SpanKind;
+import com.insightpulse.trace.SpanRing;
+import com.insightpulse.trace.TraceBuffer;
+import com.insightpulse.trace.TraceCollector;
+import com.insightpulse.wire.WireDecoder;
+import com.insightpulse.wire.WireHandler;
+import java.io.File;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class TraceExporterTest {
+
+  private final SpanRing ring = new SpanRing(64);
+  private final int endpoint = Endpoints.register("GET /api/owners/{ownerId}/visits");
+  private final int statement = SqlFingerprints.register("select * from visits where pet_id=?");
+  private TraceExporter exporter;
+
+  @AfterEach
+  void tearDown() {
+    if (exporter != null) {
+      exporter.stop();
+    }
+  }
+
+  @Test
+  void shouldShipTracesAndMetricsInBatches() throws Exception {
+    TraceCollector traces = new TraceCollector(Long.MAX_VALUE, 16, 16);
+    try (ServerSocket server = listen(0)) {
+      exporter = start(server.getLocalPort(), traces);
+      publishTrace(traces, 0x11L);
+      publishTrace(traces, 0x22L);
+
+      try (Socket socket = server.accept()) {
+        List<String> received = receive(socket, 2);
+
+        assertEquals("select * from visits where pet_id=? GET /api/owners/{ownerId}/visits 11",
+            received.get(0));
+        assertEquals("GET /api/owners/{ownerId}/visits null 11", received.get(1));
+        assertEquals("GET /api/owners/{ownerId}/visits null 22", received.get(3));
+        // the collector may read a batch before the exporter's write call returns
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (exporter.sentTraces() < 2 && System.nanoTime() < deadline) {
+          Thread.sleep(1);
+        }
+        assertEquals(2, exporter.sentTraces());
+      }
+    }
+  }
+
+  @Test
+  void shouldLeaveTracesToDropPolicyWhileCollectorIsDown() throws Exception {
+    int port;
+    try (ServerSocket closed = listen(0)) {
+      port = closed.getLocalPort();
+    }
+    TraceCollector traces = new TraceCollector(Long.MAX_VALUE, 4, 4,
+        TraceBuffer.DropPolicy.DROP_NEWEST);
+    exporter = start(port, traces);
+
+    for (long id = 1; id <= 10; id++) {
+      publishTrace(traces, id);
+    }
+    Thread.sleep(100);
+
+    assertEquals(4, traces.sampled().size());
+    assertEquals(6, traces.sampled().dropped());
+    assertEquals(0, exporter.sentTraces());
+
+    try (ServerSocket server = listen(port); Socket socket = server.accept()) {
+      List<String> received = receive(socket, 4);
+      assertTrue(received.get(received.size() - 1).endsWith(" 4"), received.toString());
+    }
+  }
+
+  @Test
+  void shouldSpoolWhileCollectorIsDownAndReplayInOrder() throws Exception {
+    int port;
+    try (ServerSocket closed = listen(0)) {
+      port = closed.getLocalPort();
+    }
+    TraceCollector traces = new TraceCollector(Long.MAX_VALUE, 16, 16);
+    File file = new File(Files.createTempDirectory("spool").toFile(), "test.spool");
+    exporter = new TraceExporter("127.0.0.1", port, "test", traces, ring, 4096, 20,
+        TimeUnit.HOURS.toMillis(1), new DiskSpool(file, 1 << 16));
+    exporter.start();
+
+    for (long id = 1; id <= 10; id++) {
+      publishTrace(traces, id);
+      Thread.sleep(5);
+    }
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (exporter.spooledTraces() < 10 && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    assertEquals(10, exporter.spooledTraces());
+    assertEquals(0, traces.sampled().dropped());
+
+    try (ServerSocket server = listen(port); Socket socket = server.accept()) {
+      publishTrace(traces, 11L);
+      List<String> received = receive(socket, 11);
+      List<String> requests = new ArrayList<>();
+      for (String span : received) {
+        // request records have no ref
+        if (span.contains(" null ")) {
+          requests.add(span.substring(span.lastIndexOf(' ') + 1));
+        }
+      }
+      assertEquals(Arrays.asList("1", "2", "3", "4", "5", "6", "7", "8", "9", "a", "b"),
+          requests);
+      deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (exporter.sentTraces() < 11 && System.nanoTime() < deadline) {
+        Thread.sleep(1);
+      }
+      assertEquals(11, exporter.sentTraces());
+    }
+  }
+
+  @Test
+  void shouldNeverBlockProducersWhenCollectorStopsReading() throws Exception {
+    TraceCollector traces = new TraceCollector(Long.MAX_VALUE, 64, 64,
+        TraceBuffer.DropPolicy.DROP_OLDEST);
+    try (ServerSocket server = listen(0)) {
+      exporter = start(server.getLocalPort(), traces);
+      try (Socket stalled = server.accept()) {
+        long started = System.nanoTime();
+        for (long id = 1; id <= 200_000; id++) {
+          publishTrace(traces, id);
+        }
+        long elapsed = System.nanoTime() - started;
+
+        assertTrue(elapsed < TimeUnit.SECONDS.toNanos(10), elapsed + "ns");
+        assertTrue(traces.sampled().dropped() > 0);
+        assertTrue(exporter.sentTraces() < 200_000);
+        assertTrue(exporter.isConnected());
+      }
+    }
+  }
+
+  private TraceExporter start(int port, TraceCollector traces) throws Exception {
+    TraceExporter started = new TraceExporter("127.0.0.1", port, "test", traces, ring, 4096, 20,
+        TimeUnit.HOURS.toMillis(1));
+    started.start();
+    return started;
+  }
+
+  private void publishTrace(TraceCollector traces, long traceId) {
+    ring.publish(SpanKind.SQL, statement, endpoint, traceId, 10L, 5L, 0L);
+    ring.publish(SpanKind.REQUEST, endpoint, -1, traceId, 0L, 100L,
+        SpanKind.requestValue(200, SpanKind.REQUEST_SAMPLED, 50L));
+    ring.drain(traces::onSpan, 2);
+  }
+
+  private static ServerSocket listen(int port) throws Exception {
+    ServerSocket server = new ServerSocket();
+    server.setReuseAddress(true);
+    server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    server.setSoTimeout(5000);
+    return server;
+  }
+
+  /**
+   * Reads until {@code requests} request records arrived; returns "name ref traceId" per span.
+   */
+  private static List<String> receive(Socket socket, int requests) throws Exception {
+    socket.setSoTimeout(5000);
+    List<String> spans = Collections.synchronizedList(new ArrayList<>());
+    int[] seen = new int[1];
+    WireDecoder decoder = new WireDecoder(new WireHandler() {
+      @Override
+      public void onHello(String agent, long epochMillis, long nanoTime) {
+      }
+
+      @Override
+      public void onSpan(int kind, String name, String ref, long traceId, long startNanos,
+          long durationNanos, long value) {
+        spans.add(name + " " + ref + " " + Long.toHexString(traceId));
+        seen[0] += kind == SpanKind.REQUEST ? 1 : 0;
+      }
+
+      @Override
+      public void onHistogram(String metric, String name, long epochMillis,
+          Histogram histogram) {
+      }
+
+      @Override
+      public void onCounter(String metric, String name, long epochMillis, long value) {
+      }
+    });
+    InputStream in = socket.getInputStream();
+    ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    while (seen[0] < requests) {
+      int n = in.read(buffer.array(), buffer.position(), buffer.remaining());
+      if (n < 0) {
+        break;
+      }
+      buffer.position(buffer.position() + n);
+      buffer.flip();
+      decoder.decode(buffer);
+      buffer.compact();
+    }
+    return spans;
+  }
+}
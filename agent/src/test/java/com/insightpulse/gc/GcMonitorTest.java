@@ -0,0 +1,110 @@
+package com.insightpulse.gc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.insightpulse.metrics.Metrics;
+import com.insightpulse.trace.CompletedTrace;
+import com.insightpulse.trace.Endpoints;
+import com.insightpulse.trace.SpanAggregator;
+import com.insightpulse.trace.SpanKind;
+import com.insightpulse.trace.SpanRing;
+import com.insightpulse.trace.TraceCollector;
+import java.lang.management.MemoryUsage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class GcMonitorTest {
+
+  private static final long MB = 1024 * 1024;
+  private static final String EDEN = "G1 Eden Space";
+  private static final String SURVIVOR = "G1 Survivor Space";
+  private static final String OLD = "G1 Old Gen";
+  private static final String YOUNG_GC = "G1 Young Generation";
+  private static final String CAUSE = "G1 Evacuation Pause";
+
+  // pauses are global and must end in order, so every test starts its clock at now and pauses
+  // other than the one charged to requests come within its first second
+  private final long origin = System.nanoTime();
+  private final GcMonitor monitor =
+      new GcMonitor(new LinkedHashSet<>(Arrays.asList(EDEN, SURVIVOR, OLD)), origin);
+
+  @Test
+  void shouldAccountAllocationAndPromotionFromPoolSizes() {
+    minor(100, 10, 12);
+    assertEquals(0L, monitor.allocatedBytes());
+    assertEquals(2 * MB, monitor.promotedBytes());
+
+    minor(80, 12, 15);
+    monitor.onCollection("G1 Concurrent GC", "end of concurrent GC pause", "G1 Remark", 20, 3,
+        usage(0, 0, 90), usage(0, 0, 40));
+    monitor.onCollection("G1 Old Generation", "end of major GC", "System.gc()", 30, 40,
+        usage(30, 2, 15), usage(0, 0, 5));
+
+    assertEquals(110 * MB, monitor.allocatedBytes());
+    assertEquals(5 * MB, monitor.promotedBytes());
+  }
+
+  @Test
+  void shouldChargeRequestsWithOverlappingPauses() {
+    monitor.onCollection(YOUNG_GC, "end of minor GC", CAUSE, 1000, 20, usage(50, 0, 10),
+        usage(0, 1, 10));
+    long pauseStart = origin + TimeUnit.SECONDS.toNanos(1);
+    long millis = TimeUnit.MILLISECONDS.toNanos(1);
+
+    long pauseEnd = pauseStart + 20 * millis;
+    assertEquals(10 * millis, GcPauses.overlapNanos(pauseStart + 10 * millis, pauseEnd + millis));
+    assertEquals(20 * millis, GcPauses.overlapNanos(pauseStart - millis, pauseEnd + millis));
+    assertEquals(0L, GcPauses.overlapNanos(pauseStart - 10 * millis, pauseStart));
+    assertFalse(GcPauses.mayOverlap(pauseEnd));
+
+    TraceCollector collector = new TraceCollector(TimeUnit.SECONDS.toNanos(1), 4, 4);
+    SpanRing ring = new SpanRing(64);
+    int endpoint = Endpoints.register("GET /api/visits");
+    ring.publish(SpanKind.REQUEST, endpoint, -1, 1L, pauseStart - 5 * millis, 100 * millis,
+        SpanKind.requestValue(200, SpanKind.REQUEST_SAMPLED, 0L));
+    ring.publish(SpanKind.REQUEST, endpoint, -1, 2L, pauseStart + 30 * millis, 100 * millis,
+        SpanKind.requestValue(200, SpanKind.REQUEST_SAMPLED, 0L));
+    ring.drain(new SpanAggregator(collector), Integer.MAX_VALUE);
+
+    CompletedTrace paused = collector.sampled().poll();
+    assertEquals(1, paused.spanCount());
+    assertEquals(SpanKind.GC, paused.kindAt(0));
+    assertEquals(YOUNG_GC + " (" + CAUSE + ")", GcPauses.name(paused.idAt(0)));
+    assertEquals(pauseStart, paused.startAt(0));
+    assertEquals(20 * millis, paused.durationAt(0));
+    assertEquals(20 * millis, paused.valueAt(0));
+    assertEquals(0, collector.sampled().poll().spanCount());
+    assertEquals(1L, Metrics.requestGc().get(endpoint).snapshot().getTotalCount());
+  }
+
+  @Test
+  void shouldClassifyPoolsAndCollectors() {
+    assertTrue(GcMonitor.isYoung("PS Eden Space"));
+    assertTrue(GcMonitor.isYoung("ZGC Young Generation"));
+    assertTrue(GcMonitor.isOld("Tenured Gen"));
+    assertTrue(GcMonitor.isOld("CMS Old Gen"));
+    assertTrue(GcMonitor.isOld("ZGC Old Generation"));
+    assertFalse(GcMonitor.isOld("G1 Survivor Space"));
+    assertTrue(GcMonitor.isConcurrent("ZGC Major Cycles"));
+    assertFalse(GcMonitor.isConcurrent("ZGC Major Pauses"));
+  }
+
+  private void minor(long edenBefore, long oldBefore, long oldAfter) {
+    monitor.onCollection(YOUNG_GC, "end of minor GC", CAUSE, 10, 5,
+        usage(edenBefore, 4, oldBefore), usage(0, 4, oldAfter));
+  }
+
+  private static Map<String, MemoryUsage> usage(long eden, long survivor, long old) {
+    Map<String, MemoryUsage> usage = new HashMap<>();
+    usage.put(EDEN, new MemoryUsage(0L, eden * MB, eden * MB, -1L));
+    usage.put(SURVIVOR, new MemoryUsage(0L, survivor * MB, survivor * MB, -1L));
+    usage.put(OLD, new MemoryUsage(0L, old * MB, old * MB, -1L));
+    return usage;
+  }
+}
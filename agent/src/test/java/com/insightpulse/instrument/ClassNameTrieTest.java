@@ -0,0 +1,60 @@
+package com.insightpulse.instrument;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ClassNameTrieTest {
+
+  private final MethodPattern service =
+      MethodPattern.parse("com.example.petclinic.service.ClinicService");
+  private final MethodPattern controllers =
+      MethodPattern.parse("com.example.petclinic.rest.controller.*RestController");
+  private final MethodPattern repositories = MethodPattern.parse("com.example.**Repository#find*");
+
+  private final ClassNameTrie trie =
+      new ClassNameTrie(Arrays.asList(service, controllers, repositories));
+
+  @Test
+  void shouldRejectClassesOutsideEveryPrefix() {
+    assertTrue(trie.match("java/lang/String").isEmpty());
+    assertTrue(trie.match("com/examples/Foo").isEmpty());
+    assertTrue(trie.match("com").isEmpty());
+    assertTrue(trie.match("").isEmpty());
+  }
+
+  @Test
+  void shouldApplyTheGlobsBehindAMatchingPrefix() {
+    assertEquals(Arrays.asList(service),
+        trie.match("com/example/petclinic/service/ClinicService"));
+    assertTrue(trie.match("com/example/petclinic/service/ClinicServiceImpl").isEmpty());
+    assertEquals(Arrays.asList(controllers),
+        trie.match("com/example/petclinic/rest/controller/OwnerRestController"));
+    assertTrue(trie.match("com/example/petclinic/rest/controller/OwnerMapper").isEmpty());
+  }
+
+  @Test
+  void shouldCollectEveryMatchingPattern() {
+    MethodPattern everything = MethodPattern.parse("com.example.petclinic.**");
+
+    List<MethodPattern> matching =
+        new ClassNameTrie(Arrays.asList(service, everything, repositories))
+            .match("com/example/petclinic/repository/VisitRepository");
+
+    assertEquals(2, matching.size());
+    assertTrue(matching.contains(everything));
+    assertTrue(matching.contains(repositories));
+  }
+
+  @Test
+  void shouldTryLeadingWildcardsOnEveryClass() {
+    MethodPattern anywhere = MethodPattern.parse("**Controller");
+    ClassNameTrie withWildcard = new ClassNameTrie(Arrays.asList(service, anywhere));
+
+    assertEquals(Arrays.asList(anywhere), withWildcard.match("org/acme/web/HomeController"));
+    assertTrue(withWildcard.match("org/acme/web/HomeService").isEmpty());
+  }
+}
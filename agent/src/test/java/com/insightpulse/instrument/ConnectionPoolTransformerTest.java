@@ -0,0 +1,151 @@
+package com.insightpulse.instrument;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.insightpulse.instrument.sample.SampleService;
+import com.insightpulse.metrics.Metrics;
+import com.insightpulse.pool.ConnectionPools;
+import com.insightpulse.pool.ConnectionState;
+import com.insightpulse.trace.MethodRegistry;
+import com.insightpulse.trace.Probe;
+import com.insightpulse.trace.SpanAggregator;
+import com.insightpulse.trace.SpanKind;
+import com.insightpulse.trace.SpanRing;
+import com.insightpulse.trace.TraceContext;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.springframework.transaction.interceptor.TransactionAspectSupport.InvocationCallback;
+
+class ConnectionPoolTransformerTest {
+
+  private SpanRing ring;
+  private ClassLoader loader;
+  private Object pool;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    ring = new SpanRing(64);
+    Probe.install(ring);
+    loader = new WeavingClassLoader(new ConnectionPoolTransformer(),
+        "com.zaxxer.hikari.pool.HikariPool", "com.zaxxer.hikari.pool.ProxyConnection",
+        "org.springframework.transaction.interceptor.TransactionAspectSupport");
+    pool = loader.loadClass("com.zaxxer.hikari.pool.HikariPool")
+        .getConstructor(String.class, int.class).newInstance("HikariPool-test", 2);
+  }
+
+  @AfterEach
+  void tearDown() {
+    Probe.install(null);
+  }
+
+  @Test
+  void shouldChargeHoldsToTransactionalMethod() throws Exception {
+    Method transactional = SampleService.class.getMethod("add", int.class, int.class);
+    Object support = loader.loadClass(
+        "org.springframework.transaction.interceptor.TransactionAspectSupport")
+        .getDeclaredConstructor().newInstance();
+    Method invoke = support.getClass().getDeclaredMethod("invokeWithinTransaction", Method.class,
+        Class.class, InvocationCallback.class);
+    invoke.setAccessible(true);
+    List<Object> connections = new ArrayList<>();
+    invoke.invoke(support, transactional, SampleService.class, (InvocationCallback) () -> {
+      Object connection = acquire();
+      connections.add(connection);
+      close(connection);
+      return null;
+    });
+
+    assertTrue(connections.get(0) instanceof ConnectionState);
+    assertEquals(-1, TraceContext.current().transactionMethodId());
+    List<long[]> spans = drain();
+    assertEquals(2, spans.size());
+    assertEquals(SpanKind.CONNECTION_WAIT, spans.get(0)[0]);
+    assertEquals(ConnectionPools.idOf(pool), spans.get(0)[1]);
+    assertEquals("HikariPool-test", ConnectionPools.name((int) spans.get(0)[1]));
+    assertEquals(1, SpanKind.connectionActive(spans.get(0)[2]));
+    assertEquals(1, SpanKind.connectionIdle(spans.get(0)[2]));
+    assertFalse(SpanKind.connectionFailed(spans.get(0)[2]));
+    assertEquals(SpanKind.CONNECTION_HOLD, spans.get(1)[0]);
+    assertEquals("SampleService.add", MethodRegistry.displayName((int) spans.get(1)[1]));
+  }
+
+  @Test
+  void shouldCountTimeoutsOfAnExhaustedPool() throws Exception {
+    Object first = acquire();
+    acquire();
+    InvocationTargetException thrown = assertThrows(InvocationTargetException.class,
+        this::acquire);
+    assertTrue(thrown.getCause() instanceof SQLTransientConnectionException);
+    close(first);
+    close(first);
+
+    List<long[]> spans = drain();
+    assertEquals(4, spans.size());
+    assertTrue(SpanKind.connectionFailed(spans.get(2)[2]));
+    assertEquals(1, SpanKind.connectionPending(spans.get(2)[2]));
+    assertEquals(SpanKind.CONNECTION_HOLD, spans.get(3)[0]);
+    assertEquals(-1, spans.get(3)[1]);
+    int id = ConnectionPools.idOf(pool);
+    assertEquals(1L, Metrics.poolTimeouts().get(id).total());
+    assertEquals(3L, Metrics.poolWait().get(id).snapshot().getTotalCount());
+    assertEquals(2L, Metrics.poolActive().get(id).snapshot().getMax());
+  }
+
+  @Test
+  void shouldNotReadGaugesWhileTheProbeIsOff() throws Exception {
+    Probe.install(null);
+    acquire();
+    acquire();
+    assertThrows(InvocationTargetException.class, this::acquire);
+
+    assertEquals(0, pool.getClass().getMethod("gaugeReads").invoke(pool));
+    Probe.install(ring);
+    assertThrows(InvocationTargetException.class, this::acquire);
+    assertEquals(3, pool.getClass().getMethod("gaugeReads").invoke(pool));
+  }
+
+  @Test
+  void shouldKeepMixinOnlyWhereRetransformedClassHasIt() throws Exception {
+    ConnectionPoolTransformer transformer = new ConnectionPoolTransformer();
+    String proxy = ConnectionPoolTransformer.PROXY_CONNECTION;
+    byte[] original = WeavingClassLoader.read(proxy);
+    Class<?> woven = loader.loadClass(proxy.replace('/', '.'));
+    Class<?> loadedBefore = Class.forName(proxy.replace('/', '.'));
+    String mixin = ConnectionState.class.getName().replace('.', '/');
+
+    assertTrue(Arrays.asList(new ClassReader(transformer.transform(loader, proxy, woven, null,
+        original)).getInterfaces()).contains(mixin));
+    assertFalse(Arrays.asList(new ClassReader(transformer.transform(
+        loadedBefore.getClassLoader(), proxy, loadedBefore, null, original)).getInterfaces())
+        .contains(mixin));
+  }
+
+  private Object acquire() throws Exception {
+    return pool.getClass().getMethod("getConnection", long.class).invoke(pool, 30_000L);
+  }
+
+  private static void close(Object connection) throws Exception {
+    connection.getClass().getMethod("close").invoke(connection);
+  }
+
+  private List<long[]> drain() {
+    List<long[]> spans = new ArrayList<>();
+    SpanAggregator aggregator = new SpanAggregator();
+    ring.drain(span -> {
+      spans.add(new long[]{span.kind(), span.id(), span.value()});
+      aggregator.onSpan(span);
+    }, 10);
+    return spans;
+  }
+}
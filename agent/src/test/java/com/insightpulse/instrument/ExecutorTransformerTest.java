@@ -0,0 +1,192 @@
+package com.insightpulse.instrument;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.insightpulse.trace.Endpoints;
+import com.insightpulse.trace.TraceContext;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.SimpleRemapper;
+
+/**
+ * Weaves the running JDK's own executor classes. They cannot be loaded again here, so the tests
+ * inspect the woven bytecode, or run a woven {@code ThreadPoolExecutor} relocated to this package.
+ */
+class ExecutorTransformerTest {
+
+  private final ExecutorTransformer transformer = new ExecutorTransformer();
+
+  @Test
+  void shouldWrapThreadPoolTasksAndUnwrapThemWhereverTheyShow() throws Exception {
+    List<String> calls = propagationCalls(ExecutorTransformer.THREAD_POOL_EXECUTOR);
+
+    assertEquals(1, count(calls, "execute wrapForThreadPool"));
+    assertEquals(1, count(calls, "runWorker unwrap beforeExecute"));
+    // one afterExecute call site on Java 8, two from Java 9 on
+    assertEquals(count(calls, "runWorker afterExecute"),
+        count(calls, "runWorker unwrap afterExecute"));
+    assertEquals(1, count(calls, "reject unwrap"));
+    assertEquals(1, count(calls, "getQueue unwrapping"));
+    assertEquals(1, count(calls, "shutdownNow unwrapAll"));
+    assertEquals(1, count(calls, "remove remove"));
+    // instanceof and cast, in the iterator loop and in its fallback
+    assertEquals(4, count(calls, "purge unwrapQueued"));
+  }
+
+  @Test
+  void shouldRemoveAndPurgeTasksQueuedFromTrace() throws Exception {
+    BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+    ExecutorService pool = relocatedThreadPool(queue);
+    CountDownLatch release = new CountDownLatch(1);
+    TraceContext context = TraceContext.current();
+    try {
+      pool.execute(() -> awaitQuietly(release));
+      context.enter(Endpoints.register("GET /test/executor/queued"), 1L);
+      Runnable removed = () -> { };
+      pool.execute(removed);
+      Future<?> cancelled = pool.submit(() -> { });
+      Runnable kept = () -> { };
+      pool.execute(kept);
+      context.exit(null, 2L);
+      cancelled.cancel(false);
+      assertEquals(3, queue.size());
+
+      assertTrue((Boolean) pool.getClass().getMethod("remove", Runnable.class)
+          .invoke(pool, removed));
+      pool.getClass().getMethod("purge").invoke(pool);
+
+      assertEquals(1, queue.size());
+      // still queued in its wrapper
+      assertFalse(queue.contains(kept));
+      assertEquals(kept, pool.shutdownNow().get(0));
+    } finally {
+      release.countDown();
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  void shouldWrapForkJoinSubmissions() throws Exception {
+    List<String> calls = propagationCalls(ExecutorTransformer.FORK_JOIN_POOL);
+
+    assertEquals(1, count(calls, "execute wrap"));
+    // submit(Runnable), submit(Runnable, T) and submit(Callable)
+    assertEquals(3, count(calls, "submit wrap"));
+  }
+
+  @Test
+  void shouldIgnoreOtherClassesAndLoaders() throws Exception {
+    byte[] bytes = WeavingClassLoader.read(ExecutorTransformer.THREAD_POOL_EXECUTOR);
+    assertNull(transformer.transform(getClass().getClassLoader(),
+        ExecutorTransformer.THREAD_POOL_EXECUTOR, null, null, bytes));
+    assertNull(transformer.transform(null, "java/util/concurrent/ScheduledThreadPoolExecutor",
+        null, null, bytes));
+  }
+
+  /**
+   * A woven copy of the JDK's {@code ThreadPoolExecutor} under another name; it is no subclass of
+   * the original, so its own methods are called reflectively.
+   */
+  private ExecutorService relocatedThreadPool(BlockingQueue<Runnable> queue) throws Exception {
+    String pool = ExecutorTransformer.THREAD_POOL_EXECUTOR;
+    String relocated = "com/insightpulse/instrument/RelocatedThreadPoolExecutor";
+    Map<String, String> names = new HashMap<>();
+    names.put(pool, relocated);
+    names.put(pool + "$Worker", relocated + "$Worker");
+    Map<String, byte[]> classes = new HashMap<>();
+    classes.put(relocated, relocate(transformer.transform(null, pool, null, null,
+        WeavingClassLoader.read(pool)), names));
+    classes.put(relocated + "$Worker", relocate(WeavingClassLoader.read(pool + "$Worker"),
+        names));
+    ClassLoader loader = new ClassLoader(getClass().getClassLoader()) {
+      @Override
+      protected Class<?> findClass(String name) throws ClassNotFoundException {
+        byte[] bytes = classes.get(name.replace('.', '/'));
+        if (bytes == null) {
+          throw new ClassNotFoundException(name);
+        }
+        return defineClass(name, bytes, 0, bytes.length);
+      }
+    };
+    return (ExecutorService) loader.loadClass(relocated.replace('/', '.'))
+        .getConstructor(int.class, int.class, long.class, TimeUnit.class, BlockingQueue.class)
+        .newInstance(1, 1, 0L, TimeUnit.SECONDS, queue);
+  }
+
+  private static byte[] relocate(byte[] bytes, Map<String, String> names) {
+    ClassWriter writer = new ClassWriter(0);
+    new ClassReader(bytes).accept(new ClassRemapper(writer, new SimpleRemapper(names)), 0);
+    return writer.toByteArray();
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * "method call" for every {@code ContextPropagation} call in the woven class and "method hook"
+   * for every executor hook call, where {@code unwrap hook} means the hook's task argument was
+   * just unwrapped.
+   */
+  private List<String> propagationCalls(String className) throws Exception {
+    byte[] woven = transformer.transform(null, className, null, null,
+        WeavingClassLoader.read(className));
+    assertNotNull(woven);
+    List<String> calls = new ArrayList<>();
+    new ClassReader(woven).accept(new ClassVisitor(Opcodes.ASM9) {
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String descriptor,
+          String signature, String[] exceptions) {
+        return new MethodVisitor(Opcodes.ASM9) {
+          private String previous = "";
+
+          @Override
+          public void visitMethodInsn(int opcode, String owner, String method, String desc,
+              boolean isInterface) {
+            if (owner.equals(ExecutorTransformer.PROPAGATION)) {
+              calls.add(name + " " + method);
+            } else if (method.equals("beforeExecute") || method.equals("afterExecute")) {
+              calls.add(name + " " + method);
+              if (previous.equals("unwrap")) {
+                calls.add(name + " unwrap " + method);
+              }
+            }
+            previous = method;
+          }
+        };
+      }
+    }, 0);
+    return calls;
+  }
+
+  private static int count(List<String> calls, String call) {
+    int n = 0;
+    for (String c : calls) {
+      n += c.equals(call) ? 1 : 0;
+    }
+    return n;
+  }
+}
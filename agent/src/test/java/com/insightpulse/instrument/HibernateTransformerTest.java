@@ -0,0 +1,179 @@
+package com.insightpulse.instrument;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.insightpulse.hibernate.EntityNames;
+import com.insightpulse.instrument.sample.SampleService;
+import com.insightpulse.jdbc.NPlusOneDetector;
+import com.insightpulse.metrics.Metrics;
+import com.insightpulse.trace.Endpoints;
+import com.insightpulse.trace.Probe;
+import com.insightpulse.trace.SpanAggregator;
+import com.insightpulse.trace.SpanKind;
+import com.insightpulse.trace.SpanRing;
+import com.insightpulse.trace.TraceContext;
+import java.util.ArrayList;
+import java.util.List;
+import org.hibernate.event.spi.AutoFlushEvent;
+import org.hibernate.event.spi.FlushEvent;
+import org.hibernate.event.spi.InitializeCollectionEvent;
+import org.hibernate.event.spi.PostLoadEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class HibernateTransformerTest {
+
+  private static final String ROLE = "com.example.petclinic.model.Owner.pets";
+
+  private SpanRing ring;
+  private ClassLoader loader;
+
+  @BeforeEach
+  void setUp() {
+    ring = new SpanRing(64);
+    Probe.install(ring);
+    loader = new WeavingClassLoader(new HibernateTransformer(),
+        "org.hibernate.event.internal.DefaultPostLoadEventListener",
+        "org.hibernate.event.internal.DefaultInitializeCollectionEventListener",
+        "org.hibernate.event.internal.AbstractFlushingEventListener",
+        "org.hibernate.event.internal.DefaultFlushEventListener",
+        "org.hibernate.event.internal.DefaultAutoFlushEventListener");
+  }
+
+  @AfterEach
+  void tearDown() {
+    Probe.install(null);
+  }
+
+  @Test
+  void shouldCountEntitiesPerTypeWithinRequest() throws Exception {
+    int endpoint = Endpoints.register("GET /test/hibernate/owners");
+    TraceContext context = TraceContext.current();
+    context.enter(endpoint, System.nanoTime());
+    try {
+      postLoad(new SampleService());
+      postLoad(new SampleService());
+      postLoad("owner");
+      invoke("DefaultInitializeCollectionEventListener", "onInitializeCollection",
+          new InitializeCollectionEvent(() -> ROLE));
+    } finally {
+      context.exit(ring, System.nanoTime());
+    }
+
+    List<long[]> spans = drain();
+    assertEquals(5, spans.size());
+    assertEquals(SpanKind.COLLECTION_LOAD, spans.get(0)[0]);
+    assertEquals(ROLE, EntityNames.name((int) spans.get(0)[1]));
+    assertEquals(SpanKind.ENTITY_LOAD, spans.get(1)[0]);
+    assertEquals(SampleService.class.getName(), EntityNames.name((int) spans.get(1)[1]));
+    assertEquals(2L, spans.get(1)[2]);
+    assertEquals(String.class.getName(), EntityNames.name((int) spans.get(2)[1]));
+    assertEquals(1L, spans.get(2)[2]);
+    assertEquals(SpanKind.SESSION, spans.get(3)[0]);
+    assertEquals(3L, SpanKind.sessionEntities(spans.get(3)[2]));
+    assertEquals(1, SpanKind.sessionCollections(spans.get(3)[2]));
+    assertEquals(SpanKind.REQUEST, spans.get(4)[0]);
+    assertEquals(3L, Metrics.requestEntities().get(endpoint).snapshot().getMax());
+    assertEquals(1L, Metrics.collectionLoads().get((int) spans.get(0)[1]).snapshot()
+        .getTotalCount());
+  }
+
+  @Test
+  void shouldTimeFlushesWithTheirDirtyCheck() throws Exception {
+    int endpoint = Endpoints.register("POST /test/hibernate/owners");
+    TraceContext context = TraceContext.current();
+    context.enter(endpoint, System.nanoTime());
+    try {
+      invoke("DefaultFlushEventListener", "onFlush", new FlushEvent());
+    } finally {
+      context.exit(ring, System.nanoTime());
+    }
+
+    List<long[]> spans = drain();
+    assertEquals(2, spans.size());
+    assertEquals(SpanKind.FLUSH, spans.get(0)[0]);
+    assertEquals(endpoint, spans.get(0)[1]);
+    long dirtyCheck = spans.get(0)[2];
+    assertTrue(dirtyCheck >= 1_000_000L);
+    assertTrue(spans.get(0)[3] >= dirtyCheck);
+    assertEquals(SpanKind.REQUEST, spans.get(1)[0]);
+    assertEquals(1L, Metrics.dirtyChecks().get(endpoint).snapshot().getTotalCount());
+  }
+
+  @Test
+  void shouldTimeAutoFlushes() throws Exception {
+    int endpoint = Endpoints.register("GET /test/hibernate/autoflush");
+    TraceContext context = TraceContext.current();
+    context.enter(endpoint, System.nanoTime());
+    try {
+      invoke("DefaultAutoFlushEventListener", "onAutoFlush", new AutoFlushEvent());
+    } finally {
+      context.exit(ring, System.nanoTime());
+    }
+
+    List<long[]> spans = drain();
+    assertEquals(2, spans.size());
+    assertEquals(SpanKind.FLUSH, spans.get(0)[0]);
+    assertEquals(endpoint, spans.get(0)[1]);
+    assertTrue(spans.get(0)[2] >= 1_000_000L);
+    assertEquals(1L, Metrics.flushes().get(endpoint).snapshot().getTotalCount());
+  }
+
+  @Test
+  void shouldCountUntracedEntitiesInBatches() throws Exception {
+    for (int i = 0; i < 1500; i++) {
+      postLoad(i);
+    }
+
+    assertEquals(0, drain().size());
+    long counted = Metrics.entityLoads().get(EntityNames.idOf(Integer.class)).total();
+    assertTrue(counted >= 1024L && counted <= 1500L);
+  }
+
+  @Test
+  void shouldPublishWhatAnAttachedWorkerLoaded() throws Exception {
+    int endpoint = Endpoints.register("GET /test/hibernate/async");
+    TraceContext context = TraceContext.current();
+    assertTrue(context.attach(4242L, endpoint, false));
+    try {
+      postLoad(new SampleService());
+      postLoad(new SampleService());
+      for (int i = 0; i < 10; i++) {
+        NPlusOneDetector.onStatement(context, 4242);
+      }
+    } finally {
+      context.detach();
+    }
+
+    List<long[]> spans = drain();
+    assertEquals(2, spans.size());
+    assertEquals(SpanKind.N_PLUS_ONE, spans.get(0)[0]);
+    assertEquals(4242L, spans.get(0)[1]);
+    assertEquals(10L, spans.get(0)[2]);
+    assertEquals(SpanKind.ENTITY_LOAD, spans.get(1)[0]);
+    assertEquals(2L, spans.get(1)[2]);
+    assertEquals(0, context.entityCounts().size());
+  }
+
+  private void postLoad(Object entity) throws Exception {
+    invoke("DefaultPostLoadEventListener", "onPostLoad", new PostLoadEvent(entity));
+  }
+
+  private void invoke(String listener, String method, Object event) throws Exception {
+    Object instance = loader.loadClass("org.hibernate.event.internal." + listener)
+        .getDeclaredConstructor().newInstance();
+    instance.getClass().getMethod(method, event.getClass()).invoke(instance, event);
+  }
+
+  private List<long[]> drain() {
+    List<long[]> spans = new ArrayList<>();
+    SpanAggregator aggregator = new SpanAggregator();
+    ring.drain(span -> {
+      spans.add(new long[]{span.kind(), span.id(), span.value(), span.durationNanos()});
+      aggregator.onSpan(span);
+    }, 10);
+    return spans;
+  }
+}
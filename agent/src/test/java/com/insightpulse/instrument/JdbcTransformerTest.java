@@ -0,0 +1,99 @@
+package com.insightpulse.instrument;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.insightpulse.jdbc.SqlFingerprints;
+import com.insightpulse.jdbc.StatementState;
+import com.insightpulse.trace.Probe;
+import com.insightpulse.trace.SpanKind;
+import com.insightpulse.trace.SpanRing;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+
+class JdbcTransformerTest {
+
+  private SpanRing ring;
+  private Object connection;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    ring = new SpanRing(64);
+    Probe.install(ring);
+    ClassLoader loader = new WeavingClassLoader(new JdbcTransformer(),
+        "org.postgresql.jdbc.PgConnection", "org.postgresql.jdbc.PgStatement",
+        "org.postgresql.jdbc.PgPreparedStatement");
+    connection = loader.loadClass("org.postgresql.jdbc.PgConnection").getDeclaredConstructor()
+        .newInstance();
+  }
+
+  @AfterEach
+  void tearDown() {
+    Probe.install(null);
+  }
+
+  @Test
+  void shouldFingerprintPreparedStatements() throws Exception {
+    Object statement = prepare("select * from owners where last_name like 'Dav%' and id in (1, 2, 3)");
+
+    assertTrue(statement instanceof StatementState);
+    int fingerprint = ((StatementState) statement).insightpulse$fingerprint();
+    assertEquals("select * from owners where last_name like ? and id in (?)",
+        SqlFingerprints.fingerprint(fingerprint));
+    assertEquals(fingerprint, ((StatementState) prepare(
+        "select * from owners where last_name like 'Fr%' and id in (7)")).insightpulse$fingerprint());
+  }
+
+  @Test
+  void shouldPublishExecutionSpans() throws Exception {
+    Object statement = prepare("update visits set description = 'x' where id = 1");
+    int fingerprint = ((StatementState) statement).insightpulse$fingerprint();
+
+    statement.getClass().getMethod("executeUpdate").invoke(statement);
+    Object broken = prepare("select broken");
+    InvocationTargetException thrown = assertThrows(InvocationTargetException.class,
+        () -> broken.getClass().getMethod("execute").invoke(broken));
+    assertEquals("syntax error", thrown.getCause().getMessage());
+
+    List<int[]> spans = new ArrayList<>();
+    ring.drain(span -> spans.add(new int[]{span.kind(), span.id()}), 10);
+    assertEquals(2, spans.size());
+    assertEquals(SpanKind.SQL, spans.get(0)[0]);
+    assertEquals(fingerprint, spans.get(0)[1]);
+    assertEquals(((StatementState) broken).insightpulse$fingerprint(), spans.get(1)[1]);
+  }
+
+  @Test
+  void shouldKeepMixinOnlyWhereRetransformedClassHasIt() throws Exception {
+    JdbcTransformer transformer = new JdbcTransformer();
+    byte[] original = WeavingClassLoader.read(JdbcTransformer.STATEMENT);
+    Class<?> woven = prepare("select 1").getClass().getSuperclass();
+    Class<?> loadedBefore = Class.forName(JdbcTransformer.STATEMENT.replace('/', '.'));
+    String mixin = StatementState.class.getName();
+
+    assertTrue(interfaces(transformer.transform(woven.getClassLoader(),
+        JdbcTransformer.STATEMENT, woven, null, original)).contains(mixin));
+    assertFalse(interfaces(transformer.transform(loadedBefore.getClassLoader(),
+        JdbcTransformer.STATEMENT, loadedBefore, null, original)).contains(mixin));
+  }
+
+  private static List<String> interfaces(byte[] bytes) {
+    List<String> names = new ArrayList<>();
+    for (String name : new ClassReader(bytes).getInterfaces()) {
+      names.add(name.replace('/', '.'));
+    }
+    return names;
+  }
+
+  private Object prepare(String sql) throws Exception {
+    return connection.getClass().getMethod("prepareStatement", String.class)
+        .invoke(connection, sql);
+  }
+}
@@ -0,0 +1,45 @@
+package com.insightpulse.instrument;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class MethodPatternTest {
+
+  @Test
+  void shouldMatchExactClass() {
+    MethodPattern pattern = MethodPattern.parse("com.example.petclinic.service.ClinicService");
+
+    assertTrue(pattern.matchesClass("com/example/petclinic/service/ClinicService"));
+    assertFalse(pattern.matchesClass("com/example/petclinic/service/ClinicServiceImpl"));
+    assertTrue(pattern.matchesMethod("findOwnerById"));
+  }
+
+  @Test
+  void shouldMatchWildcardWithinPackage() {
+    MethodPattern pattern = MethodPattern.parse("com.example.petclinic.rest.controller.*RestController");
+
+    assertTrue(pattern.matchesClass("com/example/petclinic/rest/controller/OwnerRestController"));
+    assertFalse(pattern.matchesClass("com/example/petclinic/rest/controller/sub/OwnerRestController"));
+    assertFalse(pattern.matchesClass(
+        "com/example/petclinic/rest/controller/OwnerRestController$$EnhancerBySpringCGLIB$$1"));
+    assertEquals("com/example/petclinic/rest/controller/", pattern.literalPrefix());
+  }
+
+  @Test
+  void shouldMatchAcrossPackagesWithDoubleStar() {
+    MethodPattern pattern = MethodPattern.parse("com.example.**Repository#find*");
+
+    assertTrue(pattern.matchesClass("com/example/petclinic/repository/VisitRepository"));
+    assertTrue(pattern.matchesMethod("findByPetId"));
+    assertFalse(pattern.matchesMethod("save"));
+  }
+
+  @Test
+  void shouldRejectEmptyParts() {
+    assertThrows(IllegalArgumentException.class, () -> MethodPattern.parse("com.example.Foo#"));
+  }
+}
@@ -0,0 +1,209 @@
+package com.insightpulse.instrument;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.insightpulse.metrics.Metrics;
+import com.insightpulse.trace.Endpoints;
+import com.insightpulse.trace.MethodRegistry;
+import com.insightpulse.trace.Probe;
+import com.insightpulse.trace.SpanAggregator;
+import com.insightpulse.trace.SpanKind;
+import com.insightpulse.trace.SpanRing;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.DispatcherServlet;
+
+class SpringMvcTransformerTest {
+
+  private static final String PATTERN = "/api/owners/{ownerId}/pets/{petId}/visits";
+
+  private SpanRing ring;
+  private ClassLoader loader;
+  private Object servlet;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    ring = new SpanRing(64);
+    Probe.install(ring);
+    loader = new WeavingClassLoader(new SpringMvcTransformer(),
+        "org.springframework.web.servlet.DispatcherServlet",
+        "org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter",
+        "org.apache.catalina.connector.Response", "org.apache.coyote.Response");
+    servlet = loader.loadClass("org.springframework.web.servlet.DispatcherServlet")
+        .getDeclaredConstructor().newInstance();
+  }
+
+  @AfterEach
+  void tearDown() {
+    Probe.install(null);
+  }
+
+  @Test
+  void shouldNameRequestAfterRouteTemplate() throws Exception {
+    HttpServletResponse response = dispatch("POST", PATTERN, "addVisitToOwner");
+    long[] request = requestSpan();
+
+    assertEquals("POST " + PATTERN, Endpoints.name((int) request[0]));
+    assertTrue(MethodRegistry.displayName((int) request[1])
+        .endsWith("OwnerRestController.addVisitToOwner"));
+    assertEquals(response.getStatus(), SpanKind.requestStatus(request[3]));
+    long firstByte = SpanKind.requestFirstByteNanos(request[3]);
+    assertTrue(firstByte > 0 && firstByte <= request[2], "ttfb " + firstByte);
+  }
+
+  @Test
+  void shouldShareEndpointAcrossRequestsOfOneRoute() throws Exception {
+    dispatch("GET", PATTERN, "addVisitToOwner");
+    // a different instance of the pattern, as after a reload of the mappings
+    dispatch("GET", new String(PATTERN), "addVisitToOwner");
+
+    long[] first = requestSpan();
+    long[] second = requestSpan();
+    assertEquals(first[0], second[0]);
+  }
+
+  @Test
+  void shouldRecordFailedAndUnmatchedRequests() throws Exception {
+    InvocationTargetException thrown = assertThrows(InvocationTargetException.class,
+        () -> dispatch("DELETE", PATTERN, "failing"));
+    assertEquals("boom", thrown.getCause().getMessage());
+    long[] failed = requestSpan();
+    assertEquals("DELETE " + PATTERN, Endpoints.name((int) failed[0]));
+    assertEquals(500, SpanKind.requestStatus(failed[3]));
+
+    dispatch("GET", null, null);
+    long[] unmatched = requestSpan();
+    assertEquals("GET <unmatched>", Endpoints.name((int) unmatched[0]));
+    assertEquals(-1, unmatched[1]);
+    assertEquals(404, SpanKind.requestStatus(unmatched[3]));
+  }
+
+  @Test
+  void shouldShareEndpointAcrossNonStandardMethods() throws Exception {
+    dispatch("PROPFIND", null, null);
+    dispatch("BREW", null, null);
+
+    long[] first = requestSpan();
+    long[] second = requestSpan();
+    assertEquals("OTHER <unmatched>", Endpoints.name((int) first[0]));
+    assertEquals(first[0], second[0]);
+  }
+
+  @Test
+  void shouldFlagExceptionsAnsweredByAdvice() throws Exception {
+    HttpServletResponse response = dispatch("GET", PATTERN, "failing", true);
+    assertEquals(400, response.getStatus());
+
+    long[] request = requestSpan();
+    assertEquals(400, SpanKind.requestStatus(request[3]));
+    assertEquals(SpanKind.REQUEST_ERROR,
+        SpanKind.requestFlags(request[3]) & SpanKind.REQUEST_ERROR);
+
+    dispatch("GET", PATTERN, "addVisitToOwner");
+    assertEquals(0, SpanKind.requestFlags(requestSpan()[3]) & SpanKind.REQUEST_ERROR);
+  }
+
+  @Test
+  void shouldAggregateEndpointMetrics() throws Exception {
+    assertThrows(InvocationTargetException.class, () -> dispatch("PUT", PATTERN, "failing"));
+    dispatch("PUT", PATTERN, "addVisitToOwner");
+    ring.drain(new SpanAggregator(), 64);
+
+    int endpoint = Endpoints.register("PUT " + PATTERN);
+    assertEquals(2, Metrics.endpoints().get(endpoint).snapshot().getTotalCount());
+    assertEquals(2, Metrics.firstByte().get(endpoint).snapshot().getTotalCount());
+    assertEquals(1, Metrics.endpointErrors().get(endpoint).intervalTotal());
+    assertTrue(MethodRegistry.displayName(Endpoints.handler(endpoint))
+        .endsWith("OwnerRestController.addVisitToOwner"));
+  }
+
+  private HttpServletResponse dispatch(String method, String pattern, String handler)
+      throws Exception {
+    return dispatch(method, pattern, handler, false);
+  }
+
+  private HttpServletResponse dispatch(String method, String pattern, String handler,
+      boolean advice) throws Exception {
+    FakeRequest request = new FakeRequest(method);
+    if (advice) {
+      request.setAttribute(DispatcherServlet.ADVICE, Boolean.TRUE);
+    }
+    if (pattern != null) {
+      request.setAttribute(SpringMvcTransformer.BEST_MATCHING_PATTERN, pattern);
+    }
+    if (handler != null) {
+      request.setAttribute(DispatcherServlet.HANDLER, new HandlerMethod(new OwnerRestController(),
+          OwnerRestController.class.getMethod(handler)));
+    }
+    HttpServletResponse response = (HttpServletResponse) loader
+        .loadClass("org.apache.catalina.connector.Response").getDeclaredConstructor().newInstance();
+    Method doDispatch = servlet.getClass().getDeclaredMethod("doDispatch",
+        HttpServletRequest.class, HttpServletResponse.class);
+    doDispatch.setAccessible(true);
+    doDispatch.invoke(servlet, request, response);
+    return response;
+  }
+
+  /**
+   * Next request span as {endpoint, handler, duration, value}.
+   */
+  private long[] requestSpan() {
+    List<long[]> spans = new ArrayList<>();
+    while (spans.isEmpty() && ring.drain(span -> {
+      if (span.kind() == SpanKind.REQUEST) {
+        spans.add(new long[]{span.id(), span.ref(), span.durationNanos(), span.value()});
+      }
+    }, 1) > 0) {
+      // skip other kinds
+    }
+    assertEquals(1, spans.size());
+    return spans.get(0);
+  }
+
+  public static class OwnerRestController {
+
+    public void addVisitToOwner() {
+    }
+
+    public void failing() {
+      throw new IllegalStateException("boom");
+    }
+  }
+
+  private static final class FakeRequest implements HttpServletRequest {
+
+    private final String method;
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    FakeRequest(String method) {
+      this.method = method;
+    }
+
+    @Override
+    public String getMethod() {
+      return method;
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+      return attributes.get(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+      attributes.put(name, value);
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package com.insightpulse.instrument;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.insightpulse.instrument.sample.SampleRepository;
+import com.insightpulse.instrument.sample.SampleRepositoryImpl;
+import com.insightpulse.instrument.sample.SampleService;
+import com.insightpulse.metrics.Metrics;
+import com.insightpulse.metrics.Timer;
+import com.insightpulse.trace.Endpoints;
+import com.insightpulse.trace.MethodRegistry;
+import com.insightpulse.trace.Probe;
+import com.insightpulse.trace.SpanAggregator;
+import com.insightpulse.trace.SpanRing;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class TimingTransformerTest {
+
+  private static final String SAMPLE = "com/insightpulse/instrument/sample/SampleService";
+
+  @Test
+  void shouldTimeReturningAndThrowingMethods() throws Exception {
+    SpanRing ring = new SpanRing(64);
+    Probe.install(ring);
+    Class<?> woven = weave("com.insightpulse.instrument.sample.SampleService#*");
+    Object service = woven.getDeclaredConstructor().newInstance();
+
+    assertEquals(5, invoke(woven, service, "add", new Class<?>[]{int.class, int.class}, 2, 3));
+    assertEquals(45L, invoke(woven, service, "loop", new Class<?>[]{long.class, double.class}, 10L, 1.0));
+    assertEquals(-1, invoke(woven, service, "recover", new Class<?>[]{String.class}, "x"));
+    InvocationTargetException thrown = assertThrows(InvocationTargetException.class,
+        () -> invoke(woven, service, "fail", new Class<?>[]{String.class}, "boom"));
+    assertEquals("boom", thrown.getCause().getMessage());
+    Probe.install(null);
+    // each call is a top-level trace: one METHOD and one REQUEST span apiece
+    assertEquals(8, ring.drain(new SpanAggregator(), Integer.MAX_VALUE));
+
+    assertEquals(1, timer("add", "(II)I").snapshot().getTotalCount());
+    assertEquals(1, timer("loop", "(JD)J").snapshot().getTotalCount());
+    assertEquals(1, timer("recover", "(Ljava/lang/String;)I").snapshot().getTotalCount());
+    assertEquals(1, timer("fail", "(Ljava/lang/String;)Ljava/lang/String;").snapshot().getTotalCount());
+    int addEndpoint = Endpoints.forMethod(MethodRegistry.register(SAMPLE, "add", "(II)I"));
+    assertEquals(1, Metrics.endpoints().get(addEndpoint).snapshot().getTotalCount());
+  }
+
+  @Test
+  void shouldIgnoreNonMatchingClasses() {
+    TimingTransformer transformer = new TimingTransformer(
+        Collections.singletonList(MethodPattern.parse("com.example.*RestController")));
+
+    assertNull(transformer.transform(null, SAMPLE, null, null, new byte[0]));
+  }
+
+  @Test
+  void shouldRetransformClassesOfAddedAndRemovedPatterns() throws Exception {
+    TimingTransformer transformer = new TimingTransformer(
+        Collections.singletonList(MethodPattern.parse("com.example.*RestController")));
+    List<Class<?>> retransformed = new ArrayList<>();
+    Instrumentation instrumentation =
+        instrumentation(retransformed, String.class, SampleService.class);
+    List<MethodPattern> sample =
+        Collections.singletonList(MethodPattern.parse(SampleService.class.getName() + "#add"));
+    byte[] original = readClass(SAMPLE);
+
+    assertEquals(1, transformer.update(instrumentation, sample, Collections.emptyList()));
+    assertEquals(Collections.singletonList(SampleService.class), retransformed);
+    assertEquals(2, transformer.patterns().size());
+    assertNotNull(transformer.transform(null, SAMPLE, SampleService.class, null, original));
+    assertEquals(0, transformer.update(instrumentation, sample, Collections.emptyList()));
+
+    assertEquals(1, transformer.update(instrumentation, Collections.emptyList(), sample));
+    assertEquals(1, transformer.patterns().size());
+    assertNull(transformer.transform(null, SAMPLE, SampleService.class, null, original));
+  }
+
+  @Test
+  void shouldTimeInterfaceMethodsOfImplementationsOnRetransformation() throws Exception {
+    SpanRing ring = new SpanRing(64);
+    Probe.install(ring);
+    TimingTransformer transformer = new TimingTransformer(
+        Collections.singletonList(MethodPattern.parse(SampleRepository.class.getName())));
+    String impl = SampleRepositoryImpl.class.getName().replace('.', '/');
+    byte[] original = readClass(impl);
+
+    assertNull(transformer.transform(null, impl, null, null, original));
+    assertTrue(transformer.isTarget(SampleRepositoryImpl.class));
+    assertFalse(transformer.isTarget(SampleRepository.class));
+    byte[] woven = transformer.transform(null, impl, SampleRepositoryImpl.class, null, original);
+    assertNotNull(woven);
+    Class<?> type = new ByteArrayClassLoader().define(SampleRepositoryImpl.class.getName(), woven);
+    Object repository = type.getDeclaredConstructor().newInstance();
+    assertEquals(6, invoke(type, repository, "findByKey", new Class<?>[]{int.class}, 3));
+    assertEquals(3, invoke(type, repository, "helper", new Class<?>[]{int.class}, 3));
+    Probe.install(null);
+    ring.drain(new SpanAggregator(), Integer.MAX_VALUE);
+
+    String registered = SampleRepository.class.getName().replace('.', '/');
+    assertEquals(1, Metrics.methods().get(MethodRegistry.register(registered, "findByKey", "(I)I"))
+        .snapshot().getTotalCount());
+    assertNull(Metrics.methods().get(MethodRegistry.register(impl, "helper", "(I)I")));
+  }
+
+  private static Instrumentation instrumentation(List<Class<?>> retransformed,
+      Class<?>... loaded) {
+    return (Instrumentation) Proxy.newProxyInstance(Instrumentation.class.getClassLoader(),
+        new Class<?>[]{Instrumentation.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getAllLoadedClasses":
+              return loaded;
+            case "isModifiableClass":
+              return true;
+            case "retransformClasses":
+              retransformed.addAll(Arrays.asList((Class<?>[]) args[0]));
+              return null;
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  private static Timer timer(String method, String descriptor) {
+    Timer timer = Metrics.methods().get(MethodRegistry.register(SAMPLE, method, descriptor));
+    assertNotNull(timer, method);
+    return timer;
+  }
+
+  private static Object invoke(Class<?> type, Object target, String name, Class<?>[] types,
+      Object... args) throws Exception {
+    Method method = type.getMethod(name, types);
+    return method.invoke(target, args);
+  }
+
+  static Class<?> weave(String pattern) throws IOException {
+    TimingTransformer transformer = new TimingTransformer(
+        Collections.singletonList(MethodPattern.parse(pattern)));
+    byte[] original = readClass(SAMPLE);
+    byte[] woven = transformer.transform(null, SAMPLE, null, null, original);
+    assertNotNull(woven);
+    return new ByteArrayClassLoader().define(SAMPLE.replace('/', '.'), woven);
+  }
+
+  static byte[] readClass(String internalName) throws IOException {
+    try (InputStream in = TimingTransformerTest.class.getClassLoader()
+        .getResourceAsStream(internalName + ".class")) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int n;
+      while ((n = in.read(buffer)) > 0) {
+        out.write(buffer, 0, n);
+      }
+      return out.toByteArray();
+    }
+  }
+
+  static final class ByteArrayClassLoader extends ClassLoader {
+
+    ByteArrayClassLoader() {
+      super(TimingTransformerTest.class.getClassLoader());
+    }
+
+    Class<?> define(String name, byte[] bytes) {
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package com.insightpulse.instrument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.ClassFileTransformer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Loads the given test classes child-first through a transformer, the way the JVM would hand
+ * them to the agent.
+ */
+class WeavingClassLoader extends ClassLoader {
+
+  private final ClassFileTransformer transformer;
+  private final Set<String> woven;
+
+  WeavingClassLoader(ClassFileTransformer transformer, String... classNames) {
+    super(WeavingClassLoader.class.getClassLoader());
+    this.transformer = transformer;
+    this.woven = new HashSet<>(Arrays.asList(classNames));
+  }
+
+  @Override
+  protected synchronized Class<?> loadClass(String name, boolean resolve)
+      throws ClassNotFoundException {
+    if (!woven.contains(name)) {
+      return super.loadClass(name, resolve);
+    }
+    Class<?> loaded = findLoadedClass(name);
+    if (loaded != null) {
+      return loaded;
+    }
+    try {
+      String internalName = name.replace('.', '/');
+      byte[] original = read(internalName);
+      byte[] transformed = transformer.transform(this, internalName, null, null, original);
+      byte[] bytes = transformed == null ? original : transformed;
+      return defineClass(name, bytes, 0, bytes.length);
+    } catch (Exception e) {
+      throw new ClassNotFoundException(name, e);
+    }
+  }
+
+  static byte[] read(String internalName) throws IOException {
+    try (InputStream in = WeavingClassLoader.class.getClassLoader()
+        .getResourceAsStream(internalName + ".class")) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int n;
+      while ((n = in.read(buffer)) > 0) {
+        out.write(buffer, 0, n);
+      }
+      return out.toByteArray();
+    }
+  }
+}
@@ -0,0 +1,9 @@
+package com.insightpulse.instrument.sample;
+
+/**
+ * Interface pattern target for {@code TimingTransformerTest}, like a Spring Data repository.
+ */
+public interface SampleRepository {
+
+  int findByKey(int key);
+}
@@ -0,0 +1,16 @@
+package com.insightpulse.instrument.sample;
+
+/**
+ * Implements {@link SampleRepository} the way a repository proxy would.
+ */
+public class SampleRepositoryImpl implements SampleRepository {
+
+  @Override
+  public int findByKey(int key) {
+    return key * 2;
+  }
+
+  public int helper(int key) {
+    return key;
+  }
+}
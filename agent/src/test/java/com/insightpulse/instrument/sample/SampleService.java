@@ -0,0 +1,31 @@
+package com.insightpulse.instrument.sample;
+
+/**
+ * Weaving target for {@code TimingTransformerTest}.
+ */
+public class SampleService {
+
+  public int add(int a, int b) {
+    return a + b;
+  }
+
+  public long loop(long n, double weight) {
+    long sum = 0;
+    for (long i = 0; i < n; i++) {
+      sum += (long) (i * weight);
+    }
+    return sum;
+  }
+
+  public String fail(String message) {
+    throw new IllegalStateException(message);
+  }
+
+  public int recover(String value) {
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
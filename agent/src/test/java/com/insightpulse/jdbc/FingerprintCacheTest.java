@@ -0,0 +1,52 @@
+package com.insightpulse.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class FingerprintCacheTest {
+
+  private final AtomicInteger loads = new AtomicInteger();
+  private final FingerprintCache cache = new FingerprintCache(16, sql -> {
+    loads.incrementAndGet();
+    return sql.length();
+  });
+
+  @Test
+  void shouldHitOnSameInstance() {
+    String sql = "select distinct owner from Owner owner left join fetch owner.pets where owner.lastName like :lastName";
+
+    assertEquals(sql.length(), cache.idOf(sql));
+    assertEquals(sql.length(), cache.idOf(sql));
+    assertEquals(1, loads.get());
+    assertEquals(0, cache.equalsHits());
+  }
+
+  @Test
+  void shouldFallBackToEqualsForEqualText() {
+    String sql = "select * from vets";
+    cache.idOf(sql);
+
+    String copy = new String(sql.toCharArray());
+    assertEquals(sql.length(), cache.idOf(copy));
+    assertEquals(sql.length(), cache.idOf(copy));
+    assertEquals(1, loads.get());
+    assertEquals(1, cache.equalsHits());
+  }
+
+  @Test
+  void shouldStayBoundedAndReloadEvictedEntries() {
+    for (int i = 0; i < 1000; i++) {
+      cache.idOf("select " + i);
+    }
+    assertEquals(1000, loads.get());
+
+    // two levels of 16 entries cannot hold 1000 statements: nearly all must load again
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(("select " + i).length(), cache.idOf("select " + i));
+    }
+    assertTrue(loads.get() > 1900, "loads=" + loads.get());
+  }
+}
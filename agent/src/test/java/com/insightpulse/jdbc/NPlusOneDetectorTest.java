@@ -0,0 +1,66 @@
+package com.insightpulse.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.insightpulse.trace.Endpoints;
+import com.insightpulse.trace.SpanKind;
+import com.insightpulse.trace.SpanRing;
+import com.insightpulse.trace.TraceContext;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class NPlusOneDetectorTest {
+
+  @Test
+  void shouldReportFingerprintsAboveThresholdOncePerTrace() {
+    int endpoint = Endpoints.register("OwnerRestController.listOwners");
+    int pets = SqlFingerprints.register("select * from pets where owner_id = ?");
+    int owners = SqlFingerprints.register("select * from owners");
+    SpanRing ring = new SpanRing(64);
+    TraceContext context = TraceContext.current();
+
+    context.enter(endpoint, 0L);
+    NPlusOneDetector.onStatement(context, owners);
+    for (int i = 0; i < 8; i++) {
+      NPlusOneDetector.onStatement(context, pets);
+    }
+    context.exit(ring, 1_000L);
+
+    List<long[]> findings = new ArrayList<>();
+    ring.drain(span -> {
+      if (span.kind() == SpanKind.N_PLUS_ONE) {
+        findings.add(new long[]{span.id(), span.ref(), span.value()});
+      }
+    }, 64);
+    assertEquals(1, findings.size());
+    assertEquals(pets, findings.get(0)[0]);
+    assertEquals(endpoint, findings.get(0)[1]);
+    assertEquals(8, findings.get(0)[2]);
+    assertEquals(0, context.statementCounts().size());
+  }
+
+  @Test
+  void shouldIgnoreStatementsOutsideTraces() {
+    TraceContext context = TraceContext.current();
+    NPlusOneDetector.onStatement(context, 42);
+    assertEquals(0, context.statementCounts().size());
+  }
+
+  @Test
+  void shouldAttributeToFirstApplicationFrame() {
+    StackTraceElement[] stack = {
+        new StackTraceElement("com.insightpulse.jdbc.JdbcProbe", "executeEnd", "JdbcProbe.java", 40),
+        new StackTraceElement("org.postgresql.jdbc.PgPreparedStatement", "executeQuery", null, -1),
+        new StackTraceElement("org.hibernate.loader.Loader", "doQuery", "Loader.java", 9),
+        new StackTraceElement("com.example.petclinic.model.Owner$HibernateProxy$$x", "getPets",
+            null, -1),
+        new StackTraceElement("com.example.petclinic.mapper.OwnerMapperImpl", "toOwnerDto",
+            "OwnerMapperImpl.java", 57),
+        new StackTraceElement("com.example.petclinic.rest.controller.OwnerRestController",
+            "listOwners", "OwnerRestController.java", 70)};
+
+    assertEquals("com.example.petclinic.mapper.OwnerMapperImpl.toOwnerDto(OwnerMapperImpl.java:57)",
+        NPlusOneDetector.callSite(stack));
+  }
+}
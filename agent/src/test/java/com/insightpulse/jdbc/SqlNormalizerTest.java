@@ -0,0 +1,47 @@
+package com.insightpulse.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class SqlNormalizerTest {
+
+  @Test
+  void shouldReplaceLiteralsAndParameters() {
+    assertEquals("select * from owners where id = ? and last_name = ? and city = ?",
+        SqlNormalizer.normalize("SELECT * FROM owners WHERE id = 42 AND last_name = 'O''Brien' AND city = ?"));
+    assertEquals("select ? + ? from t where x = ?",
+        SqlNormalizer.normalize("select 1.5e3 + $1 from t where x = $$a'b$$"));
+    assertEquals("select ? from t", SqlNormalizer.normalize("select E'it\\'s' from t"));
+  }
+
+  @Test
+  void shouldKeepIdentifiersWithDigits() {
+    assertEquals("select owner0_.id as id1_0_ from owners owner0_",
+        SqlNormalizer.normalize("select owner0_.id as id1_0_ from owners owner0_"));
+    assertEquals("select \"MixedCase\" from t", SqlNormalizer.normalize("select \"MixedCase\" from t"));
+  }
+
+  @Test
+  void shouldStripCommentsAndCollapseWhitespace() {
+    assertEquals("select o.id from owners o where o.id = ?",
+        SqlNormalizer.normalize("/* load com.example.petclinic.model.Owner */ select o.id\n"
+            + "    from owners o -- trailing\n   where o.id = ?"));
+  }
+
+  @Test
+  void shouldCollapseInLists() {
+    assertEquals("select * from pets where owner_id in (?)",
+        SqlNormalizer.normalize("select * from pets where owner_id in (?, ?, ?, ?)"));
+    assertEquals("select * from pets where owner_id in (?)",
+        SqlNormalizer.normalize("select * from pets where owner_id IN (1,2)"));
+    assertEquals("select * from pets where owner_id in (select id from owners)",
+        SqlNormalizer.normalize("select * from pets where owner_id in (select id from owners)"));
+  }
+
+  @Test
+  void shouldCollapseRepeatedValuesRows() {
+    assertEquals("insert into visits (pet_id, visit_date) values (?, ?)",
+        SqlNormalizer.normalize("insert into visits (pet_id, visit_date) values (7, '2013-01-01'), (8, '2013-01-02')"));
+  }
+}
@@ -0,0 +1,68 @@
+package com.insightpulse.jfr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import com.insightpulse.metrics.Metrics;
+import com.insightpulse.trace.SpanAggregator;
+import com.insightpulse.trace.SpanKind;
+import com.insightpulse.trace.SpanRing;
+import com.insightpulse.trace.TraceContext;
+import org.junit.jupiter.api.Test;
+
+class JfrEventsTest {
+
+  @Test
+  void shouldRegisterEventNamesOnce() {
+    int id = JfrEvents.register("monitor enter", "java.util.HashMap");
+
+    assertEquals(id, JfrEvents.register("monitor enter", "java.util.HashMap"));
+    assertNotEquals(id, JfrEvents.register("monitor enter", null));
+    assertEquals("monitor enter java.util.HashMap", JfrEvents.name(id));
+    assertEquals("monitor enter java.util.HashMap", Metrics.jfrEvents().get(id).getName());
+  }
+
+  @Test
+  void shouldFoldSubjectsBeyondCapPerCategory() {
+    for (int i = 0; i < JfrEvents.MAX_SUBJECTS; i++) {
+      JfrEvents.register("socket write", "host" + i + ":443");
+    }
+    int folded = JfrEvents.register("socket write", "late:443");
+
+    assertEquals("socket write (other)", JfrEvents.name(folded));
+    assertEquals(folded, JfrEvents.register("socket write", "later:443"));
+    assertEquals("socket connect late:443",
+        JfrEvents.name(JfrEvents.register("socket connect", "late:443")));
+  }
+
+  @Test
+  void shouldRecordDurationsAndSampledBytes() {
+    int wait = JfrEvents.register("monitor enter", "java.lang.Object");
+    int allocation = JfrEvents.register("allocation", "int[]");
+    SpanRing ring = new SpanRing(16);
+    ring.publish(SpanKind.JFR, wait, -1, 0L, 0L, 25_000_000L, 0L);
+    ring.publish(SpanKind.JFR, allocation, -1, 0L, 0L, 0L, 512 * 1024);
+    ring.drain(new SpanAggregator(), Integer.MAX_VALUE);
+
+    long max = Metrics.jfrEvents().get(wait).snapshot().getMax();
+    assertEquals(25_000_000L, max, 25_000_000L / 50);
+    assertEquals(0L, Metrics.jfrEvents().get(allocation).snapshot().getTotalCount());
+    assertEquals(512 * 1024, Metrics.jfrBytes().get(allocation).total());
+  }
+
+  @Test
+  void shouldOnlyResolveTracesActiveSinceTheEvent() {
+    TraceContext context = TraceContext.current();
+    assertEquals(0L, context.activeTraceId(System.nanoTime()));
+
+    long start = System.nanoTime();
+    context.enter(0, start);
+    try {
+      assertEquals(context.traceId(), context.activeTraceId(start + 1));
+      assertEquals(0L, context.activeTraceId(start - 1));
+    } finally {
+      context.exit(null, System.nanoTime());
+    }
+    assertEquals(0L, context.activeTraceId(start + 1));
+  }
+}
@@ -0,0 +1,126 @@
+package com.insightpulse.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class HistogramTest {
+
+  private final HistogramLayout layout = new HistogramLayout(2, TimeUnit.SECONDS.toNanos(60));
+
+  @Test
+  void shouldMapValuesToContiguousBuckets() {
+    int previous = -1;
+    for (long value = 0; value < 2_000_000; value++) {
+      int index = layout.indexOf(value);
+      assertTrue(index == previous || index == previous + 1, "gap at " + value);
+      assertTrue(layout.lowestEquivalentValue(index) <= value, "lower bound at " + value);
+      assertTrue(layout.highestEquivalentValue(index) >= value, "upper bound at " + value);
+      previous = index;
+    }
+  }
+
+  @Test
+  void shouldKeepRelativeErrorWithinPrecision() {
+    Random random = new Random(42);
+    for (int i = 0; i < 100_000; i++) {
+      long value = 1 + (long) (random.nextDouble() * TimeUnit.SECONDS.toNanos(30));
+      long highest = layout.highestEquivalentValue(layout.indexOf(value));
+      assertTrue((highest - value) / (double) value < 0.01, "error too large for " + value);
+    }
+  }
+
+  @Test
+  void shouldReportPercentiles() {
+    Histogram histogram = new Histogram(layout);
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+    }
+
+    assertEquals(1000, histogram.getTotalCount());
+    assertWithinPercent(TimeUnit.MICROSECONDS.toNanos(500), histogram.valueAtPercentile(50));
+    assertWithinPercent(TimeUnit.MICROSECONDS.toNanos(990), histogram.valueAtPercentile(99));
+    assertWithinPercent(TimeUnit.MICROSECONDS.toNanos(999), histogram.valueAtPercentile(99.9));
+    assertWithinPercent(TimeUnit.MICROSECONDS.toNanos(1000), histogram.getMax());
+    assertEquals(500_500.0, histogram.getMean(), 0.001);
+  }
+
+  @Test
+  void shouldClampValuesAboveHighestTrackable() {
+    Histogram histogram = new Histogram(layout);
+    histogram.record(TimeUnit.MINUTES.toNanos(5));
+
+    assertEquals(layout.bucketCount() - 1, layout.indexOf(TimeUnit.MINUTES.toNanos(5)));
+    assertEquals(1, histogram.countAt(layout.bucketCount() - 1));
+  }
+
+  @Test
+  void shouldMergeAndSubtract() {
+    Histogram a = new Histogram(layout);
+    Histogram b = new Histogram(layout);
+    a.record(100);
+    b.record(100);
+    b.record(5_000_000);
+
+    Histogram merged = a.copy();
+    merged.add(b);
+    assertEquals(3, merged.getTotalCount());
+    assertEquals(5_000_200, merged.getSum());
+
+    merged.subtract(a);
+    assertEquals(2, merged.getTotalCount());
+    assertEquals(1, merged.countAt(layout.indexOf(100)));
+    assertThrows(IllegalArgumentException.class,
+        () -> merged.add(new Histogram(new HistogramLayout(3, 1000))));
+  }
+
+  @Test
+  void shouldSnapshotConcurrentRecordingsWithoutLosingCounts() throws Exception {
+    StripedHistogram striped = new StripedHistogram(layout, 4);
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      Thread thread = new Thread(() -> {
+        for (int i = 0; i < 100_000; i++) {
+          striped.record(i);
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    long observed = 0;
+    for (Thread thread : threads) {
+      observed = Math.max(observed, striped.snapshot().getTotalCount());
+      thread.join();
+    }
+
+    Histogram snapshot = striped.snapshot();
+    assertTrue(observed <= snapshot.getTotalCount());
+    assertEquals(800_000, snapshot.getTotalCount());
+    assertEquals(8 * (99_999L * 100_000 / 2), snapshot.getSum());
+  }
+
+  @Test
+  void shouldReportIntervalsAsSnapshotDifferences() {
+    Timer timer = new Timer(0, "GET /api/owners/{ownerId}", layout);
+    timer.record(1000);
+    timer.record(2000);
+    assertEquals(2, timer.intervalSnapshot().getTotalCount());
+
+    timer.record(3000);
+    Histogram interval = timer.intervalSnapshot();
+    assertEquals(1, interval.getTotalCount());
+    assertEquals(3000, interval.getSum());
+    assertEquals(3, timer.snapshot().getTotalCount());
+  }
+
+  private static void assertWithinPercent(long expected, long actual) {
+    assertTrue(Math.abs(actual - expected) <= expected / 100,
+        "expected ~" + expected + " but was " + actual);
+  }
+}
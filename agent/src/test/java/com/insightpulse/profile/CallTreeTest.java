@@ -0,0 +1,88 @@
+package com.insightpulse.profile;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class CallTreeTest {
+
+  private final FrameTable frames = new FrameTable();
+
+  @Test
+  void shouldInternFramesByClassAndMethod() {
+    int find = frames.intern("OwnerRestController", "listOwners");
+
+    assertEquals(find, frames.intern(new String("OwnerRestController"), "listOwners"));
+    assertEquals(find + 1, frames.intern("OwnerRestController", "getOwner"));
+    for (int i = 0; i < 5000; i++) {
+      frames.intern("Generated" + i, "run");
+    }
+    assertEquals(find, frames.intern("OwnerRestController", "listOwners"));
+    assertEquals("Generated4999.run", frames.name(frames.intern("Generated4999", "run")));
+  }
+
+  @Test
+  void shouldFoldIdenticalStacks() throws Exception {
+    CallTree tree = new CallTree(64);
+    tree.add(stack("Thread.run", "OwnerRestController.listOwners", "Loader.doQuery"), 3);
+    tree.add(stack("Thread.run", "OwnerRestController.listOwners", "Loader.doQuery"), 3);
+    tree.add(stack("Thread.run", "OwnerRestController.listOwners", "OwnerMapperImpl.toDto"), 3);
+    tree.add(stack("Thread.run", "OwnerRestController.listOwners"), 2);
+
+    StringBuilder folded = new StringBuilder();
+    tree.writeFolded(folded, frames);
+
+    assertEquals(4, tree.samples());
+    assertEquals(5, tree.size());
+    assertEquals("Thread.run;OwnerRestController.listOwners 1\n"
+        + "Thread.run;OwnerRestController.listOwners;Loader.doQuery 2\n"
+        + "Thread.run;OwnerRestController.listOwners;OwnerMapperImpl.toDto 1\n",
+        sorted(folded.toString()));
+  }
+
+  @Test
+  void shouldChargeStacksBeyondNodeBudgetToDeepestCaller() throws Exception {
+    CallTree tree = new CallTree(3);
+    tree.add(stack("Thread.run", "Service.find"), 2);
+    tree.add(stack("Thread.run", "Service.save", "Repository.save"), 3);
+
+    StringBuilder folded = new StringBuilder();
+    tree.writeFolded(folded, frames);
+
+    assertEquals(1, tree.truncated());
+    assertEquals("Thread.run 1\nThread.run;Service.find 1\n", sorted(folded.toString()));
+  }
+
+  @Test
+  void shouldRenderFlameGraph() throws Exception {
+    CallTree tree = new CallTree(64);
+    tree.add(stack("Thread.run", "Owner.<init>"), 2);
+    tree.add(stack("Thread.run", "Jackson.serialize"), 2);
+    tree.add(stack("Thread.run", "Jackson.serialize"), 2);
+
+    StringBuilder svg = new StringBuilder();
+    FlameGraph.write(svg, "GET /api/owners", tree, frames);
+
+    assertTrue(svg.toString().startsWith("<?xml"));
+    assertTrue(svg.toString().contains("GET /api/owners (3 samples)"));
+    assertTrue(svg.toString().contains("<title>Owner.&lt;init&gt; (1 samples, 33.33%)</title>"));
+    assertTrue(svg.toString().contains("<title>Jackson.serialize (2 samples, 66.67%)</title>"));
+    assertTrue(svg.toString().trim().endsWith("</svg>"));
+  }
+
+  private int[] stack(String... names) {
+    int[] ids = new int[names.length];
+    for (int i = 0; i < names.length; i++) {
+      int dot = names[i].lastIndexOf('.');
+      ids[i] = frames.intern(names[i].substring(0, dot), names[i].substring(dot + 1));
+    }
+    return ids;
+  }
+
+  private static String sorted(String lines) {
+    String[] split = lines.split("\n");
+    java.util.Arrays.sort(split);
+    return String.join("\n", split) + "\n";
+  }
+}
@@ -0,0 +1,106 @@
+package com.insightpulse.profile;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.insightpulse.trace.Endpoints;
+import com.insightpulse.trace.TraceContext;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Test;
+
+class StackProfilerTest {
+
+  @Test
+  void shouldSampleOnlyThreadsServingRequests() throws Exception {
+    int owners = Endpoints.register("GET /api/owners/{ownerId}/pets");
+    File directory = Files.createTempDirectory("profiles").toFile();
+    StackProfiler profiler = new StackProfiler(100, StackProfiler.Mode.WALL, 64, directory, 0);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(1);
+    Thread request = new Thread(() -> {
+      TraceContext.current().enter(owners, System.nanoTime());
+      started.countDown();
+      awaitQuietly(done);
+      TraceContext.current().exit(null, System.nanoTime());
+    });
+    request.start();
+    started.await();
+    while (request.getState() != Thread.State.WAITING) {
+      Thread.yield();
+    }
+
+    try {
+      for (int i = 0; i < 5; i++) {
+        profiler.sample();
+      }
+    } finally {
+      done.countDown();
+      request.join();
+    }
+    profiler.sample();
+
+    CallTree tree = profiler.tree(owners);
+    assertNotNull(tree);
+    assertEquals(5, tree.samples());
+    assertNull(profiler.tree(Endpoints.NONE));
+
+    profiler.export();
+    String folded = new String(Files.readAllBytes(
+        new File(directory, "GET_api_owners_ownerId_pets.folded").toPath()),
+        StandardCharsets.UTF_8);
+    assertTrue(folded.contains(StackProfilerTest.class.getName() + ".awaitQuietly;"), folded);
+    assertTrue(folded.startsWith("java.lang.Thread.run;"), folded);
+    assertTrue(new File(directory, "GET_api_owners_ownerId_pets.svg").isFile());
+  }
+
+  @Test
+  void shouldSkipWaitingThreadsInCpuMode() throws Exception {
+    int vets = Endpoints.register("GET /api/vets");
+    StackProfiler profiler = new StackProfiler(100, StackProfiler.Mode.CPU, 64,
+        new File("unused"), 0);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(1);
+    Thread request = new Thread(() -> {
+      TraceContext.current().enter(vets, System.nanoTime());
+      started.countDown();
+      awaitQuietly(done);
+      TraceContext.current().exit(null, System.nanoTime());
+    });
+    request.start();
+    started.await();
+    while (request.getState() != Thread.State.WAITING) {
+      Thread.yield();
+    }
+
+    try {
+      for (int i = 0; i < 3; i++) {
+        profiler.sample();
+      }
+    } finally {
+      done.countDown();
+      request.join();
+    }
+
+    assertNull(profiler.tree(vets));
+  }
+
+  @Test
+  void shouldDeriveFileNamesFromRoutes() {
+    assertEquals("GET_api_owners_ownerId", StackProfiler.fileName("GET /api/owners/{ownerId}"));
+    assertEquals("ClinicService.findVets", StackProfiler.fileName("ClinicService.findVets"));
+    assertEquals("unmatched", StackProfiler.fileName("<unmatched>"));
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package com.insightpulse.trace;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ContextPropagationTest {
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+    TraceContext context = TraceContext.current();
+    while (context.isActive()) {
+      context.exit(null, 0L);
+    }
+  }
+
+  @Test
+  void shouldLeaveTasksAloneOutsideTraces() {
+    Runnable task = () -> { };
+    assertSame(task, ContextPropagation.wrap(task));
+    assertSame(task, ContextPropagation.wrapForThreadPool(task));
+  }
+
+  @Test
+  void shouldContinueTraceOnWorkerAndDetachAfterwards() throws Exception {
+    TraceContext context = TraceContext.current();
+    context.enter(Endpoints.register("GET /api/pettypes"), 1L);
+    AtomicLong seen = new AtomicLong();
+    Runnable task = () -> seen.set(TraceContext.current().traceId());
+
+    executor.submit(ContextPropagation.wrap(task)).get();
+    Callable<Boolean> afterwards = () -> TraceContext.current().isActive();
+
+    assertEquals(context.traceId(), seen.get());
+    assertFalse(executor.submit(afterwards).get());
+  }
+
+  @Test
+  void shouldNotFinishTraceFromWorker() throws Exception {
+    SpanRing ring = new SpanRing(16);
+    TraceContext context = TraceContext.current();
+    context.enter(Endpoints.register("GET /api/specialties"), 1L);
+    Runnable task = () -> {
+      TraceContext worker = TraceContext.current();
+      worker.enter(Endpoints.NONE, 2L);
+      worker.exit(ring, 3L);
+    };
+
+    executor.submit(ContextPropagation.wrap(task)).get();
+
+    assertEquals(0, ring.drain(span -> { }, 16));
+  }
+
+  @Test
+  void shouldKeepCallerTraceWhenTaskRunsInline() {
+    TraceContext context = TraceContext.current();
+    context.enter(Endpoints.register("GET /api/vets"), 1L);
+    long traceId = context.traceId();
+
+    ContextPropagation.wrap(() -> { }).run();
+
+    assertTrue(context.isActive());
+    assertEquals(traceId, context.traceId());
+  }
+
+  @Test
+  void shouldUnwrapThreadPoolTasksEvenAfterRunning() {
+    TraceContext.current().enter(Endpoints.register("GET /api/owners"), 1L);
+    Runnable task = () -> { };
+    Runnable wrapped = ContextPropagation.wrapForThreadPool(task);
+
+    wrapped.run();
+
+    assertNotEquals(task, wrapped);
+    assertSame(task, ContextPropagation.unwrap(wrapped));
+  }
+
+  @Test
+  void shouldShowQueuedThreadPoolTasksAsSubmitted() {
+    TraceContext.current().enter(Endpoints.register("GET /api/owners/queued"), 1L);
+    Runnable first = () -> { };
+    Runnable second = () -> { };
+    BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+    queue.add(ContextPropagation.wrapForThreadPool(first));
+    queue.add(ContextPropagation.wrapForThreadPool(second));
+    BlockingQueue<Runnable> view = ContextPropagation.unwrapping(queue);
+
+    assertSame(first, view.peek());
+    assertTrue(view.contains(second));
+    assertTrue(view.remove(first));
+    assertEquals(1, queue.size());
+    List<Runnable> drained = new ArrayList<>();
+    view.drainTo(drained);
+    assertEquals(Arrays.asList(second), drained);
+
+    List<Runnable> returned = new ArrayList<>(Arrays.asList(
+        ContextPropagation.wrapForThreadPool(first), second));
+    ContextPropagation.unwrapAll(returned);
+    assertEquals(Arrays.asList(first, second), returned);
+  }
+
+  @Test
+  void shouldRecyclePooledTasks() {
+    TraceContext.current().enter(Endpoints.register("GET /api/visits"), 1L);
+    Runnable first = ContextPropagation.wrap(() -> { });
+    first.run();
+
+    assertSame(first, ContextPropagation.wrap(() -> { }));
+  }
+
+  @Test
+  void shouldBoundPool() {
+    ContextTask.Pool pool = new ContextTask.Pool(2);
+    assertNull(pool.poll());
+    assertTrue(pool.offer(null));
+    assertTrue(pool.offer(null));
+    assertFalse(pool.offer(null));
+    pool.poll();
+    assertTrue(pool.offer(null));
+  }
+}
@@ -0,0 +1,33 @@
+package com.insightpulse.trace;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class IntCountMapTest {
+
+  @Test
+  void shouldCountKeysAndClear() {
+    IntCountMap map = new IntCountMap(4);
+    assertEquals(1, map.increment(7));
+    assertEquals(2, map.increment(7));
+    assertEquals(1, map.increment(-3));
+    assertEquals(2, map.size());
+    assertEquals(7, map.keyAt(0));
+    assertEquals(2, map.countAt(0));
+
+    map.clear();
+    assertEquals(0, map.size());
+    assertEquals(1, map.increment(7));
+  }
+
+  @Test
+  void shouldRejectNewKeysWhenFull() {
+    IntCountMap map = new IntCountMap(4);
+    for (int key = 1; key <= 4; key++) {
+      map.increment(key);
+    }
+    assertEquals(0, map.increment(5));
+    assertEquals(2, map.increment(4));
+  }
+}
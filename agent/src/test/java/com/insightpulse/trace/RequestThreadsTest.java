@@ -0,0 +1,19 @@
+package com.insightpulse.trace;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class RequestThreadsTest {
+
+  @Test
+  void shouldNotPinTerminatedThreads() throws InterruptedException {
+    for (int i = 0; i < 1000; i++) {
+      Thread thread = new Thread(TraceContext::current);
+      thread.start();
+      thread.join();
+    }
+
+    assertTrue(RequestThreads.size() < 1000);
+  }
+}
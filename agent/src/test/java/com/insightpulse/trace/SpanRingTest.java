@@ -0,0 +1,119 @@
+package com.insightpulse.trace;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Test;
+
+class SpanRingTest {
+
+  @Test
+  void shouldRoundCapacityUpToPowerOfTwo() {
+    assertEquals(1024, new SpanRing(1000).capacity());
+    assertEquals(2, new SpanRing(2).capacity());
+  }
+
+  @Test
+  void shouldDrainInPublishOrder() {
+    SpanRing ring = new SpanRing(8);
+    for (int i = 0; i < 5; i++) {
+      assertTrue(ring.publish(SpanKind.METHOD, i, 0, 0L, 100 + i, 10 * i, 0));
+    }
+    List<long[]> seen = new ArrayList<>();
+    int drained = ring.drain(span -> seen.add(new long[]{span.id(), span.startNanos(), span.durationNanos()}), 3);
+
+    assertEquals(3, drained);
+    assertEquals(2, ring.size());
+    assertEquals(102, seen.get(2)[1]);
+    assertEquals(2, ring.drain(span -> seen.add(new long[]{span.id(), span.startNanos(), span.durationNanos()}), 10));
+    assertEquals(40, seen.get(4)[2]);
+  }
+
+  @Test
+  void shouldDropWhenFull() {
+    SpanRing ring = new SpanRing(4);
+    for (int i = 0; i < 4; i++) {
+      assertTrue(ring.publish(SpanKind.METHOD, i, 0, 0L, 0, 0, 0));
+    }
+
+    assertFalse(ring.publish(SpanKind.METHOD, 4, 0, 0L, 0, 0, 0));
+    assertEquals(1, ring.droppedCount());
+    ring.drain(span -> { }, 1);
+    assertTrue(ring.publish(SpanKind.METHOD, 5, 0, 0L, 0, 0, 0));
+  }
+
+  @Test
+  void shouldSkipSpanTheHandlerFailsOn() {
+    SpanRing ring = new SpanRing(8);
+    for (int i = 0; i < 3; i++) {
+      ring.publish(SpanKind.METHOD, i, 0, 0L, 0, 0, 0);
+    }
+    List<Integer> seen = new ArrayList<>();
+    SpanHandler handler = span -> {
+      if (span.id() == 1) {
+        throw new IllegalStateException("bad span");
+      }
+      seen.add(span.id());
+    };
+
+    assertThrows(IllegalStateException.class, () -> ring.drain(handler, 10));
+    assertEquals(1, ring.drain(handler, 10));
+    assertEquals(Arrays.asList(0, 2), seen);
+    assertEquals(0, ring.size());
+    assertEquals(1, ring.failedCount());
+  }
+
+  @Test
+  void shouldDeliverEverySpanFromConcurrentProducers() throws Exception {
+    SpanRing ring = new SpanRing(1024);
+    int producers = 4;
+    int perProducer = 200_000;
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      int producer = p;
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int i = 0; i < perProducer; i++) {
+          while (!ring.publish(SpanKind.METHOD, producer, 0, 0L, i, 0, 0)) {
+            Thread.yield();
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+
+    long[] lastSeen = {-1, -1, -1, -1};
+    long[] received = new long[1];
+    boolean[] ordered = {true};
+    SpanHandler handler = span -> {
+      int id = span.id();
+      if (span.startNanos() != lastSeen[id] + 1) {
+        ordered[0] = false;
+      }
+      lastSeen[id] = span.startNanos();
+      received[0]++;
+    };
+    start.countDown();
+    while (received[0] < (long) producers * perProducer) {
+      ring.drain(handler, 256);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertTrue(ordered[0], "spans of one producer must stay in order");
+    assertEquals(0, ring.size());
+  }
+}
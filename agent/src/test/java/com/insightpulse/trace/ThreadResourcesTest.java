@@ -0,0 +1,68 @@
+package com.insightpulse.trace;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.insightpulse.metrics.Metrics;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ThreadResourcesTest {
+
+  private static volatile Object sink;
+
+  @AfterEach
+  void tearDown() {
+    ThreadResources.disable();
+  }
+
+  @Test
+  void shouldChargeRequestWithCpuAndAllocations() {
+    assertTrue(ThreadResources.enable());
+    int endpoint = Endpoints.register("GET /api/owners/*/lastname/{lastName}");
+    SpanRing ring = new SpanRing(16);
+    TraceContext context = TraceContext.current();
+
+    context.enter(endpoint, System.nanoTime());
+    for (int i = 0; i < 64; i++) {
+      sink = new byte[16 * 1024];
+    }
+    long spinUntil = System.nanoTime() + 5_000_000L;
+    while (System.nanoTime() < spinUntil) {
+      sink = null;
+    }
+    context.exit(ring, System.nanoTime());
+
+    List<long[]> spans = new ArrayList<>();
+    SpanAggregator aggregator = new SpanAggregator();
+    ring.drain(span -> {
+      spans.add(new long[]{span.kind(), span.id(), span.durationNanos(), span.value()});
+      aggregator.onSpan(span);
+    }, 16);
+    assertEquals(2, spans.size());
+    long[] resources = spans.get(0);
+    assertEquals(SpanKind.RESOURCES, resources[0]);
+    assertEquals(SpanKind.REQUEST, spans.get(1)[0]);
+    assertEquals(endpoint, resources[1]);
+    assertTrue(resources[2] >= 1_000_000L, "cpu " + resources[2]);
+    assertTrue(resources[3] >= 64 * 16 * 1024, "allocated " + resources[3]);
+    assertEquals(1, Metrics.requestAllocations().get(endpoint).snapshot().getTotalCount());
+    assertEquals(1, Metrics.requestCpu().get(endpoint).snapshot().getTotalCount());
+  }
+
+  @Test
+  void shouldMeasureNothingWhenDisabled() {
+    SpanRing ring = new SpanRing(16);
+    TraceContext context = TraceContext.current();
+
+    context.enter(Endpoints.register("GET /api/pets"), 1L);
+    context.exit(ring, 2L);
+
+    List<Integer> kinds = new ArrayList<>();
+    ring.drain(span -> kinds.add(span.kind()), 16);
+    assertEquals(1, kinds.size());
+    assertEquals(SpanKind.REQUEST, (int) kinds.get(0));
+  }
+}
@@ -0,0 +1,53 @@
+package com.insightpulse.trace;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class TraceBufferTest {
+
+  @Test
+  void shouldEvictOldestTraces() {
+    TraceBuffer buffer = new TraceBuffer(2, TraceBuffer.DropPolicy.DROP_OLDEST);
+
+    assertTrue(buffer.add(trace(1L)));
+    assertTrue(buffer.add(trace(2L)));
+    assertTrue(buffer.add(trace(3L)));
+
+    assertEquals(1, buffer.dropped());
+    assertEquals(2L, buffer.poll().traceId());
+    assertEquals(3L, buffer.poll().traceId());
+    assertNull(buffer.poll());
+  }
+
+  @Test
+  void shouldRejectNewestTraces() {
+    TraceBuffer buffer = new TraceBuffer(2, TraceBuffer.DropPolicy.DROP_NEWEST);
+
+    buffer.add(trace(1L));
+    buffer.add(trace(2L));
+    assertFalse(buffer.add(trace(3L)));
+    assertFalse(buffer.add(trace(4L)));
+
+    assertEquals(2, buffer.dropped());
+    List<CompletedTrace> kept = new ArrayList<>();
+    assertEquals(2, buffer.drainTo(kept));
+    assertEquals(1L, kept.get(0).traceId());
+    assertEquals(2L, kept.get(1).traceId());
+    assertTrue(buffer.add(trace(5L)));
+  }
+
+  private static CompletedTrace trace(long traceId) {
+    SpanRing ring = new SpanRing(2);
+    ring.publish(SpanKind.REQUEST, Endpoints.NONE, -1, traceId, 0L, 1L, 0L);
+    CompletedTrace[] trace = new CompletedTrace[1];
+    ring.drain(span -> trace[0] = new CompletedTrace(span, CompletedTrace.Reason.SAMPLED, 0,
+        new int[0], new int[0], new long[0], new long[0], new long[0]), 1);
+    return trace[0];
+  }
+}
@@ -0,0 +1,113 @@
+package com.insightpulse.trace;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class TraceCollectorTest {
+
+  private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final SpanRing ring = new SpanRing(1024);
+  private final TraceCollector collector = new TraceCollector(SLOW, 4, 4);
+  private final int endpoint = Endpoints.register("GET /api/vets");
+
+  @Test
+  void shouldKeepSampledTracesWithTheirSpans() {
+    publishTrace(1L, 3, SLOW / 2, 200, SpanKind.REQUEST_SAMPLED);
+
+    List<CompletedTrace> traces = drain(collector.sampled());
+    assertEquals(1, traces.size());
+    CompletedTrace trace = traces.get(0);
+    assertEquals(CompletedTrace.Reason.SAMPLED, trace.reason());
+    assertEquals(endpoint, trace.endpointId());
+    assertEquals(3, trace.spanCount());
+    assertEquals(SpanKind.SQL, trace.kindAt(0));
+    assertEquals(0, collector.retained().size());
+  }
+
+  @Test
+  void shouldRetainOnlySlowOrFailedUnsampledTraces() {
+    publishTrace(1L, 2, SLOW / 2, 200, 0);
+    publishTrace(2L, 2, SLOW * 2, 200, 0);
+    publishTrace(3L, 2, SLOW / 2, 400, SpanKind.REQUEST_ERROR);
+    publishTrace(4L, 2, SLOW / 2, 503, 0);
+
+    List<CompletedTrace> traces = drain(collector.retained());
+    assertEquals(3, traces.size());
+    assertEquals(2L, traces.get(0).traceId());
+    assertEquals(CompletedTrace.Reason.SLOW, traces.get(0).reason());
+    assertEquals(CompletedTrace.Reason.ERROR, traces.get(1).reason());
+    assertEquals(CompletedTrace.Reason.ERROR, traces.get(2).reason());
+    assertEquals(1, collector.discardedCount());
+    assertEquals(0, collector.sampled().size());
+  }
+
+  @Test
+  void shouldKeepRetainedTracesApartFromSampledBursts() {
+    publishTrace(1L, 1, SLOW * 2, 200, 0);
+    for (long id = 2; id < 20; id++) {
+      publishTrace(id, 1, SLOW / 2, 200, SpanKind.REQUEST_SAMPLED);
+    }
+
+    assertEquals(1, drain(collector.retained()).size());
+    assertEquals(4, collector.sampled().size());
+    assertEquals(14, collector.sampled().dropped());
+  }
+
+  @Test
+  void shouldAssembleInterleavedTraces() {
+    TraceCollector wide = new TraceCollector(SLOW, 2048, 4);
+    SpanRing spans = new SpanRing(4096);
+    for (long id = 1; id <= 1000; id++) {
+      spans.publish(SpanKind.METHOD, 1, endpoint, id * 7919, 0L, 1L, 0L);
+    }
+    for (long id = 1000; id >= 1; id--) {
+      spans.publish(SpanKind.METHOD, 2, endpoint, id * 7919, 0L, 1L, 0L);
+      spans.publish(SpanKind.REQUEST, endpoint, -1, id * 7919, 0L, 1L,
+          SpanKind.requestValue(200, SpanKind.REQUEST_SAMPLED, 0L));
+    }
+    spans.drain(wide::onSpan, Integer.MAX_VALUE);
+
+    List<CompletedTrace> traces = drain(wide.sampled());
+    assertEquals(1000, traces.size());
+    for (CompletedTrace trace : traces) {
+      assertEquals(2, trace.spanCount());
+      assertEquals(1, trace.idAt(0));
+      assertEquals(2, trace.idAt(1));
+    }
+  }
+
+  @Test
+  void shouldDropSpansArrivingAfterTheirRequest() {
+    publishTrace(1L, 1, SLOW / 2, 200, SpanKind.REQUEST_SAMPLED);
+    ring.publish(SpanKind.METHOD, 1, endpoint, 1L, 2_000L, 10L, 0L);
+    ring.publish(SpanKind.SQL, 1, endpoint, 1L, 2_000L, 10L, 0L);
+    ring.drain(collector::onSpan, Integer.MAX_VALUE);
+    publishTrace(2L, 1, SLOW / 2, 200, SpanKind.REQUEST_SAMPLED);
+
+    assertEquals(2, collector.lateCount());
+    List<CompletedTrace> traces = drain(collector.sampled());
+    assertEquals(2, traces.size());
+    assertEquals(1, traces.get(1).spanCount());
+    assertEquals(0, collector.overflowCount());
+  }
+
+  private void publishTrace(long traceId, int statements, long duration, int status, int flags) {
+    for (int i = 0; i < statements; i++) {
+      ring.publish(SpanKind.SQL, 1, endpoint, traceId, 1_000L + i, 10L, 0L);
+    }
+    ring.publish(SpanKind.REQUEST, endpoint, -1, traceId, 1_000L, duration,
+        SpanKind.requestValue(status, flags, duration / 2));
+    ring.drain(collector::onSpan, Integer.MAX_VALUE);
+  }
+
+  private static List<CompletedTrace> drain(TraceBuffer buffer) {
+    List<CompletedTrace> traces = new ArrayList<>();
+    buffer.drainTo(traces);
+    return traces;
+  }
+}
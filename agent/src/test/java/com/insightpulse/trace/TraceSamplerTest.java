@@ -0,0 +1,58 @@
+package com.insightpulse.trace;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class TraceSamplerTest {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  void shouldCapBurstAtBudget() {
+    TraceSampler sampler = new TraceSampler(10, 0L);
+    int sampled = 0;
+    for (int i = 0; i < 1000; i++) {
+      sampled += sampler.sample(1L) ? 1 : 0;
+    }
+    assertEquals(10, sampled);
+  }
+
+  @Test
+  void shouldSpreadBudgetOverSteadyTraffic() {
+    TraceSampler sampler = new TraceSampler(10, 0L);
+    // 1000 requests per second, evenly spaced
+    long step = SECOND / 1000;
+    for (int i = 0; i < 3000; i++) {
+      sampler.sample(i * step);
+    }
+    assertTrue(sampler.probability() < 0.05, "probability " + sampler.probability());
+
+    int sampled = 0;
+    int inFirstTenth = 0;
+    for (int i = 3000; i < 8000; i++) {
+      if (sampler.sample(i * step)) {
+        sampled++;
+        if (i % 1000 < 100) {
+          inFirstTenth++;
+        }
+      }
+    }
+    // about 50 expected; the bucket's one second of burst bounds it at 60
+    assertTrue(sampled >= 25 && sampled <= 60, "sampled " + sampled);
+    // a plain token bucket would spend most of each second's budget at its very start
+    assertTrue(inFirstTenth < sampled / 2, inFirstTenth + " of " + sampled);
+  }
+
+  @Test
+  void shouldSampleEverythingBelowBudget() {
+    TraceSampler sampler = new TraceSampler(100, 0L);
+    long step = SECOND / 50;
+    for (int i = 0; i < 500; i++) {
+      assertTrue(sampler.sample(i * step), "request " + i);
+    }
+    assertEquals(1.0, sampler.probability());
+  }
+}
@@ -0,0 +1,38 @@
+package com.insightpulse.wire;
+
+import com.insightpulse.metrics.Histogram;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps everything decoded as one readable line per event.
+ */
+class RecordingHandler implements WireHandler {
+
+  final List<String> events = new ArrayList<>();
+  final List<Histogram> histograms = new ArrayList<>();
+
+  @Override
+  public void onHello(String agent, long epochMillis, long nanoTime) {
+    events.add("hello " + agent + " " + epochMillis + " " + nanoTime);
+  }
+
+  @Override
+  public void onSpan(int kind, String name, String ref, long traceId, long startNanos,
+      long durationNanos, long value) {
+    events.add("span " + kind + " " + name + " " + ref + " " + Long.toHexString(traceId) + " "
+        + startNanos + " " + durationNanos + " " + value);
+  }
+
+  @Override
+  public void onHistogram(String metric, String name, long epochMillis, Histogram histogram) {
+    events.add("histogram " + metric + " " + name + " " + epochMillis + " "
+        + histogram.getTotalCount());
+    histograms.add(histogram);
+  }
+
+  @Override
+  public void onCounter(String metric, String name, long epochMillis, long value) {
+    events.add("counter " + metric + " " + name + " " + epochMillis + " " + value);
+  }
+}
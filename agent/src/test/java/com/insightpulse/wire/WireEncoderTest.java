@@ -0,0 +1,199 @@
+package com.insightpulse.wire;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.insightpulse.metrics.Histogram;
+import com.insightpulse.metrics.HistogramLayout;
+import com.insightpulse.trace.Endpoints;
+import com.insightpulse.trace.MethodRegistry;
+import com.insightpulse.trace.SpanKind;
+import com.insightpulse.trace.SpanRing;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class WireEncoderTest {
+
+  private final WireEncoder encoder = new WireEncoder(16);
+  private final RecordingHandler handler = new RecordingHandler();
+  private final WireDecoder decoder = new WireDecoder(handler);
+
+  @Test
+  void shouldRoundTripSpansAndMetrics() throws Exception {
+    encoder.writeHeader("petclinic-1", 1_700_000_000_000L, -42L);
+    encoder.writeSpan(SpanKind.REQUEST, "GET /api/owners", "OwnerRestController.listOwners",
+        0x8000_0000_0000_0001L, 1_000_000L, 2_500_000L, SpanKind.requestValue(200, 1, 900_000L));
+    encoder.writeSpan(SpanKind.SQL, "select * from owners", "GET /api/owners",
+        0x8000_0000_0000_0001L, 1_100_000L, 300_000L, 0L);
+    encoder.writeSpan(SpanKind.SQL_ROWS, "select * from owners", null, 0L, 0L, 0L, 10L);
+    encoder.writeSpan(SpanKind.METHOD, "ClinicService.findAllOwners", null, 0L, 900_000L, 5L,
+        -3L);
+    Histogram latency = new Histogram(new HistogramLayout(2, 60_000_000_000L));
+    latency.record(1_000L);
+    latency.record(2_000_000L);
+    latency.record(2_000_000L);
+    encoder.writeHistogram("endpoint", "GET /api/owners", 1_700_000_060_000L, latency);
+    encoder.writeCounter("endpoint.errors", "GET /api/owners", 1_700_000_060_000L, 4L);
+
+    decoder.decode(encoder.buffer());
+
+    assertEquals(Arrays.asList(
+        "hello petclinic-1 1700000000000 -42",
+        "span 4 GET /api/owners OwnerRestController.listOwners 8000000000000001 1000000 2500000 "
+            + SpanKind.requestValue(200, 1, 900_000L),
+        "span 2 select * from owners GET /api/owners 8000000000000001 1100000 300000 0",
+        "span 3 select * from owners null 0 0 0 10",
+        "span 1 ClinicService.findAllOwners null 0 900000 5 -3",
+        "histogram endpoint GET /api/owners 1700000060000 3",
+        "counter endpoint.errors GET /api/owners 1700000060000 4"), handler.events);
+    Histogram decoded = handler.histograms.get(0);
+    assertEquals(latency.getSum(), decoded.getSum());
+    assertEquals(latency.valueAtPercentile(50), decoded.valueAtPercentile(50));
+    assertEquals(1, decoder.version());
+  }
+
+  @Test
+  void shouldNameRingSpansAfterRegistries() throws Exception {
+    int method = MethodRegistry.register("com/example/petclinic/service/ClinicService",
+        "findOwnerById", "(I)Lcom/example/petclinic/model/Owner;");
+    int endpoint = Endpoints.register("GET /api/owners/{ownerId}");
+    SpanRing ring = new SpanRing(8);
+    ring.publish(SpanKind.METHOD, method, endpoint, 7L, 10L, 20L, 0L);
+    ring.publish(SpanKind.REQUEST, endpoint, -1, 7L, 5L, 40L, 0L);
+    encoder.writeHeader("a", 0L, 0L);
+
+    ring.drain(encoder::writeSpan, 8);
+    decoder.decode(encoder.buffer());
+
+    assertEquals("span 1 com.example.petclinic.service.ClinicService.findOwnerById"
+        + " GET /api/owners/{ownerId} 7 10 20 0", handler.events.get(1));
+    assertEquals("span 4 GET /api/owners/{ownerId} null 7 5 40 0", handler.events.get(2));
+  }
+
+  @Test
+  void shouldSendEachStringOnceAndKeepRepeatedSpansSmall() {
+    encoder.writeHeader("a", 0L, 0L);
+    encoder.writeSpan(SpanKind.SQL, "select * from vets", "GET /api/vets", 99L, 1_000L, 50L, 0L);
+    int first = encoder.size();
+    encoder.writeSpan(SpanKind.SQL, "select * from vets", "GET /api/vets", 99L, 1_200L, 50L, 0L);
+
+    // type, length, header, name, ref, start delta (2 bytes), duration, value
+    assertEquals(9, encoder.size() - first);
+  }
+
+  @Test
+  void shouldCarryStateAcrossBatches() throws Exception {
+    encoder.writeHeader("a", 0L, 0L);
+    encoder.writeSpan(SpanKind.SQL, "select 1", null, 5L, 1_000L, 1L, 0L);
+    decoder.decode(encoder.buffer());
+    encoder.clear();
+    encoder.writeSpan(SpanKind.SQL, "select 1", null, 5L, 2_000L, 1L, 0L);
+
+    decoder.decode(encoder.buffer());
+
+    assertEquals("span 2 select 1 null 5 2000 1 0", handler.events.get(2));
+  }
+
+  @Test
+  void shouldStartOverAtEveryHello() throws Exception {
+    encoder.writeHeader("a", 0L, 0L);
+    encoder.writeSpan(SpanKind.SQL, "select 1", null, 5L, 1_000L, 1L, 0L);
+    decoder.decode(encoder.buffer());
+    // a batch encoded on its own, as spooled batches are, decodes after any other
+    WireEncoder spooled = new WireEncoder();
+    spooled.writeHello("a", 10L, 3_000L);
+    spooled.writeSpan(SpanKind.SQL, "select 2", null, 5L, 4_000L, 1L, 0L);
+    spooled.writeSpan(SpanKind.SQL, "select 1", null, 5L, 5_000L, 1L, 0L);
+
+    decoder.decode(spooled.buffer());
+
+    assertEquals(Arrays.asList("hello a 10 3000", "span 2 select 2 null 5 4000 1 0",
+        "span 2 select 1 null 5 5000 1 0"), handler.events.subList(2, 5));
+  }
+
+  @Test
+  void shouldDecodeInputSplitAnywhere() throws Exception {
+    encoder.writeHeader("petclinic-1", 1L, 2L);
+    StringBuilder longName = new StringBuilder("select ");
+    for (int i = 0; i < 100; i++) {
+      longName.append("column").append(i).append(", ");
+    }
+    encoder.writeSpan(SpanKind.SQL, longName.toString(), "GET /api/vets", 1L, 1L, 1L, 1L);
+    encoder.writeCounter("sql.rows", "select 1", 3L, 300L);
+    byte[] bytes = Arrays.copyOf(encoder.buffer().array(), encoder.size());
+    decoder.decode(ByteBuffer.wrap(bytes));
+    List<String> expected = new ArrayList<>(handler.events);
+
+    for (int chunk = 1; chunk < 9; chunk++) {
+      RecordingHandler split = new RecordingHandler();
+      WireDecoder splitDecoder = new WireDecoder(split);
+      ByteBuffer pending = ByteBuffer.allocate(bytes.length);
+      for (int offset = 0; offset < bytes.length; offset += chunk) {
+        pending.put(bytes, offset, Math.min(chunk, bytes.length - offset));
+        pending.flip();
+        splitDecoder.decode(pending);
+        pending.compact();
+      }
+      assertEquals(expected, split.events, "chunk " + chunk);
+    }
+  }
+
+  @Test
+  void shouldSkipUnknownFrames() throws Exception {
+    encoder.writeHeader("a", 0L, 0L);
+    ByteBuffer head = encoder.buffer();
+    ByteBuffer stream = ByteBuffer.allocate(head.remaining() + 64);
+    stream.put(head);
+    stream.put(new byte[]{42, 3, 1, 2, 3});
+    encoder.clear();
+    encoder.writeCounter("m", "n", 1L, 1L);
+    stream.put(encoder.buffer());
+    stream.flip();
+
+    decoder.decode(stream);
+
+    assertEquals(2, handler.events.size());
+    assertTrue(handler.events.get(1).startsWith("counter m n"));
+  }
+
+  @Test
+  void shouldRejectForeignOrCorruptStreams() {
+    assertThrows(WireFormatException.class,
+        () -> decoder.decode(ByteBuffer.wrap("GET / HTTP/1.1\r\n".getBytes("US-ASCII"))));
+
+    encoder.writeHeader("a", 0L, 0L);
+    byte[] future = Arrays.copyOf(encoder.buffer().array(), encoder.size());
+    future[4] = (byte) (WireFormat.VERSION + 1);
+    assertThrows(WireFormatException.class,
+        () -> new WireDecoder(handler).decode(ByteBuffer.wrap(future)));
+
+    // a span referring to string 9, which was never defined
+    byte[] undefined = Arrays.copyOf(encoder.buffer().array(), encoder.size() + 5);
+    System.arraycopy(new byte[]{WireFormat.SPAN, 3, (byte) (SpanKind.SQL | WireFormat.SPAN_NO_TIME), 9, 0},
+        0, undefined, encoder.size(), 5);
+    assertThrows(WireFormatException.class,
+        () -> new WireDecoder(handler).decode(ByteBuffer.wrap(undefined)));
+  }
+
+  @Test
+  void shouldRejectOversizedFramesBeforeTheirPayloadArrives() {
+    encoder.writeHeader("a", 0L, 0L);
+    int header = encoder.size();
+    // a 32 MiB frame, and a length whose varint never ends; neither has any payload yet
+    byte[] large = Arrays.copyOf(encoder.buffer().array(), header + 5);
+    System.arraycopy(new byte[]{WireFormat.COUNTER, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x10},
+        0, large, header, 5);
+    byte[] endless = Arrays.copyOf(encoder.buffer().array(), header + 6);
+    Arrays.fill(endless, header + 1, header + 6, (byte) 0x80);
+    endless[header] = WireFormat.COUNTER;
+
+    assertThrows(WireFormatException.class,
+        () -> new WireDecoder(handler).decode(ByteBuffer.wrap(large)));
+    assertThrows(WireFormatException.class,
+        () -> new WireDecoder(handler).decode(ByteBuffer.wrap(endless)));
+  }
+}
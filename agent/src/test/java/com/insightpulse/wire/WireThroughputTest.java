@@ -0,0 +1,90 @@
+package com.insightpulse.wire;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.insightpulse.metrics.Histogram;
+import com.insightpulse.trace.SpanKind;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Encodes and decodes a petclinic-like span mix in bulk. The size bound is the point of the
+ * format; the time bound is deliberately loose and only catches gross regressions, see the JMH
+ * benchmarks for real numbers.
+ */
+class WireThroughputTest {
+
+  private static final int SPANS = 1_000_000;
+  private static final int BATCH = 512;
+
+  private static final String[] ROUTES = {"GET /api/owners", "GET /api/owners/{ownerId}",
+      "POST /api/owners/{ownerId}/pets", "GET /api/vets", "PUT /api/visits/{visitId}"};
+  private static final String[] STATEMENTS = {"select * from owners where id=?",
+      "select * from pets where owner_id=?", "select * from visits where pet_id=?",
+      "insert into visits (pet_id, visit_date, description) values (?, ?, ?)"};
+
+  @Test
+  void shouldEncodeSpansCompactlyAndFast() throws Exception {
+    WireEncoder encoder = new WireEncoder(64 * 1024);
+    CountingHandler handler = new CountingHandler();
+    WireDecoder decoder = new WireDecoder(handler);
+    encoder.writeHeader("petclinic-1", System.currentTimeMillis(), System.nanoTime());
+    long bytes = 0;
+    long now = System.nanoTime();
+    long traceId = 1L;
+
+    long started = System.nanoTime();
+    for (int i = 0; i < SPANS; i++) {
+      String route = ROUTES[i % ROUTES.length];
+      if (i % 8 == 0) {
+        traceId = traceId * 6364136223846793005L + 1442695040888963407L;
+        encoder.writeSpan(SpanKind.REQUEST, route, "OwnerRestController.listOwners", traceId,
+            now, 4_000_000L + i % 1000, SpanKind.requestValue(200, 0, 1_000_000L));
+      } else {
+        encoder.writeSpan(SpanKind.SQL, STATEMENTS[i % STATEMENTS.length], route, traceId,
+            now + 15_000L, 200_000L + i % 5000, 0L);
+      }
+      now += 20_000L;
+      if (i % BATCH == BATCH - 1) {
+        bytes += encoder.size();
+        decoder.decode(encoder.buffer());
+        encoder.clear();
+      }
+    }
+    bytes += encoder.size();
+    decoder.decode(encoder.buffer());
+    long elapsed = System.nanoTime() - started;
+
+    assertEquals(SPANS, handler.spans);
+    double perSpan = (double) bytes / SPANS;
+    // the same span as one line of JSON takes well over 100 bytes
+    assertTrue(perSpan < 16.0, perSpan + " bytes per span");
+    assertTrue(elapsed < TimeUnit.SECONDS.toNanos(5),
+        TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms for " + SPANS + " spans");
+  }
+
+  private static final class CountingHandler implements WireHandler {
+
+    int spans;
+
+    @Override
+    public void onHello(String agent, long epochMillis, long nanoTime) {
+    }
+
+    @Override
+    public void onSpan(int kind, String name, String ref, long traceId, long startNanos,
+        long durationNanos, long value) {
+      spans++;
+    }
+
+    @Override
+    public void onHistogram(String metric, String name, long epochMillis, Histogram histogram) {
+    }
+
+    @Override
+    public void onCounter(String metric, String name, long epochMillis, long value) {
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package com.zaxxer.hikari.pool;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * Stand-in for the pool class woven by {@code ConnectionPoolTransformer}; only the hooked
+ * signatures. Hands out up to {@code size} connections and times out at once beyond that.
+ */
+public class HikariPool {
+
+  private final String poolName;
+  private final int size;
+  private int active;
+  private int gaugeReads;
+
+  public HikariPool(String poolName, int size) {
+    this.poolName = poolName;
+    this.size = size;
+  }
+
+  public ProxyConnection getConnection(long hardTimeout) throws SQLException {
+    if (active == size) {
+      throw new SQLTransientConnectionException(poolName + " - Connection is not available");
+    }
+    active++;
+    return new ProxyConnection(this);
+  }
+
+  void recycle() {
+    active--;
+  }
+
+  public int getActiveConnections() {
+    gaugeReads++;
+    return active;
+  }
+
+  public int getIdleConnections() {
+    gaugeReads++;
+    return size - active;
+  }
+
+  public int getThreadsAwaitingConnection() {
+    gaugeReads++;
+    return active == size ? 1 : 0;
+  }
+
+  /**
+   * Calls of the gauge getters so far.
+   */
+  public int gaugeReads() {
+    return gaugeReads;
+  }
+
+  @Override
+  public String toString() {
+    return poolName;
+  }
+}
@@ -0,0 +1,21 @@
+package com.zaxxer.hikari.pool;
+
+/**
+ * Stand-in for the connection class woven by {@code ConnectionPoolTransformer}; only the hooked
+ * signatures.
+ */
+public class ProxyConnection {
+
+  private HikariPool pool;
+
+  ProxyConnection(HikariPool pool) {
+    this.pool = pool;
+  }
+
+  public final void close() {
+    if (pool != null) {
+      pool.recycle();
+      pool = null;
+    }
+  }
+}
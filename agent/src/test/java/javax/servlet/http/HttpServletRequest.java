@@ -0,0 +1,13 @@
+package javax.servlet.http;
+
+/**
+ * Stand-in for the servlet API; only what the woven code calls.
+ */
+public interface HttpServletRequest {
+
+  String getMethod();
+
+  Object getAttribute(String name);
+
+  void setAttribute(String name, Object value);
+}
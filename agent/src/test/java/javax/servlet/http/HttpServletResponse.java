@@ -0,0 +1,13 @@
+package javax.servlet.http;
+
+/**
+ * Stand-in for the servlet API; only what the woven code calls.
+ */
+public interface HttpServletResponse {
+
+  int getStatus();
+
+  void setStatus(int status);
+
+  void flushBuffer();
+}
@@ -0,0 +1,29 @@
+package org.apache.catalina.connector;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Stand-in for Tomcat's servlet response, committing through the coyote response on flush.
+ */
+public class Response implements HttpServletResponse {
+
+  private final org.apache.coyote.Response coyoteResponse = new org.apache.coyote.Response();
+  private int status = 200;
+
+  @Override
+  public int getStatus() {
+    return status;
+  }
+
+  @Override
+  public void setStatus(int status) {
+    this.status = status;
+  }
+
+  @Override
+  public void flushBuffer() {
+    if (!coyoteResponse.isCommitted()) {
+      coyoteResponse.sendHeaders();
+    }
+  }
+}
@@ -0,0 +1,17 @@
+package org.apache.coyote;
+
+/**
+ * Stand-in for Tomcat's low-level response; {@code sendHeaders} commits it.
+ */
+public class Response {
+
+  private boolean committed;
+
+  public void sendHeaders() {
+    committed = true;
+  }
+
+  public boolean isCommitted() {
+    return committed;
+  }
+}
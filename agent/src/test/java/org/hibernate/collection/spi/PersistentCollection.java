@@ -0,0 +1,9 @@
+package org.hibernate.collection.spi;
+
+/**
+ * Stand-in for the collection type read by listeners woven by {@code HibernateTransformer}.
+ */
+public interface PersistentCollection {
+
+  String getRole();
+}
@@ -0,0 +1,17 @@
+package org.hibernate.event.internal;
+
+import org.hibernate.event.spi.FlushEvent;
+
+/**
+ * Stand-in for the listener woven by {@code HibernateTransformer}; only the hooked signatures.
+ * The dirty check takes a millisecond.
+ */
+public abstract class AbstractFlushingEventListener {
+
+  protected void flushEverythingToExecutions(FlushEvent event) {
+    long end = System.nanoTime() + 1_000_000L;
+    while (System.nanoTime() < end) {
+      Thread.yield();
+    }
+  }
+}
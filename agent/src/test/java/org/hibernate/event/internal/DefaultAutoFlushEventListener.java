@@ -0,0 +1,13 @@
+package org.hibernate.event.internal;
+
+import org.hibernate.event.spi.AutoFlushEvent;
+
+/**
+ * Stand-in for the listener woven by {@code HibernateTransformer}; only the hooked signatures.
+ */
+public class DefaultAutoFlushEventListener extends AbstractFlushingEventListener {
+
+  public void onAutoFlush(AutoFlushEvent event) {
+    flushEverythingToExecutions(event);
+  }
+}
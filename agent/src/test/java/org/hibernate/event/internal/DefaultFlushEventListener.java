@@ -0,0 +1,13 @@
+package org.hibernate.event.internal;
+
+import org.hibernate.event.spi.FlushEvent;
+
+/**
+ * Stand-in for the listener woven by {@code HibernateTransformer}; only the hooked signatures.
+ */
+public class DefaultFlushEventListener extends AbstractFlushingEventListener {
+
+  public void onFlush(FlushEvent event) {
+    flushEverythingToExecutions(event);
+  }
+}
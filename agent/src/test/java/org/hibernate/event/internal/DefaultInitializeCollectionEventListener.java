@@ -0,0 +1,12 @@
+package org.hibernate.event.internal;
+
+import org.hibernate.event.spi.InitializeCollectionEvent;
+
+/**
+ * Stand-in for the listener woven by {@code HibernateTransformer}; only the hooked signatures.
+ */
+public class DefaultInitializeCollectionEventListener {
+
+  public void onInitializeCollection(InitializeCollectionEvent event) {
+  }
+}
@@ -0,0 +1,12 @@
+package org.hibernate.event.internal;
+
+import org.hibernate.event.spi.PostLoadEvent;
+
+/**
+ * Stand-in for the listener woven by {@code HibernateTransformer}; only the hooked signatures.
+ */
+public class DefaultPostLoadEventListener {
+
+  public void onPostLoad(PostLoadEvent event) {
+  }
+}
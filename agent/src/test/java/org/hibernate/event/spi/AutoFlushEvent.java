@@ -0,0 +1,7 @@
+package org.hibernate.event.spi;
+
+/**
+ * Stand-in for the event passed to listeners woven by {@code HibernateTransformer}.
+ */
+public class AutoFlushEvent extends FlushEvent {
+}
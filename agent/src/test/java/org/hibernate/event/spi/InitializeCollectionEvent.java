@@ -0,0 +1,19 @@
+package org.hibernate.event.spi;
+
+import org.hibernate.collection.spi.PersistentCollection;
+
+/**
+ * Stand-in for the event passed to listeners woven by {@code HibernateTransformer}.
+ */
+public class InitializeCollectionEvent {
+
+  private final PersistentCollection collection;
+
+  public InitializeCollectionEvent(PersistentCollection collection) {
+    this.collection = collection;
+  }
+
+  public PersistentCollection getCollection() {
+    return collection;
+  }
+}
@@ -0,0 +1,17 @@
+package org.hibernate.event.spi;
+
+/**
+ * Stand-in for the event passed to listeners woven by {@code HibernateTransformer}.
+ */
+public class PostLoadEvent {
+
+  private final Object entity;
+
+  public PostLoadEvent(Object entity) {
+    this.entity = entity;
+  }
+
+  public Object getEntity() {
+    return entity;
+  }
+}
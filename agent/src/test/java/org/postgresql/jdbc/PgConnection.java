@@ -0,0 +1,15 @@
+package org.postgresql.jdbc;
+
+/**
+ * Stand-in for the driver class woven by {@code JdbcTransformer}; only the hooked signatures.
+ */
+public class PgConnection {
+
+  public PgPreparedStatement prepareStatement(String sql) {
+    return prepareStatement(sql, 0, 0, 0);
+  }
+
+  public PgPreparedStatement prepareStatement(String sql, int type, int concurrency, int holdability) {
+    return new PgPreparedStatement(sql);
+  }
+}
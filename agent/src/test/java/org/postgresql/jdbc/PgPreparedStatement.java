@@ -0,0 +1,24 @@
+package org.postgresql.jdbc;
+
+/**
+ * Stand-in for the driver class woven by {@code JdbcTransformer}; only the hooked signatures.
+ */
+public class PgPreparedStatement extends PgStatement {
+
+  private final String sql;
+
+  PgPreparedStatement(String sql) {
+    this.sql = sql;
+  }
+
+  public boolean execute() {
+    if (sql.contains("broken")) {
+      throw new IllegalStateException("syntax error");
+    }
+    return true;
+  }
+
+  public int executeUpdate() {
+    return 1;
+  }
+}
@@ -0,0 +1,23 @@
+package org.springframework.transaction.interceptor;
+
+import java.lang.reflect.Method;
+
+/**
+ * Stand-in for the interceptor class woven by {@code ConnectionPoolTransformer}; only the hooked
+ * signatures.
+ */
+public class TransactionAspectSupport {
+
+  protected Object invokeWithinTransaction(Method method, Class<?> targetClass,
+      InvocationCallback invocation) throws Throwable {
+    return invocation.proceedWithInvocation();
+  }
+
+  /**
+   * Continues the intercepted call.
+   */
+  public interface InvocationCallback {
+
+    Object proceedWithInvocation() throws Throwable;
+  }
+}
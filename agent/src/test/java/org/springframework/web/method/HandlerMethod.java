@@ -0,0 +1,25 @@
+package org.springframework.web.method;
+
+import java.lang.reflect.Method;
+
+/**
+ * Stand-in for Spring's handler method holder.
+ */
+public class HandlerMethod {
+
+  private final Object bean;
+  private final Method method;
+
+  public HandlerMethod(Object bean, Method method) {
+    this.bean = bean;
+    this.method = method;
+  }
+
+  public Object getBean() {
+    return bean;
+  }
+
+  public Method getMethod() {
+    return method;
+  }
+}
@@ -0,0 +1,42 @@
+package org.springframework.web.servlet;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+
+/**
+ * Stand-in for the servlet woven by {@code SpringMvcTransformer}. The test puts the handler the
+ * mapping would have found into the {@link #HANDLER} request attribute; if {@link #ADVICE} is set,
+ * handler exceptions are answered with a 400 like a {@code @ControllerAdvice} would.
+ */
+public class DispatcherServlet {
+
+  public static final String HANDLER = "test.handler";
+  public static final String ADVICE = "test.advice";
+
+  private final RequestMappingHandlerAdapter adapter = new RequestMappingHandlerAdapter();
+
+  protected void doDispatch(HttpServletRequest request, HttpServletResponse response)
+      throws Exception {
+    Object handler = request.getAttribute(HANDLER);
+    if (handler instanceof HandlerMethod) {
+      try {
+        adapter.handle(request, response, handler);
+      } catch (Exception e) {
+        processHandlerException(request, response, handler, e);
+      }
+    } else {
+      response.setStatus(404);
+    }
+  }
+
+  protected Object processHandlerException(HttpServletRequest request,
+      HttpServletResponse response, Object handler, Exception ex) throws Exception {
+    if (request.getAttribute(ADVICE) == null) {
+      throw ex;
+    }
+    response.setStatus(400);
+    return null;
+  }
+}
@@ -0,0 +1,29 @@
+package org.springframework.web.servlet.mvc.method.annotation;
+
+import java.lang.reflect.InvocationTargetException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+
+/**
+ * Stand-in for the adapter woven by {@code SpringMvcTransformer}: invokes the handler and writes
+ * the response.
+ */
+public class RequestMappingHandlerAdapter {
+
+  public Object handle(HttpServletRequest request, HttpServletResponse response, Object handler)
+      throws Exception {
+    return handleInternal(request, response, (HandlerMethod) handler);
+  }
+
+  protected Object handleInternal(HttpServletRequest request, HttpServletResponse response,
+      HandlerMethod handlerMethod) throws Exception {
+    try {
+      handlerMethod.getMethod().invoke(handlerMethod.getBean());
+    } catch (InvocationTargetException e) {
+      throw (Exception) e.getCause();
+    }
+    response.flushBuffer();
+    return null;
+  }
+}
@@ -0,0 +1,79 @@
+package com.insightpulse.bench;
+
+import com.insightpulse.metrics.Histogram;
+import com.insightpulse.metrics.HistogramLayout;
+import com.insightpulse.metrics.StripedHistogram;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Recording a latency: into a plain {@link Histogram}, as the drainer's aggregates do, and into
+ * a shared {@link StripedHistogram} from one and from four threads.
+ * <p>
+ * Values cycle through a log-normal sample of request latencies so that bucket lookup sees
+ * realistic spread. Run with {@code java -jar benchmarks/target/benchmarks.jar Histogram -prof gc}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistogramBenchmark {
+
+  private static final HistogramLayout LAYOUT =
+      new HistogramLayout(2, TimeUnit.MINUTES.toNanos(1));
+
+  @State(Scope.Benchmark)
+  public static class Shared {
+
+    final StripedHistogram striped = new StripedHistogram(LAYOUT);
+  }
+
+  @State(Scope.Thread)
+  public static class Local {
+
+    final Histogram histogram = new Histogram(LAYOUT);
+    final long[] values = new long[1024];
+    int next;
+
+    @Setup
+    public void setUp() {
+      Random random = new Random(42);
+      for (int i = 0; i < values.length; i++) {
+        // median around 2ms, with a tail into the hundreds
+        values[i] = (long) (Math.exp(random.nextGaussian() * 1.2) * 2_000_000L);
+      }
+    }
+
+    long nextValue() {
+      return values[next++ & values.length - 1];
+    }
+  }
+
+  @Benchmark
+  public void record(Local local) {
+    local.histogram.record(local.nextValue());
+  }
+
+  @Benchmark
+  public void recordStriped(Shared shared, Local local) {
+    shared.striped.record(local.nextValue());
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void recordStriped4Threads(Shared shared, Local local) {
+    shared.striped.record(local.nextValue());
+  }
+}
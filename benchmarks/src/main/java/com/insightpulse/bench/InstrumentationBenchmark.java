@@ -0,0 +1,91 @@
+package com.insightpulse.bench;
+
+import com.insightpulse.instrument.MethodPattern;
+import com.insightpulse.instrument.TimingTransformer;
+import com.insightpulse.trace.Probe;
+import com.insightpulse.trace.SpanAggregator;
+import com.insightpulse.trace.SpanDrainer;
+import com.insightpulse.trace.SpanRing;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntUnaryOperator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What the agent adds to a call of an instrumented method whose body does nothing: the same
+ * class loaded twice, once as is and once woven by the {@link TimingTransformer}.
+ * <p>
+ * The woven call is the outermost on its thread, so it also starts and finishes a trace, as a
+ * {@code ClinicService} method called outside a request would; a drainer aggregates the spans
+ * as in production. Run with
+ * {@code java -jar benchmarks/target/benchmarks.jar Instrumentation -prof gc}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InstrumentationBenchmark {
+
+  private SpanRing ring;
+  private SpanDrainer drainer;
+  private IntUnaryOperator plain;
+  private IntUnaryOperator woven;
+  private int operand;
+
+  /**
+   * Stands in for an application method.
+   */
+  public static final class Target implements IntUnaryOperator {
+
+    @Override
+    public int applyAsInt(int operand) {
+      return operand;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    ring = new SpanRing(65536);
+    Probe.install(ring);
+    drainer = new SpanDrainer(ring, new SpanAggregator(), 1);
+    drainer.start();
+    String name = Target.class.getName();
+    plain = (IntUnaryOperator) new WovenClassLoader(name, null).loadClass(name).newInstance();
+    TimingTransformer transformer = new TimingTransformer(
+        Collections.singletonList(MethodPattern.parse(name + "#applyAsInt")));
+    woven = (IntUnaryOperator) new WovenClassLoader(name, transformer).loadClass(name)
+        .newInstance();
+    operand = 42;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    drainer.stop();
+    Probe.install(null);
+    // a full ring drops instead of waiting, which is cheaper; say so if it happened
+    System.out.println("spans dropped by the ring: " + ring.droppedCount());
+  }
+
+  @Benchmark
+  public int plainCall() {
+    return plain.applyAsInt(operand);
+  }
+
+  @Benchmark
+  public int instrumentedCall() {
+    return woven.applyAsInt(operand);
+  }
+}
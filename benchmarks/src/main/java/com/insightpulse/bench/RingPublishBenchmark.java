@@ -0,0 +1,85 @@
+package com.insightpulse.bench;
+
+import com.insightpulse.trace.SpanKind;
+import com.insightpulse.trace.SpanRing;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Publishing into the {@link SpanRing} from 1, 4 and 16 producer threads while one consumer
+ * drains it, as request threads and the drainer do.
+ * <p>
+ * The consumer discards what it drains, so it keeps up for as long as it can; the drop count
+ * printed after each trial tells how often producers found the ring full, which is the cheaper
+ * path. Beyond the number of cores, more producers measure contention on the tail rather than
+ * the ring. Run with {@code java -jar benchmarks/target/benchmarks.jar RingPublish -prof gc}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RingPublishBenchmark {
+
+  private SpanRing ring;
+  private Thread consumer;
+  private final AtomicBoolean running = new AtomicBoolean();
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    ring = new SpanRing(65536);
+    running.set(true);
+    consumer = new Thread(() -> {
+      while (running.get()) {
+        if (ring.drain(span -> { }, 1024) == 0) {
+          Thread.yield();
+        }
+      }
+    }, "ring-consumer");
+    consumer.setDaemon(true);
+    consumer.start();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws InterruptedException {
+    running.set(false);
+    consumer.join();
+    System.out.println("spans dropped by the ring: " + ring.droppedCount());
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean publish1Thread() {
+    return publish();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public boolean publish4Threads() {
+    return publish();
+  }
+
+  @Benchmark
+  @Threads(16)
+  public boolean publish16Threads() {
+    return publish();
+  }
+
+  private boolean publish() {
+    return ring.publish(SpanKind.SQL, 7, 3, 0x1234L, 1_000L, 250_000L, 0L);
+  }
+}
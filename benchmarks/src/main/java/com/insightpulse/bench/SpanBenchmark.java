@@ -0,0 +1,110 @@
+package com.insightpulse.bench;
+
+import com.insightpulse.metrics.Metrics;
+import com.insightpulse.trace.Endpoints;
+import com.insightpulse.trace.MethodRegistry;
+import com.insightpulse.trace.Probe;
+import com.insightpulse.trace.SpanAggregator;
+import com.insightpulse.trace.SpanDrainer;
+import com.insightpulse.trace.SpanRing;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Starting and ending a span through the {@link Probe}, as woven code does, without the call
+ * around it.
+ * <p>
+ * A root span also starts and finishes a trace and publishes its request record; a nested span
+ * runs inside a trace that stays open for the whole trial, as a repository call inside a
+ * request does. Run with {@code java -jar benchmarks/target/benchmarks.jar Span -prof gc}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpanBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class Agent {
+
+    SpanRing ring;
+    SpanDrainer drainer;
+    int request;
+    int method;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      ring = new SpanRing(65536);
+      Probe.install(ring);
+      drainer = new SpanDrainer(ring, new SpanAggregator(), 1);
+      drainer.start();
+      request = instrument("com/example/petclinic/rest/controller/OwnerRestController",
+          "listOwners", "()Lorg/springframework/http/ResponseEntity;");
+      method = instrument("com/example/petclinic/service/ClinicService", "findAllOwners",
+          "()Ljava/util/Collection;");
+    }
+
+    /**
+     * Registers a method the way the transformer does when it weaves one.
+     */
+    private static int instrument(String className, String methodName, String descriptor) {
+      int id = MethodRegistry.register(className, methodName, descriptor);
+      String displayName = MethodRegistry.displayName(id);
+      Metrics.methods().register(id, displayName);
+      Endpoints.bindMethod(id, displayName);
+      return id;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      drainer.stop();
+      Probe.install(null);
+      System.out.println("spans dropped by the ring: " + ring.droppedCount());
+    }
+  }
+
+  /**
+   * A request that stays open on the benchmark thread.
+   */
+  @State(Scope.Thread)
+  public static class OpenTrace {
+
+    int request;
+    long start;
+
+    @Setup(Level.Iteration)
+    public void setUp(Agent agent) {
+      request = agent.request;
+      start = Probe.enter(request);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+      Probe.exit(request, start);
+    }
+  }
+
+  @Benchmark
+  public void rootSpan(Agent agent) {
+    long start = Probe.enter(agent.method);
+    Probe.exit(agent.method, start);
+  }
+
+  @Benchmark
+  public void nestedSpan(Agent agent, OpenTrace trace) {
+    long start = Probe.enter(agent.method);
+    Probe.exit(agent.method, start);
+  }
+}
@@ -0,0 +1,94 @@
+package com.insightpulse.bench;
+
+import com.insightpulse.jdbc.FingerprintCache;
+import com.insightpulse.jdbc.SqlNormalizer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fingerprint lookup with and without the {@link FingerprintCache}.
+ * <p>
+ * The SQL is what Hibernate sends for {@code OwnerRepository.findByLastName}. Run with
+ * {@code java -jar benchmarks/target/benchmarks.jar SqlFingerprint -prof gc}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SqlFingerprintBenchmark {
+
+  static final String FIND_BY_LAST_NAME = "/* select distinct owner from Owner owner left join fetch "
+      + "owner.pets where owner.lastName like :lastName */ select distinct owner0_.id as id1_0_0_, "
+      + "pets1_.id as id1_1_1_, owner0_.first_name as first_na2_0_0_, owner0_.last_name as "
+      + "last_nam3_0_0_, owner0_.address as address4_0_0_, owner0_.city as city5_0_0_, "
+      + "owner0_.telephone as telephon6_0_0_, pets1_.name as name2_1_1_, pets1_.birth_date as "
+      + "birth_da3_1_1_, pets1_.owner_id as owner_id4_1_1_, pets1_.type_id as type_id5_1_1_, "
+      + "pets1_.owner_id as owner_id4_1_0__, pets1_.id as id1_1_0__ from owners owner0_ left outer "
+      + "join pets pets1_ on owner0_.id=pets1_.owner_id where owner0_.last_name like ?";
+
+  private final Map<String, Integer> registered = new HashMap<>();
+  private FingerprintCache cache;
+  private char[] chars;
+
+  @Setup
+  public void setUp() {
+    cache = new FingerprintCache(4096, this::register);
+    chars = FIND_BY_LAST_NAME.toCharArray();
+    cache.idOf(FIND_BY_LAST_NAME);
+  }
+
+  private synchronized int register(String sql) {
+    String fingerprint = SqlNormalizer.normalize(sql);
+    Integer id = registered.get(fingerprint);
+    if (id == null) {
+      id = registered.size() + 1;
+      registered.put(fingerprint, id);
+    }
+    return id;
+  }
+
+  /**
+   * Baseline: normalize and look up on every execution.
+   */
+  @Benchmark
+  public int uncachedNormalize() {
+    return register(FIND_BY_LAST_NAME);
+  }
+
+  /**
+   * Hibernate's case: the same {@code String} instance every time.
+   */
+  @Benchmark
+  public int cachedSameInstance() {
+    return cache.idOf(FIND_BY_LAST_NAME);
+  }
+
+  /**
+   * SQL rebuilt per execution: includes copying the text into a new {@code String}.
+   */
+  @Benchmark
+  public int cachedEqualCopy() {
+    return cache.idOf(new String(chars));
+  }
+
+  /**
+   * Cost of the copy alone, to subtract from {@link #cachedEqualCopy()}.
+   */
+  @Benchmark
+  public String copyOnly() {
+    return new String(chars);
+  }
+}
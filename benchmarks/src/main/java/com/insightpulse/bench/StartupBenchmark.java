@@ -0,0 +1,140 @@
+package com.insightpulse.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from launching app1 to its {@code ApplicationReadyEvent}, without and with the agent, which
+ * is what scaling out costs before an instance takes traffic.
+ * <p>
+ * Not a JMH benchmark: every sample is a fresh JVM. Spring Boot flips the readiness state to
+ * accepting traffic right after publishing {@code ApplicationReadyEvent}, so the clock stops when
+ * {@code /actuator/health/readiness} first answers 200, polled every few milliseconds. The two
+ * variants alternate so that drift on the machine affects both alike; one untimed run of each
+ * warms the page cache first. app1 needs its database, e.g. from its {@code docker-compose.yml}.
+ * Run with
+ * {@code java -cp benchmarks/target/benchmarks.jar com.insightpulse.bench.StartupBenchmark
+ * app1/target/app1-0.1-SNAPSHOT.jar agent/target/agent-0.1-SNAPSHOT.jar [runs] [agent options]}.
+ */
+public final class StartupBenchmark {
+
+  private static final long TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+  private static final long POLL_MILLIS = 5;
+
+  private StartupBenchmark() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println("Usage: StartupBenchmark <app jar> <agent jar> [runs] [agent options]");
+      System.exit(2);
+    }
+    File app = new File(args[0]);
+    String agent = "-javaagent:" + new File(args[1]).getAbsolutePath()
+        + (args.length > 3 ? "=" + args[3] : "");
+    int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    time(app, null);
+    time(app, agent);
+    long[] without = new long[runs];
+    long[] with = new long[runs];
+    for (int i = 0; i < runs; i++) {
+      without[i] = time(app, null);
+      with[i] = time(app, agent);
+      System.out.printf(Locale.ROOT, "run %d: without agent %d ms, with agent %d ms%n", i + 1,
+          without[i], with[i]);
+    }
+    long baseline = median(without);
+    long instrumented = median(with);
+    System.out.printf(Locale.ROOT, "without agent: median %d ms, min %d ms%n", baseline,
+        min(without));
+    System.out.printf(Locale.ROOT, "with agent:    median %d ms, min %d ms%n", instrumented,
+        min(with));
+    System.out.printf(Locale.ROOT, "agent overhead: %d ms (%.1f%%)%n", instrumented - baseline,
+        100.0 * (instrumented - baseline) / baseline);
+  }
+
+  /**
+   * Boots the application once and stops it again.
+   *
+   * @param agent the {@code -javaagent} option, or {@code null}
+   * @return milliseconds until the application was ready
+   */
+  static long time(File app, String agent) throws IOException, InterruptedException {
+    int port = freePort();
+    List<String> command = new ArrayList<>();
+    command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+    if (agent != null) {
+      command.add(agent);
+    }
+    command.addAll(Arrays.asList("-jar", app.getAbsolutePath(), "--server.port=" + port,
+        "--management.endpoint.health.probes.enabled=true"));
+    URL readiness = new URL("http://127.0.0.1:" + port + "/petclinic/actuator/health/readiness");
+    File log = File.createTempFile("startup-", ".log");
+    long start = System.nanoTime();
+    Process process = new ProcessBuilder(command).redirectErrorStream(true)
+        .redirectOutput(log).start();
+    try {
+      while (!isReady(readiness)) {
+        if (!process.isAlive()) {
+          throw new IllegalStateException("Application exited with " + process.exitValue()
+              + ", see " + log);
+        }
+        if (System.nanoTime() - start > TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS)) {
+          throw new IllegalStateException("Application not ready after " + TIMEOUT_MILLIS
+              + " ms, see " + log);
+        }
+        Thread.sleep(POLL_MILLIS);
+      }
+      long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      log.delete();
+      return millis;
+    } finally {
+      process.destroy();
+      if (!process.waitFor(10, TimeUnit.SECONDS)) {
+        process.destroyForcibly().waitFor();
+      }
+    }
+  }
+
+  private static boolean isReady(URL readiness) {
+    try {
+      HttpURLConnection connection = (HttpURLConnection) readiness.openConnection();
+      connection.setConnectTimeout(100);
+      connection.setReadTimeout(1000);
+      try {
+        return connection.getResponseCode() == 200;
+      } finally {
+        connection.disconnect();
+      }
+    } catch (IOException e) {
+      // not listening yet
+      return false;
+    }
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  private static long median(long[] values) {
+    long[] sorted = values.clone();
+    Arrays.sort(sorted);
+    int middle = sorted.length / 2;
+    return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+  }
+
+  private static long min(long[] values) {
+    return Arrays.stream(values).min().orElse(0L);
+  }
+}
@@ -0,0 +1,112 @@
+package com.insightpulse.bench;
+
+import com.insightpulse.jdbc.SqlFingerprints;
+import com.insightpulse.metrics.Histogram;
+import com.insightpulse.metrics.HistogramLayout;
+import com.insightpulse.trace.CompletedTrace;
+import com.insightpulse.trace.Endpoints;
+import com.insightpulse.trace.MethodRegistry;
+import com.insightpulse.trace.SpanKind;
+import com.insightpulse.trace.SpanRing;
+import com.insightpulse.trace.TraceCollector;
+import com.insightpulse.wire.WireEncoder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * How fast the exporter's thread encodes what it ships: retained traces shaped like a
+ * petclinic owner lookup (a controller and a service span, four statements, their row counts),
+ * and cumulative timer snapshots.
+ * <p>
+ * The encoder's buffer is cleared every megabyte, as sending a batch would, so the dictionary
+ * stays warm as on a long-lived connection. Run with
+ * {@code java -jar benchmarks/target/benchmarks.jar WireEncode -prof gc}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WireEncodeBenchmark {
+
+  private static final int BATCH_BYTES = 1 << 20;
+
+  private final WireEncoder encoder = new WireEncoder(BATCH_BYTES + BATCH_BYTES / 4);
+  private CompletedTrace trace;
+  private Histogram snapshot;
+
+  @Setup
+  public void setUp() {
+    int endpoint = Endpoints.register("GET /api/owners/{ownerId}");
+    int controller = MethodRegistry.register(
+        "com/example/petclinic/rest/controller/OwnerRestController", "getOwner",
+        "(I)Lorg/springframework/http/ResponseEntity;");
+    int service = MethodRegistry.register("com/example/petclinic/service/ClinicService",
+        "findOwnerById", "(I)Lcom/example/petclinic/model/Owner;");
+    int[] statements = {
+        SqlFingerprints.register("select owner0_.id, owner0_.first_name, owner0_.last_name"
+            + " from owners owner0_ where owner0_.id=?"),
+        SqlFingerprints.register("select pets0_.owner_id, pets0_.id, pets0_.name from pets"
+            + " pets0_ where pets0_.owner_id=?"),
+        SqlFingerprints.register("select visits0_.pet_id, visits0_.id, visits0_.visit_date"
+            + " from visits visits0_ where visits0_.pet_id=?"),
+        SqlFingerprints.register("select pettype0_.id, pettype0_.name from types pettype0_"
+            + " where pettype0_.id=?")};
+
+    SpanRing ring = new SpanRing(64);
+    long traceId = 0x5DEECE66DL;
+    long start = 1_000_000L;
+    for (int i = 0; i < statements.length; i++) {
+      ring.publish(SpanKind.SQL, statements[i], endpoint, traceId, start + 100_000L * i,
+          40_000L + 5_000L * i, 0L);
+      ring.publish(SpanKind.SQL_ROWS, statements[i], endpoint, traceId, 0L, 0L, 1 + i);
+    }
+    ring.publish(SpanKind.METHOD, service, endpoint, traceId, start, 450_000L, 0L);
+    ring.publish(SpanKind.METHOD, controller, endpoint, traceId, start - 20_000L, 500_000L, 0L);
+    ring.publish(SpanKind.REQUEST, endpoint, controller, traceId, start - 50_000L, 600_000L,
+        SpanKind.requestValue(200, SpanKind.REQUEST_SAMPLED, 550_000L));
+    TraceCollector traces = new TraceCollector(Long.MAX_VALUE, 4, 4);
+    ring.drain(traces::onSpan, 64);
+    trace = traces.sampled().poll();
+
+    snapshot = new Histogram(new HistogramLayout(2, TimeUnit.MINUTES.toNanos(1)));
+    Random random = new Random(42);
+    for (int i = 0; i < 100_000; i++) {
+      snapshot.record((long) (Math.exp(random.nextGaussian() * 1.2) * 2_000_000L));
+    }
+
+    encoder.writeHeader("bench", System.currentTimeMillis(), System.nanoTime());
+  }
+
+  @Benchmark
+  public int encodeTrace() {
+    encoder.writeTrace(trace);
+    return clearIfFull();
+  }
+
+  @Benchmark
+  public int encodeHistogram() {
+    encoder.writeHistogram("endpoint", "GET /api/owners/{ownerId}", 1_700_000_000_000L,
+        snapshot);
+    return clearIfFull();
+  }
+
+  private int clearIfFull() {
+    int size = encoder.size();
+    if (size >= BATCH_BYTES) {
+      encoder.clear();
+    }
+    return size;
+  }
+}
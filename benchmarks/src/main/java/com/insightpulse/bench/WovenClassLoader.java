@@ -0,0 +1,61 @@
+package com.insightpulse.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.ClassFileTransformer;
+
+/**
+ * Loads one class child-first, through a transformer if given, so that a benchmark can call a
+ * woven and a plain copy of the same code side by side.
+ */
+final class WovenClassLoader extends ClassLoader {
+
+  private final String className;
+  private final ClassFileTransformer transformer;
+
+  WovenClassLoader(String className, ClassFileTransformer transformer) {
+    super(WovenClassLoader.class.getClassLoader());
+    this.className = className;
+    this.transformer = transformer;
+  }
+
+  @Override
+  protected synchronized Class<?> loadClass(String name, boolean resolve)
+      throws ClassNotFoundException {
+    if (!name.equals(className)) {
+      return super.loadClass(name, resolve);
+    }
+    Class<?> loaded = findLoadedClass(name);
+    if (loaded != null) {
+      return loaded;
+    }
+    try {
+      String internalName = name.replace('.', '/');
+      byte[] bytes = read(internalName);
+      if (transformer != null) {
+        byte[] transformed = transformer.transform(this, internalName, null, null, bytes);
+        if (transformed == null) {
+          throw new IllegalStateException(name + " was not woven");
+        }
+        bytes = transformed;
+      }
+      return defineClass(name, bytes, 0, bytes.length);
+    } catch (Exception e) {
+      throw new ClassNotFoundException(name, e);
+    }
+  }
+
+  private static byte[] read(String internalName) throws IOException {
+    try (InputStream in = WovenClassLoader.class.getClassLoader()
+        .getResourceAsStream(internalName + ".class")) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int n;
+      while ((n = in.read(buffer)) > 0) {
+        out.write(buffer, 0, n);
+      }
+      return out.toByteArray();
+    }
+  }
+}
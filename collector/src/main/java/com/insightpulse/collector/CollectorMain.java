@@ -0,0 +1,137 @@
+package com.insightpulse.collector;
+
+import com.insightpulse.AgentLog;
+import com.insightpulse.collector.rollup.Rollups;
+import com.insightpulse.collector.traces.TraceLog;
+import com.insightpulse.collector.tsdb.MetricStore;
+import com.insightpulse.config.AgentConfig;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a collector: {@code java -jar collector.jar [key=value ...]}.
+ * <p>
+ * Options use the agent's syntax and may also be given as {@code -Dinsightpulse.<key>} system
+ * properties.
+ */
+public final class CollectorMain {
+
+  public static final String BIND_ADDRESS = "collector.bind";
+  public static final String PORT = "collector.port";
+  /**
+   * Decoding threads; defaults to one per core.
+   */
+  public static final String WORKERS = "collector.workers";
+  /**
+   * Initial receive buffer per connection, in KB.
+   */
+  public static final String BUFFER_KB = "collector.buffer.kb";
+  public static final String REPORT_INTERVAL_SECONDS = "collector.report.interval";
+  /**
+   * Directory the collector keeps its data in.
+   */
+  public static final String DATA_DIRECTORY = "collector.data.dir";
+  /**
+   * Days of metrics kept; older segments are deleted.
+   */
+  public static final String METRICS_RETENTION_DAYS = "collector.metrics.retention.days";
+  /**
+   * Hours of traces kept; older segments are deleted.
+   */
+  public static final String TRACES_RETENTION_HOURS = "collector.traces.retention.hours";
+  /**
+   * Port of the query API; 0 disables it.
+   */
+  public static final String HTTP_PORT = "collector.http.port";
+  /**
+   * Minutes between snapshots of the rollups to disk.
+   */
+  public static final String ROLLUP_SAVE_MINUTES = "collector.rollup.save.minutes";
+
+  public static final int DEFAULT_PORT = 7070;
+  public static final int DEFAULT_HTTP_PORT = 7071;
+
+  private CollectorMain() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    AgentConfig config = AgentConfig.parse(String.join(";", args));
+    AgentLog.setDebug(config.getBoolean(AgentConfig.DEBUG, false));
+    InetSocketAddress address = new InetSocketAddress(config.getString(BIND_ADDRESS, "0.0.0.0"),
+        config.getInt(PORT, DEFAULT_PORT));
+    int workers = config.getInt(WORKERS, Runtime.getRuntime().availableProcessors());
+    File data = new File(config.getString(DATA_DIRECTORY, "insightpulse-data"));
+    MetricStore metrics = new MetricStore(new File(data, "metrics"),
+        MetricStore.DEFAULT_RESOLUTION_MILLIS, MetricStore.DEFAULT_BLOCK_MILLIS,
+        TimeUnit.DAYS.toMillis(config.getInt(METRICS_RETENTION_DAYS, 7)),
+        MetricStore.DEFAULT_SEGMENT_BYTES);
+    TraceLog traces = new TraceLog(new File(data, "traces"), TraceLog.DEFAULT_SEGMENT_BYTES,
+        TimeUnit.HOURS.toMillis(config.getInt(TRACES_RETENTION_HOURS, 72)));
+    File rollupFile = new File(data, "rollups.bin");
+    Rollups rollups = new Rollups();
+    rollups.load(rollupFile);
+    MetricBaselines baselines = new MetricBaselines();
+    CollectorServer server = new CollectorServer(address, workers,
+        config.getInt(BUFFER_KB, 64) * 1024, remote -> new FanoutHandler(
+            new MetricsHandler(metrics, rollups, baselines), new TraceHandler(traces)));
+    server.start();
+    int httpPort = config.getInt(HTTP_PORT, DEFAULT_HTTP_PORT);
+    QueryServer query = httpPort > 0
+        ? new QueryServer(new InetSocketAddress(address.getAddress(), httpPort), rollups) : null;
+    if (query != null) {
+      query.start();
+      AgentLog.info("Query API listening on port %d", query.port());
+    }
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        server.stop();
+        if (query != null) {
+          query.stop();
+        }
+        rollups.save(rollupFile);
+        metrics.close();
+        traces.close();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (IOException e) {
+        AgentLog.error("Could not close the collector's stores", e);
+      }
+    }, "insightpulse-shutdown"));
+    AgentLog.info("Collector listening on %s:%d with %d workers", address.getHostString(),
+        server.port(), workers);
+
+    long interval = TimeUnit.SECONDS.toMillis(config.getInt(REPORT_INTERVAL_SECONDS, 10));
+    long saveInterval = TimeUnit.MINUTES.toNanos(config.getInt(ROLLUP_SAVE_MINUTES, 10));
+    long lastSave = System.nanoTime();
+    IngestStats stats = server.stats();
+    long spans = 0L;
+    long snapshots = 0L;
+    long bytes = 0L;
+    long last = System.nanoTime();
+    while (true) {
+      Thread.sleep(interval);
+      long now = System.nanoTime();
+      double seconds = (now - last) / 1e9;
+      AgentLog.info("ingest: %.0f spans/s, %.0f metrics/s, %.1f MB/s, %d connections, "
+              + "%d rejected, %d traces stored", (stats.spans() - spans) / seconds,
+          (stats.metrics() - snapshots) / seconds, (stats.bytes() - bytes) / seconds / 1e6,
+          stats.connections(), stats.rejected(), traces.size());
+      spans = stats.spans();
+      snapshots = stats.metrics();
+      bytes = stats.bytes();
+      last = now;
+      metrics.expire(System.currentTimeMillis());
+      traces.expire(System.currentTimeMillis());
+      if (now - lastSave >= saveInterval) {
+        try {
+          rollups.save(rollupFile);
+        } catch (IOException e) {
+          AgentLog.error("Could not save the rollups", e);
+        }
+        lastSave = now;
+      }
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package com.insightpulse.collector;
+
+import com.insightpulse.AgentLog;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Accepts agent connections and decodes their {@link com.insightpulse.wire.WireFormat} streams.
+ * <p>
+ * One acceptor thread hands new connections round robin to a fixed pool of
+ * {@link IngestWorker}s, each running its own selector. A connection stays on its worker for
+ * life, so decoding needs no locks and spreads over as many cores as there are workers; with
+ * agents batching their exports, a few connections per worker are enough to keep it busy.
+ */
+public final class CollectorServer {
+
+  /** Kernel receive buffer per connection; agents send batches of up to 64KB. */
+  private static final int RECEIVE_BUFFER_BYTES = 256 * 1024;
+
+  private final InetSocketAddress address;
+  private final IngestWorker[] workers;
+  private final Thread[] workerThreads;
+  private final IngestStats stats = new IngestStats();
+
+  private ServerSocketChannel server;
+  private Selector selector;
+  private Thread acceptor;
+  private int next;
+  private volatile boolean running;
+
+  /**
+   * @param workers decoding threads, typically one per core
+   * @param bufferBytes initial receive buffer of each connection
+   */
+  public CollectorServer(InetSocketAddress address, int workers, int bufferBytes,
+      HandlerFactory handlers) throws IOException {
+    if (workers < 1) {
+      throw new IllegalArgumentException("workers must be at least 1: " + workers);
+    }
+    this.address = address;
+    this.workers = new IngestWorker[workers];
+    this.workerThreads = new Thread[workers];
+    for (int i = 0; i < workers; i++) {
+      this.workers[i] = new IngestWorker(handlers, stats, bufferBytes);
+    }
+  }
+
+  public synchronized void start() throws IOException {
+    server = ServerSocketChannel.open();
+    server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+    // inherited by accepted sockets, and only effective for large windows if set before bind
+    server.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_BYTES);
+    server.bind(address, 1024);
+    server.configureBlocking(false);
+    selector = Selector.open();
+    server.register(selector, SelectionKey.OP_ACCEPT);
+    running = true;
+    for (int i = 0; i < workers.length; i++) {
+      workerThreads[i] = new Thread(workers[i], "insightpulse-ingest-" + i);
+      workerThreads[i].start();
+    }
+    acceptor = new Thread(this::accept, "insightpulse-acceptor");
+    acceptor.start();
+  }
+
+  /**
+   * Closes the listening socket and every connection, and waits for the threads to finish.
+   */
+  public void stop() throws InterruptedException {
+    Thread[] threads;
+    synchronized (this) {
+      if (!running) {
+        return;
+      }
+      running = false;
+      selector.wakeup();
+      for (IngestWorker worker : workers) {
+        worker.stop();
+      }
+      threads = workerThreads.clone();
+    }
+    acceptor.join();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+  /**
+   * Port the server listens on, useful when it was bound to port 0.
+   */
+  public int port() {
+    return server.socket().getLocalPort();
+  }
+
+  public int workers() {
+    return workers.length;
+  }
+
+  public IngestStats stats() {
+    return stats;
+  }
+
+  private void accept() {
+    try {
+      while (running) {
+        selector.select();
+        selector.selectedKeys().clear();
+        try {
+          for (SocketChannel channel; (channel = server.accept()) != null; ) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            workers[next].adopt(channel);
+            next = (next + 1) % workers.length;
+          }
+        } catch (IOException e) {
+          // e.g. out of file descriptors: the listening socket itself is still fine
+          if (running) {
+            AgentLog.warn("Could not accept connection: %s", e);
+          }
+        }
+      }
+    } catch (IOException | ClosedSelectorException e) {
+      if (running) {
+        AgentLog.error("Collector stopped accepting connections", e);
+      }
+    } finally {
+      try {
+        selector.close();
+        server.close();
+      } catch (IOException e) {
+        // shutting down anyway
+      }
+    }
+  }
+}
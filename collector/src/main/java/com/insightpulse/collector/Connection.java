@@ -0,0 +1,129 @@
+package com.insightpulse.collector;
+
+import com.insightpulse.metrics.Histogram;
+import com.insightpulse.wire.WireDecoder;
+import com.insightpulse.wire.WireFormat;
+import com.insightpulse.wire.WireFormatException;
+import com.insightpulse.wire.WireHandler;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * One agent connection, owned by a single {@link IngestWorker}.
+ * <p>
+ * The receive buffer lives as long as the connection: every read appends to it, the decoder
+ * consumes the complete frames and the trailing partial frame is compacted to the front for the
+ * next read. It only grows, by doubling, when a single frame does not fit.
+ */
+final class Connection implements WireHandler {
+
+  /** Socket reads per readiness event before other connections get a turn. */
+  private static final int MAX_READS = 16;
+
+  private final SocketChannel channel;
+  private final SocketAddress remote;
+  private final WireHandler handler;
+  private final WireDecoder decoder;
+  private ByteBuffer buffer;
+
+  private long spans;
+  private long metrics;
+
+  Connection(SocketChannel channel, SocketAddress remote, WireHandler handler, int bufferBytes) {
+    this.channel = channel;
+    this.remote = remote;
+    this.handler = handler;
+    this.decoder = new WireDecoder(this);
+    this.buffer = ByteBuffer.allocateDirect(bufferBytes);
+  }
+
+  SocketChannel channel() {
+    return channel;
+  }
+
+  SocketAddress remote() {
+    return remote;
+  }
+
+  int bufferCapacity() {
+    return buffer.capacity();
+  }
+
+  /**
+   * Reads and decodes what the socket has.
+   *
+   * @return {@code false} once the agent closed the connection
+   * @throws WireFormatException if the stream is not valid
+   */
+  boolean read(IngestStats stats) throws IOException {
+    long bytes = 0L;
+    boolean open = true;
+    for (int i = 0; i < MAX_READS; i++) {
+      int n = channel.read(buffer);
+      if (n < 0) {
+        open = false;
+        break;
+      }
+      if (n == 0) {
+        break;
+      }
+      bytes += n;
+      buffer.flip();
+      decoder.decode(buffer);
+      buffer.compact();
+      if (!buffer.hasRemaining()) {
+        grow();
+      }
+    }
+    stats.add(bytes, spans, metrics);
+    spans = 0L;
+    metrics = 0L;
+    return open;
+  }
+
+  private void grow() throws WireFormatException {
+    // header and length prefix on top of the largest payload
+    int limit = WireFormat.MAX_FRAME + 16;
+    if (buffer.capacity() >= limit) {
+      throw new WireFormatException("Frame larger than " + WireFormat.MAX_FRAME + " bytes");
+    }
+    ByteBuffer larger = ByteBuffer.allocateDirect(Math.min(buffer.capacity() * 2, limit));
+    buffer.flip();
+    larger.put(buffer);
+    buffer = larger;
+  }
+
+  void close() {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // nothing left to do with it
+    }
+  }
+
+  @Override
+  public void onHello(String agent, long epochMillis, long nanoTime) {
+    handler.onHello(agent, epochMillis, nanoTime);
+  }
+
+  @Override
+  public void onSpan(int kind, String name, String ref, long traceId, long startNanos,
+      long durationNanos, long value) {
+    spans++;
+    handler.onSpan(kind, name, ref, traceId, startNanos, durationNanos, value);
+  }
+
+  @Override
+  public void onHistogram(String metric, String name, long epochMillis, Histogram histogram) {
+    metrics++;
+    handler.onHistogram(metric, name, epochMillis, histogram);
+  }
+
+  @Override
+  public void onCounter(String metric, String name, long epochMillis, long value) {
+    metrics++;
+    handler.onCounter(metric, name, epochMillis, value);
+  }
+}
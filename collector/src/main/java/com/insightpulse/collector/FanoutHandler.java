@@ -0,0 +1,45 @@
+package com.insightpulse.collector;
+
+import com.insightpulse.metrics.Histogram;
+import com.insightpulse.wire.WireHandler;
+
+/**
+ * Passes everything a connection decodes to several handlers, in order.
+ */
+final class FanoutHandler implements WireHandler {
+
+  private final WireHandler[] handlers;
+
+  FanoutHandler(WireHandler... handlers) {
+    this.handlers = handlers.clone();
+  }
+
+  @Override
+  public void onHello(String agent, long epochMillis, long nanoTime) {
+    for (WireHandler handler : handlers) {
+      handler.onHello(agent, epochMillis, nanoTime);
+    }
+  }
+
+  @Override
+  public void onSpan(int kind, String name, String ref, long traceId, long startNanos,
+      long durationNanos, long value) {
+    for (WireHandler handler : handlers) {
+      handler.onSpan(kind, name, ref, traceId, startNanos, durationNanos, value);
+    }
+  }
+
+  @Override
+  public void onHistogram(String metric, String name, long epochMillis, Histogram histogram) {
+    for (WireHandler handler : handlers) {
+      handler.onHistogram(metric, name, epochMillis, histogram);
+    }
+  }
+
+  @Override
+  public void onCounter(String metric, String name, long epochMillis, long value) {
+    for (WireHandler handler : handlers) {
+      handler.onCounter(metric, name, epochMillis, value);
+    }
+  }
+}
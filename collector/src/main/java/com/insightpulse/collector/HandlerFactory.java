@@ -0,0 +1,16 @@
+package com.insightpulse.collector;
+
+import com.insightpulse.wire.WireHandler;
+import java.net.SocketAddress;
+
+/**
+ * Creates the handler an agent connection's decoded stream goes to.
+ * <p>
+ * Called on the worker thread that owns the connection, which is the only thread the returned
+ * handler is ever called on; handlers therefore need no locking unless they share state across
+ * connections.
+ */
+public interface HandlerFactory {
+
+  WireHandler open(SocketAddress remote);
+}
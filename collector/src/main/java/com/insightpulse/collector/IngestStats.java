@@ -0,0 +1,68 @@
+package com.insightpulse.collector;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals of a {@link CollectorServer}, readable from any thread.
+ * <p>
+ * Workers count into plain per-connection fields and add them here once per read, so the totals
+ * cost a few atomic adds per socket read rather than one per span.
+ */
+public final class IngestStats {
+
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicLong spans = new AtomicLong();
+  private final AtomicLong metrics = new AtomicLong();
+  private final AtomicLong accepted = new AtomicLong();
+  private final AtomicLong closed = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+
+  void add(long bytes, long spans, long metrics) {
+    if (bytes != 0L) {
+      this.bytes.addAndGet(bytes);
+    }
+    if (spans != 0L) {
+      this.spans.addAndGet(spans);
+    }
+    if (metrics != 0L) {
+      this.metrics.addAndGet(metrics);
+    }
+  }
+
+  void accepted() {
+    accepted.incrementAndGet();
+  }
+
+  void closed(boolean malformed) {
+    closed.incrementAndGet();
+    if (malformed) {
+      rejected.incrementAndGet();
+    }
+  }
+
+  public long bytes() {
+    return bytes.get();
+  }
+
+  public long spans() {
+    return spans.get();
+  }
+
+  /**
+   * Histogram and counter snapshots received.
+   */
+  public long metrics() {
+    return metrics.get();
+  }
+
+  public long connections() {
+    return accepted.get() - closed.get();
+  }
+
+  /**
+   * Connections closed because their stream was not valid.
+   */
+  public long rejected() {
+    return rejected.get();
+  }
+}
@@ -0,0 +1,134 @@
+package com.insightpulse.collector;
+
+import com.insightpulse.AgentLog;
+import com.insightpulse.wire.WireFormatException;
+import com.insightpulse.wire.WireHandler;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One of the {@link CollectorServer}'s decoding threads.
+ * <p>
+ * Each worker runs its own selector over the connections it was handed and reads and decodes
+ * them itself, so a connection's bytes never cross threads and connections on different workers
+ * share nothing.
+ */
+final class IngestWorker implements Runnable {
+
+  private final Selector selector;
+  private final HandlerFactory handlers;
+  private final IngestStats stats;
+  private final int bufferBytes;
+  private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+  private volatile boolean running = true;
+
+  IngestWorker(HandlerFactory handlers, IngestStats stats, int bufferBytes) throws IOException {
+    this.selector = Selector.open();
+    this.handlers = handlers;
+    this.stats = stats;
+    this.bufferBytes = bufferBytes;
+  }
+
+  /**
+   * Hands an accepted connection to this worker; called by the acceptor thread.
+   */
+  void adopt(SocketChannel channel) {
+    pending.offer(channel);
+    selector.wakeup();
+  }
+
+  void stop() {
+    running = false;
+    selector.wakeup();
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (running) {
+        selector.select();
+        register();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (key.isValid() && key.isReadable()) {
+            read(key);
+          }
+        }
+      }
+    } catch (IOException | ClosedSelectorException e) {
+      if (running) {
+        AgentLog.error("Ingest worker failed", e);
+      }
+    } finally {
+      for (SelectionKey key : selector.keys()) {
+        close(key, false);
+      }
+      for (SocketChannel channel; (channel = pending.poll()) != null; ) {
+        closeQuietly(channel);
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        // shutting down anyway
+      }
+    }
+  }
+
+  private void register() {
+    for (SocketChannel channel; (channel = pending.poll()) != null; ) {
+      try {
+        SocketAddress remote = channel.getRemoteAddress();
+        WireHandler handler = handlers.open(remote);
+        channel.register(selector, SelectionKey.OP_READ,
+            new Connection(channel, remote, handler, bufferBytes));
+        stats.accepted();
+      } catch (IOException | RuntimeException e) {
+        AgentLog.warn("Could not accept connection: %s", e);
+        closeQuietly(channel);
+      }
+    }
+  }
+
+  private void read(SelectionKey key) {
+    Connection connection = (Connection) key.attachment();
+    try {
+      if (!connection.read(stats)) {
+        AgentLog.debug("Agent at %s disconnected", connection.remote());
+        close(key, false);
+      }
+    } catch (WireFormatException e) {
+      AgentLog.warn("Dropping connection from %s: %s", connection.remote(), e.getMessage());
+      close(key, true);
+    } catch (IOException e) {
+      AgentLog.debug("Connection from %s failed: %s", connection.remote(), e);
+      close(key, false);
+    } catch (RuntimeException e) {
+      // a failing handler must not take the other connections on this worker down with it
+      AgentLog.error("Handler failed for " + connection.remote(), e);
+      close(key, false);
+    }
+  }
+
+  private void close(SelectionKey key, boolean malformed) {
+    key.cancel();
+    ((Connection) key.attachment()).close();
+    stats.closed(malformed);
+  }
+
+  private static void closeQuietly(SocketChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // nothing left to do with it
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package com.insightpulse.collector;
+
+import com.insightpulse.metrics.Histogram;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The last cumulative snapshot of every metric per running agent, shared by all connections.
+ * <p>
+ * Agents resend their totals after every reconnect and replay spooled snapshots, so a baseline
+ * must outlive the connection it was sent on. A running agent is told apart from an earlier run
+ * by the name it reports plus the epoch time of its {@link System#nanoTime} origin, which the
+ * hello gives as a pair; clocks drift, so origins within {@value #SAME_START_MILLIS} ms of each
+ * other are taken to be the same run. Only the latest {@value #MAX_STARTS} runs per name are
+ * kept.
+ */
+final class MetricBaselines {
+
+  static final long SAME_START_MILLIS = 1000L;
+  static final int MAX_STARTS = 4;
+
+  private final Map<String, Deque<Baseline>> agents = new HashMap<>();
+
+  /**
+   * Baseline of the run of {@code agent} that sent a hello with these times.
+   */
+  synchronized Baseline of(String agent, long epochMillis, long nanoTime) {
+    long origin = epochMillis - nanoTime / 1_000_000L;
+    Deque<Baseline> starts = agents.computeIfAbsent(agent, name -> new ArrayDeque<>());
+    for (Baseline baseline : starts) {
+      if (Math.abs(baseline.origin - origin) <= SAME_START_MILLIS) {
+        return baseline;
+      }
+    }
+    if (starts.size() == MAX_STARTS) {
+      starts.removeLast();
+    }
+    Baseline baseline = new Baseline(origin);
+    starts.addFirst(baseline);
+    return baseline;
+  }
+
+  /**
+   * Snapshots of one agent run; the connections it used may be served by different threads.
+   */
+  static final class Baseline {
+
+    private final long origin;
+    private final Map<String, Histogram> histograms = new HashMap<>();
+    private final Map<String, Long> counters = new HashMap<>();
+
+    private Baseline(long origin) {
+      this.origin = origin;
+    }
+
+    /**
+     * @return the snapshot {@code histogram} replaces, or {@code null} if it is the first
+     */
+    synchronized Histogram swap(String key, Histogram histogram) {
+      return histograms.put(key, histogram);
+    }
+
+    /**
+     * @return the total {@code value} replaces, or {@code null} if it is the first
+     */
+    synchronized Long swap(String key, long value) {
+      return counters.put(key, value);
+    }
+  }
+}
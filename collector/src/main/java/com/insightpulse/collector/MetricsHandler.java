@@ -0,0 +1,96 @@
+package com.insightpulse.collector;
+
+import com.insightpulse.AgentLog;
+import com.insightpulse.collector.rollup.Rollups;
+import com.insightpulse.collector.tsdb.MetricStore;
+import com.insightpulse.metrics.Histogram;
+import com.insightpulse.wire.WireHandler;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Turns one connection's cumulative metric snapshots into per-interval series in a
+ * {@link MetricStore}, and timer intervals into {@link Rollups}.
+ * <p>
+ * Agents send totals since they started, so each snapshot stores the difference to its
+ * predecessor from the same agent run, on whatever connection that came; see
+ * {@link MetricBaselines}. The first snapshot of a run has no predecessor and counts in full, as
+ * does a total that went backwards, which means the agent restarted. A timer becomes the series
+ * {@code count}, {@code mean}, {@code p50}, {@code p99} and {@code max}, in nanoseconds, a counter
+ * the series {@code count}.
+ */
+final class MetricsHandler implements WireHandler {
+
+  private final MetricStore store;
+  private final Rollups rollups;
+  private final MetricBaselines baselines;
+  private String agent = "unknown";
+  private MetricBaselines.Baseline baseline;
+
+  MetricsHandler(MetricStore store, Rollups rollups, MetricBaselines baselines) {
+    this.store = store;
+    this.rollups = rollups;
+    this.baselines = baselines;
+    this.baseline = baselines.of(agent, 0L, 0L);
+  }
+
+  /**
+   * Key of one field of a metric, e.g. {@code endpoint.p99|GET /api/vets|petclinic-1}.
+   */
+  static String seriesKey(String agent, String metric, String name, String field) {
+    return metric + '.' + field + '|' + name + '|' + agent;
+  }
+
+  @Override
+  public void onHello(String agent, long epochMillis, long nanoTime) {
+    // agents replaying their spool send a hello per batch
+    if (!agent.equals(this.agent)) {
+      this.agent = agent;
+      AgentLog.info("Agent %s connected", agent);
+    }
+    baseline = baselines.of(agent, epochMillis, nanoTime);
+  }
+
+  @Override
+  public void onSpan(int kind, String name, String ref, long traceId, long startNanos,
+      long durationNanos, long value) {
+  }
+
+  @Override
+  public void onHistogram(String metric, String name, long epochMillis, Histogram histogram) {
+    String key = metric + '|' + name;
+    Histogram previous = baseline.swap(key, histogram);
+    Histogram interval = histogram;
+    if (previous != null && histogram.getTotalCount() >= previous.getTotalCount()
+        && histogram.getLayout().isCompatibleWith(previous.getLayout())) {
+      interval = histogram.copy();
+      interval.subtract(previous);
+    }
+    rollups.add(metric, name, epochMillis, interval);
+    long count = interval.getTotalCount();
+    append(metric, name, "count", epochMillis, count);
+    if (count > 0) {
+      // whole nanoseconds compress far better than arbitrary fractions
+      append(metric, name, "mean", epochMillis, Math.round(interval.getMean()));
+      append(metric, name, "p50", epochMillis, interval.valueAtPercentile(50.0));
+      append(metric, name, "p99", epochMillis, interval.valueAtPercentile(99.0));
+      append(metric, name, "max", epochMillis, interval.getMax());
+    }
+  }
+
+  @Override
+  public void onCounter(String metric, String name, long epochMillis, long value) {
+    Long previous = baseline.swap(metric + '|' + name, value);
+    long interval = previous != null && value >= previous ? value - previous : value;
+    append(metric, name, "count", epochMillis, interval);
+  }
+
+  private void append(String metric, String name, String field, long epochMillis,
+      double value) {
+    try {
+      store.append(seriesKey(agent, metric, name, field), epochMillis, value);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
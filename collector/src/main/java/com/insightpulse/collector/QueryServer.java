@@ -0,0 +1,189 @@
+package com.insightpulse.collector;
+
+import com.insightpulse.collector.rollup.Rollups;
+import com.insightpulse.metrics.Histogram;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-only HTTP API over the collector's {@link Rollups}, for dashboards.
+ * <p>
+ * {@code GET /api/percentiles?metric=endpoint&name=GET /api/vets&p=99&range=7d&resolution=1h}
+ * answers with the percentile of each period in the range and of the whole range, all merged
+ * from pre-aggregated histograms; {@code to} (epoch millis) moves the range's end from now.
+ * {@code GET /api/timers} lists the timers with rollups.
+ */
+final class QueryServer {
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  QueryServer(InetSocketAddress address, Rollups rollups) throws IOException {
+    server = HttpServer.create(address, 0);
+    executor = Executors.newFixedThreadPool(2, runnable -> {
+      Thread thread = new Thread(runnable, "insightpulse-query");
+      thread.setDaemon(true);
+      return thread;
+    });
+    server.setExecutor(executor);
+    server.createContext("/api/percentiles", exchange -> {
+      try {
+        respond(exchange, 200, percentiles(rollups, parameters(exchange)));
+      } catch (IllegalArgumentException e) {
+        respond(exchange, 400, "{\"error\":" + quote(String.valueOf(e.getMessage())) + "}");
+      }
+    });
+    server.createContext("/api/timers", exchange -> {
+      StringBuilder json = new StringBuilder("[");
+      List<String> timers = rollups.timers();
+      for (int i = 0; i < timers.size(); i++) {
+        json.append(i == 0 ? "" : ",").append(quote(timers.get(i)));
+      }
+      respond(exchange, 200, json.append(']').toString());
+    });
+  }
+
+  void start() {
+    server.start();
+  }
+
+  void stop() {
+    server.stop(0);
+    executor.shutdown();
+  }
+
+  int port() {
+    return server.getAddress().getPort();
+  }
+
+  static String percentiles(Rollups rollups, Map<String, String> parameters) {
+    String metric = required(parameters, "metric");
+    String name = required(parameters, "name");
+    double percentile = parsePercentile(parameters.getOrDefault("p", "99"));
+    Rollups.Resolution resolution =
+        Rollups.Resolution.parse(parameters.getOrDefault("resolution", "1m"));
+    long to = parameters.containsKey("to") ? Long.parseLong(parameters.get("to"))
+        : System.currentTimeMillis();
+    long from = to - parseDuration(parameters.getOrDefault("range", "1h"));
+
+    StringBuilder json = new StringBuilder(256);
+    json.append("{\"metric\":").append(quote(metric))
+        .append(",\"name\":").append(quote(name))
+        .append(",\"percentile\":").append(percentile)
+        .append(",\"from\":").append(from)
+        .append(",\"to\":").append(to)
+        .append(",\"points\":[");
+    int[] points = new int[1];
+    rollups.percentiles(metric, name, from, to, resolution, percentile, (millis, value) -> {
+      json.append(points[0]++ == 0 ? "" : ",").append('[').append(millis).append(',')
+          .append((long) value).append(']');
+    });
+    Histogram total = rollups.merge(metric, name, from, to, resolution);
+    long count = total == null ? 0L : total.getTotalCount();
+    json.append("],\"count\":").append(count);
+    if (count > 0) {
+      json.append(",\"value\":").append(total.valueAtPercentile(percentile));
+    }
+    return json.append('}').toString();
+  }
+
+  /**
+   * Parses a percentile between 0 and 100.
+   */
+  static double parsePercentile(String text) {
+    double percentile;
+    try {
+      percentile = Double.parseDouble(text);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Not a percentile: " + text);
+    }
+    // also false for NaN
+    if (!(percentile >= 0.0 && percentile <= 100.0)) {
+      throw new IllegalArgumentException("Not a percentile: " + text);
+    }
+    return percentile;
+  }
+
+  /**
+   * Parses durations like {@code 90s}, {@code 15m}, {@code 6h} or {@code 7d}.
+   */
+  static long parseDuration(String text) {
+    if (text.length() < 2) {
+      throw new IllegalArgumentException("Not a duration: " + text);
+    }
+    long amount = Long.parseLong(text.substring(0, text.length() - 1));
+    switch (text.charAt(text.length() - 1)) {
+      case 's':
+        return TimeUnit.SECONDS.toMillis(amount);
+      case 'm':
+        return TimeUnit.MINUTES.toMillis(amount);
+      case 'h':
+        return TimeUnit.HOURS.toMillis(amount);
+      case 'd':
+        return TimeUnit.DAYS.toMillis(amount);
+      default:
+        throw new IllegalArgumentException("Not a duration: " + text);
+    }
+  }
+
+  private static String required(Map<String, String> parameters, String name) {
+    String value = parameters.get(name);
+    if (value == null || value.isEmpty()) {
+      throw new IllegalArgumentException("Missing parameter " + name);
+    }
+    return value;
+  }
+
+  private static Map<String, String> parameters(HttpExchange exchange)
+      throws UnsupportedEncodingException {
+    Map<String, String> parameters = new HashMap<>();
+    String query = exchange.getRequestURI().getRawQuery();
+    if (query != null) {
+      for (String pair : query.split("&")) {
+        int eq = pair.indexOf('=');
+        if (eq > 0) {
+          parameters.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+              URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+        }
+      }
+    }
+    return parameters;
+  }
+
+  private static void respond(HttpExchange exchange, int status, String json)
+      throws IOException {
+    byte[] body = json.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  static String quote(String text) {
+    StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      } else if (c < 0x20) {
+        quoted.append(String.format("\\u%04x", (int) c));
+      } else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+}
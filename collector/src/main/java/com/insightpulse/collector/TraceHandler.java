@@ -0,0 +1,70 @@
+package com.insightpulse.collector;
+
+import com.insightpulse.collector.traces.TraceLog;
+import com.insightpulse.metrics.Histogram;
+import com.insightpulse.trace.SpanKind;
+import com.insightpulse.wire.WireEncoder;
+import com.insightpulse.wire.WireHandler;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Reassembles one connection's traces and appends each to a {@link TraceLog} once complete.
+ * <p>
+ * Agents send a trace's spans back to back and finish with its {@link SpanKind#REQUEST} span.
+ * The spans are re-encoded as they arrive into a stream of their own, which starts with the
+ * connection's clock reference so that readers can place the spans in wall-clock time; the
+ * request span completes it. A trace cut short by the next one is dropped.
+ */
+final class TraceHandler implements WireHandler {
+
+  private final TraceLog log;
+  private final WireEncoder encoder = new WireEncoder(4096);
+  private String agent = "unknown";
+  private long helloMillis;
+  private long helloNanos;
+  /** Trace being reassembled, or 0. */
+  private long traceId;
+
+  TraceHandler(TraceLog log) {
+    this.log = log;
+  }
+
+  @Override
+  public void onHello(String agent, long epochMillis, long nanoTime) {
+    this.agent = agent;
+    helloMillis = epochMillis;
+    helloNanos = nanoTime;
+  }
+
+  @Override
+  public void onSpan(int kind, String name, String ref, long traceId, long startNanos,
+      long durationNanos, long value) {
+    if (traceId == 0L) {
+      return;
+    }
+    if (traceId != this.traceId) {
+      this.traceId = traceId;
+      encoder.reset();
+      encoder.writeHeader(agent, helloMillis, helloNanos);
+    }
+    encoder.writeSpan(kind, name, ref, traceId, startNanos, durationNanos, value);
+    if (kind == SpanKind.REQUEST) {
+      this.traceId = 0L;
+      long epochMillis = helloMillis + (startNanos - helloNanos) / 1_000_000L;
+      try {
+        log.append(0L, traceId, epochMillis, encoder.buffer());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  @Override
+  public void onHistogram(String metric, String name, long epochMillis, Histogram histogram) {
+  }
+
+  @Override
+  public void onCounter(String metric, String name, long epochMillis, long value) {
+  }
+}
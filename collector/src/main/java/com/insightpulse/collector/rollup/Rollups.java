@@ -0,0 +1,259 @@
+package com.insightpulse.collector.rollup;
+
+import com.insightpulse.collector.tsdb.PointVisitor;
+import com.insightpulse.metrics.Histogram;
+import com.insightpulse.metrics.HistogramLayout;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histograms of every timer, pre-aggregated across agents at one-second, one-minute and
+ * one-hour resolution as intervals arrive.
+ * <p>
+ * Each interval is merged into the current period of all three tiers at once, so a query over
+ * a week at hourly resolution merges 168 stored histograms instead of touching the intervals,
+ * let alone the spans, behind them. Percentiles over merged histograms are exact within the
+ * layout's precision, unlike averages of per-period percentiles. Each tier is a ring that keeps
+ * a fixed number of periods: by default an hour of seconds, a day of minutes and 30 days of
+ * hours.
+ * <p>
+ * Histograms of a metric must share a layout; intervals with another layout than the first one
+ * seen are counted and ignored.
+ */
+public final class Rollups {
+
+  public static final int DEFAULT_SECONDS = 3600;
+  public static final int DEFAULT_MINUTES = 1440;
+  public static final int DEFAULT_HOURS = 720;
+
+  private static final int MAGIC = 0x4950524C; // "IPRL"
+  private static final int VERSION = 1;
+
+  /**
+   * Period length of a tier.
+   */
+  public enum Resolution {
+    SECOND(TimeUnit.SECONDS.toMillis(1)),
+    MINUTE(TimeUnit.MINUTES.toMillis(1)),
+    HOUR(TimeUnit.HOURS.toMillis(1));
+
+    private final long millis;
+
+    Resolution(long millis) {
+      this.millis = millis;
+    }
+
+    public long millis() {
+      return millis;
+    }
+
+    /**
+     * Parses {@code 1s}, {@code 1m} or {@code 1h}.
+     */
+    public static Resolution parse(String text) {
+      switch (text) {
+        case "1s":
+          return SECOND;
+        case "1m":
+          return MINUTE;
+        case "1h":
+          return HOUR;
+        default:
+          throw new IllegalArgumentException("Resolution must be 1s, 1m or 1h: " + text);
+      }
+    }
+  }
+
+  private final int[] slots;
+  private final Map<String, Series> series = new ConcurrentHashMap<>();
+  private final AtomicLong incompatible = new AtomicLong();
+
+  public Rollups() {
+    this(DEFAULT_SECONDS, DEFAULT_MINUTES, DEFAULT_HOURS);
+  }
+
+  /**
+   * @param seconds periods kept at each resolution
+   */
+  public Rollups(int seconds, int minutes, int hours) {
+    this.slots = new int[]{seconds, minutes, hours};
+  }
+
+  /**
+   * Adds what a timer recorded in the interval ending at {@code epochMillis}.
+   */
+  public void add(String metric, String name, long epochMillis, Histogram interval) {
+    if (interval.getTotalCount() == 0L) {
+      return;
+    }
+    Series s = series.computeIfAbsent(key(metric, name),
+        key -> new Series(interval.getLayout(), slots));
+    if (!s.layout.isCompatibleWith(interval.getLayout())) {
+      incompatible.incrementAndGet();
+      return;
+    }
+    SparseHistogram sparse = SparseHistogram.of(interval);
+    synchronized (s) {
+      for (Tier tier : s.tiers) {
+        tier.add(epochMillis, sparse);
+      }
+    }
+  }
+
+  /**
+   * Merges the periods of {@code [fromMillis, toMillis)} at the given resolution; periods are
+   * included if they start in the range.
+   *
+   * @return the merged histogram, or {@code null} if the timer is unknown
+   */
+  public Histogram merge(String metric, String name, long fromMillis, long toMillis,
+      Resolution resolution) {
+    Series s = series.get(key(metric, name));
+    if (s == null) {
+      return null;
+    }
+    Histogram merged = new Histogram(s.layout);
+    Tier tier = s.tiers[resolution.ordinal()];
+    synchronized (s) {
+      for (long period = tier.firstPeriod(fromMillis); period < tier.endPeriod(toMillis);
+          period++) {
+        SparseHistogram histogram = tier.get(period);
+        if (histogram != null) {
+          histogram.addTo(merged);
+        }
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * Visits the given percentile of each non-empty period of {@code [fromMillis, toMillis)}, keyed
+   * by the period's start.
+   *
+   * @return the number of periods visited
+   */
+  public int percentiles(String metric, String name, long fromMillis, long toMillis,
+      Resolution resolution, double percentile, PointVisitor visitor) {
+    Series s = series.get(key(metric, name));
+    if (s == null) {
+      return 0;
+    }
+    Tier tier = s.tiers[resolution.ordinal()];
+    Histogram scratch = new Histogram(s.layout);
+    List<long[]> points = new ArrayList<>();
+    synchronized (s) {
+      for (long period = tier.firstPeriod(fromMillis); period < tier.endPeriod(toMillis);
+          period++) {
+        SparseHistogram histogram = tier.get(period);
+        if (histogram != null) {
+          scratch.reset();
+          histogram.addTo(scratch);
+          points.add(new long[]{period * tier.periodMillis(),
+              scratch.valueAtPercentile(percentile)});
+        }
+      }
+    }
+    // outside the lock: the visitor may be slow, e.g. writing to a socket
+    for (long[] point : points) {
+      visitor.accept(point[0], point[1]);
+    }
+    return points.size();
+  }
+
+  /**
+   * Timers with rollups, as {@code metric|name}.
+   */
+  public List<String> timers() {
+    return new ArrayList<>(series.keySet());
+  }
+
+  /**
+   * Intervals ignored because their layout differed from their timer's.
+   */
+  public long incompatible() {
+    return incompatible.get();
+  }
+
+  /**
+   * Writes every tier to {@code file}, atomically replacing it.
+   */
+  public void save(File file) throws IOException {
+    File temp = new File(file.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(temp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      for (Map.Entry<String, Series> entry : series.entrySet()) {
+        Series s = entry.getValue();
+        out.writeBoolean(true);
+        out.writeUTF(entry.getKey());
+        out.writeInt(s.layout.significantDigits());
+        out.writeLong(s.layout.highestTrackableValue());
+        synchronized (s) {
+          for (Tier tier : s.tiers) {
+            tier.write(out);
+          }
+        }
+      }
+      out.writeBoolean(false);
+    }
+    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Merges what {@link #save} wrote into these rollups; does nothing if {@code file} is missing.
+   */
+  public void load(File file) throws IOException {
+    if (!file.isFile()) {
+      return;
+    }
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Not a rollup file: " + file);
+      }
+      while (in.readBoolean()) {
+        String key = in.readUTF();
+        HistogramLayout layout = new HistogramLayout(in.readInt(), in.readLong());
+        Series s = series.computeIfAbsent(key, k -> new Series(layout, slots));
+        synchronized (s) {
+          for (Tier tier : s.tiers) {
+            tier.read(in, layout.bucketCount());
+          }
+        }
+      }
+    }
+  }
+
+  private static String key(String metric, String name) {
+    return metric + '|' + name;
+  }
+
+  private static final class Series {
+
+    final HistogramLayout layout;
+    final Tier[] tiers = new Tier[Resolution.values().length];
+
+    Series(HistogramLayout layout, int[] slots) {
+      this.layout = layout;
+      for (Resolution resolution : Resolution.values()) {
+        tiers[resolution.ordinal()] = new Tier(resolution.millis(), slots[resolution.ordinal()]);
+      }
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package com.insightpulse.collector.rollup;
+
+import com.insightpulse.metrics.Histogram;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Immutable histogram that keeps only its non-empty buckets, in index order.
+ * <p>
+ * A latency interval touches a few dozen of a layout's thousands of buckets, so rollup slots
+ * are kept in this form; merging two is a merge of sorted runs. The layout lives with the
+ * series, not here.
+ */
+final class SparseHistogram {
+
+  private final int[] indexes;
+  private final long[] counts;
+  private final long sum;
+
+  private SparseHistogram(int[] indexes, long[] counts, long sum) {
+    this.indexes = indexes;
+    this.counts = counts;
+    this.sum = sum;
+  }
+
+  static SparseHistogram of(Histogram histogram) {
+    int buckets = 0;
+    for (int i = 0; i < histogram.bucketCount(); i++) {
+      if (histogram.countAt(i) != 0L) {
+        buckets++;
+      }
+    }
+    int[] indexes = new int[buckets];
+    long[] counts = new long[buckets];
+    for (int i = 0, j = 0; j < buckets; i++) {
+      long count = histogram.countAt(i);
+      if (count != 0L) {
+        indexes[j] = i;
+        counts[j++] = count;
+      }
+    }
+    return new SparseHistogram(indexes, counts, histogram.getSum());
+  }
+
+  SparseHistogram merge(SparseHistogram other) {
+    int[] mergedIndexes = new int[indexes.length + other.indexes.length];
+    long[] mergedCounts = new long[mergedIndexes.length];
+    int i = 0;
+    int j = 0;
+    int n = 0;
+    while (i < indexes.length || j < other.indexes.length) {
+      int a = i < indexes.length ? indexes[i] : Integer.MAX_VALUE;
+      int b = j < other.indexes.length ? other.indexes[j] : Integer.MAX_VALUE;
+      mergedIndexes[n] = Math.min(a, b);
+      mergedCounts[n++] = (a <= b ? counts[i++] : 0L) + (b <= a ? other.counts[j++] : 0L);
+    }
+    if (n < mergedIndexes.length) {
+      mergedIndexes = Arrays.copyOf(mergedIndexes, n);
+      mergedCounts = Arrays.copyOf(mergedCounts, n);
+    }
+    return new SparseHistogram(mergedIndexes, mergedCounts, sum + other.sum);
+  }
+
+  /**
+   * Adds this histogram's buckets to a dense histogram of the same layout.
+   */
+  void addTo(Histogram histogram) {
+    for (int i = 0; i < indexes.length; i++) {
+      // the sum goes in whole with the first bucket, as in the wire format
+      histogram.addToBucket(indexes[i], counts[i], i == 0 ? sum : 0L);
+    }
+  }
+
+  int buckets() {
+    return indexes.length;
+  }
+
+  void write(DataOutput out) throws IOException {
+    out.writeLong(sum);
+    out.writeInt(indexes.length);
+    for (int i = 0; i < indexes.length; i++) {
+      out.writeInt(indexes[i]);
+      out.writeLong(counts[i]);
+    }
+  }
+
+  static SparseHistogram read(DataInput in, int bucketCount) throws IOException {
+    long sum = in.readLong();
+    int buckets = in.readInt();
+    if (buckets < 0 || buckets > bucketCount) {
+      throw new IOException("Corrupt histogram of " + buckets + " buckets");
+    }
+    int[] indexes = new int[buckets];
+    long[] counts = new long[buckets];
+    for (int i = 0; i < buckets; i++) {
+      indexes[i] = in.readInt();
+      counts[i] = in.readLong();
+      if (indexes[i] < 0 || indexes[i] >= bucketCount || i > 0 && indexes[i] <= indexes[i - 1]) {
+        throw new IOException("Corrupt histogram bucket " + indexes[i]);
+      }
+    }
+    return new SparseHistogram(indexes, counts, sum);
+  }
+}
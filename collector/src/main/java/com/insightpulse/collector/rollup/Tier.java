@@ -0,0 +1,96 @@
+package com.insightpulse.collector.rollup;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Ring of per-period histograms at one resolution; the oldest period is overwritten as time
+ * moves on. Not thread-safe.
+ */
+final class Tier {
+
+  private static final long EMPTY = Long.MIN_VALUE;
+
+  private final long periodMillis;
+  private final long[] periods;
+  private final SparseHistogram[] histograms;
+  private long newest = EMPTY;
+
+  Tier(long periodMillis, int slots) {
+    this.periodMillis = periodMillis;
+    this.periods = new long[slots];
+    this.histograms = new SparseHistogram[slots];
+    Arrays.fill(periods, EMPTY);
+  }
+
+  /**
+   * Merges {@code histogram} into its period; dropped if the period has already left the ring.
+   */
+  void add(long epochMillis, SparseHistogram histogram) {
+    long period = Math.floorDiv(epochMillis, periodMillis);
+    if (newest != EMPTY && period <= newest - periods.length) {
+      return;
+    }
+    newest = Math.max(newest, period);
+    int slot = (int) Math.floorMod(period, (long) periods.length);
+    if (periods[slot] == period) {
+      histograms[slot] = histograms[slot].merge(histogram);
+    } else {
+      periods[slot] = period;
+      histograms[slot] = histogram;
+    }
+  }
+
+  /**
+   * Histogram of the period starting at {@code period * periodMillis}, or {@code null}.
+   */
+  SparseHistogram get(long period) {
+    int slot = (int) Math.floorMod(period, (long) periods.length);
+    return periods[slot] == period ? histograms[slot] : null;
+  }
+
+  /**
+   * First period starting at or after {@code fromMillis} that the ring may still hold.
+   */
+  long firstPeriod(long fromMillis) {
+    return newest == EMPTY ? 0L
+        : Math.max(-Math.floorDiv(-fromMillis, periodMillis), newest - periods.length + 1);
+  }
+
+  /**
+   * Period after the last one starting before {@code toMillis} that the ring may hold.
+   */
+  long endPeriod(long toMillis) {
+    return newest == EMPTY ? 0L : Math.min(-Math.floorDiv(-toMillis, periodMillis), newest + 1);
+  }
+
+  long periodMillis() {
+    return periodMillis;
+  }
+
+  void write(DataOutput out) throws IOException {
+    int used = 0;
+    for (long period : periods) {
+      if (period != EMPTY) {
+        used++;
+      }
+    }
+    out.writeInt(used);
+    for (int slot = 0; slot < periods.length; slot++) {
+      if (periods[slot] != EMPTY) {
+        out.writeLong(periods[slot]);
+        histograms[slot].write(out);
+      }
+    }
+  }
+
+  void read(DataInput in, int bucketCount) throws IOException {
+    int used = in.readInt();
+    for (int i = 0; i < used; i++) {
+      long period = in.readLong();
+      add(period * periodMillis, SparseHistogram.read(in, bucketCount));
+    }
+  }
+}
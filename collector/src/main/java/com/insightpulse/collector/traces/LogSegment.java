@@ -0,0 +1,165 @@
+package com.insightpulse.collector.traces;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A fixed-size, memory-mapped file of trace records, appended to until full.
+ * <p>
+ * Layout: a header of magic, version, end offset, and the time range of its traces, followed by
+ * records of {@code length, idHigh, idLow, epochMillis, payload}, where the length covers the
+ * payload. The end offset is written after each record, so a segment reopened after a crash ends
+ * at its last complete record. Payloads are copied through duplicates of the shared mapping, so
+ * readers never disturb each other or the writer.
+ */
+final class LogSegment {
+
+  static final int MAGIC = 0x4950544C; // "IPTL"
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 32;
+  static final int RECORD_HEADER_BYTES = 28;
+
+  private static final int END_OFFSET = 8;
+  private static final int MIN_OFFSET = 16;
+  private static final int MAX_OFFSET = 24;
+
+  private final int id;
+  private final File file;
+  private final MappedByteBuffer buffer;
+  private int end;
+  private long minMillis;
+  private long maxMillis;
+
+  private LogSegment(int id, File file, MappedByteBuffer buffer) {
+    this.id = id;
+    this.file = file;
+    this.buffer = buffer;
+  }
+
+  static LogSegment create(File file, int id, int capacity) throws IOException {
+    LogSegment segment = new LogSegment(id, file, map(file, capacity));
+    segment.buffer.putInt(0, MAGIC);
+    segment.buffer.putInt(4, VERSION);
+    segment.end = HEADER_BYTES;
+    segment.minMillis = Long.MAX_VALUE;
+    segment.maxMillis = Long.MIN_VALUE;
+    segment.writeHeader();
+    return segment;
+  }
+
+  static LogSegment open(File file, int id) throws IOException {
+    LogSegment segment = new LogSegment(id, file, map(file, 0));
+    MappedByteBuffer buffer = segment.buffer;
+    if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a trace segment: " + file);
+    }
+    if (buffer.getInt(4) != VERSION) {
+      throw new IOException("Unsupported segment version " + buffer.getInt(4) + ": " + file);
+    }
+    segment.end = buffer.getInt(END_OFFSET);
+    segment.minMillis = buffer.getLong(MIN_OFFSET);
+    segment.maxMillis = buffer.getLong(MAX_OFFSET);
+    if (segment.end < HEADER_BYTES || segment.end > buffer.capacity()) {
+      throw new IOException("Corrupt segment end " + segment.end + ": " + file);
+    }
+    return segment;
+  }
+
+  private static MappedByteBuffer map(File file, int capacity) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      if (capacity > 0) {
+        // sparse: untouched pages take no disk space
+        raf.setLength(capacity);
+      }
+      // the mapping stays valid after the channel is closed
+      return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+    }
+  }
+
+  boolean fits(int payloadBytes) {
+    return end + RECORD_HEADER_BYTES + payloadBytes <= buffer.capacity();
+  }
+
+  /**
+   * Appends a record.
+   *
+   * @return offset of the record
+   */
+  int append(long high, long low, long epochMillis, ByteBuffer payload) {
+    int offset = end;
+    int length = payload.remaining();
+    buffer.putInt(offset, length);
+    buffer.putLong(offset + 4, high);
+    buffer.putLong(offset + 12, low);
+    buffer.putLong(offset + 20, epochMillis);
+    ByteBuffer target = buffer.duplicate();
+    target.position(offset + RECORD_HEADER_BYTES);
+    target.put(payload.duplicate());
+    end = offset + RECORD_HEADER_BYTES + length;
+    minMillis = Math.min(minMillis, epochMillis);
+    maxMillis = Math.max(maxMillis, epochMillis);
+    writeHeader();
+    return offset;
+  }
+
+  /**
+   * Copies the payload of the record at {@code offset}.
+   */
+  byte[] payload(int offset) {
+    byte[] payload = new byte[buffer.getInt(offset)];
+    ByteBuffer source = buffer.duplicate();
+    source.position(offset + RECORD_HEADER_BYTES);
+    source.get(payload);
+    return payload;
+  }
+
+  private void writeHeader() {
+    buffer.putLong(MIN_OFFSET, minMillis);
+    buffer.putLong(MAX_OFFSET, maxMillis);
+    // last, so a torn append leaves the previous end in place
+    buffer.putInt(END_OFFSET, end);
+  }
+
+  /**
+   * Calls {@code visitor} for each record, for rebuilding the index of a reopened segment.
+   */
+  void forEachRecord(RecordVisitor visitor) throws IOException {
+    for (int offset = HEADER_BYTES; offset < end; ) {
+      int length = buffer.getInt(offset);
+      if (length < 0 || offset + RECORD_HEADER_BYTES + length > end) {
+        throw new IOException("Corrupt record at " + offset + ": " + file);
+      }
+      visitor.record(buffer.getLong(offset + 4), buffer.getLong(offset + 12), offset);
+      offset += RECORD_HEADER_BYTES + length;
+    }
+  }
+
+  void force() {
+    buffer.force();
+  }
+
+  int id() {
+    return id;
+  }
+
+  File file() {
+    return file;
+  }
+
+  int size() {
+    return end;
+  }
+
+  long maxMillis() {
+    return maxMillis;
+  }
+
+  interface RecordVisitor {
+
+    void record(long high, long low, int offset);
+  }
+}
@@ -0,0 +1,114 @@
+package com.insightpulse.collector.traces;
+
+import java.util.function.LongPredicate;
+
+/**
+ * Open-addressing hash table from 128-bit trace ids to log locations.
+ * <p>
+ * Slots are three consecutive longs, id high, id low and location, in one flat array: 24 bytes
+ * per slot and no object per entry. Collisions probe linearly; the table doubles at three
+ * quarters full. The all-zero id marks an empty slot, which is fine because agents never issue
+ * it. Not thread-safe.
+ */
+final class TraceIndex {
+
+  private static final int SLOT = 3;
+
+  private long[] slots;
+  private int mask;
+  private int size;
+
+  TraceIndex(int initialCapacity) {
+    int capacity = Integer.highestOneBit(Math.max(16, initialCapacity) - 1) << 1;
+    slots = new long[capacity * SLOT];
+    mask = capacity - 1;
+  }
+
+  /**
+   * Maps an id to a location, replacing the location of an id stored before.
+   */
+  void put(long high, long low, long location) {
+    if (high == 0L && low == 0L) {
+      throw new IllegalArgumentException("Trace id 0");
+    }
+    if ((size + 1) * 4L > (mask + 1) * 3L) {
+      rehash((mask + 1) * 2);
+    }
+    int slot = hash(high, low) & mask;
+    while (true) {
+      int i = slot * SLOT;
+      if (slots[i] == 0L && slots[i + 1] == 0L) {
+        slots[i] = high;
+        slots[i + 1] = low;
+        slots[i + 2] = location;
+        size++;
+        return;
+      }
+      if (slots[i] == high && slots[i + 1] == low) {
+        slots[i + 2] = location;
+        return;
+      }
+      slot = slot + 1 & mask;
+    }
+  }
+
+  /**
+   * Location of an id, or -1 if it is not in the index.
+   */
+  long get(long high, long low) {
+    int slot = hash(high, low) & mask;
+    while (true) {
+      int i = slot * SLOT;
+      if (slots[i] == high && slots[i + 1] == low) {
+        return high == 0L && low == 0L ? -1L : slots[i + 2];
+      }
+      if (slots[i] == 0L && slots[i + 1] == 0L) {
+        return -1L;
+      }
+      slot = slot + 1 & mask;
+    }
+  }
+
+  /**
+   * Drops every entry whose location fails {@code keep}, by rebuilding the table.
+   */
+  void retain(LongPredicate keep) {
+    long[] old = slots;
+    slots = new long[old.length];
+    size = 0;
+    for (int i = 0; i < old.length; i += SLOT) {
+      if ((old[i] != 0L || old[i + 1] != 0L) && keep.test(old[i + 2])) {
+        put(old[i], old[i + 1], old[i + 2]);
+      }
+    }
+  }
+
+  int size() {
+    return size;
+  }
+
+  int capacity() {
+    return mask + 1;
+  }
+
+  private void rehash(int capacity) {
+    long[] old = slots;
+    slots = new long[capacity * SLOT];
+    mask = capacity - 1;
+    size = 0;
+    for (int i = 0; i < old.length; i += SLOT) {
+      if (old[i] != 0L || old[i + 1] != 0L) {
+        put(old[i], old[i + 1], old[i + 2]);
+      }
+    }
+  }
+
+  private static int hash(long high, long low) {
+    // random ids hash well already; the mix guards against structured ones
+    long h = (high * 0x9E3779B97F4A7C15L) ^ low;
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    return (int) h;
+  }
+}
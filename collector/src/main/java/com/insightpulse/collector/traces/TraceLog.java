@@ -0,0 +1,205 @@
+package com.insightpulse.collector.traces;
+
+import com.insightpulse.wire.WireDecoder;
+import com.insightpulse.wire.WireFormatException;
+import com.insightpulse.wire.WireHandler;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Append-only log of complete traces in memory-mapped {@link LogSegment}s, indexed by trace id.
+ * <p>
+ * Each trace is stored as one record whose payload is a self-contained
+ * {@link com.insightpulse.wire.WireFormat} stream: its own header, strings and spans. A lookup is
+ * a probe of the in-memory {@link TraceIndex} and a single read of one record; nothing is
+ * scanned. The index is rebuilt from the segments' record headers on startup.
+ * <p>
+ * Ids are 128 bits so that W3C trace ids fit; the agent's 64-bit ids are stored with a zero high
+ * half. Retention works by whole segments: {@link #expire} deletes segments whose newest trace is
+ * older than the retention, and drops their ids from the index.
+ */
+public final class TraceLog implements Closeable {
+
+  public static final int DEFAULT_SEGMENT_BYTES = 64 << 20;
+
+  private static final Pattern SEGMENT_NAME = Pattern.compile("traces-(\\d{10})\\.log");
+
+  private final File directory;
+  private final int segmentBytes;
+  private final long retentionMillis;
+  private final TraceIndex index = new TraceIndex(1 << 16);
+  private final Map<Integer, LogSegment> segments = new HashMap<>();
+  private LogSegment active;
+  private int nextSegmentId;
+  private long rejected;
+
+  /**
+   * Opens the log in {@code directory}, creating it if needed and indexing existing segments.
+   */
+  public TraceLog(File directory, int segmentBytes, long retentionMillis) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create " + directory);
+    }
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.retentionMillis = retentionMillis;
+    openSegments();
+  }
+
+  /**
+   * Appends a trace; an id stored before now resolves to this trace.
+   *
+   * @param payload the trace as a wire format stream, read from its position to its limit
+   * @return {@code false} if the trace is too large for a segment and was not stored
+   */
+  public synchronized boolean append(long high, long low, long epochMillis, ByteBuffer payload)
+      throws IOException {
+    int length = payload.remaining();
+    if (length > (segmentBytes - LogSegment.HEADER_BYTES) / 4) {
+      rejected++;
+      return false;
+    }
+    if (active == null || !active.fits(length)) {
+      if (active != null) {
+        active.force();
+      }
+      int id = nextSegmentId++;
+      active = LogSegment.create(new File(directory, fileName(id)), id, segmentBytes);
+      segments.put(id, active);
+    }
+    int offset = active.append(high, low, epochMillis, payload);
+    index.put(high, low, location(active.id(), offset));
+    return true;
+  }
+
+  /**
+   * Decodes a stored trace into {@code handler}.
+   *
+   * @return {@code false} if the trace is not in the log
+   */
+  public boolean read(long high, long low, WireHandler handler) throws WireFormatException {
+    LogSegment segment;
+    int offset;
+    synchronized (this) {
+      long location = index.get(high, low);
+      if (location < 0L) {
+        return false;
+      }
+      segment = segments.get((int) (location >>> 32));
+      offset = (int) location;
+    }
+    new WireDecoder(handler).decode(ByteBuffer.wrap(segment.payload(offset)));
+    return true;
+  }
+
+  /**
+   * Decodes a stored trace given its id in hex, as the agent prints it; up to 32 digits.
+   */
+  public boolean read(String hexId, WireHandler handler) throws WireFormatException {
+    if (hexId.isEmpty() || hexId.length() > 32) {
+      throw new IllegalArgumentException("Not a trace id: " + hexId);
+    }
+    int split = Math.max(0, hexId.length() - 16);
+    long high = split == 0 ? 0L : Long.parseUnsignedLong(hexId.substring(0, split), 16);
+    return read(high, Long.parseUnsignedLong(hexId.substring(split), 16), handler);
+  }
+
+  /**
+   * Deletes segments whose newest trace is older than the retention.
+   *
+   * @return the number of segments deleted
+   */
+  public synchronized int expire(long nowMillis) {
+    List<LogSegment> expired = new ArrayList<>();
+    for (LogSegment segment : segments.values()) {
+      if (segment != active && segment.maxMillis() < nowMillis - retentionMillis) {
+        expired.add(segment);
+      }
+    }
+    if (expired.isEmpty()) {
+      return 0;
+    }
+    for (LogSegment segment : expired) {
+      segments.remove(segment.id());
+      // on Linux the mapping, and thus a read still copying from it, survives the delete
+      if (!segment.file().delete()) {
+        segment.file().deleteOnExit();
+      }
+    }
+    index.retain(location -> segments.containsKey((int) (location >>> 32)));
+    return expired.size();
+  }
+
+  /**
+   * Traces that can be looked up.
+   */
+  public synchronized int size() {
+    return index.size();
+  }
+
+  /**
+   * Traces not stored because they were larger than a quarter segment.
+   */
+  public synchronized long rejected() {
+    return rejected;
+  }
+
+  /**
+   * Bytes of records on disk, segment headers included.
+   */
+  public synchronized long storedBytes() {
+    long bytes = 0L;
+    for (LogSegment segment : segments.values()) {
+      bytes += segment.size();
+    }
+    return bytes;
+  }
+
+  public synchronized void flush() {
+    if (active != null) {
+      active.force();
+    }
+  }
+
+  @Override
+  public void close() {
+    flush();
+  }
+
+  private void openSegments() throws IOException {
+    List<Integer> ids = new ArrayList<>();
+    File[] files = directory.listFiles();
+    for (File file : files == null ? new File[0] : files) {
+      Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+      if (matcher.matches()) {
+        ids.add(Integer.parseInt(matcher.group(1)));
+      }
+    }
+    Collections.sort(ids);
+    for (int id : ids) {
+      LogSegment segment = LogSegment.open(new File(directory, fileName(id)), id);
+      // in id order, so a later copy of a trace wins
+      segment.forEachRecord((high, low, offset) -> index.put(high, low, location(id, offset)));
+      segments.put(id, segment);
+      active = segment;
+      nextSegmentId = id + 1;
+    }
+  }
+
+  private static String fileName(int id) {
+    return String.format("traces-%010d.log", id);
+  }
+
+  private static long location(int segment, int offset) {
+    return (long) segment << 32 | offset & 0xFFFFFFFFL;
+  }
+}
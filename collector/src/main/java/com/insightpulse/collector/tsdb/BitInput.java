@@ -0,0 +1,40 @@
+package com.insightpulse.collector.tsdb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a bit string written by {@link BitOutput} straight out of a buffer, typically a mapped
+ * segment. Only absolute gets are used, so any number of inputs may share one buffer.
+ */
+final class BitInput {
+
+  private ByteBuffer buffer;
+  private int offset;
+  private long position;
+
+  void reset(ByteBuffer buffer, int offset) {
+    this.buffer = buffer;
+    this.offset = offset;
+    this.position = 0L;
+  }
+
+  /**
+   * Reads {@code bits} bits, 0-64, as an unsigned value.
+   */
+  long read(int bits) {
+    long value = 0L;
+    while (bits > 0) {
+      int b = buffer.get(offset + (int) (position >>> 3)) & 0xFF;
+      int available = 8 - (int) (position & 7);
+      int n = Math.min(available, bits);
+      value = value << n | (b >>> (available - n)) & ((1 << n) - 1);
+      position += n;
+      bits -= n;
+    }
+    return value;
+  }
+
+  boolean readBit() {
+    return read(1) != 0L;
+  }
+}
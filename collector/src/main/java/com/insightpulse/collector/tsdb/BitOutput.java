@@ -0,0 +1,65 @@
+package com.insightpulse.collector.tsdb;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable bit string, written most significant bit first.
+ */
+final class BitOutput {
+
+  private byte[] bytes;
+  private long bitLength;
+
+  BitOutput(int initialBytes) {
+    bytes = new byte[initialBytes];
+  }
+
+  /**
+   * Appends the low {@code bits} bits of {@code value}, 0-64.
+   */
+  void write(long value, int bits) {
+    ensure(bits);
+    while (bits > 0) {
+      int index = (int) (bitLength >>> 3);
+      int free = 8 - (int) (bitLength & 7);
+      int n = Math.min(free, bits);
+      int chunk = (int) (value >>> (bits - n)) & ((1 << n) - 1);
+      bytes[index] |= (byte) (chunk << (free - n));
+      bitLength += n;
+      bits -= n;
+    }
+  }
+
+  void writeBit(boolean bit) {
+    write(bit ? 1L : 0L, 1);
+  }
+
+  long bitLength() {
+    return bitLength;
+  }
+
+  int byteLength() {
+    return (int) ((bitLength + 7) >>> 3);
+  }
+
+  void copyTo(ByteBuffer out, int offset) {
+    for (int i = 0, n = byteLength(); i < n; i++) {
+      out.put(offset + i, bytes[i]);
+    }
+  }
+
+  /**
+   * The bytes written so far, readable with a {@link BitInput}; shares this output's array.
+   */
+  ByteBuffer view() {
+    return ByteBuffer.wrap(bytes, 0, byteLength());
+  }
+
+  private void ensure(int bits) {
+    int needed = (int) ((bitLength + bits + 7) >>> 3);
+    if (needed > bytes.length) {
+      bytes = Arrays.copyOf(bytes, Math.max(needed, bytes.length * 2));
+    }
+  }
+}
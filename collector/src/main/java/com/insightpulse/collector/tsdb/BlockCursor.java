@@ -0,0 +1,78 @@
+package com.insightpulse.collector.tsdb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Walks the points of a {@link BlockEncoder} block in place, one at a time, without creating an
+ * object per point. Reusable across blocks through {@link #reset}.
+ */
+final class BlockCursor {
+
+  private final BitInput in = new BitInput();
+  private int remaining;
+  private boolean first;
+  private long millis;
+  private long delta;
+  private long valueBits;
+  private int leading;
+  private int trailing;
+
+  void reset(ByteBuffer buffer, int offset, int count) {
+    in.reset(buffer, offset);
+    remaining = count;
+    first = true;
+    delta = 0L;
+  }
+
+  boolean next() {
+    if (remaining == 0) {
+      return false;
+    }
+    remaining--;
+    if (first) {
+      first = false;
+      millis = in.read(64);
+      valueBits = in.read(64);
+      return true;
+    }
+    delta += readDeltaOfDelta();
+    millis += delta;
+    if (in.readBit()) {
+      if (in.readBit()) {
+        leading = (int) in.read(5);
+        int significant = (int) in.read(6) + 1;
+        trailing = 64 - leading - significant;
+      }
+      valueBits ^= in.read(64 - leading - trailing) << trailing;
+    }
+    return true;
+  }
+
+  long epochMillis() {
+    return millis;
+  }
+
+  double value() {
+    return Double.longBitsToDouble(valueBits);
+  }
+
+  private long readDeltaOfDelta() {
+    if (!in.readBit()) {
+      return 0L;
+    }
+    if (!in.readBit()) {
+      return signed(in.read(7), 7);
+    }
+    if (!in.readBit()) {
+      return signed(in.read(9), 9);
+    }
+    if (!in.readBit()) {
+      return signed(in.read(12), 12);
+    }
+    return in.read(64);
+  }
+
+  private static long signed(long value, int bits) {
+    return value << (64 - bits) >> (64 - bits);
+  }
+}
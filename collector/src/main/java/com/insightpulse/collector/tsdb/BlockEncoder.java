@@ -0,0 +1,109 @@
+package com.insightpulse.collector.tsdb;
+
+/**
+ * Compresses one block of a series the way Facebook's Gorilla does.
+ * <p>
+ * The first point is stored raw. After that each timestamp is stored as the change of its delta
+ * to the previous one, which for points arriving at a fixed interval is 0 and takes one bit, and
+ * each value as its XOR with the previous value: one bit if it did not change, otherwise only
+ * the bits between the XOR's leading and trailing zeros. Slowly moving metrics, and latencies
+ * quantized to histogram buckets, come out at a few bits per point.
+ *
+ * @see BlockCursor
+ */
+final class BlockEncoder {
+
+  private final BitOutput bits;
+  private int count;
+  private long firstMillis;
+  private long minMillis = Long.MAX_VALUE;
+  private long maxMillis = Long.MIN_VALUE;
+  private long previousMillis;
+  private long previousDelta;
+  private long previousValue;
+  private int previousLeading = -1;
+  private int previousTrailing;
+
+  BlockEncoder(int initialBytes) {
+    bits = new BitOutput(initialBytes);
+  }
+
+  void append(long epochMillis, double value) {
+    long valueBits = Double.doubleToLongBits(value);
+    if (count == 0) {
+      firstMillis = epochMillis;
+      bits.write(epochMillis, 64);
+      bits.write(valueBits, 64);
+    } else {
+      long delta = epochMillis - previousMillis;
+      writeDeltaOfDelta(delta - previousDelta);
+      previousDelta = delta;
+      writeXor(valueBits ^ previousValue);
+    }
+    previousMillis = epochMillis;
+    previousValue = valueBits;
+    minMillis = Math.min(minMillis, epochMillis);
+    maxMillis = Math.max(maxMillis, epochMillis);
+    count++;
+  }
+
+  private void writeDeltaOfDelta(long dod) {
+    if (dod == 0L) {
+      bits.write(0b0, 1);
+    } else if (dod >= -64 && dod < 64) {
+      bits.write(0b10, 2);
+      bits.write(dod, 7);
+    } else if (dod >= -256 && dod < 256) {
+      bits.write(0b110, 3);
+      bits.write(dod, 9);
+    } else if (dod >= -2048 && dod < 2048) {
+      bits.write(0b1110, 4);
+      bits.write(dod, 12);
+    } else {
+      bits.write(0b1111, 4);
+      bits.write(dod, 64);
+    }
+  }
+
+  private void writeXor(long xor) {
+    if (xor == 0L) {
+      bits.write(0b0, 1);
+      return;
+    }
+    int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+    int trailing = Long.numberOfTrailingZeros(xor);
+    if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+      // fits the previous window: no need to repeat its position
+      bits.write(0b10, 2);
+      bits.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+    } else {
+      int significant = 64 - leading - trailing;
+      bits.write(0b11, 2);
+      bits.write(leading, 5);
+      bits.write(significant - 1, 6);
+      bits.write(xor >>> trailing, significant);
+      previousLeading = leading;
+      previousTrailing = trailing;
+    }
+  }
+
+  int count() {
+    return count;
+  }
+
+  long firstMillis() {
+    return firstMillis;
+  }
+
+  long minMillis() {
+    return minMillis;
+  }
+
+  long maxMillis() {
+    return maxMillis;
+  }
+
+  BitOutput bits() {
+    return bits;
+  }
+}
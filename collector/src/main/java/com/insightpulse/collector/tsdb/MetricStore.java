@@ -0,0 +1,352 @@
+package com.insightpulse.collector.tsdb;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Time series of doubles, compressed into {@link BlockEncoder Gorilla blocks} and kept in
+ * memory-mapped {@link Segment}s.
+ * <p>
+ * Each series fills an open block on the heap until it spans {@code blockMillis}; the block is
+ * then sealed into the active segment, which is rolled over when full. Queries decode sealed
+ * blocks in place from the mapping, skipping blocks outside the requested range, and hand points
+ * to a {@link PointVisitor} one at a time. Open blocks are lost if the process dies without
+ * {@link #close}; that bounds what a crash costs to {@code blockMillis} per series.
+ * <p>
+ * Timestamps are truncated to {@code resolutionMillis}, so points reported at a steady interval
+ * take a single bit for their time. Retention works by whole segments: {@link #expire} deletes
+ * segments whose newest point is older than the retention.
+ * <p>
+ * Series are independent: appends to different series only contend when a block is sealed.
+ */
+public final class MetricStore implements Closeable {
+
+  public static final long DEFAULT_RESOLUTION_MILLIS = 1000L;
+  public static final long DEFAULT_BLOCK_MILLIS = TimeUnit.HOURS.toMillis(1);
+  public static final int DEFAULT_SEGMENT_BYTES = 8 << 20;
+
+  /** A block is sealed early at this size, so a segment always has room for several. */
+  private static final int MAX_BLOCK_BYTES = 16 * 1024;
+  private static final String DICTIONARY = "series.dict";
+  private static final Pattern SEGMENT_NAME = Pattern.compile("metrics-(\\d{16})\\.seg");
+
+  private final File directory;
+  private final long resolutionMillis;
+  private final long blockMillis;
+  private final long retentionMillis;
+  private final int segmentBytes;
+  private final Map<String, Series> series = new ConcurrentHashMap<>();
+
+  // guarded by this
+  private final List<Series> seriesById = new ArrayList<>();
+  private final List<Segment> segments = new ArrayList<>();
+  private final DataOutputStream dictionary;
+  private Segment active;
+  private long nextSegmentId;
+
+  /**
+   * Opens the store in {@code directory}, creating it if needed and indexing existing segments.
+   */
+  public MetricStore(File directory, long resolutionMillis, long blockMillis,
+      long retentionMillis, int segmentBytes) throws IOException {
+    if (segmentBytes < 4 * (Segment.BLOCK_HEADER_BYTES + MAX_BLOCK_BYTES)) {
+      throw new IllegalArgumentException("Segments of " + segmentBytes + " bytes are too small");
+    }
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create " + directory);
+    }
+    this.directory = directory;
+    this.resolutionMillis = resolutionMillis;
+    this.blockMillis = blockMillis;
+    this.retentionMillis = retentionMillis;
+    this.segmentBytes = segmentBytes;
+    File dictionaryFile = new File(directory, DICTIONARY);
+    long validBytes = readDictionary(dictionaryFile);
+    FileOutputStream out = new FileOutputStream(dictionaryFile, true);
+    // drop a record torn by a crash so new records line up again
+    out.getChannel().truncate(validBytes);
+    this.dictionary = new DataOutputStream(out);
+    openSegments();
+  }
+
+  /**
+   * Adds a point to a series, creating the series on first use. Points of one series should
+   * arrive in time order.
+   */
+  public void append(String key, long epochMillis, double value) throws IOException {
+    Series s = series.get(key);
+    if (s == null) {
+      s = createSeries(key);
+    }
+    long millis = epochMillis - Math.floorMod(epochMillis, resolutionMillis);
+    synchronized (s) {
+      BlockEncoder open = s.open;
+      if (open != null && (millis - open.firstMillis() >= blockMillis
+          || open.bits().byteLength() >= MAX_BLOCK_BYTES)) {
+        seal(s);
+      }
+      if (s.open == null) {
+        s.open = new BlockEncoder(256);
+      }
+      s.open.append(millis, value);
+    }
+  }
+
+  /**
+   * Visits the points of a series in {@code [fromMillis, toMillis)}.
+   *
+   * @return the number of points visited
+   */
+  public int scan(String key, long fromMillis, long toMillis, PointVisitor visitor) {
+    Series s = series.get(key);
+    if (s == null) {
+      return 0;
+    }
+    List<BlockRef> blocks = new ArrayList<>();
+    ByteBuffer openBits = null;
+    int openCount = 0;
+    synchronized (s) {
+      for (BlockRef block : s.blocks) {
+        if (block.maxMillis >= fromMillis && block.minMillis < toMillis) {
+          blocks.add(block);
+        }
+      }
+      BlockEncoder open = s.open;
+      if (open != null && open.maxMillis() >= fromMillis && open.minMillis() < toMillis) {
+        ByteBuffer view = open.bits().view();
+        openBits = ByteBuffer.wrap(Arrays.copyOf(view.array(), view.limit()));
+        openCount = open.count();
+      }
+    }
+    BlockCursor cursor = new BlockCursor();
+    int visited = 0;
+    for (BlockRef block : blocks) {
+      cursor.reset(block.segment.buffer(), block.offset, block.count);
+      visited += visit(cursor, fromMillis, toMillis, visitor);
+    }
+    if (openBits != null) {
+      cursor.reset(openBits, 0, openCount);
+      visited += visit(cursor, fromMillis, toMillis, visitor);
+    }
+    return visited;
+  }
+
+  private static int visit(BlockCursor cursor, long fromMillis, long toMillis,
+      PointVisitor visitor) {
+    int visited = 0;
+    while (cursor.next()) {
+      long millis = cursor.epochMillis();
+      if (millis >= fromMillis && millis < toMillis) {
+        visitor.accept(millis, cursor.value());
+        visited++;
+      }
+    }
+    return visited;
+  }
+
+  public Set<String> series() {
+    return Collections.unmodifiableSet(series.keySet());
+  }
+
+  /**
+   * Bytes of sealed blocks on disk, segment headers included.
+   */
+  public synchronized long storedBytes() {
+    long bytes = 0L;
+    for (Segment segment : segments) {
+      bytes += segment.size();
+    }
+    return bytes;
+  }
+
+  /**
+   * Deletes segments whose newest point is older than the retention.
+   *
+   * @return the number of segments deleted
+   */
+  public int expire(long nowMillis) {
+    List<Segment> expired = new ArrayList<>();
+    synchronized (this) {
+      for (Segment segment : segments) {
+        if (segment != active && segment.maxMillis() < nowMillis - retentionMillis) {
+          expired.add(segment);
+        }
+      }
+      segments.removeAll(expired);
+      for (Segment segment : expired) {
+        // on Linux the mapping, and thus a scan still reading it, survives the delete
+        if (!segment.file().delete()) {
+          segment.file().deleteOnExit();
+        }
+      }
+    }
+    if (!expired.isEmpty()) {
+      for (Series s : series.values()) {
+        synchronized (s) {
+          s.blocks.removeIf(block -> expired.contains(block.segment));
+        }
+      }
+    }
+    return expired.size();
+  }
+
+  /**
+   * Seals every open block and forces the segments to disk.
+   */
+  public void flush() throws IOException {
+    for (Series s : series.values()) {
+      synchronized (s) {
+        if (s.open != null) {
+          seal(s);
+        }
+      }
+    }
+    synchronized (this) {
+      if (active != null) {
+        active.force();
+      }
+      dictionary.flush();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    flush();
+    synchronized (this) {
+      dictionary.close();
+    }
+  }
+
+  private void seal(Series s) throws IOException {
+    s.blocks.add(appendBlock(s.id, s.open));
+    s.open = null;
+  }
+
+  private synchronized BlockRef appendBlock(int seriesId, BlockEncoder block) throws IOException {
+    if (active == null || !active.fits(block.bits().byteLength())) {
+      if (active != null) {
+        active.force();
+      }
+      long id = nextSegmentId++;
+      active = Segment.create(new File(directory, String.format("metrics-%016d.seg", id)), id,
+          segmentBytes);
+      segments.add(active);
+    }
+    int offset = active.append(seriesId, block);
+    return new BlockRef(active, offset, block.count(), block.minMillis(), block.maxMillis());
+  }
+
+  private synchronized Series createSeries(String key) throws IOException {
+    Series s = series.get(key);
+    if (s == null) {
+      byte[] utf8 = key.getBytes(StandardCharsets.UTF_8);
+      dictionary.writeInt(utf8.length);
+      dictionary.write(utf8);
+      dictionary.flush();
+      s = new Series(seriesById.size());
+      seriesById.add(s);
+      series.put(key, s);
+    }
+    return s;
+  }
+
+  /**
+   * Loads the series dictionary: the keys in id order, each as a length and UTF-8 bytes.
+   *
+   * @return the length of its complete records
+   */
+  private long readDictionary(File file) throws IOException {
+    if (!file.isFile()) {
+      return 0L;
+    }
+    long valid = 0L;
+    try (InputStream stream = new BufferedInputStream(new FileInputStream(file));
+        DataInputStream in = new DataInputStream(stream)) {
+      while (true) {
+        int length = in.readInt();
+        byte[] utf8 = new byte[length];
+        in.readFully(utf8);
+        Series s = new Series(seriesById.size());
+        seriesById.add(s);
+        series.put(new String(utf8, StandardCharsets.UTF_8), s);
+        valid += 4 + length;
+      }
+    } catch (EOFException e) {
+      return valid;
+    }
+  }
+
+  private void openSegments() throws IOException {
+    List<Long> ids = new ArrayList<>();
+    File[] files = directory.listFiles();
+    for (File file : files == null ? new File[0] : files) {
+      Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+      if (matcher.matches()) {
+        ids.add(Long.parseLong(matcher.group(1)));
+      }
+    }
+    Collections.sort(ids);
+    for (long id : ids) {
+      Segment segment = Segment.open(
+          new File(directory, String.format("metrics-%016d.seg", id)), id);
+      segment.forEachBlock((seriesId, count, minMillis, maxMillis, offset) -> {
+        if (seriesId >= 0 && seriesId < seriesById.size()) {
+          seriesById.get(seriesId).blocks.add(
+              new BlockRef(segment, offset, count, minMillis, maxMillis));
+        }
+      });
+      segments.add(segment);
+      active = segment;
+      nextSegmentId = id + 1;
+    }
+  }
+
+  private static final class Series {
+
+    final int id;
+    final List<BlockRef> blocks = new ArrayList<>();
+    BlockEncoder open;
+
+    Series(int id) {
+      this.id = id;
+    }
+  }
+
+  /** Where a sealed block lives. */
+  private static final class BlockRef {
+
+    final Segment segment;
+    final int offset;
+    final int count;
+    final long minMillis;
+    final long maxMillis;
+
+    BlockRef(Segment segment, int offset, int count, long minMillis, long maxMillis) {
+      this.segment = segment;
+      this.offset = offset;
+      this.count = count;
+      this.minMillis = minMillis;
+      this.maxMillis = maxMillis;
+    }
+  }
+}
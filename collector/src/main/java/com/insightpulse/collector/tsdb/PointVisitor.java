@@ -0,0 +1,9 @@
+package com.insightpulse.collector.tsdb;
+
+/**
+ * Receives the points of a {@link MetricStore#scan}, oldest first.
+ */
+public interface PointVisitor {
+
+  void accept(long epochMillis, double value);
+}
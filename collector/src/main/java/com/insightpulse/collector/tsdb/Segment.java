@@ -0,0 +1,159 @@
+package com.insightpulse.collector.tsdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A fixed-size, memory-mapped file of sealed blocks, appended to until full.
+ * <p>
+ * Layout: a header of magic, version, end offset, and the time range of its blocks, followed by
+ * blocks of {@code seriesId, pointCount, minMillis, maxMillis, byteLength, bits}. The end offset
+ * is updated after each block, so a segment reopened after a crash ends at its last complete
+ * block. Blocks are only ever read through absolute gets on the shared mapping.
+ */
+final class Segment {
+
+  static final int MAGIC = 0x49505453; // "IPTS"
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 32;
+  static final int BLOCK_HEADER_BYTES = 28;
+
+  private static final int END_OFFSET = 8;
+  private static final int MIN_OFFSET = 16;
+  private static final int MAX_OFFSET = 24;
+
+  private final long id;
+  private final File file;
+  private final MappedByteBuffer buffer;
+  private int end;
+  private long minMillis;
+  private long maxMillis;
+
+  private Segment(long id, File file, MappedByteBuffer buffer) {
+    this.id = id;
+    this.file = file;
+    this.buffer = buffer;
+  }
+
+  static Segment create(File file, long id, int capacity) throws IOException {
+    Segment segment = new Segment(id, file, map(file, capacity));
+    segment.buffer.putInt(0, MAGIC);
+    segment.buffer.putInt(4, VERSION);
+    segment.end = HEADER_BYTES;
+    segment.minMillis = Long.MAX_VALUE;
+    segment.maxMillis = Long.MIN_VALUE;
+    segment.writeHeader();
+    return segment;
+  }
+
+  static Segment open(File file, long id) throws IOException {
+    Segment segment = new Segment(id, file, map(file, 0));
+    MappedByteBuffer buffer = segment.buffer;
+    if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a metric segment: " + file);
+    }
+    if (buffer.getInt(4) != VERSION) {
+      throw new IOException("Unsupported segment version " + buffer.getInt(4) + ": " + file);
+    }
+    segment.end = buffer.getInt(END_OFFSET);
+    segment.minMillis = buffer.getLong(MIN_OFFSET);
+    segment.maxMillis = buffer.getLong(MAX_OFFSET);
+    if (segment.end < HEADER_BYTES || segment.end > buffer.capacity()) {
+      throw new IOException("Corrupt segment end " + segment.end + ": " + file);
+    }
+    return segment;
+  }
+
+  private static MappedByteBuffer map(File file, int capacity) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      if (capacity > 0) {
+        // sparse: untouched pages take no disk space
+        raf.setLength(capacity);
+      }
+      // the mapping stays valid after the channel is closed
+      return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+    }
+  }
+
+  boolean fits(int blockBytes) {
+    return end + BLOCK_HEADER_BYTES + blockBytes <= buffer.capacity();
+  }
+
+  /**
+   * Appends a sealed block.
+   *
+   * @return offset of the block's bits
+   */
+  int append(int seriesId, BlockEncoder block) {
+    BitOutput bits = block.bits();
+    int offset = end;
+    buffer.putInt(offset, seriesId);
+    buffer.putInt(offset + 4, block.count());
+    buffer.putLong(offset + 8, block.minMillis());
+    buffer.putLong(offset + 16, block.maxMillis());
+    buffer.putInt(offset + 24, bits.byteLength());
+    bits.copyTo(buffer, offset + BLOCK_HEADER_BYTES);
+    end = offset + BLOCK_HEADER_BYTES + bits.byteLength();
+    minMillis = Math.min(minMillis, block.minMillis());
+    maxMillis = Math.max(maxMillis, block.maxMillis());
+    writeHeader();
+    return offset + BLOCK_HEADER_BYTES;
+  }
+
+  private void writeHeader() {
+    buffer.putLong(MIN_OFFSET, minMillis);
+    buffer.putLong(MAX_OFFSET, maxMillis);
+    // last, so a torn append leaves the previous end in place
+    buffer.putInt(END_OFFSET, end);
+  }
+
+  /**
+   * Calls {@code visitor} for each block, for rebuilding the index of a reopened segment.
+   */
+  void forEachBlock(BlockVisitor visitor) throws IOException {
+    for (int offset = HEADER_BYTES; offset < end; ) {
+      int length = buffer.getInt(offset + 24);
+      if (length < 0 || offset + BLOCK_HEADER_BYTES + length > end) {
+        throw new IOException("Corrupt block at " + offset + ": " + file);
+      }
+      visitor.block(buffer.getInt(offset), buffer.getInt(offset + 4),
+          buffer.getLong(offset + 8), buffer.getLong(offset + 16), offset + BLOCK_HEADER_BYTES);
+      offset += BLOCK_HEADER_BYTES + length;
+    }
+  }
+
+  void force() {
+    buffer.force();
+  }
+
+  long id() {
+    return id;
+  }
+
+  File file() {
+    return file;
+  }
+
+  MappedByteBuffer buffer() {
+    return buffer;
+  }
+
+  /**
+   * Bytes in use, header included.
+   */
+  int size() {
+    return end;
+  }
+
+  long maxMillis() {
+    return maxMillis;
+  }
+
+  interface BlockVisitor {
+
+    void block(int seriesId, int count, long minMillis, long maxMillis, int offset);
+  }
+}
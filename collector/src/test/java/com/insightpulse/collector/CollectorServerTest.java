@@ -0,0 +1,170 @@
+package com.insightpulse.collector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.insightpulse.metrics.Histogram;
+import com.insightpulse.trace.SpanKind;
+import com.insightpulse.wire.WireEncoder;
+import com.insightpulse.wire.WireHandler;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class CollectorServerTest {
+
+  private final Map<String, SpanLog> agents = new ConcurrentHashMap<>();
+  private CollectorServer server;
+
+  @AfterEach
+  void tearDown() throws Exception {
+    if (server != null) {
+      server.stop();
+    }
+  }
+
+  @Test
+  void shouldDecodeConnectionsSpreadOverWorkers() throws Exception {
+    start(3, 4096);
+    int connections = 6;
+    int spans = 5_000;
+    Random random = new Random(42);
+    for (int c = 0; c < connections; c++) {
+      try (Socket socket = connect()) {
+        // arbitrary write sizes split frames anywhere, including inside varints
+        sendInPieces(socket, encode("agent-" + c, spans, "GET /api/owners"), random);
+      }
+    }
+    awaitTrue(() -> server.stats().spans() == (long) connections * spans);
+
+    assertEquals(connections, agents.size());
+    for (SpanLog log : agents.values()) {
+      assertEquals(spans, log.values.size());
+      for (int i = 0; i < spans; i++) {
+        assertEquals(i, (long) log.values.get(i), "span order");
+      }
+    }
+    assertEquals(3, agents.values().stream().map(log -> log.thread).distinct().count());
+    awaitTrue(() -> server.stats().connections() == 0);
+    assertEquals(0, server.stats().rejected());
+  }
+
+  @Test
+  void shouldGrowBufferForFramesLargerThanIt() throws Exception {
+    start(1, 1024);
+    StringBuilder sql = new StringBuilder("select ");
+    while (sql.length() < 100_000) {
+      sql.append("column_").append(sql.length()).append(", ");
+    }
+    sql.append("1 from dual");
+    WireEncoder encoder = new WireEncoder(256 * 1024);
+    encoder.writeHeader("big", 0L, 0L);
+    encoder.writeSpan(SpanKind.SQL, sql.toString(), "GET /api/vets", 7L, 0L, 10L, 0L);
+
+    try (Socket socket = connect()) {
+      socket.getOutputStream().write(bytes(encoder.buffer()));
+      awaitTrue(() -> server.stats().spans() == 1);
+    }
+    assertEquals(sql.toString(), agents.get("big").names.get(0));
+  }
+
+  @Test
+  void shouldDropMalformedStreamsOnly() throws Exception {
+    start(1, 4096);
+    try (Socket good = connect(); Socket bad = connect()) {
+      bad.getOutputStream().write("GET / HTTP/1.1\r\n\r\n".getBytes("US-ASCII"));
+      awaitTrue(() -> server.stats().rejected() == 1);
+      assertEquals(-1, bad.getInputStream().read());
+
+      good.getOutputStream().write(bytes(encode("good", 10, "GET /api/vets").buffer()));
+      awaitTrue(() -> server.stats().spans() == 10);
+    }
+    assertEquals(1, server.stats().rejected());
+  }
+
+  private void start(int workers, int bufferBytes) throws IOException {
+    server = new CollectorServer(new InetSocketAddress("127.0.0.1", 0), workers, bufferBytes,
+        remote -> new SpanLog());
+    server.start();
+  }
+
+  private Socket connect() throws IOException {
+    return new Socket("127.0.0.1", server.port());
+  }
+
+  private static WireEncoder encode(String agent, int spans, String route) {
+    WireEncoder encoder = new WireEncoder(1024);
+    encoder.writeHeader(agent, System.currentTimeMillis(), 0L);
+    for (int i = 0; i < spans; i++) {
+      encoder.writeSpan(SpanKind.SQL, "select * from pets where id=?", route, i / 10 + 1,
+          i * 1000L, 500L, i);
+    }
+    return encoder;
+  }
+
+  private static void sendInPieces(Socket socket, WireEncoder encoder, Random random)
+      throws IOException {
+    byte[] bytes = bytes(encoder.buffer());
+    OutputStream out = socket.getOutputStream();
+    for (int offset = 0; offset < bytes.length; ) {
+      int n = Math.min(bytes.length - offset, 1 + random.nextInt(3000));
+      out.write(bytes, offset, n);
+      out.flush();
+      offset += n;
+    }
+  }
+
+  private static byte[] bytes(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
+  static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + 10_000_000_000L;
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() < deadline, "timed out");
+      Thread.sleep(5);
+    }
+  }
+
+  /** Keeps one connection's spans; only ever called on its worker thread. */
+  private final class SpanLog implements WireHandler {
+
+    final List<Long> values = new ArrayList<>();
+    final List<String> names = new ArrayList<>();
+    Thread thread;
+
+    @Override
+    public void onHello(String agent, long epochMillis, long nanoTime) {
+      thread = Thread.currentThread();
+      agents.put(agent, this);
+    }
+
+    @Override
+    public void onSpan(int kind, String name, String ref, long traceId, long startNanos,
+        long durationNanos, long value) {
+      assertEquals(thread, Thread.currentThread());
+      values.add(value);
+      names.add(name);
+    }
+
+    @Override
+    public void onHistogram(String metric, String name, long epochMillis, Histogram histogram) {
+    }
+
+    @Override
+    public void onCounter(String metric, String name, long epochMillis, long value) {
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package com.insightpulse.collector;
+
+import static com.insightpulse.collector.CollectorServerTest.awaitTrue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.insightpulse.metrics.Histogram;
+import com.insightpulse.trace.SpanKind;
+import com.insightpulse.wire.WireEncoder;
+import com.insightpulse.wire.WireHandler;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pushes pre-encoded span batches through the server from several agents at once. Clients and
+ * server share this machine's cores, so the time bound is deliberately loose and only catches
+ * gross regressions; run the collector on its own box for real numbers.
+ */
+class CollectorThroughputTest {
+
+  private static final int AGENTS = 4;
+  private static final int BATCH = 512;
+  private static final int BATCHES_PER_AGENT = 1000;
+
+  @Test
+  void shouldIngestMillionsOfSpans() throws Exception {
+    int workers = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    CollectorServer server = new CollectorServer(new InetSocketAddress("127.0.0.1", 0), workers,
+        64 * 1024, remote -> IGNORE);
+    server.start();
+    try {
+      long total = (long) AGENTS * BATCH * BATCHES_PER_AGENT;
+      List<Thread> agents = new ArrayList<>();
+      long started = System.nanoTime();
+      for (int a = 0; a < AGENTS; a++) {
+        Thread agent = new Thread(new Agent("agent-" + a, server.port()));
+        agent.start();
+        agents.add(agent);
+      }
+      for (Thread agent : agents) {
+        agent.join();
+      }
+      awaitTrue(() -> server.stats().spans() == total);
+      long elapsed = System.nanoTime() - started;
+
+      assertEquals(0, server.stats().rejected());
+      assertTrue(elapsed < TimeUnit.SECONDS.toNanos(20),
+          TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms for " + total + " spans");
+    } finally {
+      server.stop();
+    }
+  }
+
+  /** Sends one batch that defines the dictionary, then the same steady-state batch repeatedly. */
+  private static final class Agent implements Runnable {
+
+    private final String name;
+    private final int port;
+
+    Agent(String name, int port) {
+      this.name = name;
+      this.port = port;
+    }
+
+    @Override
+    public void run() {
+      WireEncoder encoder = new WireEncoder(64 * 1024);
+      encoder.writeHeader(name, System.currentTimeMillis(), System.nanoTime());
+      long now = 0L;
+      writeBatch(encoder, now);
+      byte[] first = bytes(encoder.buffer());
+      encoder.clear();
+      writeBatch(encoder, now + 1_000_000L);
+      // times are sent as deltas, so replaying a batch just moves its spans forward in time
+      byte[] steady = bytes(encoder.buffer());
+      try (Socket socket = new Socket("127.0.0.1", port)) {
+        OutputStream out = socket.getOutputStream();
+        out.write(first);
+        for (int i = 1; i < BATCHES_PER_AGENT; i++) {
+          out.write(steady);
+        }
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    private static void writeBatch(WireEncoder encoder, long now) {
+      long traceId = now;
+      for (int i = 0; i < BATCH; i++) {
+        if (i % 8 == 0) {
+          traceId++;
+          encoder.writeSpan(SpanKind.REQUEST, "GET /api/owners/{ownerId}",
+              "OwnerRestController.getOwner", traceId, now, 4_000_000L + i,
+              SpanKind.requestValue(200, 0, 1_000_000L));
+        } else {
+          encoder.writeSpan(SpanKind.SQL, "select * from pets where owner_id=?",
+              "GET /api/owners/{ownerId}", traceId, now + 15_000L, 200_000L + i, 0L);
+        }
+        now += 2_000L;
+      }
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      return bytes;
+    }
+  }
+
+  private static final WireHandler IGNORE = new WireHandler() {
+    @Override
+    public void onHello(String agent, long epochMillis, long nanoTime) {
+    }
+
+    @Override
+    public void onSpan(int kind, String name, String ref, long traceId, long startNanos,
+        long durationNanos, long value) {
+    }
+
+    @Override
+    public void onHistogram(String metric, String name, long epochMillis, Histogram histogram) {
+    }
+
+    @Override
+    public void onCounter(String metric, String name, long epochMillis, long value) {
+    }
+  };
+}
@@ -0,0 +1,88 @@
+package com.insightpulse.collector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.insightpulse.collector.rollup.Rollups;
+import com.insightpulse.collector.tsdb.MetricStore;
+import com.insightpulse.metrics.Histogram;
+import com.insightpulse.metrics.HistogramLayout;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class MetricsHandlerTest {
+
+  private static final long T0 = 1_700_000_000_000L;
+
+  @Test
+  void shouldStoreIntervalsBetweenCumulativeSnapshots() throws Exception {
+    try (MetricStore store = new MetricStore(Files.createTempDirectory("metrics").toFile(),
+        1000L, TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(7), 1 << 20)) {
+      Rollups rollups = new Rollups();
+      MetricsHandler handler = new MetricsHandler(store, rollups, new MetricBaselines());
+      handler.onHello("petclinic-1", T0, 0L);
+      HistogramLayout layout = new HistogramLayout(2, TimeUnit.SECONDS.toNanos(10));
+      Histogram total = new Histogram(layout);
+      total.recordCount(1_000_000L, 5);
+      handler.onHistogram("endpoint", "GET /api/vets", T0, total.copy());
+      total.recordCount(3_000_000L, 1);
+      total.recordCount(9_000_000L, 1);
+      handler.onHistogram("endpoint", "GET /api/vets", T0 + 10_000L, total.copy());
+      handler.onCounter("endpoint.errors", "GET /api/vets", T0, 4L);
+      handler.onCounter("endpoint.errors", "GET /api/vets", T0 + 10_000L, 6L);
+      // the agent restarted: counted from zero again, no negative interval
+      handler.onCounter("endpoint.errors", "GET /api/vets", T0 + 20_000L, 1L);
+
+      // the first snapshot counts from zero
+      assertEquals(Arrays.asList(5.0, 2.0), values(store, "endpoint", "count"));
+      assertEquals(Arrays.asList(1_000_000.0, 6_000_000.0), values(store, "endpoint", "mean"));
+      assertEquals(9_000_000.0, values(store, "endpoint", "max").get(1),
+          layout.highestEquivalentValue(layout.indexOf(9_000_000L)) - 9_000_000.0);
+      assertEquals(Arrays.asList(4.0, 2.0, 1.0), values(store, "endpoint.errors", "count"));
+      assertEquals(7L, rollups.merge("endpoint", "GET /api/vets", T0 - 60_000L, T0 + 60_000L,
+          Rollups.Resolution.MINUTE).getTotalCount());
+    }
+  }
+
+  @Test
+  void shouldKeepBaselinesAcrossReconnects() throws Exception {
+    try (MetricStore store = new MetricStore(Files.createTempDirectory("metrics").toFile(),
+        1000L, TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(7), 1 << 20)) {
+      Rollups rollups = new Rollups();
+      MetricBaselines baselines = new MetricBaselines();
+      HistogramLayout layout = new HistogramLayout(2, TimeUnit.SECONDS.toNanos(10));
+      Histogram total = new Histogram(layout);
+      total.recordCount(1_000_000L, 5);
+      long nanos = 7_000_000_000L;
+
+      MetricsHandler first = new MetricsHandler(store, rollups, baselines);
+      first.onHello("petclinic-1", T0, nanos);
+      first.onHistogram("endpoint", "GET /api/vets", T0, total.copy());
+      first.onCounter("endpoint.errors", "GET /api/vets", T0, 4L);
+      // the connection dropped; the agent resends the same totals 10s later, a bit off the clock
+      MetricsHandler second = new MetricsHandler(store, rollups, baselines);
+      second.onHello("petclinic-1", T0 + 10_005L, nanos + 10_000_000_000L);
+      second.onHistogram("endpoint", "GET /api/vets", T0 + 10_000L, total.copy());
+      second.onCounter("endpoint.errors", "GET /api/vets", T0 + 10_000L, 4L);
+      // a new run of the agent, whose totals happen to be higher, counts in full
+      MetricsHandler restarted = new MetricsHandler(store, rollups, baselines);
+      restarted.onHello("petclinic-1", T0 + 60_000L, 1_000_000_000L);
+      restarted.onCounter("endpoint.errors", "GET /api/vets", T0 + 60_000L, 9L);
+
+      assertEquals(Arrays.asList(5.0, 0.0), values(store, "endpoint", "count"));
+      assertEquals(Arrays.asList(4.0, 0.0, 9.0), values(store, "endpoint.errors", "count"));
+      assertEquals(5L, rollups.merge("endpoint", "GET /api/vets", T0 - 60_000L, T0 + 60_000L,
+          Rollups.Resolution.MINUTE).getTotalCount());
+    }
+  }
+
+  private static List<Double> values(MetricStore store, String metric, String field) {
+    List<Double> values = new ArrayList<>();
+    store.scan(MetricsHandler.seriesKey("petclinic-1", metric, "GET /api/vets", field), 0L,
+        Long.MAX_VALUE, (millis, value) -> values.add(value));
+    return values;
+  }
+}
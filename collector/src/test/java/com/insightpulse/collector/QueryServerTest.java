@@ -0,0 +1,77 @@
+package com.insightpulse.collector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.insightpulse.collector.rollup.Rollups;
+import com.insightpulse.metrics.Histogram;
+import com.insightpulse.metrics.HistogramLayout;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class QueryServerTest {
+
+  private static final long T0 = 1_699_999_200_000L;
+
+  @Test
+  void shouldAnswerPercentileQueries() throws Exception {
+    Rollups rollups = new Rollups();
+    HistogramLayout layout = new HistogramLayout(2, TimeUnit.SECONDS.toNanos(10));
+    Histogram interval = new Histogram(layout);
+    interval.recordCount(2_000_000L, 99);
+    interval.recordCount(500_000_000L, 1);
+    rollups.add("endpoint", "GET /api/vets", T0, interval);
+    rollups.add("endpoint", "GET /api/vets", T0 + TimeUnit.HOURS.toMillis(1), interval);
+
+    QueryServer server = new QueryServer(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), rollups);
+    long median = layout.highestEquivalentValue(layout.indexOf(2_000_000L));
+    server.start();
+    try {
+      String base = "http://127.0.0.1:" + server.port();
+      String json = get(base + "/api/percentiles?metric=endpoint&name=GET%20/api/vets"
+          + "&p=50&resolution=1h&range=1d&to=" + (T0 + TimeUnit.HOURS.toMillis(23)));
+      assertTrue(json.contains("\"points\":[[" + T0 + "," + median + "],["), json);
+      assertTrue(json.contains("\"count\":200,\"value\":" + median + "}"), json);
+      assertEquals("[\"endpoint|GET /api/vets\"]", get(base + "/api/timers"));
+      HttpURLConnection missing = (HttpURLConnection) new URL(base + "/api/percentiles?metric=x")
+          .openConnection();
+      assertEquals(400, missing.getResponseCode());
+      for (String p : new String[]{"abc", "NaN", "Infinity", "-1", "100.5"}) {
+        HttpURLConnection invalid = (HttpURLConnection) new URL(base
+            + "/api/percentiles?metric=endpoint&name=x&p=" + p).openConnection();
+        assertEquals(400, invalid.getResponseCode());
+      }
+    } finally {
+      server.stop();
+    }
+  }
+
+  @Test
+  void shouldParseDurations() {
+    assertEquals(TimeUnit.DAYS.toMillis(7), QueryServer.parseDuration("7d"));
+    assertEquals(90_000L, QueryServer.parseDuration("90s"));
+    assertEquals(99.9, QueryServer.parsePercentile("99.9"), 0.0);
+    assertEquals("\"a\\\"b\\u000a\"", QueryServer.quote("a\"b\n"));
+  }
+
+  private static String get(String url) throws Exception {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    assertEquals(200, connection.getResponseCode());
+    try (InputStream in = connection.getInputStream()) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      for (int n; (n = in.read(buffer)) > 0; ) {
+        out.write(buffer, 0, n);
+      }
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+}
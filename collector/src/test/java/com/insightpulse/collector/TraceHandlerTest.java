@@ -0,0 +1,70 @@
+package com.insightpulse.collector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.insightpulse.collector.traces.TraceLog;
+import com.insightpulse.metrics.Histogram;
+import com.insightpulse.trace.SpanKind;
+import com.insightpulse.wire.WireHandler;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class TraceHandlerTest {
+
+  @Test
+  void shouldStoreCompleteTracesOnly() throws Exception {
+    try (TraceLog log = new TraceLog(Files.createTempDirectory("traces").toFile(), 1 << 20,
+        TimeUnit.DAYS.toMillis(1))) {
+      TraceHandler handler = new TraceHandler(log);
+      handler.onHello("petclinic-1", 1_700_000_000_000L, 5_000_000_000L);
+      handler.onSpan(SpanKind.SQL, "select * from vets", "GET /api/vets", 11L, 5_001_000_000L,
+          300_000L, 0L);
+      handler.onSpan(SpanKind.REQUEST, "GET /api/vets", "VetRestController.listVets", 11L,
+          5_000_900_000L, 900_000L, SpanKind.requestValue(200, 0, 800_000L));
+      // cut short by the next trace, e.g. by a reconnect
+      handler.onSpan(SpanKind.SQL, "select * from pets", "GET /api/pets", 12L, 0L, 1L, 0L);
+      handler.onSpan(SpanKind.REQUEST, "GET /api/owners", null, 13L, 5_002_000_000L,
+          100_000L, SpanKind.requestValue(404, SpanKind.REQUEST_ERROR, 0L));
+
+      assertEquals(2, log.size());
+      assertFalse(log.read(0L, 12L, new Names()));
+      Names names = new Names();
+      assertTrue(log.read(0L, 11L, names));
+      List<String> expected = new ArrayList<>();
+      expected.add("select * from vets");
+      expected.add("GET /api/vets");
+      assertEquals(expected, names.names);
+      assertEquals(5_000_000_000L, names.nanoTime);
+    }
+  }
+
+  private static final class Names implements WireHandler {
+
+    final List<String> names = new ArrayList<>();
+    long nanoTime;
+
+    @Override
+    public void onHello(String agent, long epochMillis, long nanoTime) {
+      this.nanoTime = nanoTime;
+    }
+
+    @Override
+    public void onSpan(int kind, String name, String ref, long traceId, long startNanos,
+        long durationNanos, long value) {
+      names.add(name);
+    }
+
+    @Override
+    public void onHistogram(String metric, String name, long epochMillis, Histogram histogram) {
+    }
+
+    @Override
+    public void onCounter(String metric, String name, long epochMillis, long value) {
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package com.insightpulse.collector.rollup;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.insightpulse.metrics.Histogram;
+import com.insightpulse.metrics.HistogramLayout;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class RollupsTest {
+
+  private static final long T0 = 1_699_999_200_000L; // on the hour
+  private static final HistogramLayout LAYOUT =
+      new HistogramLayout(2, TimeUnit.SECONDS.toNanos(10));
+
+  @Test
+  void shouldMergeAWeekOfIntervalsExactly() {
+    Rollups rollups = new Rollups(60, 60 * 24, 24 * 30);
+    Histogram exact = new Histogram(LAYOUT);
+    Random random = new Random(17);
+    long week = TimeUnit.DAYS.toMillis(7);
+    for (long millis = T0; millis < T0 + week; millis += TimeUnit.SECONDS.toMillis(10)) {
+      Histogram interval = new Histogram(LAYOUT);
+      for (int i = 0; i < 5; i++) {
+        interval.record(1_000_000L + (long) (Math.abs(random.nextGaussian()) * 5_000_000L));
+      }
+      exact.add(interval);
+      rollups.add("endpoint", "GET /api/vets", millis, interval);
+    }
+
+    Histogram merged = rollups.merge("endpoint", "GET /api/vets", T0, T0 + week,
+        Rollups.Resolution.HOUR);
+    assertEquals(exact.getTotalCount(), merged.getTotalCount());
+    assertEquals(exact.getSum(), merged.getSum());
+    for (double percentile : new double[]{50.0, 99.0, 99.9, 100.0}) {
+      assertEquals(exact.valueAtPercentile(percentile), merged.valueAtPercentile(percentile));
+    }
+    List<Long> hours = new ArrayList<>();
+    assertEquals(168, rollups.percentiles("endpoint", "GET /api/vets", T0, T0 + week,
+        Rollups.Resolution.HOUR, 99.0, (millis, value) -> hours.add(millis)));
+    assertEquals(T0, (long) hours.get(0));
+    assertEquals(T0 + week - TimeUnit.HOURS.toMillis(1), (long) hours.get(167));
+    assertNull(rollups.merge("endpoint", "GET /api/owners", T0, T0 + week,
+        Rollups.Resolution.HOUR));
+  }
+
+  @Test
+  void shouldForgetPeriodsThatLeftTheRing() {
+    Rollups rollups = new Rollups(10, 10, 10);
+    for (int second = 0; second < 30; second++) {
+      rollups.add("endpoint", "GET /", T0 + second * 1000L, interval(second + 1));
+    }
+    // a late interval for a period that has already been overwritten
+    rollups.add("endpoint", "GET /", T0, interval(1000));
+
+    assertEquals(10L, count(rollups, T0, T0 + 30_000L, Rollups.Resolution.SECOND));
+    assertEquals(31L, count(rollups, T0, T0 + 30_000L, Rollups.Resolution.MINUTE));
+  }
+
+  @Test
+  void shouldKeepRollupsAcrossRestarts() throws Exception {
+    File file = new File(Files.createTempDirectory("rollups").toFile(), "rollups.bin");
+    Rollups rollups = new Rollups();
+    rollups.add("endpoint", "GET /", T0, interval(1));
+    rollups.add("endpoint", "GET /", T0 + TimeUnit.MINUTES.toMillis(30), interval(2));
+    rollups.add("sql", "select 1", T0, interval(3));
+    rollups.save(file);
+
+    Rollups restored = new Rollups();
+    restored.load(file);
+    assertEquals(2, restored.timers().size());
+    for (Rollups.Resolution resolution : Rollups.Resolution.values()) {
+      assertEquals(2L, count(restored, T0, T0 + TimeUnit.DAYS.toMillis(1), resolution));
+    }
+    assertEquals(3L * 1_000_000L, restored.merge("sql", "select 1", T0, T0 + 1000L,
+        Rollups.Resolution.SECOND).getSum());
+  }
+
+  private static long count(Rollups rollups, long from, long to,
+      Rollups.Resolution resolution) {
+    return rollups.merge("endpoint", "GET /", from, to, resolution).getTotalCount();
+  }
+
+  private static Histogram interval(long millis) {
+    Histogram histogram = new Histogram(LAYOUT);
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+    return histogram;
+  }
+}
@@ -0,0 +1,50 @@
+package com.insightpulse.collector.traces;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class TraceIndexTest {
+
+  @Test
+  void shouldFindEveryIdAcrossResizes() {
+    TraceIndex index = new TraceIndex(16);
+    Random random = new Random(5);
+    int count = 200_000;
+    long[] high = new long[count];
+    long[] low = new long[count];
+    for (int i = 0; i < count; i++) {
+      // half of them 64-bit ids, as the agent sends
+      high[i] = i % 2 == 0 ? 0L : random.nextLong();
+      low[i] = random.nextLong() | 1L;
+      index.put(high[i], low[i], i);
+    }
+
+    assertEquals(count, index.size());
+    assertTrue(index.capacity() * 3L >= count * 4L);
+    for (int i = 0; i < count; i++) {
+      assertEquals(i, index.get(high[i], low[i]));
+    }
+    assertEquals(-1L, index.get(0L, 2L));
+    assertEquals(-1L, index.get(0L, 0L));
+  }
+
+  @Test
+  void shouldReplaceAndRetain() {
+    TraceIndex index = new TraceIndex(16);
+    for (long id = 1; id <= 100; id++) {
+      index.put(0L, id, id % 2 == 0 ? 1L << 32 : 2L << 32);
+    }
+    index.put(0L, 7L, 3L << 32);
+
+    index.retain(location -> location >>> 32 != 2L);
+    assertEquals(51, index.size());
+    assertEquals(3L << 32, index.get(0L, 7L));
+    assertEquals(-1L, index.get(0L, 9L));
+    assertEquals(1L << 32, index.get(0L, 8L));
+    assertThrows(IllegalArgumentException.class, () -> index.put(0L, 0L, 1L));
+  }
+}
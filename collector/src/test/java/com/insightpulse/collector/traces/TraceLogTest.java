@@ -0,0 +1,125 @@
+package com.insightpulse.collector.traces;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.insightpulse.metrics.Histogram;
+import com.insightpulse.trace.SpanKind;
+import com.insightpulse.wire.WireEncoder;
+import com.insightpulse.wire.WireHandler;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class TraceLogTest {
+
+  private static final long T0 = 1_700_000_000_000L;
+
+  @Test
+  void shouldLookUpTracesByIdAfterReopening() throws Exception {
+    File directory = Files.createTempDirectory("traces").toFile();
+    try (TraceLog log = new TraceLog(directory, 1 << 20, TimeUnit.DAYS.toMillis(3))) {
+      for (long id = 1; id <= 5000; id++) {
+        assertTrue(log.append(0L, id * 0x9E3779B97F4A7C15L, T0 + id, trace(id)));
+      }
+      // a W3C-style id with a high half
+      assertTrue(log.append(0x0af7651916cd43ddL, 0x8448eb211c80319cL, T0, trace(42)));
+      assertTrue(directory.listFiles().length > 1);
+    }
+
+    try (TraceLog log = new TraceLog(directory, 1 << 20, TimeUnit.DAYS.toMillis(3))) {
+      assertEquals(5001, log.size());
+      Spans spans = new Spans();
+      assertTrue(log.read(0L, 1234 * 0x9E3779B97F4A7C15L, spans));
+      assertEquals("petclinic-1", spans.agent);
+      assertEquals(3, spans.kinds.size());
+      assertEquals(SpanKind.REQUEST, (int) spans.kinds.get(2));
+      assertEquals("select * from owners where id=? /* 1234 */", spans.names.get(1));
+
+      spans = new Spans();
+      assertTrue(log.read("0af7651916cd43dd8448eb211c80319c", spans));
+      assertEquals("select * from owners where id=? /* 42 */", spans.names.get(1));
+      assertTrue(log.read(Long.toHexString(5000 * 0x9E3779B97F4A7C15L), new Spans()));
+      assertFalse(log.read(0L, 77L, new Spans()));
+    }
+  }
+
+  @Test
+  void shouldExpireOldSegmentsAndTheirIds() throws Exception {
+    File directory = Files.createTempDirectory("traces").toFile();
+    long day = TimeUnit.DAYS.toMillis(1);
+    try (TraceLog log = new TraceLog(directory, 1 << 20, 3 * day)) {
+      for (long id = 1; id <= 20_000; id++) {
+        // five days of traces
+        log.append(0L, id, T0 + id * 5 * day / 20_000, trace(id));
+      }
+      long before = log.storedBytes();
+
+      assertTrue(log.expire(T0 + 5 * day) > 0);
+      assertFalse(log.read(0L, 1L, new Spans()));
+      assertTrue(log.read(0L, 20_000L, new Spans()));
+      assertTrue(log.size() < 20_000 && log.size() > 8_000, "" + log.size());
+      assertTrue(log.storedBytes() < before);
+    }
+  }
+
+  @Test
+  void shouldRejectTracesLargerThanAQuarterSegment() throws Exception {
+    try (TraceLog log = new TraceLog(Files.createTempDirectory("traces").toFile(), 64 * 1024,
+        TimeUnit.DAYS.toMillis(1))) {
+      WireEncoder encoder = new WireEncoder();
+      encoder.writeHeader("petclinic-1", T0, 0L);
+      for (int i = 0; i < 2000; i++) {
+        encoder.writeSpan(SpanKind.SQL, "select " + i, null, 9L, i, 1L, 0L);
+      }
+
+      assertFalse(log.append(0L, 9L, T0, encoder.buffer()));
+      assertEquals(1, log.rejected());
+      assertEquals(0, log.size());
+    }
+  }
+
+  private static ByteBuffer trace(long id) {
+    WireEncoder encoder = new WireEncoder();
+    encoder.writeHeader("petclinic-1", T0, 0L);
+    encoder.writeSpan(SpanKind.METHOD, "ClinicService.findOwnerById", "GET /api/owners/{ownerId}",
+        id, 1_000L, 50_000L, 0L);
+    encoder.writeSpan(SpanKind.SQL, "select * from owners where id=? /* " + id + " */",
+        "GET /api/owners/{ownerId}", id, 2_000L, 30_000L, 0L);
+    encoder.writeSpan(SpanKind.REQUEST, "GET /api/owners/{ownerId}", "OwnerRestController.get",
+        id, 0L, 80_000L, SpanKind.requestValue(200, 0, 70_000L));
+    return encoder.buffer();
+  }
+
+  private static final class Spans implements WireHandler {
+
+    final List<Integer> kinds = new ArrayList<>();
+    final List<String> names = new ArrayList<>();
+    String agent;
+
+    @Override
+    public void onHello(String agent, long epochMillis, long nanoTime) {
+      this.agent = agent;
+    }
+
+    @Override
+    public void onSpan(int kind, String name, String ref, long traceId, long startNanos,
+        long durationNanos, long value) {
+      kinds.add(kind);
+      names.add(name);
+    }
+
+    @Override
+    public void onHistogram(String metric, String name, long epochMillis, Histogram histogram) {
+    }
+
+    @Override
+    public void onCounter(String metric, String name, long epochMillis, long value) {
+    }
+  }
+}
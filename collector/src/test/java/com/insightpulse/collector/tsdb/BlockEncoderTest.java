@@ -0,0 +1,55 @@
+package com.insightpulse.collector.tsdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class BlockEncoderTest {
+
+  @Test
+  void shouldRoundTripIrregularTimesAndAnyDouble() {
+    double[] values = {0.0, -0.0, 1.5, 1.5, Double.NaN, Double.MAX_VALUE, Double.MIN_VALUE,
+        Double.NEGATIVE_INFINITY, 12_345_678.0, -3.25, 12_345_679.0, 0.1, 0.1};
+    long[] times = new long[values.length];
+    Random random = new Random(7);
+    long millis = 1_700_000_000_000L;
+    for (int i = 0; i < times.length; i++) {
+      times[i] = millis;
+      // steady, jittered, far apart and backwards steps exercise every delta-of-delta width
+      millis += i % 4 == 0 ? 10_000L : i % 4 == 1 ? 10_000L + random.nextInt(300) - 150
+          : i % 4 == 2 ? 86_400_000L : -5_000L;
+    }
+    BlockEncoder encoder = new BlockEncoder(8);
+    for (int i = 0; i < values.length; i++) {
+      encoder.append(times[i], values[i]);
+    }
+
+    BlockCursor cursor = new BlockCursor();
+    cursor.reset(encoder.bits().view(), 0, encoder.count());
+    for (int i = 0; i < values.length; i++) {
+      assertTrue(cursor.next());
+      assertEquals(times[i], cursor.epochMillis(), "time " + i);
+      assertEquals(Double.doubleToRawLongBits(values[i]),
+          Double.doubleToRawLongBits(cursor.value()), "value " + i);
+    }
+    assertFalse(cursor.next());
+  }
+
+  @Test
+  void shouldStoreSteadySeriesInFewBitsPerPoint() {
+    BlockEncoder encoder = new BlockEncoder(64);
+    long millis = 1_700_000_000_000L;
+    int points = 360;
+    for (int i = 0; i < points; i++) {
+      // a request count that mostly repeats, reported every 10 seconds
+      encoder.append(millis + i * 10_000L, i % 10 == 0 ? 42.0 : 40.0);
+    }
+
+    // 16 bytes for the first point, then about 2 bits for the time and value of the others
+    assertTrue(encoder.bits().byteLength() < 16 + points * 4 / 8,
+        encoder.bits().byteLength() + " bytes");
+  }
+}
@@ -0,0 +1,124 @@
+package com.insightpulse.collector.tsdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.insightpulse.metrics.HistogramLayout;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class MetricStoreTest {
+
+  private static final long T0 = 1_700_000_000_000L;
+  private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+  private static final long WEEK = TimeUnit.DAYS.toMillis(7);
+
+  @Test
+  void shouldReadBackSealedAndOpenBlocksAfterReopening() throws Exception {
+    File directory = Files.createTempDirectory("metrics").toFile();
+    try (MetricStore store = store(directory, 1 << 20)) {
+      for (int i = 0; i < 1000; i++) {
+        // jitter within the resolution is truncated away
+        store.append("endpoint.count|GET /api/vets|a", T0 + i * 10_000L + i % 7, i);
+        store.append("endpoint.count|GET /api/owners|a", T0 + i * 10_000L, 2 * i);
+      }
+      List<Long> times = new ArrayList<>();
+      List<Double> values = new ArrayList<>();
+      // two hours and a half: two sealed blocks and the open one
+      assertEquals(1000, store.scan("endpoint.count|GET /api/vets|a", 0L, Long.MAX_VALUE,
+          (millis, value) -> {
+            times.add(millis);
+            values.add(value);
+          }));
+      assertEquals(T0 + 999 * 10_000L, (long) times.get(999));
+      assertEquals(999.0, values.get(999), 0.0);
+    }
+
+    try (MetricStore store = store(directory, 1 << 20)) {
+      List<Double> values = new ArrayList<>();
+      assertEquals(60, store.scan("endpoint.count|GET /api/owners|a", T0 + HOUR,
+          T0 + HOUR + 600_000L, (millis, value) -> values.add(value)));
+      assertEquals(720.0, values.get(0), 0.0);
+      assertEquals(2, store.series().size());
+      assertEquals(0, store.scan("unknown", 0L, Long.MAX_VALUE, (millis, value) -> { }));
+    }
+  }
+
+  @Test
+  void shouldDeleteSegmentsPastRetention() throws Exception {
+    File directory = Files.createTempDirectory("metrics").toFile();
+    try (MetricStore store = store(directory, 128 * 1024)) {
+      Random random = new Random(3);
+      // noisy values fill segments quickly
+      for (long millis = T0; millis < T0 + 3 * WEEK; millis += 10_000L) {
+        store.append("sql.mean|select ?|a", millis, random.nextDouble());
+      }
+      int segments = directory.listFiles((dir, name) -> name.endsWith(".seg")).length;
+      assertTrue(segments > 10, segments + " segments");
+
+      assertTrue(store.expire(T0 + 3 * WEEK) > 0);
+      long[] oldest = {Long.MAX_VALUE};
+      store.scan("sql.mean|select ?|a", 0L, Long.MAX_VALUE,
+          (millis, value) -> oldest[0] = Math.min(oldest[0], millis));
+      assertTrue(oldest[0] >= T0 + 2 * WEEK - HOUR - TimeUnit.DAYS.toMillis(1), "" + oldest[0]);
+      assertTrue(directory.listFiles((dir, name) -> name.endsWith(".seg")).length < segments);
+      assertFalse(new File(directory, "metrics-0000000000000000.seg").exists());
+    }
+  }
+
+  @Test
+  void shouldKeepAWeekOfPetclinicMetricsInTensOfMegabytes() throws Exception {
+    File directory = Files.createTempDirectory("metrics").toFile();
+    HistogramLayout layout = new HistogramLayout(2, TimeUnit.MINUTES.toNanos(1));
+    String[] fields = {"count", "mean", "p50", "p99", "max"};
+    // petclinic's REST routes and the statements behind them
+    int metrics = 40;
+    String[][] keys = new String[metrics][fields.length];
+    for (int m = 0; m < metrics; m++) {
+      for (int f = 0; f < fields.length; f++) {
+        keys[m][f] = (m < 20 ? "endpoint." : "sql.") + fields[f] + "|metric-" + m + "|a";
+      }
+    }
+    Random random = new Random(11);
+    try (MetricStore store = store(directory, MetricStore.DEFAULT_SEGMENT_BYTES)) {
+      for (long millis = T0; millis < T0 + WEEK; millis += 10_000L) {
+        for (int m = 0; m < metrics; m++) {
+          double typical = 2_000_000.0 * (1 + m % 5);
+          double noise = random.nextDouble();
+          store.append(keys[m][0], millis, 40 + random.nextInt(20));
+          store.append(keys[m][1], millis, Math.round(typical * (1 + random.nextGaussian() / 10)));
+          store.append(keys[m][2], millis, bucket(layout, typical * (1 + noise / 5)));
+          store.append(keys[m][3], millis, bucket(layout, typical * (2 + noise)));
+          store.append(keys[m][4], millis, bucket(layout, typical * (3 + noise * 4)));
+        }
+      }
+      store.flush();
+      long bytes = store.storedBytes();
+      assertTrue(bytes < 40L << 20, (bytes >> 20) + "MB");
+
+      double[] max = new double[1];
+      long started = System.nanoTime();
+      int points = store.scan(keys[7][3], T0, T0 + WEEK,
+          (millis, value) -> max[0] = Math.max(max[0], value));
+      long elapsed = System.nanoTime() - started;
+      assertEquals(WEEK / 10_000L, points);
+      assertTrue(max[0] > 0.0);
+      assertTrue(elapsed < TimeUnit.SECONDS.toNanos(1), elapsed / 1_000_000 + "ms");
+    }
+  }
+
+  private static double bucket(HistogramLayout layout, double nanos) {
+    return layout.highestEquivalentValue(layout.indexOf((long) nanos));
+  }
+
+  private static MetricStore store(File directory, int segmentBytes) throws Exception {
+    return new MetricStore(directory, MetricStore.DEFAULT_RESOLUTION_MILLIS,
+        MetricStore.DEFAULT_BLOCK_MILLIS, WEEK, segmentBytes);
+  }
+}